@@ -1,84 +1,295 @@
 package org.redisson;
 
+import io.netty.buffer.ByteBuf;
 import org.redisson.api.RFuture;
+import org.redisson.client.RedisNoScriptException;
 import org.redisson.client.codec.LongCodec;
+import org.redisson.client.codec.StringCodec;
+import org.redisson.client.protocol.RedisCommand;
 import org.redisson.client.protocol.RedisCommands;
+import org.redisson.client.protocol.decoder.ObjectListReplayDecoder;
 import org.redisson.command.CommandAsyncExecutor;
 import org.redisson.misc.CompletableFutureWrapper;
+import org.redisson.misc.Hash;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CompletionStage;
 
 /**
  * Extended Bloom Filter that supports conditional insert-after-check operations.
- * 
+ * <p/>Objects are checked and inserted in bulk by a single script, called by its SHA1 digest and loaded on the node
+ * of the filter only when that node does not know it yet. The config of the filter is read once and kept.
+ * <p/>Objects can also be given by a 128-bit hash computed beforehand, mapped to bits the way Redisson maps the hash
+ * of an encoded object, so that callers holding such a hash neither build nor encode the object.
+ *
  * @author chenji
  * @since 1.0.0
  */
 public class ExtBloomFilter<T> extends RedissonBloomFilter<T> {
+    /**
+     * Sets the bits of each object in the bitmap KEYS[2], returns for each object whether all its bits were set already
+     * there or in one of the older bitmaps KEYS[3..], or an empty list if the config of the filter is not the one given.
+     * A bitmap without expiration gets the one given if any.
+     */
+    private static final String CONTAINS_EACH = """
+            local size = redis.call('hget', KEYS[1], 'size')
+            local hashIterations = redis.call('hget', KEYS[1], 'hashIterations')
+            if size ~= ARGV[1] or hashIterations ~= ARGV[2] then
+              return {}
+            end
+
+            local k = tonumber(ARGV[2])
+            local results = {}
+            for j = 0, (#ARGV - 3) / k - 1, 1 do
+              local first = 4 + j * k
+              local last = first + k - 1
+              local contained = 1
+              for i = first, last, 1 do
+                if redis.call('setbit', KEYS[2], ARGV[i], 1) == 0 then
+                  contained = 0
+                end
+              end
+              local g = 3
+              while contained == 0 and g <= #KEYS do
+                contained = 1
+                for i = first, last, 1 do
+                  if redis.call('getbit', KEYS[g], ARGV[i]) == 0 then
+                    contained = 0
+                    break
+                  end
+                end
+                g = g + 1
+              end
+              results[j + 1] = contained
+            end
+            if ARGV[3] ~= '0' and redis.call('pttl', KEYS[2]) == -1 then
+              redis.call('pexpireat', KEYS[2], ARGV[3])
+            end
+            return results""";
+    private static final String CONTAINS_EACH_SHA = sha1(CONTAINS_EACH);
+    private static final RedisCommand<List<Object>> EVALSHA_LIST = new RedisCommand<>("EVALSHA", new ObjectListReplayDecoder<>());
+    /**
+     * Objects checked by one script call at most, larger batches are split to keep each call short
+     */
+    private static final int MAX_OBJECTS_PER_CALL = 1000;
 
     public ExtBloomFilter(CommandAsyncExecutor commandExecutor, String name) {
         super(commandExecutor, name);
     }
 
+    @Override
+    public RFuture<Boolean> tryInitAsync(long expectedInsertions, double falseProbability) {
+        // The config computed locally is kept if the filter is initialized here, the stored one is read otherwise
+        CompletionStage<Boolean> f = super.tryInitAsync(expectedInsertions, falseProbability)
+                .thenCompose(r -> r ? CompletableFuture.completedFuture(true) : readConfigAsync().thenApply(v -> false));
+        return new CompletableFutureWrapper<>(f);
+    }
+
     // Override containsAsync method to support directly inserting the checked value into the bloom filter
     // after checking, which avoids calling the put method again
     @Override
     public RFuture<Long> containsAsync(Collection<T> objects) {
-        CompletionStage<Long> f = CompletableFuture.completedFuture(null);
-        if (size == 0) {
-            f = readConfigAsync().handle((r, e) -> {
-                if (e instanceof IllegalArgumentException) {
-                    return 0L;
+        CompletionStage<Long> f = containsEachAsync(new ArrayList<>(objects)).thenApply(contained -> {
+            long count = 0;
+            for (Boolean c : contained) {
+                if (c) {
+                    count++;
                 }
-                return null;
-            });
+            }
+            return count;
+        });
+        return new CompletableFutureWrapper<>(f);
+    }
+
+    /**
+     * Checks each object and inserts the ones not contained yet
+     *
+     * @param objects objects to check
+     * @return for each object in order, whether it was contained before the check
+     * @see #containsEachAsync(List)
+     */
+    public List<Boolean> containsEach(List<T> objects) {
+        return commandExecutor.get(containsEachAsync(objects));
+    }
+
+    /**
+     * Checks each object and inserts the ones not contained yet, with one script call per {@value #MAX_OBJECTS_PER_CALL} objects.
+     * A filter that is not initialized contains nothing and is left as is.
+     *
+     * @param objects objects to check
+     * @return for each object in order, whether it was contained before the check
+     */
+    public RFuture<List<Boolean>> containsEachAsync(List<T> objects) {
+        return containsEachAsync(objects, Collections.emptyList(), 0);
+    }
+
+    /**
+     * Checks each object against this filter and older generations of it, and inserts the objects into this filter.
+     * The generations share the config of this filter and its hash slot.
+     *
+     * @param objects     objects to check
+     * @param older       names of the older generations, those that do not exist contain nothing
+     * @param expireAtMs  time in epoch milliseconds the bitmap of this filter expires at if it has no expiration yet, 0 for none
+     * @return for each object in order, whether it was contained in any of the generations before the check
+     */
+    public RFuture<List<Boolean>> containsEachAsync(List<T> objects, List<String> older, long expireAtMs) {
+        long[] hashes = new long[objects.size() * 2];
+        for (int i = 0; i < objects.size(); i++) {
+            hash(objects.get(i), hashes, i * 2);
         }
+        return containsEachHashedAsync(hashes, older, expireAtMs);
+    }
 
-        f = f.thenCompose(r -> {
-            if (r != null) {
-                return CompletableFuture.completedFuture(r);
+    /**
+     * Checks each object given by its 128-bit hash against this filter and older generations of it, and inserts
+     * the objects into this filter, see {@link #containsEachAsync(List, List, long)}
+     *
+     * @param hashes     hashes of the objects, two longs per object as written by {@link #hash(Object, long[], int)}
+     * @param older      names of the older generations, those that do not exist contain nothing
+     * @param expireAtMs time in epoch milliseconds the bitmap of this filter expires at if it has no expiration yet, 0 for none
+     * @return for each object in order, whether it was contained in any of the generations before the check
+     */
+    public RFuture<List<Boolean>> containsEachHashedAsync(long[] hashes, List<String> older, long expireAtMs) {
+        int count = hashes.length / 2;
+        if (count == 0) {
+            return new CompletableFutureWrapper<>(new ArrayList<>());
+        }
+        CompletionStage<Boolean> initialized = size == 0 ? readConfig() : CompletableFuture.completedFuture(true);
+        CompletionStage<List<Boolean>> f = initialized.thenCompose(r -> {
+            if (!r) {
+                return CompletableFuture.completedFuture(notContained(count));
             }
-            List<Long> allIndexes = index(objects);
-
-            List<Object> params = new ArrayList<>();
-            params.add(size);
-            params.add(hashIterations);
-            params.add(objects.size());
-            params.addAll(allIndexes);
-
-            return commandExecutor.evalWriteAsync(getRawName(), LongCodec.INSTANCE, RedisCommands.EVAL_LONG,
-                    """
-                            local size = redis.call('hget', KEYS[1], 'size')
-                            local hashIterations = redis.call('hget', KEYS[1], 'hashIterations')
-                            if size ~= ARGV[1] or hashIterations ~= ARGV[2] then
-                              return 0
-                            end
-                            
-                            local k = 0
-                            local c = 0
-                            local cc = (#ARGV - 3) / ARGV[3]
-                            for i = 4, #ARGV, 1 do
-                              local r = redis.call('getbit', KEYS[2], ARGV[i]);
-                              if r == 0 then
-                                k = k + 1
-                                redis.call('setbit', KEYS[2], ARGV[i], 1)
-                              end
-                              if ((i - 4) + 1) % cc == 0 then
-                                if k > 0 then
-                                  c = c + 1
-                                end
-                                k = 0
-                              end
-                            end
-                            return ARGV[3] - c;""",
-                    Arrays.asList(configName, getRawName()),
-                    params.toArray());
+            return containsEach(hashes, older, expireAtMs, true);
         });
         return new CompletableFutureWrapper<>(f);
     }
+
+    /**
+     * Writes the 128-bit hash this filter computes for an object, the one {@link #contains(Object)} maps to bits
+     *
+     * @param object object
+     * @param hashes array the hash is written to
+     * @param offset index of the first half of the hash, the second one follows it
+     */
+    public void hash(T object, long[] hashes, int offset) {
+        ByteBuf state = encode(object);
+        try {
+            long[] hash = Hash.hash128(state);
+            hashes[offset] = hash[0];
+            hashes[offset + 1] = hash[1];
+        } finally {
+            state.release();
+        }
+    }
+
+    private CompletionStage<List<Boolean>> containsEach(long[] hashes, List<String> older, long expireAtMs, boolean refreshable) {
+        long size = this.size;
+        int hashIterations = this.hashIterations;
+        int count = hashes.length / 2;
+        List<CompletableFuture<List<Object>>> calls = new ArrayList<>();
+        for (int from = 0; from < count; from += MAX_OBJECTS_PER_CALL) {
+            int to = Math.min(from + MAX_OBJECTS_PER_CALL, count);
+            List<Object> args = new ArrayList<>((to - from) * hashIterations + older.size() + 7);
+            args.add(CONTAINS_EACH_SHA);
+            args.add(2 + older.size());
+            args.add(configName);
+            args.add(getRawName());
+            args.addAll(older);
+            args.add(size);
+            args.add(hashIterations);
+            args.add(expireAtMs);
+            for (int i = from; i < to; i++) {
+                addIndexes(args, hashes[i * 2], hashes[i * 2 + 1], hashIterations, size);
+            }
+            calls.add(evalSha(args).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).thenCompose(v -> {
+            List<Boolean> results = new ArrayList<>(count);
+            for (CompletableFuture<List<Object>> call : calls) {
+                List<Object> contained = call.join();
+                if (contained.isEmpty()) {
+                    // The filter was initialized again, or has expired, since its config was read
+                    if (!refreshable) {
+                        throw new IllegalStateException("Bloom filter config has been changed");
+                    }
+                    return readConfig().thenCompose(r -> r ? containsEach(hashes, older, expireAtMs, false)
+                            : CompletableFuture.completedFuture(notContained(count)));
+                }
+                for (Object c : contained) {
+                    results.add(((Long) c) == 1L);
+                }
+            }
+            return CompletableFuture.completedFuture(results);
+        });
+    }
+
+    /**
+     * Adds the bits of a hash, computed like {@link RedissonBloomFilter} does so that both find the same objects
+     */
+    private static void addIndexes(List<Object> args, long hash1, long hash2, int hashIterations, long size) {
+        long hash = hash1;
+        for (int i = 0; i < hashIterations; i++) {
+            args.add((hash & Long.MAX_VALUE) % size);
+            hash += i % 2 == 0 ? hash2 : hash1;
+        }
+    }
+
+    /**
+     * Calls the script by its digest, loading it first if the node of the filter does not know it
+     */
+    private CompletionStage<List<Object>> evalSha(List<Object> args) {
+        Object[] params = args.toArray();
+        RFuture<List<Object>> call = commandExecutor.writeAsync(getRawName(), LongCodec.INSTANCE, EVALSHA_LIST, params);
+        return call.exceptionallyCompose(e -> {
+            if (!(unwrap(e) instanceof RedisNoScriptException)) {
+                return CompletableFuture.failedFuture(e);
+            }
+            RFuture<String> load = commandExecutor.writeAsync(getRawName(), StringCodec.INSTANCE, RedisCommands.SCRIPT_LOAD, CONTAINS_EACH);
+            return load.thenCompose(sha -> commandExecutor.<List<Object>, List<Object>>writeAsync(getRawName(), LongCodec.INSTANCE, EVALSHA_LIST, params));
+        });
+    }
+
+    /**
+     * @return whether the filter is initialized, its config is read if so
+     */
+    private CompletionStage<Boolean> readConfig() {
+        return readConfigAsync().handle((r, e) -> {
+            if (e == null) {
+                return true;
+            }
+            if (unwrap(e) instanceof IllegalStateException || unwrap(e) instanceof IllegalArgumentException) {
+                // Not initialized
+                return false;
+            }
+            throw e instanceof CompletionException ce ? ce : new CompletionException(e);
+        });
+    }
+
+    private static List<Boolean> notContained(int size) {
+        return new ArrayList<>(Collections.nCopies(size, false));
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e;
+    }
+
+    private static String sha1(String script) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }
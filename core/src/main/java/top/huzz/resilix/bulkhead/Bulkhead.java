@@ -0,0 +1,251 @@
+package top.huzz.resilix.bulkhead;
+
+import jakarta.annotation.Nonnull;
+import lombok.Getter;
+import top.huzz.resilix.core.Phase;
+import top.huzz.resilix.exception.BulkheadFullException;
+
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bulkhead of a phase, created from its {@link BulkheadConfig} when the execution plan is compiled.
+ * <p/>Synchronous executions use {@link #tryAcquire()} and {@link #release()}, asynchronous ones are handed to
+ * {@link #submit(Executor, Task)} and only reach their executor once they hold a permit, so a slow phase can
+ * neither take every thread of a shared executor nor every connection of a downstream pool.
+ * Both share the same permits. Rejections and wait times are counted for monitoring.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public final class Bulkhead {
+    @Getter
+    private final Phase phase;
+    @Getter
+    private final BulkheadConfig config;
+    private final long maxWaitNanos;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<Entry> queue = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder waitedCalls = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public Bulkhead(@Nonnull Phase phase, @Nonnull BulkheadConfig config) {
+        this.phase = phase;
+        this.config = config;
+        this.maxWaitNanos = config.getMaxWait().toNanos();
+        this.permits = new Semaphore(config.getMaxConcurrent());
+    }
+
+    /**
+     * @return number of executions rejected so far
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * @return number of executions that had to wait for a permit, in the queue or on the semaphore
+     */
+    public long getWaitedCalls() {
+        return waitedCalls.sum();
+    }
+
+    /**
+     * @return total time in nanoseconds executions waited for a permit, in the queue or on the semaphore
+     */
+    public long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    /**
+     * @return number of permits currently available
+     */
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * @return number of asynchronous executions currently queued
+     */
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    /**
+     * Takes a permit for a synchronous execution, waiting for it up to {@link BulkheadConfig#getMaxWait()}.
+     * A successful call must be followed by {@link #release()}.
+     *
+     * @return whether a permit was obtained
+     */
+    public boolean tryAcquire() {
+        if (acquire()) {
+            return true;
+        }
+        rejections.increment();
+        return false;
+    }
+
+    /**
+     * Gives a permit back and hands it to the next queued execution, if any
+     */
+    public void release() {
+        permits.release();
+        drain();
+    }
+
+    /**
+     * Runs an asynchronous execution on the executor once it holds a permit, which is released when
+     * {@link Task#run()} returns. Until then the execution waits in the queue without occupying a thread.
+     *
+     * @param executor executor to run the execution on
+     * @param task     execution
+     */
+    public void submit(@Nonnull Executor executor, @Nonnull Task task) {
+        if (permits.tryAcquire()) {
+            start(executor, task);
+            return;
+        }
+        if (enqueue(executor, task)) {
+            // A permit may have been released meanwhile
+            drain();
+            return;
+        }
+        switch (config.getOverflowPolicy()) {
+            case DISCARD_OLDEST:
+                Entry oldest = poll();
+                if (oldest != null) {
+                    reject(oldest.task);
+                    if (enqueue(executor, task)) {
+                        drain();
+                        return;
+                    }
+                }
+                reject(task);
+                break;
+            case CALLER_RUNS:
+                if (acquire()) {
+                    try {
+                        task.run();
+                    } finally {
+                        release();
+                    }
+                } else {
+                    reject(task);
+                }
+                break;
+            default:
+                reject(task);
+        }
+    }
+
+    private boolean acquire() {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (maxWaitNanos <= 0) {
+            return false;
+        }
+        long start = System.nanoTime();
+        try {
+            if (permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                waited(System.nanoTime() - start);
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void start(Executor executor, Task task) {
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            release();
+            task.reject(e);
+        }
+    }
+
+    private void reject(Task task) {
+        rejections.increment();
+        task.reject(new BulkheadFullException(phase));
+    }
+
+    private void waited(long nanos) {
+        waitedCalls.increment();
+        waitNanos.add(nanos);
+    }
+
+    private boolean enqueue(Executor executor, Task task) {
+        if (queued.incrementAndGet() > config.getQueueCapacity()) {
+            queued.decrementAndGet();
+            return false;
+        }
+        queue.offerLast(new Entry(executor, task, System.nanoTime()));
+        return true;
+    }
+
+    private Entry poll() {
+        Entry entry = queue.pollFirst();
+        if (entry != null) {
+            queued.decrementAndGet();
+        }
+        return entry;
+    }
+
+    private void drain() {
+        while (!queue.isEmpty() && permits.tryAcquire()) {
+            Entry entry = poll();
+            if (entry == null) {
+                permits.release();
+                continue;
+            }
+            waited(System.nanoTime() - entry.enqueuedAt);
+            start(entry.executor, entry.task);
+        }
+    }
+
+    private static final class Entry {
+        private final Executor executor;
+        private final Task task;
+        private final long enqueuedAt;
+
+        private Entry(Executor executor, Task task, long enqueuedAt) {
+            this.executor = executor;
+            this.task = task;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+
+    /**
+     * Asynchronous execution guarded by a bulkhead
+     */
+    public interface Task {
+        /**
+         * Runs the execution while holding a permit, on the executor or, with {@link OverflowPolicy#CALLER_RUNS},
+         * on the submitting thread
+         */
+        void run();
+
+        /**
+         * The execution will not run, because the bulkhead is full ({@link BulkheadFullException})
+         * or the executor rejected it ({@link RejectedExecutionException})
+         *
+         * @param e reason of the rejection
+         */
+        void reject(RuntimeException e);
+    }
+}
@@ -0,0 +1,74 @@
+package top.huzz.resilix.bulkhead;
+
+import jakarta.annotation.Nonnull;
+import lombok.Getter;
+import top.huzz.resilix.core.Phase;
+
+import java.time.Duration;
+import java.util.Objects;
+
+/**
+ * Bulkhead configuration of a phase, declared by {@link Phase#bulkhead()}.
+ * <p/>At most {@link #getMaxConcurrent()} executions of the phase run at the same time. Synchronous executions
+ * take a permit from a semaphore, waiting for it up to {@link #getMaxWait()}. Asynchronous executions wait for
+ * a permit in a bounded queue without occupying a thread, and the {@link #getOverflowPolicy()} decides what
+ * happens once the queue is full.
+ * <pre>
+ * BulkheadConfig.of(8)
+ *         .withMaxWait(Duration.ofMillis(100))
+ *         .withQueue(32, OverflowPolicy.DISCARD_OLDEST);
+ * </pre>
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Getter
+public final class BulkheadConfig {
+    static final int DEFAULT_QUEUE_CAPACITY = 100;
+
+    /**
+     * Maximum number of concurrent executions
+     */
+    private final int maxConcurrent;
+    /**
+     * How long a synchronous execution waits for a permit
+     */
+    private final Duration maxWait;
+    /**
+     * Maximum number of asynchronous executions waiting for a permit
+     */
+    private final int queueCapacity;
+    /**
+     * What happens to an asynchronous execution when the queue is full
+     */
+    private final OverflowPolicy overflowPolicy;
+
+    private BulkheadConfig(int maxConcurrent, Duration maxWait, int queueCapacity, OverflowPolicy overflowPolicy) {
+        if (maxConcurrent < 1 || queueCapacity < 0 || maxWait.isNegative()) {
+            throw new IllegalArgumentException("Invalid bulkhead, maxConcurrent: " + maxConcurrent + ", queueCapacity: " + queueCapacity + ", maxWait: " + maxWait);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxWait = maxWait;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+    }
+
+    /**
+     * Create a bulkhead configuration where synchronous executions do not wait for a permit and up to
+     * 100 asynchronous executions are queued, rejecting the others
+     *
+     * @param maxConcurrent maximum number of concurrent executions
+     * @return bulkhead configuration
+     */
+    public static BulkheadConfig of(int maxConcurrent) {
+        return new BulkheadConfig(maxConcurrent, Duration.ZERO, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.REJECT);
+    }
+
+    public BulkheadConfig withMaxWait(@Nonnull Duration maxWait) {
+        return new BulkheadConfig(maxConcurrent, maxWait, queueCapacity, overflowPolicy);
+    }
+
+    public BulkheadConfig withQueue(int queueCapacity, @Nonnull OverflowPolicy overflowPolicy) {
+        return new BulkheadConfig(maxConcurrent, maxWait, queueCapacity, overflowPolicy);
+    }
+}
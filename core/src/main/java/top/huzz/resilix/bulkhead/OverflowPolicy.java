@@ -0,0 +1,26 @@
+package top.huzz.resilix.bulkhead;
+
+import top.huzz.resilix.exception.BulkheadFullException;
+
+/**
+ * What a bulkhead does with an asynchronous execution when all permits are taken and its queue is full
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public enum OverflowPolicy {
+    /**
+     * The new execution fails with {@link BulkheadFullException}
+     */
+    REJECT,
+    /**
+     * The oldest queued execution fails with {@link BulkheadFullException} and the new one is queued
+     */
+    DISCARD_OLDEST,
+    /**
+     * The new execution runs on the submitting thread once it gets a permit, waiting for it up to
+     * {@link BulkheadConfig#getMaxWait()}, which slows the submitter down. It fails with
+     * {@link BulkheadFullException} if no permit could be obtained.
+     */
+    CALLER_RUNS
+}
@@ -2,6 +2,8 @@ package top.huzz.resilix.callback;
 
 
 import jakarta.annotation.Nullable;
+import top.huzz.resilix.circuitbreaker.CircuitBreaker;
+import top.huzz.resilix.circuitbreaker.CircuitBreakerState;
 import top.huzz.resilix.core.RunContext;
 
 /**
@@ -18,4 +20,15 @@ public interface PhaseCallback {
      * @param extra   additional information
      */
     void callback(RunContext context, @Nullable Object extra);
+
+    /**
+     * Circuit breaker state change callback, e.g. to alert when the circuit of a phase opens
+     *
+     * @param context run context whose phase caused the change
+     * @param breaker circuit breaker of the phase
+     * @param from    previous state
+     * @param to      new state
+     */
+    default void circuitStateChanged(RunContext context, CircuitBreaker breaker, CircuitBreakerState from, CircuitBreakerState to) {
+    }
 }
@@ -0,0 +1,56 @@
+package top.huzz.resilix.checkpoint;
+
+import jakarta.annotation.Nonnull;
+import lombok.Getter;
+import top.huzz.resilix.codec.PhaseRegistry;
+import top.huzz.resilix.codec.RunContextCodec;
+import top.huzz.resilix.core.Phase;
+import top.huzz.resilix.core.RunContext;
+
+/**
+ * Checkpoint of a run: the context as it was after its last completed phase, and the phase to resume from.
+ * <p/>The phase is kept as the name of its class and its {@link Phase#ordinal()}, the manager of that phase class
+ * resolves it when resuming. The context is encoded by the {@link RunContextCodec#getDefault() default codec}.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Getter
+public final class Checkpoint {
+    private final String runId;
+    private final String phaseClass;
+    private final int phaseOrdinal;
+    private final String contextClass;
+    private final byte[] data;
+
+    public Checkpoint(@Nonnull String runId, @Nonnull String phaseClass, int phaseOrdinal, @Nonnull String contextClass, @Nonnull byte[] data) {
+        this.runId = runId;
+        this.phaseClass = phaseClass;
+        this.phaseOrdinal = phaseOrdinal;
+        this.contextClass = contextClass;
+        this.data = data;
+    }
+
+    /**
+     * @param context    context after its last completed phase, its run id must be set
+     * @param resumeFrom phase to resume the run from
+     * @return checkpoint of the run
+     */
+    public static Checkpoint of(@Nonnull RunContext context, @Nonnull Phase resumeFrom) {
+        return new Checkpoint(context.getRunId(), PhaseRegistry.phaseClassOf(resumeFrom).getName(), resumeFrom.ordinal(),
+                context.getClass().getName(), RunContextCodec.getDefault().encode(context));
+    }
+
+    /**
+     * Restores the context, the manager resets its current phase to the phase to resume from
+     *
+     * @param cxtClass context class
+     * @param <C>      context type
+     * @return restored context
+     */
+    public <C extends RunContext> C restore(@Nonnull Class<C> cxtClass) {
+        C context = RunContextCodec.getDefault().decode(data, cxtClass);
+        context.setRunId(runId);
+        return context;
+    }
+}
@@ -0,0 +1,45 @@
+package top.huzz.resilix.checkpoint;
+
+import jakarta.annotation.Nonnull;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Checkpoint store, persists the context of every run after each successful phase so that the runs left
+ * unfinished by a crash can be resumed from their last completed phase.
+ * <p/>Phases may run again after a crash: the phase that was running, and those whose checkpoint was not durable yet.
+ * Handlers of checkpointed runs should therefore be idempotent.
+ *
+ * @author chenji
+ * @see top.huzz.resilix.core.RunHandlerManager#resumeUnfinished()
+ * @since 1.0.2
+ */
+public interface CheckpointStore extends Closeable {
+    /**
+     * Saves the checkpoint of a run, replacing its previous one
+     *
+     * @param checkpoint checkpoint
+     * @return future completed once the checkpoint is durable
+     */
+    CompletableFuture<Void> save(@Nonnull Checkpoint checkpoint);
+
+    /**
+     * Marks a run as finished, it will not be resumed
+     *
+     * @param runId run id
+     * @return future completed once the mark is durable
+     */
+    CompletableFuture<Void> complete(@Nonnull String runId);
+
+    /**
+     * Claims the runs of a phase class that were left unfinished when the store was opened,
+     * each run is returned only once
+     *
+     * @param phaseClass name of the phase class
+     * @return latest checkpoint of every unfinished run of the phase class
+     */
+    @Nonnull
+    List<Checkpoint> recover(@Nonnull String phaseClass);
+}
@@ -0,0 +1,459 @@
+package top.huzz.resilix.checkpoint;
+
+import jakarta.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Checkpoint store backed by a local append-only journal of memory-mapped segment files.
+ * <p/>Appending a record is a copy into the mapped segment under a short lock. A single writer thread group-commits:
+ * it forces every segment written since the previous flush in one go, then completes the futures of all the records
+ * appended meanwhile, so the cost of a flush is shared by every run checkpointing at the same time.
+ * <p/>Full segments are sealed and a new one is started. Sealed segments are periodically compacted into one segment
+ * holding only the latest checkpoint of every run still unfinished. When opened, the journal replays every segment,
+ * stopping at the first torn record of each, to find the runs to resume.
+ * <p/>Record layout: {@code length (int), crc32 (int), type (byte), runId (utf)}, followed for a checkpoint by
+ * {@code phaseClass (utf), phaseOrdinal (int), contextClass (utf), dataLength (int), data}.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Slf4j
+public class MappedCheckpointJournal implements CheckpointStore {
+    static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    static final Duration DEFAULT_COMPACT_INTERVAL = Duration.ofMinutes(1);
+
+    private static final String PREFIX = "checkpoint-";
+    private static final String SUFFIX = ".journal";
+    private static final int HEADER = 8;
+    private static final byte SAVE = 1;
+    private static final byte COMPLETE = 2;
+
+    protected final Path directory;
+    protected final int segmentSize;
+    protected final long compactIntervalNanos;
+
+    private final Object lock = new Object();
+    /**
+     * Segment being appended to
+     */
+    private Segment active;
+    /**
+     * Sealed segments not forced yet
+     */
+    private final List<Segment> unflushed = new ArrayList<>();
+    /**
+     * Sequences of the sealed and forced segments, oldest first
+     */
+    private final List<Long> sealed = new ArrayList<>();
+    /**
+     * Futures of the records appended since the last flush
+     */
+    private List<CompletableFuture<Void>> pending = new ArrayList<>();
+    private boolean closed;
+    private long compacted = -1;
+
+    /**
+     * Runs whose latest record is a checkpoint, the others are dropped by compaction
+     */
+    private final Set<String> liveRuns = ConcurrentHashMap.newKeySet();
+    /**
+     * Unfinished runs found when opening the journal, not claimed yet
+     */
+    private final Map<String, Checkpoint> recovered = new ConcurrentHashMap<>();
+    private final Thread writer;
+
+    /**
+     * Open the journal of a directory with 64MB segments compacted every minute, replaying its existing segments
+     *
+     * @param directory directory of the journal, created if missing
+     * @return checkpoint journal
+     * @throws IOException if the journal cannot be read or created
+     */
+    public static MappedCheckpointJournal open(@Nonnull Path directory) throws IOException {
+        return new MappedCheckpointJournal(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACT_INTERVAL);
+    }
+
+    /**
+     * Open the journal of a directory, replaying its existing segments
+     *
+     * @param directory       directory of the journal, created if missing
+     * @param segmentSize     size of a segment file, bounds the size of a checkpoint
+     * @param compactInterval how often sealed segments are compacted
+     * @return checkpoint journal
+     * @throws IOException if the journal cannot be read or created
+     */
+    public static MappedCheckpointJournal open(@Nonnull Path directory, int segmentSize, @Nonnull Duration compactInterval) throws IOException {
+        return new MappedCheckpointJournal(directory, segmentSize, compactInterval);
+    }
+
+    protected MappedCheckpointJournal(@Nonnull Path directory, int segmentSize, @Nonnull Duration compactInterval) throws IOException {
+        if (segmentSize <= HEADER || compactInterval.isNegative() || compactInterval.isZero()) {
+            throw new IllegalArgumentException("Invalid checkpoint journal, segmentSize: " + segmentSize + ", compactInterval: " + compactInterval);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactIntervalNanos = compactInterval.toNanos();
+        Files.createDirectories(directory);
+
+        List<Long> sequences = sequences();
+        Map<String, Checkpoint> runs = new LinkedHashMap<>();
+        for (long sequence : sequences) {
+            scan(path(sequence), (type, runId, record) -> {
+                if (type == SAVE) {
+                    runs.put(runId, decode(runId, record));
+                } else {
+                    runs.remove(runId);
+                }
+            });
+        }
+        recovered.putAll(runs);
+        liveRuns.addAll(runs.keySet());
+        sealed.addAll(sequences);
+        long next = sequences.isEmpty() ? 0 : sequences.get(sequences.size() - 1) + 1;
+        active = Segment.create(path(next), next, segmentSize);
+        log.info("Checkpoint journal opened in {}, {} unfinished runs found", directory, runs.size());
+
+        writer = new Thread(this::groupCommit, "resilix-checkpoint-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public CompletableFuture<Void> save(@Nonnull Checkpoint checkpoint) {
+        liveRuns.add(checkpoint.getRunId());
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + checkpoint.getData().length);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(SAVE);
+            out.writeUTF(checkpoint.getRunId());
+            out.writeUTF(checkpoint.getPhaseClass());
+            out.writeInt(checkpoint.getPhaseOrdinal());
+            out.writeUTF(checkpoint.getContextClass());
+            out.writeInt(checkpoint.getData().length);
+            out.write(checkpoint.getData());
+            return append(bytes.toByteArray());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> complete(@Nonnull String runId) {
+        liveRuns.remove(runId);
+        recovered.remove(runId);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(COMPLETE);
+            out.writeUTF(runId);
+            return append(bytes.toByteArray());
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public List<Checkpoint> recover(@Nonnull String phaseClass) {
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        for (Iterator<Checkpoint> it = recovered.values().iterator(); it.hasNext(); ) {
+            Checkpoint checkpoint = it.next();
+            if (checkpoint.getPhaseClass().equals(phaseClass) && recovered.remove(checkpoint.getRunId(), checkpoint)) {
+                checkpoints.add(checkpoint);
+            }
+        }
+        return checkpoints;
+    }
+
+    /**
+     * Flushes the pending records and stops the writer thread, records appended afterwards fail
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private CompletableFuture<Void> append(byte[] body) {
+        int length = HEADER + body.length;
+        if (length > segmentSize) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Checkpoint of " + length + " bytes exceeds the segment size " + segmentSize));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (lock) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IllegalStateException("Checkpoint journal is closed"));
+            }
+            if (active.position + length > segmentSize) {
+                try {
+                    roll();
+                } catch (IOException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+            MappedByteBuffer buffer = active.buffer;
+            int position = active.position;
+            buffer.put(position + HEADER, body);
+            buffer.putInt(position + 4, (int) crc.getValue());
+            buffer.putInt(position, body.length);
+            active.position += length;
+            pending.add(future);
+            if (pending.size() == 1) {
+                lock.notifyAll();
+            }
+        }
+        return future;
+    }
+
+    private void roll() throws IOException {
+        Segment next = Segment.create(path(active.sequence + 1), active.sequence + 1, segmentSize);
+        unflushed.add(active);
+        active = next;
+    }
+
+    private void groupCommit() {
+        long lastCompaction = System.nanoTime();
+        while (true) {
+            List<CompletableFuture<Void>> batch;
+            List<Segment> segments;
+            Segment current;
+            boolean last;
+            synchronized (lock) {
+                long wait;
+                while (pending.isEmpty() && !closed && (wait = compactIntervalNanos - (System.nanoTime() - lastCompaction)) > 0) {
+                    try {
+                        lock.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait)));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        closed = true;
+                    }
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                segments = new ArrayList<>(unflushed);
+                unflushed.clear();
+                current = active;
+                last = closed;
+            }
+
+            Exception failure = null;
+            try {
+                for (Segment segment : segments) {
+                    segment.buffer.force();
+                    segment.channel.close();
+                }
+                if (!batch.isEmpty() || last) {
+                    current.buffer.force();
+                }
+            } catch (Exception e) {
+                failure = e;
+                log.error("Failed to flush checkpoint journal", e);
+            }
+            synchronized (lock) {
+                segments.forEach(segment -> sealed.add(segment.sequence));
+            }
+            for (CompletableFuture<Void> future : batch) {
+                if (failure == null) {
+                    future.complete(null);
+                } else {
+                    future.completeExceptionally(failure);
+                }
+            }
+
+            if (last) {
+                try {
+                    current.channel.close();
+                } catch (IOException e) {
+                    log.error("Failed to close checkpoint journal", e);
+                }
+                return;
+            }
+            if (System.nanoTime() - lastCompaction >= compactIntervalNanos) {
+                lastCompaction = System.nanoTime();
+                try {
+                    compact();
+                } catch (Exception e) {
+                    log.error("Failed to compact checkpoint journal", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the sealed segments into one segment holding the latest checkpoint of every unfinished run.
+     * The compacted segment replaces the most recent sealed one, so replaying still goes in sequence order.
+     * <p/>The older segments are deleted after the replacement, so the compacted segment keeps the completion of
+     * every run checkpointed in them: if the journal stops in between, the older checkpoints of finished runs
+     * are still cancelled when replaying. Those completions are dropped by the next compaction.
+     */
+    private void compact() throws IOException {
+        List<Long> segments;
+        synchronized (lock) {
+            segments = new ArrayList<>(sealed);
+        }
+        if (segments.isEmpty() || (segments.size() == 1 && segments.get(0) == compacted)) {
+            return;
+        }
+        long target = segments.get(segments.size() - 1);
+        Map<String, byte[]> latest = new LinkedHashMap<>();
+        // Runs checkpointed in the segments deleted after the replacement
+        Set<String> older = new HashSet<>();
+        for (long sequence : segments) {
+            scan(path(sequence), (type, runId, record) -> {
+                latest.remove(runId);
+                if (type == SAVE) {
+                    latest.put(runId, record);
+                    if (sequence != target) {
+                        older.add(runId);
+                    }
+                } else if (older.contains(runId)) {
+                    latest.put(runId, record);
+                }
+            });
+        }
+        latest.entrySet().removeIf(entry -> entry.getValue()[HEADER] == SAVE && !liveRuns.contains(entry.getKey()));
+
+        if (!latest.isEmpty()) {
+            Path tmp = directory.resolve(PREFIX + target + ".tmp");
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (byte[] record : latest.values()) {
+                    ByteBuffer buffer = ByteBuffer.wrap(record);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, path(target), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        for (long sequence : segments) {
+            if (sequence != target || latest.isEmpty()) {
+                Files.deleteIfExists(path(sequence));
+            }
+        }
+        synchronized (lock) {
+            sealed.removeAll(segments);
+            if (!latest.isEmpty()) {
+                sealed.add(0, target);
+            }
+        }
+        compacted = latest.isEmpty() ? -1 : target;
+        log.debug("Checkpoint journal compacted {} segments, {} unfinished runs kept", segments.size(), latest.size());
+    }
+
+    private List<Long> sequences() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private Path path(long sequence) {
+        return directory.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+    }
+
+    /**
+     * Visits the records of a segment in order, stopping at its end or at the first torn record
+     */
+    private static void scan(Path path, RecordVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int position = 0;
+            while (buffer.limit() - position >= HEADER) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || length > buffer.limit() - position - HEADER) {
+                    break;
+                }
+                byte[] record = new byte[HEADER + length];
+                buffer.get(position, record);
+                CRC32 crc = new CRC32();
+                crc.update(record, HEADER, length);
+                if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                    log.warn("Torn record found in checkpoint journal {} at {}, ignoring the rest of the segment", path, position);
+                    break;
+                }
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, HEADER, length));
+                visitor.visit(in.readByte(), in.readUTF(), record);
+                position += record.length;
+            }
+        }
+    }
+
+    private static Checkpoint decode(String runId, byte[] record) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, HEADER, record.length - HEADER));
+            in.readByte();
+            in.readUTF();
+            String phaseClass = in.readUTF();
+            int phaseOrdinal = in.readInt();
+            String contextClass = in.readUTF();
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new Checkpoint(runId, phaseClass, phaseOrdinal, contextClass, data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(byte type, String runId, byte[] record) throws IOException;
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int position;
+
+        private Segment(long sequence, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(Path path, long sequence, int size) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            return new Segment(sequence, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package top.huzz.resilix.circuitbreaker;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.Getter;
+import top.huzz.resilix.core.Phase;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker of a phase, created from its {@link CircuitBreakerConfig} when the execution plan is compiled.
+ * <p/>Every call first asks for a {@link Permit}, then reports its outcome with it. The state lives in a single
+ * {@link AtomicReference} swapped by CAS, and the closed state counts outcomes in a lock-free {@link RollingWindow},
+ * so calls never contend on a lock. A permit is bound to the state it was issued in: outcomes of calls permitted
+ * before a state change are ignored.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public final class CircuitBreaker {
+    @Getter
+    private final Phase phase;
+    @Getter
+    private final CircuitBreakerConfig config;
+    private final long windowNanos;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final AtomicReference<Permit> current;
+
+    public CircuitBreaker(@Nonnull Phase phase, @Nonnull CircuitBreakerConfig config) {
+        this.phase = phase;
+        this.config = config;
+        this.windowNanos = config.getWindow().toNanos();
+        this.slowCallNanos = config.getSlowCallDuration() == null ? Long.MAX_VALUE : config.getSlowCallDuration().toNanos();
+        this.openNanos = config.getOpenDuration().toNanos();
+        this.current = new AtomicReference<>(closed(System.nanoTime()));
+    }
+
+    @Nonnull
+    public CircuitBreakerState getState() {
+        return current.get().state;
+    }
+
+    /**
+     * @return failure rate in percent over the rolling window, -1 if not closed or fewer than the minimum calls were made
+     */
+    public float getFailureRate() {
+        return rate(RollingWindow.FAILURES);
+    }
+
+    /**
+     * @return slow call rate in percent over the rolling window, -1 if not closed or fewer than the minimum calls were made
+     */
+    public float getSlowCallRate() {
+        return rate(RollingWindow.SLOW_CALLS);
+    }
+
+    private float rate(int counter) {
+        Permit permit = current.get();
+        if (permit.window == null) {
+            return -1;
+        }
+        long now = System.nanoTime();
+        long calls = permit.window.sum(RollingWindow.CALLS, now);
+        return calls < config.getMinimumCalls() ? -1 : permit.window.sum(counter, now) * 100f / calls;
+    }
+
+    /**
+     * Asks for permission to make a call. An open circuit moves to half-open here once its open duration has elapsed.
+     *
+     * @param listener notified if the state changes
+     * @return permit to report the outcome of the call with, null if the call is not permitted
+     */
+    @Nullable
+    public Permit tryAcquire(@Nullable StateListener listener) {
+        while (true) {
+            Permit permit = current.get();
+            switch (permit.state) {
+                case CLOSED:
+                    return permit;
+                case OPEN:
+                    long now = System.nanoTime();
+                    if (now - permit.since < openNanos) {
+                        return null;
+                    }
+                    transition(permit, new Permit(CircuitBreakerState.HALF_OPEN, now, null, config.getHalfOpenCalls()), listener);
+                    break;
+                default:
+                    return permit.acquireProbe() ? permit : null;
+            }
+        }
+    }
+
+    /**
+     * Reports a successful call
+     *
+     * @param permit        permit of the call
+     * @param durationNanos duration of the call
+     * @param listener      notified if the state changes
+     */
+    public void onSuccess(@Nonnull Permit permit, long durationNanos, @Nullable StateListener listener) {
+        record(permit, false, durationNanos >= slowCallNanos, listener);
+    }
+
+    /**
+     * Reports a failed call
+     *
+     * @param permit        permit of the call
+     * @param durationNanos duration of the call
+     * @param listener      notified if the state changes
+     */
+    public void onError(@Nonnull Permit permit, long durationNanos, @Nullable StateListener listener) {
+        record(permit, true, durationNanos >= slowCallNanos, listener);
+    }
+
+    /**
+     * Gives a permit back without reporting an outcome, e.g. when the call was stopped before reaching the dependency
+     *
+     * @param permit permit of the call
+     */
+    public void release(@Nonnull Permit permit) {
+        if (permit.probes != null) {
+            permit.probes.incrementAndGet();
+        }
+    }
+
+    private void record(Permit permit, boolean failure, boolean slow, @Nullable StateListener listener) {
+        if (current.get() != permit) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (permit.window != null) {
+            permit.window.record(now, failure, slow);
+            // Rates only go up on a bad outcome, so the window is only evaluated then
+            if ((failure || slow) && tripped(permit.window, now)) {
+                transition(permit, new Permit(CircuitBreakerState.OPEN, now, null, 0), listener);
+            }
+            return;
+        }
+        if (permit.probes == null) {
+            return;
+        }
+        if (failure) {
+            permit.failures.incrementAndGet();
+        }
+        if (slow) {
+            permit.slowCalls.incrementAndGet();
+        }
+        int completed = permit.completed.incrementAndGet();
+        if (completed == config.getHalfOpenCalls()) {
+            boolean reopen = exceeds(permit.failures.get(), config.getFailureRateThreshold(), completed)
+                    || exceeds(permit.slowCalls.get(), config.getSlowCallRateThreshold(), completed);
+            transition(permit, reopen ? new Permit(CircuitBreakerState.OPEN, now, null, 0) : closed(now), listener);
+        }
+    }
+
+    private boolean tripped(RollingWindow window, long now) {
+        long calls = window.sum(RollingWindow.CALLS, now);
+        if (calls < config.getMinimumCalls()) {
+            return false;
+        }
+        return exceeds(window.sum(RollingWindow.FAILURES, now), config.getFailureRateThreshold(), calls)
+                || (slowCallNanos != Long.MAX_VALUE && exceeds(window.sum(RollingWindow.SLOW_CALLS, now), config.getSlowCallRateThreshold(), calls));
+    }
+
+    private static boolean exceeds(long count, float threshold, long calls) {
+        return count * 100f >= threshold * calls;
+    }
+
+    private Permit closed(long now) {
+        return new Permit(CircuitBreakerState.CLOSED, now, new RollingWindow(windowNanos, config.getBuckets(), now), 0);
+    }
+
+    private void transition(Permit from, Permit to, @Nullable StateListener listener) {
+        if (current.compareAndSet(from, to) && listener != null) {
+            listener.onStateChange(this, from.state, to.state);
+        }
+    }
+
+    /**
+     * Permission to make a call, bound to the state of the circuit breaker it was issued in
+     */
+    public static final class Permit {
+        private final CircuitBreakerState state;
+        private final long since;
+        /**
+         * Outcomes of the closed state
+         */
+        private final RollingWindow window;
+        /**
+         * Probes left, completed probes and their outcomes of the half-open state
+         */
+        private final AtomicInteger probes;
+        private final AtomicInteger completed;
+        private final AtomicInteger failures;
+        private final AtomicInteger slowCalls;
+
+        private Permit(CircuitBreakerState state, long since, RollingWindow window, int probes) {
+            this.state = state;
+            this.since = since;
+            this.window = window;
+            boolean halfOpen = state == CircuitBreakerState.HALF_OPEN;
+            this.probes = halfOpen ? new AtomicInteger(probes) : null;
+            this.completed = halfOpen ? new AtomicInteger() : null;
+            this.failures = halfOpen ? new AtomicInteger() : null;
+            this.slowCalls = halfOpen ? new AtomicInteger() : null;
+        }
+
+        private boolean acquireProbe() {
+            while (true) {
+                int left = probes.get();
+                if (left <= 0) {
+                    return false;
+                }
+                if (probes.compareAndSet(left, left - 1)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Listener of circuit breaker state changes, only the caller whose call caused the change is notified
+     */
+    @FunctionalInterface
+    public interface StateListener {
+        void onStateChange(CircuitBreaker breaker, CircuitBreakerState from, CircuitBreakerState to);
+    }
+}
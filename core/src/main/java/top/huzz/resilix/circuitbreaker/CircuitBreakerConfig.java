@@ -0,0 +1,130 @@
+package top.huzz.resilix.circuitbreaker;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.Getter;
+import top.huzz.resilix.core.Phase;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker configuration of a phase, declared by {@link Phase#circuitBreaker()}.
+ * <p/>The circuit opens when, over the rolling window, at least {@link #getMinimumCalls()} calls were made and
+ * either the failure rate or the slow call rate reaches its threshold. While open, calls fail fast for
+ * {@link #getOpenDuration()}, then {@link #getHalfOpenCalls()} probe calls decide whether it closes again.
+ * <pre>
+ * CircuitBreakerConfig.of(50)
+ *         .withSlowCalls(Duration.ofSeconds(2), 80)
+ *         .withOpenDuration(Duration.ofSeconds(10));
+ * </pre>
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Getter
+public final class CircuitBreakerConfig {
+    static final Duration DEFAULT_WINDOW = Duration.ofMinutes(1);
+    static final int DEFAULT_BUCKETS = 10;
+    static final int DEFAULT_MINIMUM_CALLS = 10;
+    static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(30);
+    static final int DEFAULT_HALF_OPEN_CALLS = 5;
+
+    /**
+     * Failure rate in percent from which the circuit opens
+     */
+    private final float failureRateThreshold;
+    /**
+     * Duration from which a call is slow, null means calls are never slow
+     */
+    @Nullable
+    private final Duration slowCallDuration;
+    /**
+     * Slow call rate in percent from which the circuit opens
+     */
+    private final float slowCallRateThreshold;
+    /**
+     * Length of the rolling window
+     */
+    private final Duration window;
+    /**
+     * Number of buckets the rolling window is divided into, outcomes expire one bucket at a time
+     */
+    private final int buckets;
+    /**
+     * Minimum number of calls in the rolling window before the rates are evaluated
+     */
+    private final int minimumCalls;
+    /**
+     * How long the circuit stays open before probing
+     */
+    private final Duration openDuration;
+    /**
+     * Number of probe calls permitted while half-open
+     */
+    private final int halfOpenCalls;
+
+    private CircuitBreakerConfig(float failureRateThreshold, @Nullable Duration slowCallDuration, float slowCallRateThreshold,
+                                 Duration window, int buckets, int minimumCalls, Duration openDuration, int halfOpenCalls) {
+        if (!isRate(failureRateThreshold) || !isRate(slowCallRateThreshold)) {
+            throw new IllegalArgumentException("Rate thresholds must be within (0, 100], failureRateThreshold: " + failureRateThreshold + ", slowCallRateThreshold: " + slowCallRateThreshold);
+        }
+        if (window.isNegative() || window.isZero() || buckets < 1 || window.toNanos() < buckets) {
+            throw new IllegalArgumentException("Invalid rolling window, window: " + window + ", buckets: " + buckets);
+        }
+        if (minimumCalls < 1 || halfOpenCalls < 1 || openDuration.isNegative() || (slowCallDuration != null && slowCallDuration.isNegative())) {
+            throw new IllegalArgumentException("Invalid circuit breaker, minimumCalls: " + minimumCalls + ", halfOpenCalls: " + halfOpenCalls
+                    + ", openDuration: " + openDuration + ", slowCallDuration: " + slowCallDuration);
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.slowCallDuration = slowCallDuration;
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        this.window = window;
+        this.buckets = buckets;
+        this.minimumCalls = minimumCalls;
+        this.openDuration = openDuration;
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    private static boolean isRate(float rate) {
+        return rate > 0 && rate <= 100;
+    }
+
+    /**
+     * Create a circuit breaker configuration over a one minute window of 10 buckets, evaluated from 10 calls,
+     * staying open for 30 seconds then probing with 5 calls, without slow call tracking
+     *
+     * @param failureRateThreshold failure rate in percent from which the circuit opens
+     * @return circuit breaker configuration
+     */
+    public static CircuitBreakerConfig of(float failureRateThreshold) {
+        return new CircuitBreakerConfig(failureRateThreshold, null, 100, DEFAULT_WINDOW, DEFAULT_BUCKETS,
+                DEFAULT_MINIMUM_CALLS, DEFAULT_OPEN_DURATION, DEFAULT_HALF_OPEN_CALLS);
+    }
+
+    /**
+     * Also open the circuit when too many calls are slow
+     *
+     * @param slowCallDuration      duration from which a call is slow
+     * @param slowCallRateThreshold slow call rate in percent from which the circuit opens
+     * @return new circuit breaker configuration
+     */
+    public CircuitBreakerConfig withSlowCalls(@Nonnull Duration slowCallDuration, float slowCallRateThreshold) {
+        return new CircuitBreakerConfig(failureRateThreshold, slowCallDuration, slowCallRateThreshold, window, buckets, minimumCalls, openDuration, halfOpenCalls);
+    }
+
+    public CircuitBreakerConfig withWindow(@Nonnull Duration window, int buckets) {
+        return new CircuitBreakerConfig(failureRateThreshold, slowCallDuration, slowCallRateThreshold, window, buckets, minimumCalls, openDuration, halfOpenCalls);
+    }
+
+    public CircuitBreakerConfig withMinimumCalls(int minimumCalls) {
+        return new CircuitBreakerConfig(failureRateThreshold, slowCallDuration, slowCallRateThreshold, window, buckets, minimumCalls, openDuration, halfOpenCalls);
+    }
+
+    public CircuitBreakerConfig withOpenDuration(@Nonnull Duration openDuration) {
+        return new CircuitBreakerConfig(failureRateThreshold, slowCallDuration, slowCallRateThreshold, window, buckets, minimumCalls, openDuration, halfOpenCalls);
+    }
+
+    public CircuitBreakerConfig withHalfOpenCalls(int halfOpenCalls) {
+        return new CircuitBreakerConfig(failureRateThreshold, slowCallDuration, slowCallRateThreshold, window, buckets, minimumCalls, openDuration, halfOpenCalls);
+    }
+}
@@ -0,0 +1,22 @@
+package top.huzz.resilix.circuitbreaker;
+
+/**
+ * Circuit breaker state
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public enum CircuitBreakerState {
+    /**
+     * Calls are permitted and their outcomes are recorded in the rolling window
+     */
+    CLOSED,
+    /**
+     * Calls fail fast until the open duration has elapsed
+     */
+    OPEN,
+    /**
+     * A limited number of probe calls are permitted, their outcomes decide whether the circuit closes or opens again
+     */
+    HALF_OPEN
+}
@@ -0,0 +1,97 @@
+package top.huzz.resilix.circuitbreaker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free, time-bucketed rolling window of call outcomes.
+ * <p/>Each counter of each bucket is a single long holding the epoch of the bucket in its high bits and the
+ * count in its low bits, so a stale bucket is reset and counted in the same CAS, without locks and without
+ * losing concurrent increments. Buckets older than the window are ignored when summing.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+final class RollingWindow {
+    static final int CALLS = 0;
+    static final int FAILURES = 1;
+    static final int SLOW_CALLS = 2;
+    private static final int COUNTERS = 3;
+
+    private static final int COUNT_BITS = 24;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+
+    private final long origin;
+    private final long bucketNanos;
+    private final int buckets;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param windowNanos length of the window
+     * @param buckets     number of buckets
+     * @param origin      {@link System#nanoTime()} the window starts at
+     */
+    RollingWindow(long windowNanos, int buckets, long origin) {
+        this.origin = origin;
+        this.bucketNanos = Math.max(1, windowNanos / buckets);
+        this.buckets = buckets;
+        this.counters = new AtomicLongArray(buckets * COUNTERS);
+    }
+
+    void record(long now, boolean failure, boolean slow) {
+        long epoch = epoch(now);
+        int base = (int) (epoch % buckets) * COUNTERS;
+        increment(base + CALLS, epoch);
+        if (failure) {
+            increment(base + FAILURES, epoch);
+        }
+        if (slow) {
+            increment(base + SLOW_CALLS, epoch);
+        }
+    }
+
+    /**
+     * @param counter {@link #CALLS}, {@link #FAILURES} or {@link #SLOW_CALLS}
+     * @param now     current {@link System#nanoTime()}
+     * @return sum of the counter over the window
+     */
+    long sum(int counter, long now) {
+        long epoch = epoch(now);
+        long sum = 0;
+        for (int i = 0; i < buckets; i++) {
+            long value = counters.get(i * COUNTERS + counter);
+            long age = epoch - (value >>> COUNT_BITS);
+            if (age >= 0 && age < buckets) {
+                sum += value & COUNT_MASK;
+            }
+        }
+        return sum;
+    }
+
+    private long epoch(long now) {
+        return Math.max(0, now - origin) / bucketNanos;
+    }
+
+    private void increment(int index, long epoch) {
+        while (true) {
+            long value = counters.get(index);
+            long bucketEpoch = value >>> COUNT_BITS;
+            long next;
+            if (bucketEpoch == epoch) {
+                if ((value & COUNT_MASK) == COUNT_MASK) {
+                    // Saturated
+                    return;
+                }
+                next = value + 1;
+            } else if (bucketEpoch < epoch) {
+                // The bucket belongs to an expired epoch, start it over
+                next = (epoch << COUNT_BITS) | 1;
+            } else {
+                // A later epoch already took the bucket over, the outcome is too old to count
+                return;
+            }
+            if (counters.compareAndSet(index, value, next)) {
+                return;
+            }
+        }
+    }
+}
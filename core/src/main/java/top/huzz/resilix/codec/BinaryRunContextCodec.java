@@ -0,0 +1,46 @@
+package top.huzz.resilix.codec;
+
+import jakarta.annotation.Nonnull;
+import top.huzz.resilix.core.Phase;
+import top.huzz.resilix.core.RunContext;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary codec of run contexts, driven by the schema of the context class.
+ * <p/>A context is a version byte followed by a message: each property that is not null, as a varint key
+ * {@code tag << 3 | wireType} followed by its value, ended by key 0.
+ * <ul>
+ *     <li>Numbers are zigzag varints, strings are UTF-8 with their length, nested beans and collections are length-delimited.</li>
+ *     <li>A property is tagged by {@link Tag}, or by a hash of its name. Readers skip the tags they do not know
+ *     and keep the defaults of the properties they do not find, so contexts can gain and lose properties across a rolling upgrade.</li>
+ *     <li>A {@link Phase} is the ordinal of its constant, preceded by the id of its class when the property is not typed by the
+ *     enum class, see {@link PhaseRegistry}.</li>
+ * </ul>
+ * Properties ignored by JSON are ignored here as well, e.g. the exception of the context.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public final class BinaryRunContextCodec implements RunContextCodec {
+    public static final BinaryRunContextCodec INSTANCE = new BinaryRunContextCodec();
+    private static final byte VERSION = 1;
+
+    private BinaryRunContextCodec() {
+    }
+
+    @Override
+    public void encode(@Nonnull RunContext context, @Nonnull ByteBuffer out) {
+        out.put(VERSION);
+        MessageSchema.of(context.getClass()).write(out, context);
+    }
+
+    @Override
+    public <C extends RunContext> C decode(@Nonnull ByteBuffer in, @Nonnull Class<C> cxtClass) {
+        byte version = in.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported version " + version + " of encoded context " + cxtClass.getName());
+        }
+        return cxtClass.cast(MessageSchema.of(cxtClass).read(in));
+    }
+}
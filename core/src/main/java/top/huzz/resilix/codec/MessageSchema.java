@@ -0,0 +1,227 @@
+package top.huzz.resilix.codec;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.annotation.Nullable;
+import top.huzz.resilix.core.AbstractRunContext;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.AnnotatedElement;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Schema of a class in the binary format: its read-write properties with their tags and codecs, sorted by tag.
+ * <p/>A message is the properties that are not null, each as its key followed by its value, and ends with key 0.
+ * Properties ignored by JSON ({@link JsonIgnore}) or backed by a transient field are left out.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+final class MessageSchema {
+    private static final ClassValue<MessageSchema> SCHEMAS = new ClassValue<>() {
+        @Override
+        protected MessageSchema computeValue(Class<?> type) {
+            return new MessageSchema(type);
+        }
+    };
+    private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, Object.class);
+    /**
+     * Hashed tags take the range above explicit tags, keys stay within four bytes
+     */
+    private static final int HASHED_TAGS = (1 << 21) - Tag.MAX_TAG - 1;
+
+    private final Class<?> type;
+    private final MethodHandle constructor;
+    private final Property[] properties;
+    private final int[] tags;
+
+    private MessageSchema(Class<?> type) {
+        this.type = type;
+        this.constructor = constructorOf(type);
+        if (constructor == null) {
+            throw new IllegalArgumentException(type.getName() + " has no no-arg constructor, it cannot be decoded");
+        }
+        PropertyDescriptor[] descriptors;
+        try {
+            descriptors = Introspector.getBeanInfo(type).getPropertyDescriptors();
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException("Failed to introspect " + type.getName(), e);
+        }
+        List<Property> properties = new ArrayList<>();
+        for (PropertyDescriptor descriptor : descriptors) {
+            Method read = descriptor.getReadMethod();
+            Method write = descriptor.getWriteMethod();
+            if (read == null || write == null || read.getReturnType() != write.getParameterTypes()[0]) {
+                continue;
+            }
+            Field field = fieldOf(type, descriptor.getName());
+            if (read.isAnnotationPresent(JsonIgnore.class)
+                    || field != null && (field.isAnnotationPresent(JsonIgnore.class) || Modifier.isTransient(field.getModifiers()))) {
+                continue;
+            }
+            int tag = tagOf(descriptor.getName(), read, field);
+            try {
+                read.setAccessible(true);
+                write.setAccessible(true);
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                properties.add(new Property(tag, descriptor.getName(),
+                        lookup.unreflect(read).asType(GETTER), lookup.unreflect(write).asType(SETTER),
+                        ValueCodec.of(read.getGenericReturnType())));
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalArgumentException("Property " + descriptor.getName() + " of " + type.getName() + " cannot be encoded", e);
+            }
+        }
+        properties.sort(Comparator.comparingInt(property -> property.tag));
+        this.properties = properties.toArray(new Property[0]);
+        this.tags = new int[this.properties.length];
+        for (int i = 0; i < tags.length; i++) {
+            tags[i] = this.properties[i].tag;
+            if (i > 0 && tags[i] == tags[i - 1]) {
+                throw new IllegalArgumentException("Properties " + this.properties[i - 1].name + " and " + this.properties[i].name
+                        + " of " + type.getName() + " have the same tag " + tags[i] + ", tag one of them with @Tag");
+            }
+        }
+    }
+
+    static MessageSchema of(Class<?> type) {
+        return SCHEMAS.get(type);
+    }
+
+    void write(ByteBuffer out, Object value) {
+        try {
+            for (Property property : properties) {
+                Object propertyValue = property.getter.invokeExact(value);
+                if (propertyValue != null) {
+                    Wire.writeVarint(out, Wire.key(property.tag, property.codec.wireType));
+                    property.codec.write(out, propertyValue);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to encode " + type.getName(), e);
+        }
+        out.put((byte) 0);
+    }
+
+    Object read(ByteBuffer in) {
+        Object value = newInstance(constructor, type);
+        try {
+            while (true) {
+                int key = (int) Wire.readVarint(in);
+                if (key == 0) {
+                    return value;
+                }
+                int index = Arrays.binarySearch(tags, key >>> 3);
+                if (index < 0 || properties[index].codec.wireType != (key & 7)) {
+                    // Written by another version: unknown property, or a property whose type changed
+                    Wire.skip(in, key & 7);
+                    continue;
+                }
+                Property property = properties[index];
+                property.setter.invokeExact(value, property.codec.read(in));
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to decode " + type.getName(), e);
+        }
+    }
+
+    private int tagOf(String name, Method read, @Nullable Field field) {
+        AnnotatedElement annotated = read.isAnnotationPresent(Tag.class) ? read : field != null && field.isAnnotationPresent(Tag.class) ? field : null;
+        if (annotated == null) {
+            // FNV-1a of the name
+            int hash = 0x811C9DC5;
+            for (int i = 0; i < name.length(); i++) {
+                hash ^= name.charAt(i);
+                hash *= 0x01000193;
+            }
+            return Tag.MAX_TAG + 1 + Integer.remainderUnsigned(hash, HASHED_TAGS);
+        }
+        int tag = annotated.getAnnotation(Tag.class).value();
+        Class<?> declaring = annotated instanceof Method method ? method.getDeclaringClass() : ((Field) annotated).getDeclaringClass();
+        if (tag < 1 || tag > Tag.MAX_TAG || tag < Tag.MIN_USER_TAG && declaring != AbstractRunContext.class) {
+            throw new IllegalArgumentException("Tag " + tag + " of property " + name + " of " + type.getName()
+                    + " must be within [" + Tag.MIN_USER_TAG + ", " + Tag.MAX_TAG + "]");
+        }
+        return tag;
+    }
+
+    /**
+     * @return field backing the property, looked up by name as Lombok generates accessors, null if none
+     */
+    @Nullable
+    private static Field fieldOf(Class<?> type, String property) {
+        String prefixed = "is" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers()) && (field.getName().equals(property) || field.getName().equals(prefixed))) {
+                    return field;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return no-arg constructor as () -> Object, null if there is none or it is not accessible
+     */
+    @Nullable
+    static MethodHandle constructorOf(Class<?> type) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            if (!constructor.trySetAccessible()) {
+                return null;
+            }
+            return MethodHandles.lookup().unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        } catch (ReflectiveOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    static Object newInstance(MethodHandle constructor, Class<?> type) {
+        try {
+            return (Object) constructor.invokeExact();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create " + type.getName(), e);
+        }
+    }
+
+    private static final class Property {
+        final int tag;
+        final String name;
+        /**
+         * (bean) -> value
+         */
+        final MethodHandle getter;
+        /**
+         * (bean, value) -> void
+         */
+        final MethodHandle setter;
+        final ValueCodec codec;
+
+        Property(int tag, String name, MethodHandle getter, MethodHandle setter, ValueCodec codec) {
+            this.tag = tag;
+            this.name = name;
+            this.getter = getter;
+            this.setter = setter;
+            this.codec = codec;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package top.huzz.resilix.codec;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import top.huzz.resilix.core.Phase;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of phase classes, phases are encoded as the id of their class and their ordinal.
+ * <p/>The id of a class is a hash of its name, so that every node assigns the same id without coordination.
+ * Handler managers register their phase class, other classes are registered when first encoded or when a context
+ * class declaring them is first used.
+ * <p/>A phase is resolved among the {@link Phase#getValues() values} of its class by its ordinal, so that classes
+ * that are not enums or whose ordinals are sparse are resolved too. The values of an enum class are taken from its
+ * constants, those of other classes from the first of their phases registered.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public final class PhaseRegistry {
+    private static final Map<Integer, Class<? extends Phase>> CLASSES = new ConcurrentHashMap<>();
+    private static final Map<Class<? extends Phase>, Phase[]> VALUES = new ConcurrentHashMap<>();
+
+    private PhaseRegistry() {
+    }
+
+    /**
+     * Registers a phase class
+     *
+     * @param phaseClass phase class
+     * @return id of the phase class
+     * @throws IllegalStateException if another registered phase class has the same id
+     */
+    public static int register(@Nonnull Class<? extends Phase> phaseClass) {
+        int id = idOf(phaseClass);
+        Class<? extends Phase> registered = CLASSES.putIfAbsent(id, phaseClass);
+        if (registered != null && registered != phaseClass) {
+            throw new IllegalStateException("Phase classes " + registered.getName() + " and " + phaseClass.getName()
+                    + " have the same id " + id + ", rename one of them");
+        }
+        return id;
+    }
+
+    /**
+     * Registers the class of a phase and its values
+     *
+     * @param phase phase
+     * @return id of the phase class
+     * @throws IllegalStateException if another registered phase class has the same id
+     */
+    public static int register(@Nonnull Phase phase) {
+        Class<? extends Phase> phaseClass = phaseClassOf(phase);
+        int id = register(phaseClass);
+        if (!VALUES.containsKey(phaseClass)) {
+            VALUES.putIfAbsent(phaseClass, phase.getValues().clone());
+        }
+        return id;
+    }
+
+    /**
+     * @param phase phase
+     * @return class of the phase, the enum class for constants with a body
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public static Class<? extends Phase> phaseClassOf(@Nonnull Phase phase) {
+        return phase instanceof Enum<?> constant ? (Class<? extends Phase>) constant.getDeclaringClass() : phase.getClass();
+    }
+
+    /**
+     * @param id id of a phase class
+     * @return phase class, null if it is not registered
+     */
+    @Nullable
+    public static Class<? extends Phase> classOf(int id) {
+        return CLASSES.get(id);
+    }
+
+    /**
+     * @param phaseClass phase class
+     * @return id of the phase class, whether registered or not
+     */
+    public static int idOf(@Nonnull Class<? extends Phase> phaseClass) {
+        // FNV-1a, 24 bits
+        int hash = 0x811C9DC5;
+        String name = phaseClass.getName();
+        for (int i = 0; i < name.length(); i++) {
+            hash ^= name.charAt(i);
+            hash *= 0x01000193;
+        }
+        return (hash ^ hash >>> 24) & 0xFFFFFF;
+    }
+
+    /**
+     * Resolves a phase from the id of its class and its ordinal
+     *
+     * @param id      id of the phase class
+     * @param ordinal ordinal of the phase
+     * @return phase
+     * @throws IllegalArgumentException if the phase class is not registered or has no such phase
+     */
+    @Nonnull
+    public static Phase phaseOf(int id, int ordinal) {
+        Class<? extends Phase> phaseClass = classOf(id);
+        if (phaseClass == null) {
+            throw new IllegalArgumentException("Unknown phase class id " + id + ", register the phase class first");
+        }
+        return phaseOf(phaseClass, ordinal);
+    }
+
+    /**
+     * @param phaseClass phase class
+     * @param ordinal    ordinal of the phase
+     * @return phase
+     * @throws IllegalArgumentException if the phase class has no such phase, or is neither an enum nor registered
+     *                                  by one of its phases
+     */
+    @Nonnull
+    public static Phase phaseOf(@Nonnull Class<? extends Phase> phaseClass, int ordinal) {
+        Phase[] phases = valuesOf(phaseClass);
+        if (phases == null) {
+            throw new IllegalArgumentException("Phase class " + phaseClass.getName() + " is not an enum, register one of its phases first");
+        }
+        // Ordinals are usually the positions of the phases, other numberings are looked up
+        if (ordinal >= 0 && ordinal < phases.length && phases[ordinal].ordinal() == ordinal) {
+            return phases[ordinal];
+        }
+        for (Phase phase : phases) {
+            if (phase.ordinal() == ordinal) {
+                return phase;
+            }
+        }
+        throw new IllegalArgumentException("Phase class " + phaseClass.getName() + " has no phase of ordinal " + ordinal);
+    }
+
+    @Nullable
+    private static Phase[] valuesOf(Class<? extends Phase> phaseClass) {
+        Phase[] phases = VALUES.get(phaseClass);
+        if (phases == null) {
+            Phase[] constants = phaseClass.getEnumConstants();
+            if (constants == null || constants.length == 0) {
+                return null;
+            }
+            phases = VALUES.computeIfAbsent(phaseClass, type -> constants[0].getValues().clone());
+        }
+        return phases;
+    }
+}
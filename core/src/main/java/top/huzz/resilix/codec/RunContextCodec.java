@@ -0,0 +1,83 @@
+package top.huzz.resilix.codec;
+
+import jakarta.annotation.Nonnull;
+import top.huzz.resilix.core.RunContext;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.ServiceLoader;
+
+/**
+ * Codec of run contexts, used wherever a context leaves the process, e.g. by checkpoints.
+ * <p/>The default codec is the first implementation registered in {@code META-INF/services/top.huzz.resilix.codec.RunContextCodec},
+ * or {@link BinaryRunContextCodec} if there is none.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public interface RunContextCodec {
+
+    /**
+     * Encodes a context at the position of the buffer, the position is moved past the encoded context
+     *
+     * @param context context
+     * @param out     buffer
+     * @throws BufferOverflowException if the buffer is too small, its position is then undefined
+     */
+    void encode(@Nonnull RunContext context, @Nonnull ByteBuffer out);
+
+    /**
+     * Decodes a context at the position of the buffer, the position is moved past the decoded context
+     *
+     * @param in       buffer
+     * @param cxtClass context class
+     * @param <C>      context type
+     * @return decoded context
+     */
+    <C extends RunContext> C decode(@Nonnull ByteBuffer in, @Nonnull Class<C> cxtClass);
+
+    /**
+     * @param context context
+     * @return encoded context
+     */
+    default byte[] encode(@Nonnull RunContext context) {
+        byte[] buffer = new byte[256];
+        while (true) {
+            ByteBuffer out = ByteBuffer.wrap(buffer);
+            try {
+                encode(context, out);
+                return Arrays.copyOf(buffer, out.position());
+            } catch (BufferOverflowException e) {
+                buffer = new byte[buffer.length << 1];
+            }
+        }
+    }
+
+    /**
+     * @param data     encoded context
+     * @param cxtClass context class
+     * @param <C>      context type
+     * @return decoded context
+     */
+    default <C extends RunContext> C decode(@Nonnull byte[] data, @Nonnull Class<C> cxtClass) {
+        return decode(ByteBuffer.wrap(data), cxtClass);
+    }
+
+    /**
+     * @return default codec
+     */
+    static RunContextCodec getDefault() {
+        return DefaultCodecHolder.CODEC;
+    }
+}
+
+/**
+ * Loads the default codec on first use
+ */
+final class DefaultCodecHolder {
+    static final RunContextCodec CODEC = ServiceLoader.load(RunContextCodec.class).findFirst().orElse(BinaryRunContextCodec.INSTANCE);
+
+    private DefaultCodecHolder() {
+    }
+}
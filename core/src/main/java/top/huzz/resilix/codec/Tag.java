@@ -0,0 +1,38 @@
+package top.huzz.resilix.codec;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Tag of a property in the binary format of {@link BinaryRunContextCodec}, placed on the field backing the property
+ * or on its getter.
+ * <p/>Tags identify properties on the wire: as long as a property keeps its tag, it may be renamed or moved, and readers
+ * skip the tags they do not know, so that nodes of different versions can exchange contexts during a rolling upgrade.
+ * A tag must never be reused for a property of another type. Tags below 16 are reserved for the properties of
+ * {@link top.huzz.resilix.core.AbstractRunContext}.
+ * <p/>Properties without tag are tagged with a hash of their name, which is stable too but takes a few more bytes.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Documented
+@Target({ElementType.FIELD, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Tag {
+    /**
+     * Smallest tag available to applications
+     */
+    int MIN_USER_TAG = 16;
+    /**
+     * Largest explicit tag, larger tags are taken by hashed names
+     */
+    int MAX_TAG = (1 << 16) - 1;
+
+    /**
+     * @return tag, from 1 to {@link #MAX_TAG}
+     */
+    int value();
+}
@@ -0,0 +1,710 @@
+package top.huzz.resilix.codec;
+
+import top.huzz.resilix.core.Phase;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Encoding of the values of one type, resolved once per property from its declared type.
+ * <p/>A value is written without its key, length-delimited values include their length.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+abstract class ValueCodec {
+    final int wireType;
+
+    ValueCodec(int wireType) {
+        this.wireType = wireType;
+    }
+
+    abstract void write(ByteBuffer out, Object value);
+
+    abstract Object read(ByteBuffer in);
+
+    /**
+     * @param type declared type of a property, an element or an entry
+     * @return codec of the type
+     * @throws IllegalArgumentException if the type cannot be encoded
+     */
+    static ValueCodec of(Type type) {
+        if (type instanceof Class<?> raw) {
+            return ofClass(raw);
+        }
+        if (type instanceof ParameterizedType parameterized) {
+            Class<?> raw = (Class<?>) parameterized.getRawType();
+            Type[] arguments = parameterized.getActualTypeArguments();
+            if (Collection.class.isAssignableFrom(raw)) {
+                return new CollectionCodec(of(arguments[0]), collectionFactory(raw));
+            }
+            if (Map.class.isAssignableFrom(raw)) {
+                return new MapCodec(of(arguments[0]), of(arguments[1]), mapFactory(raw));
+            }
+            return ofClass(raw);
+        }
+        if (type instanceof GenericArrayType array) {
+            Type component = array.getGenericComponentType();
+            return new ArrayCodec(rawOf(component), of(component));
+        }
+        if (type instanceof WildcardType wildcard) {
+            return of(wildcard.getUpperBounds()[0]);
+        }
+        // Type variables
+        return DynamicCodec.INSTANCE;
+    }
+
+    private static Class<?> rawOf(Type type) {
+        if (type instanceof Class<?> raw) {
+            return raw;
+        }
+        if (type instanceof ParameterizedType parameterized) {
+            return (Class<?>) parameterized.getRawType();
+        }
+        if (type instanceof GenericArrayType array) {
+            return Array.newInstance(rawOf(array.getGenericComponentType()), 0).getClass();
+        }
+        return Object.class;
+    }
+
+    private static ValueCodec ofClass(Class<?> type) {
+        if (type == boolean.class || type == Boolean.class) {
+            return Scalar.BOOLEAN;
+        }
+        if (type == int.class || type == Integer.class) {
+            return Scalar.INT;
+        }
+        if (type == long.class || type == Long.class) {
+            return Scalar.LONG;
+        }
+        if (type == short.class || type == Short.class) {
+            return Scalar.SHORT;
+        }
+        if (type == byte.class || type == Byte.class) {
+            return Scalar.BYTE;
+        }
+        if (type == char.class || type == Character.class) {
+            return Scalar.CHAR;
+        }
+        if (type == double.class || type == Double.class) {
+            return Scalar.DOUBLE;
+        }
+        if (type == float.class || type == Float.class) {
+            return Scalar.FLOAT;
+        }
+        if (type == String.class) {
+            return Scalar.STRING;
+        }
+        if (type == byte[].class) {
+            return Scalar.BYTES;
+        }
+        if (Phase.class.isAssignableFrom(type)) {
+            if (type.isEnum()) {
+                PhaseRegistry.register(type.asSubclass(Phase.class));
+                return new PhaseCodec(type.asSubclass(Phase.class));
+            }
+            return PhaseCodec.ANY;
+        }
+        if (type.isEnum()) {
+            return new EnumCodec(type);
+        }
+        if (type == Instant.class) {
+            return Scalar.INSTANT;
+        }
+        if (type == Duration.class) {
+            return Scalar.DURATION;
+        }
+        if (type == LocalDate.class) {
+            return Scalar.LOCAL_DATE;
+        }
+        if (type == LocalTime.class) {
+            return Scalar.LOCAL_TIME;
+        }
+        if (type == LocalDateTime.class) {
+            return Scalar.LOCAL_DATE_TIME;
+        }
+        if (type == Date.class) {
+            return Scalar.DATE;
+        }
+        if (type == BigDecimal.class) {
+            return Scalar.BIG_DECIMAL;
+        }
+        if (type == BigInteger.class) {
+            return Scalar.BIG_INTEGER;
+        }
+        if (type == UUID.class) {
+            return Scalar.UUID;
+        }
+        if (type == Object.class) {
+            return DynamicCodec.INSTANCE;
+        }
+        if (type.isArray()) {
+            return new ArrayCodec(type.getComponentType(), ofClass(type.getComponentType()));
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            return new CollectionCodec(DynamicCodec.INSTANCE, collectionFactory(type));
+        }
+        if (Map.class.isAssignableFrom(type)) {
+            return new MapCodec(DynamicCodec.INSTANCE, DynamicCodec.INSTANCE, mapFactory(type));
+        }
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.getModule().isNamed()) {
+            throw new IllegalArgumentException("Type " + type.getName() + " cannot be encoded");
+        }
+        return new BeanCodec(type);
+    }
+
+    private static Supplier<Object> collectionFactory(Class<?> type) {
+        if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+            MethodHandle constructor = MessageSchema.constructorOf(type);
+            if (constructor != null) {
+                return () -> MessageSchema.newInstance(constructor, type);
+            }
+        }
+        if (SortedSet.class.isAssignableFrom(type)) {
+            return TreeSet::new;
+        }
+        if (Set.class.isAssignableFrom(type)) {
+            return LinkedHashSet::new;
+        }
+        if (Queue.class.isAssignableFrom(type)) {
+            return LinkedList::new;
+        }
+        if (type.isAssignableFrom(ArrayList.class)) {
+            return ArrayList::new;
+        }
+        throw new IllegalArgumentException("Collection type " + type.getName() + " cannot be decoded");
+    }
+
+    private static Supplier<Object> mapFactory(Class<?> type) {
+        if (!type.isInterface() && !Modifier.isAbstract(type.getModifiers())) {
+            MethodHandle constructor = MessageSchema.constructorOf(type);
+            if (constructor != null) {
+                return () -> MessageSchema.newInstance(constructor, type);
+            }
+        }
+        if (SortedMap.class.isAssignableFrom(type)) {
+            return TreeMap::new;
+        }
+        if (ConcurrentMap.class.isAssignableFrom(type)) {
+            return ConcurrentHashMap::new;
+        }
+        if (type.isAssignableFrom(LinkedHashMap.class)) {
+            return LinkedHashMap::new;
+        }
+        throw new IllegalArgumentException("Map type " + type.getName() + " cannot be decoded");
+    }
+
+    /**
+     * Writes an element of a collection, array or map, preceded by a presence byte if the container holds nulls
+     */
+    static void writeElement(ByteBuffer out, ValueCodec codec, Object value, boolean nullable) {
+        if (nullable) {
+            out.put((byte) (value == null ? 0 : 1));
+            if (value == null) {
+                return;
+            }
+        }
+        codec.write(out, value);
+    }
+
+    static Object readElement(ByteBuffer in, ValueCodec codec, boolean nullable) {
+        if (nullable && in.get() == 0) {
+            return null;
+        }
+        return codec.read(in);
+    }
+
+    /**
+     * Codecs of single values
+     */
+    static final class Scalar extends ValueCodec {
+        private enum Kind {
+            BOOLEAN, INT, LONG, SHORT, BYTE, CHAR, DOUBLE, FLOAT, STRING, BYTES, INSTANT, DURATION,
+            LOCAL_DATE, LOCAL_TIME, LOCAL_DATE_TIME, DATE, BIG_DECIMAL, BIG_INTEGER, UUID
+        }
+
+        static final Scalar BOOLEAN = new Scalar(Kind.BOOLEAN, Wire.VARINT);
+        static final Scalar INT = new Scalar(Kind.INT, Wire.VARINT);
+        static final Scalar LONG = new Scalar(Kind.LONG, Wire.VARINT);
+        static final Scalar SHORT = new Scalar(Kind.SHORT, Wire.VARINT);
+        static final Scalar BYTE = new Scalar(Kind.BYTE, Wire.VARINT);
+        static final Scalar CHAR = new Scalar(Kind.CHAR, Wire.VARINT);
+        static final Scalar DOUBLE = new Scalar(Kind.DOUBLE, Wire.FIXED64);
+        static final Scalar FLOAT = new Scalar(Kind.FLOAT, Wire.FIXED32);
+        static final Scalar STRING = new Scalar(Kind.STRING, Wire.LEN);
+        static final Scalar BYTES = new Scalar(Kind.BYTES, Wire.LEN);
+        static final Scalar INSTANT = new Scalar(Kind.INSTANT, Wire.LEN);
+        static final Scalar DURATION = new Scalar(Kind.DURATION, Wire.LEN);
+        static final Scalar LOCAL_DATE = new Scalar(Kind.LOCAL_DATE, Wire.VARINT);
+        static final Scalar LOCAL_TIME = new Scalar(Kind.LOCAL_TIME, Wire.VARINT);
+        static final Scalar LOCAL_DATE_TIME = new Scalar(Kind.LOCAL_DATE_TIME, Wire.LEN);
+        static final Scalar DATE = new Scalar(Kind.DATE, Wire.VARINT);
+        static final Scalar BIG_DECIMAL = new Scalar(Kind.BIG_DECIMAL, Wire.LEN);
+        static final Scalar BIG_INTEGER = new Scalar(Kind.BIG_INTEGER, Wire.LEN);
+        static final Scalar UUID = new Scalar(Kind.UUID, Wire.LEN);
+
+        private final Kind kind;
+
+        private Scalar(Kind kind, int wireType) {
+            super(wireType);
+            this.kind = kind;
+        }
+
+        @Override
+        void write(ByteBuffer out, Object value) {
+            switch (kind) {
+                case BOOLEAN -> out.put((byte) ((Boolean) value ? 1 : 0));
+                case INT, SHORT, BYTE -> Wire.writeVarint(out, Wire.zigzag(((Number) value).longValue()));
+                case LONG -> Wire.writeVarint(out, Wire.zigzag((Long) value));
+                case CHAR -> Wire.writeVarint(out, (Character) value);
+                case DOUBLE -> out.putLong(Double.doubleToRawLongBits((Double) value));
+                case FLOAT -> out.putInt(Float.floatToRawIntBits((Float) value));
+                case STRING -> Wire.writeString(out, (String) value);
+                case BYTES -> {
+                    byte[] bytes = (byte[]) value;
+                    Wire.writeVarint(out, bytes.length);
+                    out.put(bytes);
+                }
+                case INSTANT -> {
+                    Instant instant = (Instant) value;
+                    writeSecondsAndNanos(out, instant.getEpochSecond(), instant.getNano());
+                }
+                case DURATION -> {
+                    Duration duration = (Duration) value;
+                    writeSecondsAndNanos(out, duration.getSeconds(), duration.getNano());
+                }
+                case LOCAL_DATE -> Wire.writeVarint(out, Wire.zigzag(((LocalDate) value).toEpochDay()));
+                case LOCAL_TIME -> Wire.writeVarint(out, ((LocalTime) value).toNanoOfDay());
+                case LOCAL_DATE_TIME -> {
+                    LocalDateTime dateTime = (LocalDateTime) value;
+                    int start = Wire.beginFrame(out);
+                    Wire.writeVarint(out, Wire.zigzag(dateTime.toLocalDate().toEpochDay()));
+                    Wire.writeVarint(out, dateTime.toLocalTime().toNanoOfDay());
+                    Wire.endFrame(out, start);
+                }
+                case DATE -> Wire.writeVarint(out, Wire.zigzag(((Date) value).getTime()));
+                case BIG_DECIMAL -> Wire.writeString(out, value.toString());
+                case BIG_INTEGER -> BYTES.write(out, ((BigInteger) value).toByteArray());
+                case UUID -> {
+                    java.util.UUID uuid = (java.util.UUID) value;
+                    Wire.writeVarint(out, 16);
+                    out.putLong(uuid.getMostSignificantBits());
+                    out.putLong(uuid.getLeastSignificantBits());
+                }
+            }
+        }
+
+        private static void writeSecondsAndNanos(ByteBuffer out, long seconds, int nanos) {
+            int start = Wire.beginFrame(out);
+            Wire.writeVarint(out, Wire.zigzag(seconds));
+            Wire.writeVarint(out, nanos);
+            Wire.endFrame(out, start);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            return switch (kind) {
+                case BOOLEAN -> Wire.readVarint(in) != 0;
+                case INT -> (int) Wire.unzigzag(Wire.readVarint(in));
+                case LONG -> Wire.unzigzag(Wire.readVarint(in));
+                case SHORT -> (short) Wire.unzigzag(Wire.readVarint(in));
+                case BYTE -> (byte) Wire.unzigzag(Wire.readVarint(in));
+                case CHAR -> (char) Wire.readVarint(in);
+                case DOUBLE -> Double.longBitsToDouble(in.getLong());
+                case FLOAT -> Float.intBitsToFloat(in.getInt());
+                case STRING -> Wire.readString(in);
+                case BYTES -> readBytes(in);
+                case INSTANT -> {
+                    Wire.readLength(in);
+                    yield Instant.ofEpochSecond(Wire.unzigzag(Wire.readVarint(in)), Wire.readVarint(in));
+                }
+                case DURATION -> {
+                    Wire.readLength(in);
+                    yield Duration.ofSeconds(Wire.unzigzag(Wire.readVarint(in)), Wire.readVarint(in));
+                }
+                case LOCAL_DATE -> LocalDate.ofEpochDay(Wire.unzigzag(Wire.readVarint(in)));
+                case LOCAL_TIME -> LocalTime.ofNanoOfDay(Wire.readVarint(in));
+                case LOCAL_DATE_TIME -> {
+                    Wire.readLength(in);
+                    LocalDate date = LocalDate.ofEpochDay(Wire.unzigzag(Wire.readVarint(in)));
+                    yield LocalDateTime.of(date, LocalTime.ofNanoOfDay(Wire.readVarint(in)));
+                }
+                case DATE -> new Date(Wire.unzigzag(Wire.readVarint(in)));
+                case BIG_DECIMAL -> new BigDecimal(Wire.readString(in));
+                case BIG_INTEGER -> new BigInteger(readBytes(in));
+                case UUID -> {
+                    Wire.readLength(in);
+                    yield new java.util.UUID(in.getLong(), in.getLong());
+                }
+            };
+        }
+
+        private static byte[] readBytes(ByteBuffer in) {
+            byte[] bytes = new byte[Wire.readLength(in)];
+            in.get(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Phases of a known enum class as their ordinal, other phases as the id of their class and their ordinal, which
+     * must then be within 0..65535
+     */
+    static final class PhaseCodec extends ValueCodec {
+        static final PhaseCodec ANY = new PhaseCodec(null);
+        private static final int MAX_ORDINAL = 0xFFFF;
+
+        private final Class<? extends Phase> phaseClass;
+
+        PhaseCodec(Class<? extends Phase> phaseClass) {
+            super(Wire.VARINT);
+            this.phaseClass = phaseClass;
+        }
+
+        @Override
+        void write(ByteBuffer out, Object value) {
+            Phase phase = (Phase) value;
+            if (phaseClass != null) {
+                Wire.writeVarint(out, phase.ordinal());
+            } else {
+                int ordinal = phase.ordinal();
+                if (ordinal < 0 || ordinal > MAX_ORDINAL) {
+                    throw new IllegalArgumentException("Ordinal " + ordinal + " of phase " + phase + " cannot be encoded, it must be within 0.." + MAX_ORDINAL);
+                }
+                int id = PhaseRegistry.register(phase);
+                Wire.writeVarint(out, (long) id << 16 | ordinal);
+            }
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            long value = Wire.readVarint(in);
+            if (phaseClass != null) {
+                return PhaseRegistry.phaseOf(phaseClass, (int) value);
+            }
+            return PhaseRegistry.phaseOf((int) (value >>> 16), (int) (value & MAX_ORDINAL));
+        }
+    }
+
+    /**
+     * Enums as their name, so that constants can be reordered and readers map unknown constants to null
+     */
+    static final class EnumCodec extends ValueCodec {
+        private final Class<?> enumClass;
+
+        EnumCodec(Class<?> enumClass) {
+            super(Wire.LEN);
+            this.enumClass = enumClass;
+        }
+
+        @Override
+        void write(ByteBuffer out, Object value) {
+            Wire.writeString(out, ((Enum<?>) value).name());
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Object read(ByteBuffer in) {
+            String name = Wire.readString(in);
+            try {
+                return Enum.valueOf((Class) enumClass, name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Collections as their size, whether they hold nulls, then their elements
+     */
+    static final class CollectionCodec extends ValueCodec {
+        private final ValueCodec element;
+        private final Supplier<Object> factory;
+
+        CollectionCodec(ValueCodec element, Supplier<Object> factory) {
+            super(Wire.LEN);
+            this.element = element;
+            this.factory = factory;
+        }
+
+        @Override
+        void write(ByteBuffer out, Object value) {
+            Collection<?> collection = (Collection<?>) value;
+            int start = Wire.beginFrame(out);
+            Wire.writeVarint(out, collection.size());
+            boolean nullable = !collection.isEmpty() && containsNull(collection);
+            out.put((byte) (nullable ? 1 : 0));
+            for (Object item : collection) {
+                writeElement(out, element, item, nullable);
+            }
+            Wire.endFrame(out, start);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object read(ByteBuffer in) {
+            Wire.readLength(in);
+            int size = (int) Wire.readVarint(in);
+            boolean nullable = in.get() != 0;
+            Collection<Object> collection = (Collection<Object>) factory.get();
+            for (int i = 0; i < size; i++) {
+                collection.add(readElement(in, element, nullable));
+            }
+            return collection;
+        }
+
+        private static boolean containsNull(Collection<?> collection) {
+            for (Object item : collection) {
+                if (item == null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Maps as their size, whether they hold nulls, then their keys and values
+     */
+    static final class MapCodec extends ValueCodec {
+        private final ValueCodec key;
+        private final ValueCodec value;
+        private final Supplier<Object> factory;
+
+        MapCodec(ValueCodec key, ValueCodec value, Supplier<Object> factory) {
+            super(Wire.LEN);
+            this.key = key;
+            this.value = value;
+            this.factory = factory;
+        }
+
+        @Override
+        void write(ByteBuffer out, Object object) {
+            Map<?, ?> map = (Map<?, ?>) object;
+            int start = Wire.beginFrame(out);
+            Wire.writeVarint(out, map.size());
+            boolean nullable = false;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (entry.getKey() == null || entry.getValue() == null) {
+                    nullable = true;
+                    break;
+                }
+            }
+            out.put((byte) (nullable ? 1 : 0));
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeElement(out, key, entry.getKey(), nullable);
+                writeElement(out, value, entry.getValue(), nullable);
+            }
+            Wire.endFrame(out, start);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        Object read(ByteBuffer in) {
+            Wire.readLength(in);
+            int size = (int) Wire.readVarint(in);
+            boolean nullable = in.get() != 0;
+            Map<Object, Object> map = (Map<Object, Object>) factory.get();
+            for (int i = 0; i < size; i++) {
+                Object k = readElement(in, key, nullable);
+                map.put(k, readElement(in, value, nullable));
+            }
+            return map;
+        }
+    }
+
+    /**
+     * Arrays other than byte arrays, encoded as collections
+     */
+    static final class ArrayCodec extends ValueCodec {
+        private final Class<?> componentType;
+        private final ValueCodec element;
+
+        ArrayCodec(Class<?> componentType, ValueCodec element) {
+            super(Wire.LEN);
+            this.componentType = componentType;
+            this.element = element;
+        }
+
+        @Override
+        void write(ByteBuffer out, Object value) {
+            int length = Array.getLength(value);
+            int start = Wire.beginFrame(out);
+            Wire.writeVarint(out, length);
+            boolean nullable = false;
+            if (!componentType.isPrimitive()) {
+                for (Object item : (Object[]) value) {
+                    if (item == null) {
+                        nullable = true;
+                        break;
+                    }
+                }
+            }
+            out.put((byte) (nullable ? 1 : 0));
+            for (int i = 0; i < length; i++) {
+                writeElement(out, element, Array.get(value, i), nullable);
+            }
+            Wire.endFrame(out, start);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            Wire.readLength(in);
+            int length = (int) Wire.readVarint(in);
+            boolean nullable = in.get() != 0;
+            Object array = Array.newInstance(componentType, length);
+            for (int i = 0; i < length; i++) {
+                Array.set(array, i, readElement(in, element, nullable));
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Nested objects as a length-delimited message of their properties
+     */
+    static final class BeanCodec extends ValueCodec {
+        private final Class<?> type;
+
+        BeanCodec(Class<?> type) {
+            super(Wire.LEN);
+            this.type = type;
+        }
+
+        @Override
+        void write(ByteBuffer out, Object value) {
+            if (value.getClass() != type) {
+                throw new IllegalArgumentException("Expected " + type.getName() + ", found: " + value.getClass().getName());
+            }
+            int start = Wire.beginFrame(out);
+            // Resolved lazily, types may refer to themselves
+            MessageSchema.of(type).write(out, value);
+            Wire.endFrame(out, start);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            Wire.readLength(in);
+            return MessageSchema.of(type).read(in);
+        }
+    }
+
+    /**
+     * Values of undeclared types, as a type byte followed by the value, limited to JSON-like values and phases
+     */
+    static final class DynamicCodec extends ValueCodec {
+        static final DynamicCodec INSTANCE = new DynamicCodec();
+
+        private static final byte NULL = 0;
+        private static final byte BOOLEAN = 1;
+        private static final byte INT = 2;
+        private static final byte LONG = 3;
+        private static final byte DOUBLE = 4;
+        private static final byte FLOAT = 5;
+        private static final byte STRING = 6;
+        private static final byte LIST = 7;
+        private static final byte MAP = 8;
+        private static final byte PHASE = 9;
+        private static final byte BIG_DECIMAL = 10;
+
+        private static final CollectionCodec LIST_CODEC = new CollectionCodec(INSTANCE, ArrayList::new);
+        private static final MapCodec MAP_CODEC = new MapCodec(INSTANCE, INSTANCE, LinkedHashMap::new);
+
+        private DynamicCodec() {
+            super(Wire.LEN);
+        }
+
+        @Override
+        void write(ByteBuffer out, Object value) {
+            int start = Wire.beginFrame(out);
+            if (value == null) {
+                out.put(NULL);
+            } else if (value instanceof Boolean) {
+                out.put(BOOLEAN);
+                Scalar.BOOLEAN.write(out, value);
+            } else if (value instanceof Integer) {
+                out.put(INT);
+                Scalar.INT.write(out, value);
+            } else if (value instanceof Long) {
+                out.put(LONG);
+                Scalar.LONG.write(out, value);
+            } else if (value instanceof Double) {
+                out.put(DOUBLE);
+                Scalar.DOUBLE.write(out, value);
+            } else if (value instanceof Float) {
+                out.put(FLOAT);
+                Scalar.FLOAT.write(out, value);
+            } else if (value instanceof String) {
+                out.put(STRING);
+                Scalar.STRING.write(out, value);
+            } else if (value instanceof List<?>) {
+                out.put(LIST);
+                LIST_CODEC.write(out, value);
+            } else if (value instanceof Map<?, ?>) {
+                out.put(MAP);
+                MAP_CODEC.write(out, value);
+            } else if (value instanceof Phase) {
+                out.put(PHASE);
+                PhaseCodec.ANY.write(out, value);
+            } else if (value instanceof BigDecimal) {
+                out.put(BIG_DECIMAL);
+                Scalar.BIG_DECIMAL.write(out, value);
+            } else {
+                throw new IllegalArgumentException("Value of type " + value.getClass().getName()
+                        + " cannot be encoded without a declared type");
+            }
+            Wire.endFrame(out, start);
+        }
+
+        @Override
+        Object read(ByteBuffer in) {
+            Wire.readLength(in);
+            byte type = in.get();
+            return switch (type) {
+                case NULL -> null;
+                case BOOLEAN -> Scalar.BOOLEAN.read(in);
+                case INT -> Scalar.INT.read(in);
+                case LONG -> Scalar.LONG.read(in);
+                case DOUBLE -> Scalar.DOUBLE.read(in);
+                case FLOAT -> Scalar.FLOAT.read(in);
+                case STRING -> Scalar.STRING.read(in);
+                case LIST -> LIST_CODEC.read(in);
+                case MAP -> MAP_CODEC.read(in);
+                case PHASE -> PhaseCodec.ANY.read(in);
+                case BIG_DECIMAL -> Scalar.BIG_DECIMAL.read(in);
+                default -> throw new IllegalArgumentException("Unknown value type " + type + " at " + (in.position() - 1));
+            };
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package top.huzz.resilix.codec;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Primitives of the binary wire format: varints, zigzag, length-delimited frames and UTF-8 strings,
+ * read and written directly on {@link ByteBuffer}s.
+ * <p/>Every field is preceded by a varint key {@code tag << 3 | wireType}, so that readers can skip the fields
+ * they do not know.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+final class Wire {
+    static final int VARINT = 0;
+    static final int FIXED64 = 1;
+    static final int LEN = 2;
+    static final int FIXED32 = 5;
+
+    private Wire() {
+    }
+
+    static int key(int tag, int wireType) {
+        return tag << 3 | wireType;
+    }
+
+    static void writeVarint(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint at " + in.position());
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its UTF-8 bytes, encoded straight from the chars
+     */
+    static void writeString(ByteBuffer out, String value) {
+        int length = value.length();
+        int size = utf8Size(value);
+        writeVarint(out, size);
+        if (out.remaining() < size) {
+            throw new BufferOverflowException();
+        }
+        if (size == length) {
+            for (int i = 0; i < length; i++) {
+                out.put((byte) value.charAt(i));
+            }
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >>> 6));
+                out.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | codePoint >>> 18));
+                out.put((byte) (0x80 | codePoint >>> 12 & 0x3F));
+                out.put((byte) (0x80 | codePoint >>> 6 & 0x3F));
+                out.put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogate, replaced as String#getBytes does
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | c >>> 12));
+                out.put((byte) (0x80 | c >>> 6 & 0x3F));
+                out.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        int size = readLength(in);
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), size, StandardCharsets.UTF_8);
+            in.position(in.position() + size);
+        } else {
+            byte[] bytes = new byte[size];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static int utf8Size(String value) {
+        int length = value.length();
+        int size = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    size++;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // Four bytes for the two chars of the pair
+                    size += 2;
+                    i++;
+                } else if (!Character.isSurrogate(c)) {
+                    size += 2;
+                }
+            }
+        }
+        return size;
+    }
+
+    static int readLength(ByteBuffer in) {
+        long length = readVarint(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return (int) length;
+    }
+
+    /**
+     * Starts a length-delimited frame, one byte is reserved for its length
+     *
+     * @return position of the reserved byte, to pass to {@link #endFrame(ByteBuffer, int)}
+     */
+    static int beginFrame(ByteBuffer out) {
+        int start = out.position();
+        out.put((byte) 0);
+        return start;
+    }
+
+    /**
+     * Ends a length-delimited frame, moving its content forward if its length does not fit in the reserved byte
+     */
+    static void endFrame(ByteBuffer out, int start) {
+        int length = out.position() - start - 1;
+        int lengthSize = varintSize(length);
+        if (lengthSize > 1) {
+            int extra = lengthSize - 1;
+            if (out.remaining() < extra) {
+                throw new BufferOverflowException();
+            }
+            if (out.hasArray()) {
+                byte[] array = out.array();
+                int offset = out.arrayOffset() + start + 1;
+                System.arraycopy(array, offset, array, offset + extra, length);
+            } else {
+                byte[] content = new byte[length];
+                out.get(start + 1, content);
+                out.put(start + 1 + extra, content);
+            }
+            out.position(out.position() + extra);
+        }
+        int end = out.position();
+        out.position(start);
+        writeVarint(out, length);
+        out.position(end);
+    }
+
+    static void skip(ByteBuffer in, int wireType) {
+        switch (wireType) {
+            case VARINT -> readVarint(in);
+            case FIXED64 -> in.position(in.position() + 8);
+            case LEN -> {
+                int length = readLength(in);
+                in.position(in.position() + length);
+            }
+            case FIXED32 -> in.position(in.position() + 4);
+            default -> throw new IllegalArgumentException("Unknown wire type " + wireType + " at " + in.position());
+        }
+    }
+}
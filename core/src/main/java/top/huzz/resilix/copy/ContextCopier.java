@@ -0,0 +1,615 @@
+package top.huzz.resilix.copy;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import top.huzz.resilix.core.Phase;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copier of run contexts, copies fields directly instead of going through a serialized form.
+ * <p/>The copier of a class is built once, on first use: every instance field, including private and inherited ones,
+ * gets a method handle reading it from the source and writing its copy into the target, and these handles are folded
+ * with the no-arg constructor into a single handle, which the JVM compiles as a whole.
+ * <p/>Fields are copied according to their {@link Copy} annotation, or by default:
+ * <ul>
+ *     <li>primitives, strings, boxed numbers, enums, phases, exceptions, records and {@code java.time} values are shared</li>
+ *     <li>arrays, collections and maps are copied along with their elements, immutable JDK collections come back as their
+ *     mutable counterparts</li>
+ *     <li>other objects are copied field by field if they have a no-arg constructor, otherwise shared, as are the
+ *     remaining JDK types</li>
+ * </ul>
+ * Objects referenced several times in the source are copied once, so shared references and cycles are preserved.
+ * <p/>{@link #trace(Object)} records the state of the objects a value reaches the same way, so that {@link #unchanged(Object, Object[])}
+ * can later tell whether any of them was modified in place.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public final class ContextCopier<T> {
+    private static final ClassValue<ContextCopier<?>> COPIERS = new ClassValue<>() {
+        @Override
+        protected ContextCopier<?> computeValue(Class<?> type) {
+            return new ContextCopier<>(type);
+        }
+    };
+
+    private static final Set<Class<?>> IMMUTABLE_TYPES = Set.of(String.class, Boolean.class, Character.class, Byte.class,
+            Short.class, Integer.class, Long.class, Float.class, Double.class, BigDecimal.class, BigInteger.class,
+            UUID.class, Class.class, Optional.class, Object.class);
+
+    /**
+     * Type of a field copier: (target, source, copies) -> void
+     */
+    private static final MethodType FIELD_COPY = MethodType.methodType(void.class, Object.class, Object.class, IdentityHashMap.class);
+    /**
+     * Type of a field getter: (source) -> value
+     */
+    private static final MethodType FIELD_GET = MethodType.methodType(Object.class, Object.class);
+    private static final MethodHandle COPY_VALUE;
+    private static final MethodHandle REGISTER;
+
+    static {
+        try {
+            COPY_VALUE = MethodHandles.lookup().findStatic(ContextCopier.class, "copyValue",
+                    MethodType.methodType(Object.class, Object.class, IdentityHashMap.class));
+            REGISTER = MethodHandles.lookup().findStatic(ContextCopier.class, "register", FIELD_COPY);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private enum Kind {
+        IMMUTABLE, SHARED, ARRAY, ENUM_SET, ENUM_MAP, COLLECTION, MAP, DATE, ATOMIC, BEAN
+    }
+
+    private final Class<T> type;
+    private final Kind kind;
+    /**
+     * Constructor of the type as () -> Object, null if it has no usable no-arg constructor
+     */
+    @Nullable
+    private final MethodHandle constructor;
+    /**
+     * Copies an object of the type as (source, copies) -> copy: creates the copy, registers it and copies every field,
+     * all folded into one handle so that it gets compiled as a whole. Null if the type is not copied field by field
+     */
+    @Nullable
+    private final MethodHandle copier;
+    /**
+     * Getter of every instance field, (source) -> value, null if the type is not copied field by field
+     */
+    @Nullable
+    private final MethodHandle[] getters;
+    /**
+     * Whether the elements of an array need to be copied
+     */
+    private final boolean deepElements;
+    /**
+     * Why objects of the type cannot be copied field by field, null if they can
+     */
+    @Nullable
+    private final String unsupported;
+
+    private ContextCopier(Class<T> type) {
+        this.type = type;
+        this.deepElements = type.isArray() && !isImmutable(type.getComponentType());
+        Kind kind = kindOf(type);
+        MethodHandle constructor = null;
+        MethodHandle copier = null;
+        MethodHandle[] getters = null;
+        String unsupported = null;
+        if (kind == Kind.COLLECTION || kind == Kind.MAP) {
+            constructor = constructorOf(type);
+        } else if (kind == Kind.BEAN) {
+            try {
+                constructor = constructorOf(type);
+                if (constructor == null) {
+                    unsupported = type.getName() + " has no no-arg constructor";
+                } else {
+                    copier = beanCopier(constructor, fieldsOf(type));
+                    getters = gettersOf(type);
+                }
+            } catch (IllegalAccessException | RuntimeException e) {
+                unsupported = "fields of " + type.getName() + " are not accessible: " + e.getMessage();
+            }
+            if (unsupported != null) {
+                // Objects that cannot be copied are shared
+                kind = Kind.SHARED;
+                constructor = null;
+                copier = null;
+                getters = null;
+            }
+        } else if (kind != Kind.IMMUTABLE) {
+            unsupported = type.getName() + " is not copied field by field";
+        } else {
+            unsupported = type.getName() + " is immutable";
+        }
+        this.kind = kind;
+        this.constructor = constructor;
+        this.copier = copier;
+        this.getters = getters;
+        this.unsupported = unsupported;
+    }
+
+    /**
+     * @param type type of the objects to copy
+     * @param <T>  type
+     * @return copier of the type, built on first use
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ContextCopier<T> of(@Nonnull Class<T> type) {
+        return (ContextCopier<T>) COPIERS.get(type);
+    }
+
+    /**
+     * Copies an object field by field
+     *
+     * @param source object to copy, must be exactly of the type of this copier
+     * @return copy of the object
+     * @throws IllegalArgumentException if objects of the type cannot be copied field by field,
+     *                                  for instance because it has no no-arg constructor
+     */
+    @Nonnull
+    public T copy(@Nonnull T source) {
+        if (kind != Kind.BEAN) {
+            throw new IllegalArgumentException("Cannot copy " + type.getName() + ", " + unsupported);
+        }
+        if (source.getClass() != type) {
+            throw new IllegalArgumentException("Expected " + type.getName() + ", found: " + source.getClass().getName());
+        }
+        return type.cast(copyBean(source, new IdentityHashMap<>(8)));
+    }
+
+    /**
+     * Deep copies a value the way a field without {@link Copy} annotation is copied
+     *
+     * @param value value to copy
+     * @param <V>   type of the value
+     * @return copy of the value, the value itself if it is immutable or cannot be copied
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> V deepCopy(@Nullable V value) {
+        return (V) copyValue(value, new IdentityHashMap<>(8));
+    }
+
+    /**
+     * Records the state of the objects a value reaches, as {@link #deepCopy(Object)} would copy them: the references and
+     * primitive values held by each array, collection, map and copied object, in a deterministic order
+     *
+     * @param value value to trace
+     * @return trace to pass to {@link #unchanged(Object, Object[])}, null if the value is immutable or shared when copied
+     */
+    @Nullable
+    public static Object[] trace(@Nullable Object value) {
+        if (value == null || !isTraced(value)) {
+            return null;
+        }
+        List<Object> trace = new ArrayList<>();
+        trace(value, trace, new IdentityHashMap<>(8));
+        return trace.toArray();
+    }
+
+    /**
+     * @param value value to check
+     * @param trace trace of the same value, taken by {@link #trace(Object)}
+     * @return whether no object the value reaches was modified in place since the trace was taken
+     */
+    public static boolean unchanged(@Nullable Object value, @Nullable Object[] trace) {
+        Object[] current = trace(value);
+        if (current == null || trace == null) {
+            return current == trace;
+        }
+        if (current.length != trace.length) {
+            return false;
+        }
+        for (int i = 0; i < current.length; i++) {
+            if (!same(current[i], trace[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isTraced(Object value) {
+        Kind kind = COPIERS.get(value.getClass()).kind;
+        return kind != Kind.IMMUTABLE && kind != Kind.SHARED;
+    }
+
+    /**
+     * Adds the content of a traced object to the trace, then traces the objects it references, each object once
+     */
+    @SuppressWarnings("rawtypes")
+    private static void trace(Object value, List<Object> trace, IdentityHashMap<Object, Object> traced) {
+        if (traced.put(value, value) != null) {
+            return;
+        }
+        ContextCopier<?> copier = COPIERS.get(value.getClass());
+        int from = trace.size();
+        switch (copier.kind) {
+            case ARRAY -> {
+                if (value instanceof Object[] array) {
+                    trace.add(array.length);
+                    trace.addAll(Arrays.asList(array));
+                } else {
+                    // Primitive values are compared by value
+                    int length = Array.getLength(value);
+                    Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+                    System.arraycopy(value, 0, copy, 0, length);
+                    trace.add(copy);
+                    return;
+                }
+            }
+            case ENUM_SET, COLLECTION -> {
+                trace.add(((Collection<?>) value).size());
+                trace.addAll((Collection<?>) value);
+            }
+            case ENUM_MAP, MAP -> {
+                trace.add(((Map<?, ?>) value).size());
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    trace.add(entry.getKey());
+                    trace.add(entry.getValue());
+                }
+            }
+            case DATE -> {
+                trace.add(((Date) value).getTime());
+                return;
+            }
+            case ATOMIC -> {
+                trace.add(value instanceof AtomicBoolean b ? b.get() : ((Number) value).longValue());
+                return;
+            }
+            default -> {
+                for (MethodHandle getter : copier.getters) {
+                    try {
+                        trace.add((Object) getter.invokeExact(value));
+                    } catch (RuntimeException | Error e) {
+                        throw e;
+                    } catch (Throwable e) {
+                        throw new IllegalStateException("Failed to trace " + copier.type.getName(), e);
+                    }
+                }
+            }
+        }
+        for (int i = from, end = trace.size(); i < end; i++) {
+            Object reference = trace.get(i);
+            if (reference != null && isTraced(reference)) {
+                trace(reference, trace, traced);
+            }
+        }
+    }
+
+    /**
+     * Traced objects are compared by reference, immutable values and copies of primitive arrays by value
+     */
+    private static boolean same(@Nullable Object current, @Nullable Object traced) {
+        if (current == traced) {
+            return true;
+        }
+        if (current == null || traced == null || current.getClass() != traced.getClass()) {
+            return false;
+        }
+        if (current.getClass().isArray() && current.getClass().getComponentType().isPrimitive()) {
+            return Objects.deepEquals(current, traced);
+        }
+        return COPIERS.get(current.getClass()).kind == Kind.IMMUTABLE && current.equals(traced);
+    }
+
+    private Object copyBean(Object source, IdentityHashMap<Object, Object> copies) {
+        try {
+            return (Object) copier.invokeExact(source, copies);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to copy " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Copies a value held by a field, an element or an entry
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object copyValue(Object value, IdentityHashMap<Object, Object> copies) {
+        if (value == null) {
+            return null;
+        }
+        ContextCopier<?> copier = COPIERS.get(value.getClass());
+        if (copier.kind == Kind.IMMUTABLE || copier.kind == Kind.SHARED) {
+            return value;
+        }
+        Object copied = copies.get(value);
+        if (copied != null) {
+            return copied;
+        }
+        switch (copier.kind) {
+            case ARRAY -> {
+                int length = Array.getLength(value);
+                Object array = Array.newInstance(copier.type.getComponentType(), length);
+                copies.put(value, array);
+                if (copier.deepElements) {
+                    Object[] source = (Object[]) value;
+                    Object[] target = (Object[]) array;
+                    for (int i = 0; i < length; i++) {
+                        target[i] = copyValue(source[i], copies);
+                    }
+                } else {
+                    System.arraycopy(value, 0, array, 0, length);
+                }
+                return array;
+            }
+            case ENUM_SET -> {
+                EnumSet<?> set = ((EnumSet<?>) value).clone();
+                copies.put(value, set);
+                return set;
+            }
+            case ENUM_MAP -> {
+                EnumMap map = new EnumMap((EnumMap) value);
+                copies.put(value, map);
+                map.replaceAll((k, v) -> copyValue(v, copies));
+                return map;
+            }
+            case COLLECTION -> {
+                Collection<Object> source = (Collection<Object>) value;
+                Collection<Object> target = (Collection<Object>) copier.newContainer(source);
+                copies.put(value, target);
+                for (Object element : source) {
+                    target.add(copyValue(element, copies));
+                }
+                return target;
+            }
+            case MAP -> {
+                Map<Object, Object> source = (Map<Object, Object>) value;
+                Map<Object, Object> target = (Map<Object, Object>) copier.newContainer(source);
+                copies.put(value, target);
+                for (Map.Entry<Object, Object> entry : source.entrySet()) {
+                    target.put(copyValue(entry.getKey(), copies), copyValue(entry.getValue(), copies));
+                }
+                return target;
+            }
+            case DATE -> {
+                Object date = ((Date) value).clone();
+                copies.put(value, date);
+                return date;
+            }
+            case ATOMIC -> {
+                Object atomic;
+                if (value instanceof AtomicInteger i) {
+                    atomic = new AtomicInteger(i.get());
+                } else if (value instanceof AtomicLong l) {
+                    atomic = new AtomicLong(l.get());
+                } else {
+                    atomic = new AtomicBoolean(((AtomicBoolean) value).get());
+                }
+                copies.put(value, atomic);
+                return atomic;
+            }
+            default -> {
+                return copier.copyBean(value, copies);
+            }
+        }
+    }
+
+    /**
+     * Creates an empty collection or map to copy the given one into: of the same class if it can be instantiated,
+     * otherwise of the closest mutable JDK class
+     */
+    private Object newContainer(Object source) {
+        // Most common classes first, sized up front
+        Class<?> type = source.getClass();
+        if (type == ArrayList.class) {
+            return new ArrayList<>(((ArrayList<?>) source).size());
+        }
+        if (type == HashMap.class) {
+            return new HashMap<>(capacityOf(((HashMap<?, ?>) source).size()));
+        }
+        if (type == LinkedHashMap.class) {
+            return new LinkedHashMap<>(capacityOf(((LinkedHashMap<?, ?>) source).size()));
+        }
+        if (type == HashSet.class) {
+            return new HashSet<>(capacityOf(((HashSet<?>) source).size()));
+        }
+        if (type == LinkedHashSet.class) {
+            return new LinkedHashSet<>(capacityOf(((LinkedHashSet<?>) source).size()));
+        }
+        if (type == ConcurrentHashMap.class) {
+            return new ConcurrentHashMap<>(capacityOf(((ConcurrentHashMap<?, ?>) source).size()));
+        }
+        if (source instanceof SortedSet<?> set) {
+            return new TreeSet<>(set.comparator());
+        }
+        if (source instanceof SortedMap<?, ?> map) {
+            return new TreeMap<>(map.comparator());
+        }
+        if (source instanceof PriorityQueue<?> queue) {
+            return new PriorityQueue<>(queue.comparator());
+        }
+        if (constructor != null) {
+            try {
+                return (Object) constructor.invokeExact();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException("Failed to create " + type.getName(), e);
+            }
+        }
+        if (source instanceof List<?> list) {
+            return new ArrayList<>(list.size());
+        }
+        if (source instanceof Set<?>) {
+            return new LinkedHashSet<>();
+        }
+        if (source instanceof Deque<?>) {
+            return new LinkedList<>();
+        }
+        if (source instanceof Map<?, ?>) {
+            return new LinkedHashMap<>();
+        }
+        return new ArrayList<>();
+    }
+
+    private static int capacityOf(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    private static Kind kindOf(Class<?> type) {
+        if (isImmutable(type) || type.isRecord() || IMMUTABLE_TYPES.contains(type) || "java.time".equals(type.getPackageName())) {
+            return Kind.IMMUTABLE;
+        }
+        if (type.isArray()) {
+            return Kind.ARRAY;
+        }
+        if (EnumSet.class.isAssignableFrom(type)) {
+            return Kind.ENUM_SET;
+        }
+        if (EnumMap.class.isAssignableFrom(type)) {
+            return Kind.ENUM_MAP;
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            return Kind.COLLECTION;
+        }
+        if (Map.class.isAssignableFrom(type)) {
+            return Kind.MAP;
+        }
+        if (Date.class.isAssignableFrom(type)) {
+            return Kind.DATE;
+        }
+        if (type == AtomicInteger.class || type == AtomicLong.class || type == AtomicBoolean.class) {
+            return Kind.ATOMIC;
+        }
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isHidden() || type.getModule().isNamed()) {
+            return Kind.SHARED;
+        }
+        return Kind.BEAN;
+    }
+
+    /**
+     * Whether every value of a declared type is immutable, so that fields of the type can always be shared
+     */
+    private static boolean isImmutable(Class<?> type) {
+        return type.isPrimitive()
+                || Enum.class.isAssignableFrom(type)
+                || Phase.class.isAssignableFrom(type)
+                || Throwable.class.isAssignableFrom(type)
+                || (Modifier.isFinal(type.getModifiers()) && (IMMUTABLE_TYPES.contains(type) || "java.time".equals(type.getPackageName())));
+    }
+
+    /**
+     * @return no-arg constructor as () -> Object, null if there is none or it is not accessible
+     */
+    @Nullable
+    private static MethodHandle constructorOf(Class<?> type) {
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            if (!constructor.trySetAccessible()) {
+                return null;
+            }
+            return MethodHandles.lookup().unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        } catch (ReflectiveOperationException | SecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return handle (source, copies) -> copy creating the copy with the constructor, registering it, then copying the fields
+     */
+    private static MethodHandle beanCopier(MethodHandle constructor, MethodHandle fields) {
+        // (target, source, copies) -> target
+        MethodHandle fill = MethodHandles.foldArguments(
+                MethodHandles.dropArguments(MethodHandles.identity(Object.class), 1, Object.class, IdentityHashMap.class),
+                MethodHandles.foldArguments(fields, REGISTER));
+        return MethodHandles.foldArguments(fill, constructor);
+    }
+
+    private static void register(Object target, Object source, IdentityHashMap<Object, Object> copies) {
+        copies.put(source, target);
+    }
+
+    private static MethodHandle fieldsOf(Class<?> type) throws IllegalAccessException {
+        MethodHandle fields = MethodHandles.empty(FIELD_COPY);
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                Copy copy = field.getAnnotation(Copy.class);
+                Copy.Strategy strategy = copy != null ? copy.value() : isImmutable(field.getType()) ? Copy.Strategy.SHARE : Copy.Strategy.DEEP;
+                if (strategy == Copy.Strategy.SKIP) {
+                    continue;
+                }
+                field.setAccessible(true);
+                fields = MethodHandles.foldArguments(fields, fieldCopy(field, strategy == Copy.Strategy.DEEP && !field.getType().isPrimitive()));
+            }
+        }
+        return fields;
+    }
+
+    private static MethodHandle[] gettersOf(Class<?> type) throws IllegalAccessException {
+        List<MethodHandle> getters = new ArrayList<>();
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    getters.add(MethodHandles.lookup().unreflectGetter(field).asType(FIELD_GET));
+                }
+            }
+        }
+        return getters.toArray(new MethodHandle[0]);
+    }
+
+    /**
+     * @return handle writing the value, or the copy of the value, of the field of the source into the target
+     */
+    private static MethodHandle fieldCopy(Field field, boolean deep) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        // (target, value) -> void
+        MethodHandle setter = lookup.unreflectSetter(field);
+        // (source) -> value
+        MethodHandle getter = lookup.unreflectGetter(field);
+        MethodHandle copy;
+        if (deep) {
+            // (source, copies) -> copy of value
+            MethodHandle copier = MethodHandles.collectArguments(COPY_VALUE, 0, getter.asType(getter.type().changeReturnType(Object.class)));
+            copier = copier.asType(copier.type().changeReturnType(field.getType()));
+            copy = MethodHandles.collectArguments(setter, 1, copier);
+        } else {
+            copy = MethodHandles.dropArguments(MethodHandles.collectArguments(setter, 1, getter), 2, IdentityHashMap.class);
+        }
+        return copy.asType(FIELD_COPY);
+    }
+}
@@ -0,0 +1,309 @@
+package top.huzz.resilix.copy;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Merger of run contexts, copies the properties of a source object into a target object through their getters and setters.
+ * <p/>The merger of a class is built once, on first use: the getter and setter of every read-write property are
+ * resolved to method handles, and the handles of all properties are folded into a single handle per {@link MergePolicy},
+ * so a merge costs about as much as the equivalent hand-written setter calls.
+ * <p/>Properties are merged according to the policy of the merge, unless they carry a {@link Merge} annotation.
+ * <p/>{@link #snapshot(Object)} records the values of the properties of an object, and {@link #mergeChanges(Object, Object[], Object)}
+ * copies only the properties set to another value or modified in place since, whatever their annotations.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public final class ContextMerger<T> {
+    private static final ClassValue<ContextMerger<?>> MERGERS = new ClassValue<>() {
+        @Override
+        protected ContextMerger<?> computeValue(Class<?> type) {
+            return new ContextMerger<>(type);
+        }
+    };
+
+    /**
+     * Type of a property merger: (target, source) -> void
+     */
+    private static final MethodType PROPERTY_MERGE = MethodType.methodType(void.class, Object.class, Object.class);
+    /**
+     * Type of a property getter: (source) -> value
+     */
+    private static final MethodType PROPERTY_GET = MethodType.methodType(Object.class, Object.class);
+    private static final MethodHandle NON_NULL;
+    private static final MethodHandle MERGE_ALL;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            NON_NULL = lookup.findStatic(Objects.class, "nonNull", MethodType.methodType(boolean.class, Object.class));
+            MERGE_ALL = lookup.findStatic(ContextMerger.class, "mergeAll", MethodType.methodType(Object.class, Object.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Class<T> type;
+    /**
+     * Merger of all properties for each policy, indexed by {@link MergePolicy#ordinal()}
+     */
+    private final MethodHandle[] mergers;
+    /**
+     * Getter of each read-write property, (source) -> value
+     */
+    private final MethodHandle[] getters;
+    /**
+     * Setter of each read-write property, (target, value) -> void
+     */
+    private final MethodHandle[] setters;
+    /**
+     * Whether each read-write property has a primitive type, compared by value rather than by reference
+     */
+    private final boolean[] primitives;
+
+    private ContextMerger(Class<T> type) {
+        this.type = type;
+        MergePolicy[] policies = MergePolicy.values();
+        this.mergers = new MethodHandle[policies.length];
+        for (MergePolicy policy : policies) {
+            mergers[policy.ordinal()] = MethodHandles.empty(PROPERTY_MERGE);
+        }
+        List<MethodHandle> getters = new ArrayList<>();
+        List<MethodHandle> setters = new ArrayList<>();
+        List<Boolean> primitives = new ArrayList<>();
+        PropertyDescriptor[] descriptors;
+        try {
+            descriptors = Introspector.getBeanInfo(type).getPropertyDescriptors();
+        } catch (IntrospectionException e) {
+            throw new IllegalArgumentException("Failed to introspect " + type.getName(), e);
+        }
+        for (PropertyDescriptor descriptor : descriptors) {
+            Method read = descriptor.getReadMethod();
+            Method write = descriptor.getWriteMethod();
+            if (read == null || write == null || read.getReturnType() != write.getParameterTypes()[0]) {
+                continue;
+            }
+            try {
+                read.setAccessible(true);
+                write.setAccessible(true);
+                MethodHandles.Lookup lookup = MethodHandles.lookup();
+                MethodHandle getter = lookup.unreflect(read);
+                MethodHandle setter = lookup.unreflect(write);
+                MergePolicy declared = policyOf(type, descriptor.getName(), read);
+                for (MergePolicy policy : policies) {
+                    MethodHandle property = propertyMerger(getter, setter, declared != null ? declared : policy);
+                    mergers[policy.ordinal()] = MethodHandles.foldArguments(mergers[policy.ordinal()], property);
+                }
+                getters.add(getter.asType(PROPERTY_GET));
+                setters.add(setter.asType(PROPERTY_MERGE));
+                primitives.add(read.getReturnType().isPrimitive());
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalArgumentException("Property " + descriptor.getName() + " of " + type.getName() + " is not accessible", e);
+            }
+        }
+        this.getters = getters.toArray(new MethodHandle[0]);
+        this.setters = setters.toArray(new MethodHandle[0]);
+        this.primitives = new boolean[primitives.size()];
+        for (int i = 0; i < this.primitives.length; i++) {
+            this.primitives[i] = primitives.get(i);
+        }
+    }
+
+    /**
+     * @param type type of the objects to merge
+     * @param <T>  type
+     * @return merger of the type, built on first use
+     * @throws IllegalArgumentException if a property of the type is not accessible
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ContextMerger<T> of(@Nonnull Class<T> type) {
+        return (ContextMerger<T>) MERGERS.get(type);
+    }
+
+    /**
+     * Merges every read-write property of the source into the target, overwriting them
+     *
+     * @param target object to merge into
+     * @param source object to merge from
+     */
+    public void merge(@Nonnull T target, @Nonnull T source) {
+        merge(target, source, MergePolicy.OVERWRITE);
+    }
+
+    /**
+     * Merges every read-write property of the source into the target
+     *
+     * @param target object to merge into
+     * @param source object to merge from
+     * @param policy policy of the properties without {@link Merge} annotation
+     */
+    public void merge(@Nonnull T target, @Nonnull T source, @Nonnull MergePolicy policy) {
+        try {
+            Object checkedTarget = type.cast(target);
+            Object checkedSource = type.cast(source);
+            mergers[policy.ordinal()].invokeExact(checkedTarget, checkedSource);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to merge " + type.getName(), e);
+        }
+    }
+
+    /**
+     * Records the value of every read-write property of the source by reference, along with the {@link ContextCopier#trace(Object) trace}
+     * of the objects it reaches
+     *
+     * @param source object to record
+     * @return values and traces to pass to {@link #mergeChanges(Object, Object[], Object)}
+     */
+    @Nonnull
+    public Object[] snapshot(@Nonnull T source) {
+        Object checkedSource = type.cast(source);
+        Object[] values = new Object[getters.length * 2];
+        try {
+            for (int i = 0; i < getters.length; i++) {
+                Object value = (Object) getters[i].invokeExact(checkedSource);
+                values[i] = value;
+                values[getters.length + i] = primitives[i] ? null : ContextCopier.trace(value);
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to snapshot " + type.getName(), e);
+        }
+        return values;
+    }
+
+    /**
+     * Copies into the target every read-write property of the source that was set to another value since the snapshot,
+     * another reference or another value for primitive properties, or whose value was modified in place, e.g. an element
+     * added to a list or a property of a bean changed.
+     *
+     * @param target   object to merge into
+     * @param snapshot values recorded by {@link #snapshot(Object)} on the source
+     * @param source   object to merge from
+     */
+    public void mergeChanges(@Nonnull T target, @Nonnull Object[] snapshot, @Nonnull T source) {
+        if (snapshot.length != getters.length * 2) {
+            throw new IllegalArgumentException("Snapshot was not taken by the merger of " + type.getName());
+        }
+        Object checkedTarget = type.cast(target);
+        Object checkedSource = type.cast(source);
+        try {
+            for (int i = 0; i < getters.length; i++) {
+                Object value = (Object) getters[i].invokeExact(checkedSource);
+                boolean changed = primitives[i] ? !value.equals(snapshot[i])
+                        : value != snapshot[i] || !ContextCopier.unchanged(value, (Object[]) snapshot[getters.length + i]);
+                if (changed) {
+                    setters[i].invokeExact(checkedTarget, value);
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to merge " + type.getName(), e);
+        }
+    }
+
+    /**
+     * @return handle (target, source) -> void merging one property
+     */
+    private static MethodHandle propertyMerger(MethodHandle getter, MethodHandle setter, MergePolicy policy) {
+        Class<?> valueType = getter.type().returnType();
+        getter = getter.asType(MethodType.methodType(valueType, Object.class));
+        setter = setter.asType(MethodType.methodType(void.class, Object.class, valueType));
+        MethodHandle merger;
+        if (policy == MergePolicy.OVERWRITE || valueType.isPrimitive()) {
+            // (target, source) -> setter(target, getter(source))
+            merger = MethodHandles.collectArguments(setter, 1, getter);
+        } else if (policy == MergePolicy.MERGE_COLLECTIONS
+                && (Collection.class.isAssignableFrom(valueType) || Map.class.isAssignableFrom(valueType))) {
+            // (target, source) -> setter(target, mergeAll(getter(target), getter(source)))
+            MethodHandle asObject = getter.asType(getter.type().changeReturnType(Object.class));
+            MethodHandle merged = MethodHandles.filterArguments(MERGE_ALL, 0, asObject, asObject);
+            merged = merged.asType(merged.type().changeReturnType(valueType));
+            merger = MethodHandles.permuteArguments(MethodHandles.collectArguments(setter, 1, merged), PROPERTY_MERGE, 0, 0, 1);
+        } else {
+            // (target, value) -> value != null ? setter(target, value) : nothing
+            MethodHandle nonNull = MethodHandles.dropArguments(NON_NULL.asType(MethodType.methodType(boolean.class, valueType)), 0, Object.class);
+            MethodHandle setIfNonNull = MethodHandles.guardWithTest(nonNull, setter, MethodHandles.empty(setter.type()));
+            merger = MethodHandles.collectArguments(setIfNonNull, 1, getter);
+        }
+        return merger.asType(PROPERTY_MERGE);
+    }
+
+    /**
+     * Adds the incoming collection or map to the current one, the current one is replaced by a mutable copy
+     * if it cannot be modified
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object mergeAll(@Nullable Object current, @Nullable Object incoming) {
+        if (incoming == null || incoming == current) {
+            return current;
+        }
+        if (current == null) {
+            return incoming;
+        }
+        if (current instanceof Collection collection && incoming instanceof Collection) {
+            try {
+                collection.addAll((Collection) incoming);
+                return collection;
+            } catch (UnsupportedOperationException e) {
+                Collection copy = collection instanceof Set ? new LinkedHashSet<>(collection) : new ArrayList<>(collection);
+                copy.addAll((Collection) incoming);
+                return copy;
+            }
+        }
+        if (current instanceof Map map && incoming instanceof Map) {
+            try {
+                map.putAll((Map) incoming);
+                return map;
+            } catch (UnsupportedOperationException e) {
+                Map copy = new LinkedHashMap<>(map);
+                copy.putAll((Map) incoming);
+                return copy;
+            }
+        }
+        return incoming;
+    }
+
+    /**
+     * @return policy declared by a {@link Merge} annotation on the getter or the field of the property, null if none
+     */
+    @Nullable
+    private static MergePolicy policyOf(Class<?> type, String property, Method read) {
+        Merge merge = read.getAnnotation(Merge.class);
+        if (merge != null) {
+            return merge.value();
+        }
+        String capitalized = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (java.lang.reflect.Field field : current.getDeclaredFields()) {
+                if (field.getName().equals(property) || field.getName().equals("is" + capitalized)) {
+                    merge = field.getAnnotation(Merge.class);
+                    if (merge != null) {
+                        return merge.value();
+                    }
+                }
+            }
+        }
+        return null;
+    }
+}
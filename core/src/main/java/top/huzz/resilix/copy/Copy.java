@@ -0,0 +1,41 @@
+package top.huzz.resilix.copy;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares how {@link ContextCopier} copies a field when a run context is duplicated.
+ * <p/>Fields without this annotation are shared if their declared type is immutable, and deep copied otherwise.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Documented
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Copy {
+    /**
+     * @return how the field is copied
+     */
+    Strategy value();
+
+    enum Strategy {
+        /**
+         * The duplicate references the same value, for values that are immutable or meant to be shared between branches,
+         * such as clients and caches
+         */
+        SHARE,
+        /**
+         * The duplicate gets a deep copy of the value: collections, maps and arrays are copied along with their elements,
+         * and other objects field by field
+         */
+        DEEP,
+        /**
+         * The field is not copied, the duplicate keeps the value given by its no-arg constructor
+         */
+        SKIP
+    }
+}
@@ -0,0 +1,24 @@
+package top.huzz.resilix.copy;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares how {@link ContextMerger} merges a property, whatever the policy of the merge.
+ * Placed on the field backing the property or on its getter.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Documented
+@Target({ElementType.FIELD, ElementType.METHOD})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Merge {
+    /**
+     * @return how the property is merged
+     */
+    MergePolicy value();
+}
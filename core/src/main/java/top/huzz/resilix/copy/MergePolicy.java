@@ -0,0 +1,23 @@
+package top.huzz.resilix.copy;
+
+/**
+ * How {@link ContextMerger} merges a property of a source object into a target object
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public enum MergePolicy {
+    /**
+     * The target takes the value of the source, null included
+     */
+    OVERWRITE,
+    /**
+     * The target takes the value of the source unless it is null
+     */
+    SKIP_NULLS,
+    /**
+     * Collections and maps of the source are added to those of the target instead of replacing them,
+     * other properties are merged as with {@link #SKIP_NULLS}
+     */
+    MERGE_COLLECTIONS
+}
@@ -1,13 +1,18 @@
 package top.huzz.resilix.core;
 
-import com.alibaba.fastjson2.JSON;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Getter;
 import lombok.Setter;
-import org.apache.commons.beanutils.BeanUtils;
 import top.huzz.resilix.constants.EnvType;
 import top.huzz.resilix.cache.AwareCache;
+import top.huzz.resilix.codec.Tag;
+import top.huzz.resilix.copy.Copy;
+import top.huzz.resilix.copy.ContextCopier;
+import top.huzz.resilix.copy.ContextMerger;
+import top.huzz.resilix.copy.Merge;
+import top.huzz.resilix.copy.MergePolicy;
 
+import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -27,34 +32,101 @@ public abstract class AbstractRunContext implements RunContext, AwareCacheRunCon
     protected volatile static Map<AwareCache.Type, AwareCache> awareCacheMap = null;
 
     /** Whether the current phase is successful */
+    @Tag(1)
     protected boolean success;
     /** Exception from the current phase */
     @JsonIgnore
     protected Exception exception;
     /** Current phase */
+    @Tag(2)
     protected Phase currentPhase;
     /** Whether execution has stopped */
+    @Tag(3)
     protected boolean isStopped;
     /** Whether skipped due to idempotent judgment */
+    @Tag(4)
     protected boolean isSkipped;
+    /** Deadline of the whole run */
+    @Tag(5)
+    protected Instant deadline;
+    /** Id of the run, assigned when checkpointed */
+    @Tag(6)
+    protected String runId;
     /** Environment type */
+    @Tag(7)
     protected EnvType envType;
     /** Additional information */
     @JsonIgnore
+    @Copy(Copy.Strategy.SHARE)
     private Object extra;
 
+    /**
+     * Copies the fields of this context with its {@link ContextCopier}, see {@link Copy} to control how a field is copied.
+     * Subclasses must have a no-arg constructor.
+     */
     @Override
+    @SuppressWarnings("unchecked")
     public RunContext duplicate() {
-        return JSON.parseObject(JSON.toJSONString(this), this.getClass());
+        return ((ContextCopier<AbstractRunContext>) ContextCopier.of(getClass())).copy(this);
     }
 
     @Override
     public void cover(RunContext anotherContext) {
-        try {
-            BeanUtils.copyProperties(this, anotherContext);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to cover run context", e);
+        cover(anotherContext, MergePolicy.OVERWRITE);
+    }
+
+    /**
+     * Merges the read-write properties of the other context with the {@link ContextMerger} of the most specific class
+     * both contexts share, see {@link Merge} to control how a property is merged.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void cover(RunContext anotherContext, MergePolicy policy) {
+        Class<?> shared = getClass();
+        while (!shared.isInstance(anotherContext)) {
+            shared = shared.getSuperclass();
+        }
+        ((ContextMerger<Object>) ContextMerger.of(shared)).merge(this, anotherContext, policy);
+    }
+
+    /**
+     * Records the value of every read-write property with the {@link ContextMerger} of the class of this context
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object snapshot() {
+        return ((ContextMerger<AbstractRunContext>) ContextMerger.of(getClass())).snapshot(this);
+    }
+
+    /**
+     * Copies every property the branch set to another value since its snapshot was taken, with the {@link ContextMerger}
+     * of the class of this context, except the properties managed by the engine (phase, status, exception, deadline
+     * and run id). A value the branch modified in place, e.g. a list it added an element to, counts as written.
+     * When several branches write the same property, the last merged branch wins,
+     * so parallel phases should write disjoint properties. Without a snapshot, the context is covered with the branch.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public void merge(Object snapshot, RunContext branch) {
+        boolean success = this.success;
+        Exception exception = this.exception;
+        Phase currentPhase = this.currentPhase;
+        boolean isStopped = this.isStopped;
+        boolean isSkipped = this.isSkipped;
+        Instant deadline = this.deadline;
+        String runId = this.runId;
+        if (snapshot instanceof Object[] values && branch.getClass() == getClass()) {
+            ((ContextMerger<AbstractRunContext>) ContextMerger.of(getClass())).mergeChanges(this, values, (AbstractRunContext) branch);
+        } else {
+            cover(branch);
         }
+        this.success = success;
+        this.exception = exception;
+        this.currentPhase = currentPhase;
+        this.isStopped = isStopped;
+        this.isSkipped = isSkipped;
+        this.deadline = deadline;
+        this.runId = runId;
     }
 
     @Override
@@ -15,18 +15,27 @@ import top.huzz.resilix.additional.AdditionalContextAction;
 import top.huzz.resilix.additional.AwareCacheAdditionalContextAction;
 import top.huzz.resilix.cache.AwareCache;
 import top.huzz.resilix.callback.NopePhaseCallback;
+import top.huzz.resilix.bulkhead.Bulkhead;
 import top.huzz.resilix.callback.PhaseCallback;
+import top.huzz.resilix.codec.PhaseRegistry;
+import top.huzz.resilix.checkpoint.Checkpoint;
+import top.huzz.resilix.checkpoint.CheckpointStore;
+import top.huzz.resilix.circuitbreaker.CircuitBreaker;
+import top.huzz.resilix.circuitbreaker.CircuitBreakerState;
 import top.huzz.resilix.exception.IdempotentJudgeException;
-import top.huzz.resilix.exception.PhaseStoppedException;
-import top.huzz.resilix.exception.RemoteLaunchFailedException;
-import top.huzz.resilix.handler.RestApiTriggerRunHandler;
+import top.huzz.resilix.exception.PhaseTimeoutException;
+import top.huzz.resilix.handler.BatchRunHandler;
 import top.huzz.resilix.handler.RunHandler;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -47,10 +56,18 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
      * The first plan phase, usually the minimum phase among all handlers
      */
     protected final Phase firstPlanPhase;
+    /**
+     * Execution plan compiled from the phase class, indexed by phase ordinal
+     */
+    final PhasePlan plan;
     /**
      * Default thread pool for asynchronous phase calls
      */
     protected final ExecutorService poolExecutor;
+    /**
+     * Default execution mode of asynchronous phases without a custom executor
+     */
+    protected final ExecutionMode executionMode;
     /**
      * Asynchronous phase callback for triggering async phases
      */
@@ -84,6 +101,10 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
      * regardless of whether the final result is success or failure
      */
     protected final List<Consumer<RunContext>> finallyConsumer = new ArrayList<>();
+    /**
+     * Checkpoint store, null means runs are not checkpointed
+     */
+    protected volatile CheckpointStore checkpointStore;
     /**
      * Type of the context class
      */
@@ -97,7 +118,8 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
                               @Nullable List<AdditionalContextAction<RunContext>> additionalContextActions,
                               @Nullable Map<AwareCache.Type, AwareCache> envAwareCacheMap,
                               @Nullable PhaseRecorder<? extends RunContext> phaseRecorder,
-                              @Nullable IdempotentJudge globalIdempotentJudge
+                              @Nullable IdempotentJudge globalIdempotentJudge,
+                              @Nullable ExecutionMode executionMode
     ) {
         checkHandler(handlers);
         handlerMap = handlers.stream()
@@ -105,6 +127,9 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
                         Collectors.toMap(RunHandler::phase, Function.identity()),
                         Collections::unmodifiableMap));
         firstPlanPhase = handlerMap.keySet().stream().min(Comparator.comparingInt(Phase::ordinal)).orElse(null);
+        plan = new PhasePlan(handlers.get(0).phase().getValues(), handlerMap);
+        // Phases are encoded with the id of their class, which decoders must know before reading any context
+        PhaseRegistry.register(handlers.get(0).phase());
         precessFinallyConsumer(handlers);
 
         this.poolExecutor = poolExecutor == null ? Executors.newSingleThreadExecutor() : poolExecutor;
@@ -114,145 +139,338 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
         this.envAwareCacheMap = envAwareCacheMap == null ? Collections.emptyMap() : envAwareCacheMap;
         this.phaseRecorder = phaseRecorder == null ? new NopePhaseRecorder() : phaseRecorder;
         this.globalIdempotentJudge = globalIdempotentJudge;
+        this.executionMode = executionMode == null ? ExecutionMode.POOLED : executionMode;
         this.cxtClass = checkContextClass(handlers.get(0));
     }
 
 
     @Override
     public void start(RunContext context) throws NullPointerException, IllegalArgumentException {
+        checkContext(context);
+        new ChainRun(this, context, null, null).run();
+    }
+
+    @Override
+    public <C extends RunContext> CompletableFuture<C> startAsync(C context) throws NullPointerException, IllegalArgumentException {
+        checkContext(context);
+        RunTracker<C> tracker = new RunTracker<>(context);
+        ExecutorService executor = chainExecutor();
+        try {
+            executor.execute(new ChainRun(this, context, tracker, executor));
+        } catch (RejectedExecutionException e) {
+            tracker.fail(e);
+            tracker.arrive();
+        }
+        return tracker.future();
+    }
+
+    @Override
+    public void startBatch(List<? extends RunContext> contexts) throws NullPointerException, IllegalArgumentException {
+        if (contexts == null) {
+            throw new NullPointerException("RunContext list cannot be null");
+        }
+        contexts.forEach(this::checkContext);
+        if (!contexts.isEmpty()) {
+            new BatchRun(this, contexts).run();
+        }
+    }
+
+    private void checkContext(RunContext context) throws NullPointerException, IllegalArgumentException {
         if (context == null) {
             throw new NullPointerException("RunContext cannot be null");
         }
         if (!context.getClass().equals(cxtClass)) {
             throw new IllegalArgumentException("RunContext type mismatch, expected: " + cxtClass.getName() + ", but found: " + context.getClass().getName());
         }
-        try {
-            RunContext.setCurrentCtx(context);
-            // Support starting execution from any phase
-            Phase start = context.getCurrentPhase() != null ? context.getCurrentPhase() : firstPlanPhase;
-
-            safeDoAdditionalAction(context);
+    }
 
-            next(context, start);
-        } catch (IdempotentJudgeException e) {
-            log.warn("Idempotent judgment result is true, skipping execution of all subsequent phases, key: {}", e.getKey().idempotentKey());
-            context.setSkipped(true);
-        } finally {
+    /**
+     * Runs the logic that must be executed once the run has completed, regardless of its result
+     *
+     * @param context run context
+     */
+    void finish(RunContext context) {
+        CheckpointStore store = checkpointStore;
+        if (store != null && context.getRunId() != null) {
             try {
-                finallyConsumer.forEach(fc -> fc.accept(context));
+                store.complete(context.getRunId()).whenComplete((r, e) -> {
+                    if (e != null) {
+                        log.error("Failed to mark run {} as finished in checkpoint store", context.getRunId(), e);
+                    }
+                });
             } catch (Exception e) {
-                log.error("Exception occurred while executing finallyConsumer", e);
+                log.error("Failed to mark run {} as finished in checkpoint store", context.getRunId(), e);
             }
         }
+        try {
+            finallyConsumer.forEach(fc -> fc.accept(context));
+        } catch (Exception e) {
+            log.error("Exception occurred while executing finallyConsumer", e);
+        }
     }
 
-
-    private void next(RunContext context, @Nullable Phase phase) {
-        if (phase == null) {
-            RunContext.removeCurrentCtx();
+    /**
+     * Checkpoints the run after a successful phase, the checkpoint is written in the background
+     *
+     * @param context run context
+     * @param next    step the run continues with, null if the chain ends
+     */
+    void checkpoint(RunContext context, @Nullable PhasePlan.Step next) {
+        CheckpointStore store = checkpointStore;
+        if (store == null || next == null) {
             return;
         }
-        if (phase.isDeprecated()) {
-            next(context, phase.next());
-            return;
+        try {
+            if (context.getRunId() == null) {
+                context.setRunId(UUID.randomUUID().toString());
+                if (context.getRunId() == null) {
+                    // The context does not keep a run id, it cannot be checkpointed
+                    return;
+                }
+            }
+            store.save(Checkpoint.of(context, next.phase)).whenComplete((r, e) -> {
+                if (e != null) {
+                    log.error("Failed to checkpoint run {}", context.getRunId(), e);
+                }
+            });
+        } catch (Exception e) {
+            log.error("Failed to checkpoint run {}", context.getRunId(), e);
         }
-        RunHandler<RunContext> handler = handlerMap.get(phase);
-        if (handler == null) {
-            // If no corresponding handler is found, it means no handler is found locally, 
-            // possibly a remote call triggering the next phase, so end here directly
-            return;
+    }
+
+    @Override
+    public RunHandlerManager setCheckpointStore(@Nullable CheckpointStore checkpointStore) {
+        this.checkpointStore = checkpointStore;
+        return this;
+    }
+
+    @Override
+    public List<CompletableFuture<RunContext>> resumeUnfinished() {
+        CheckpointStore store = checkpointStore;
+        if (store == null) {
+            return Collections.emptyList();
+        }
+        String phaseClass = PhaseRegistry.phaseClassOf(firstPlanPhase).getName();
+        List<CompletableFuture<RunContext>> runs = new ArrayList<>();
+        for (Checkpoint checkpoint : store.recover(phaseClass)) {
+            Phase phase = plan.phaseAt(checkpoint.getPhaseOrdinal());
+            if (phase == null || !checkpoint.getContextClass().equals(cxtClass.getName())) {
+                log.warn("Checkpoint of run {} does not match phase {} and context {}, not resumed", checkpoint.getRunId(), phaseClass, cxtClass.getName());
+                continue;
+            }
+            RunContext context;
+            try {
+                context = checkpoint.restore(cxtClass);
+            } catch (Exception e) {
+                log.error("Failed to restore checkpoint of run {}, not resumed", checkpoint.getRunId(), e);
+                continue;
+            }
+            context.setCurrentPhase(phase);
+            log.info("Resuming run {} from phase {}", checkpoint.getRunId(), phase);
+            runs.add(startAsync(context));
         }
+        return runs;
+    }
 
-        // Set current phase
-        context.setCurrentPhase(phase);
-        // Default to success
-        context.setSuccess(true);
-        context.setException(null);
+    /**
+     * Hands an asynchronous phase to its executor, the phase runs on the given duplicate without being waited for.
+     *
+     * @param duplicate duplicate of the run context
+     * @param step      asynchronous step
+     * @param tracker   tracker of the run when started asynchronously, the phase is registered on it
+     */
+    void executeAsync(RunContext duplicate, PhasePlan.Step step, @Nullable RunTracker<?> tracker) {
+        if (tracker != null) {
+            tracker.fork();
+        }
+        CompletableFuture<Void> future;
+        try {
+            future = new PhaseExecution(this, duplicate, step).runAsync(executorOf(step.phase), false);
+        } catch (RejectedExecutionException e) {
+            if (tracker != null) {
+                tracker.arrive();
+            }
+            throw e;
+        }
+        future.whenComplete((r, e) -> {
+            if (e != null) {
+                if (tracker != null) {
+                    tracker.fail(e);
+                } else {
+                    log.error("Exception occurred while executing asynchronous phase {}", step.phase, e);
+                }
+            }
+            if (tracker != null) {
+                tracker.arrive();
+            }
+        });
+    }
+
+    /**
+     * @param phase phase of this manager
+     * @return bulkhead of the phase, exposing its rejection and wait counters, null if the phase has none
+     */
+    @Nullable
+    public Bulkhead bulkheadOf(@Nonnull Phase phase) {
+        PhasePlan.Step step = plan.resolve(phase);
+        return step == null || step.phase != phase ? null : step.bulkhead;
+    }
 
-        // Skip judgment
+    /**
+     * @param phase phase of this manager
+     * @return circuit breaker of the phase, exposing its state and rates, null if the phase has none
+     */
+    @Nullable
+    public CircuitBreaker circuitBreakerOf(@Nonnull Phase phase) {
+        PhasePlan.Step step = plan.resolve(phase);
+        return step == null || step.phase != phase ? null : step.circuitBreaker;
+    }
+
+    boolean shouldRun(RunContext context, RunHandler<RunContext> handler) {
         List<HandlerRunPredicate<RunContext>> runPredicate = handler.runPredicate();
         try {
-            if (runPredicate.stream().anyMatch(predicate -> !predicate.shouldRun(context))) {
-                next(context, context.getCurrentPhase().next());
-                return;
-            }
+            return runPredicate.stream().allMatch(predicate -> predicate.shouldRun(context));
         } catch (Exception e) {
             log.error("Exception occurred while executing judgment logic", e);
             throw new RuntimeException("Exception occurred while executing judgment logic", e);
         }
+    }
 
-        // Idempotent judgment
-        if (executeIdempotentJudge(context, phase)) {
-            return;
+    /**
+     * Resolves the executor of an asynchronous phase, the custom executor of the phase takes precedence,
+     * then the execution mode of the phase, then the execution mode of the manager.
+     *
+     * @param phase asynchronous phase
+     * @return executor to run the phase on
+     */
+    protected ExecutorService executorOf(Phase phase) {
+        ExecutorService customExecutor = phase.customExecutor();
+        if (customExecutor != null) {
+            return customExecutor;
         }
+        return executorOf(Objects.requireNonNullElse(phase.executionMode(), executionMode));
+    }
 
-        // Scenarios for using context copies
-        // 1. Asynchronous execution phase: To prevent the original context from being modified by other threads during asynchronous phase, causing unpredictable issues, so use a copy
-        // 2. Remote call triggering next phase: In this phase, it will remotely trigger the execution of the next phase, and the triggered phase may modify the context, so a copy is needed
-        if (phase.isAsync()) {
-            // Asynchronous execution
-            RunContext duplicate = context.duplicate();
-            ExecutorService poolExecutor = Objects.requireNonNullElse(phase.customExecutor(), this.poolExecutor);
-            poolExecutor.execute(() -> {
-                // Asynchronous phase requires resetting context because ThreadLocal is thread-isolated
-                RunContext.setCurrentCtx(duplicate);
-                execute(duplicate, handler);
-            });
-                            // Because handler may be provided by remote service, we need to use Phase from Context instead of Phase from handler, same below
-            next(context, context.getCurrentPhase().next());
-            return;
-        }
+    ExecutorService executorOf(ExecutionMode mode) {
+        return mode == ExecutionMode.VIRTUAL_THREAD ? PhaseExecutors.virtualThreadPerTask() : poolExecutor;
+    }
 
-        // Synchronous execution phase
-        execute(context, handler);
-        if (context.isSuccess()) {
-            next(context, context.getCurrentPhase().next());
+    /**
+     * Resolves the executor of a phase running concurrently with other work, i.e. a parallel branch or a micro-batch:
+     * the custom executor of the phase takes precedence, then virtual threads if the phase or else the manager runs
+     * in {@link ExecutionMode#VIRTUAL_THREAD} mode, then the shared bounded pool. The pool of the manager, a single
+     * thread by default, would run the branches of a stage or the batches of a phase one after the other.
+     *
+     * @param phase phase running concurrently
+     * @return executor to run the phase on
+     */
+    ExecutorService concurrentExecutorOf(Phase phase) {
+        ExecutorService customExecutor = phase.customExecutor();
+        if (customExecutor != null) {
+            return customExecutor;
         }
+        return Objects.requireNonNullElse(phase.executionMode(), executionMode) == ExecutionMode.VIRTUAL_THREAD
+                ? PhaseExecutors.virtualThreadPerTask() : PhaseExecutors.pooled();
     }
 
-    @SuppressWarnings("unchecked")
-    private void execute(RunContext context, RunHandler<RunContext> handler) {
-        PhaseRecorder<RunContext> recorder = handler.getRecorder();
-        if (recorder == null) {
-            recorder = (PhaseRecorder<RunContext>) phaseRecorder;
-        }
+    /**
+     * Resolves the executor of the chains started asynchronously. The pool of the manager is a single thread
+     * by default and is kept for asynchronous phases, chains run on virtual threads or on the shared bounded pool.
+     *
+     * @return executor to run and resume asynchronous chains on
+     */
+    ExecutorService chainExecutor() {
+        return executionMode == ExecutionMode.VIRTUAL_THREAD ? PhaseExecutors.virtualThreadPerTask() : PhaseExecutors.pooled();
+    }
 
-        // Current phase snapshot, if it's "remote call triggering next phase" type execution, it may modify the context, so snapshot is needed for Recorder
-        RunContext currentPhaseSnapshot = handler instanceof RestApiTriggerRunHandler ? context.duplicate() : context;
+    /**
+     * Calls the handler within the time budget of the phase, which is the smaller of the phase timeout
+     * and the time left before the deadline of the run. Without a budget, the handler is called on the current thread,
+     * otherwise it is called on the executor of the phase and the current thread does not wait for it.
+     *
+     * @param context run context
+     * @param step    step to run
+     * @return null if the handler has returned on the current thread, otherwise the future of the call,
+     * completed with null on success or with the failure, a {@link PhaseTimeoutException} as soon as the budget is exceeded
+     * @throws PhaseTimeoutException if the budget is already exhausted
+     * @throws Exception             exception thrown by the handler called on the current thread
+     */
+    @Nullable
+    CompletableFuture<Exception> handle(RunContext context, PhasePlan.Step step) throws Exception {
+        Instant deadline = context.getDeadline();
+        if (step.timeout == null && deadline == null) {
+            step.handler.handle(context);
+            return null;
+        }
+        return Watchdog.call(concurrentExecutorOf(step.phase), step.phase, budgetOf(deadline, step), context, () -> step.handler.handle(context));
+    }
 
+    /**
+     * Calls the batch handler once for all the contexts, within the timeout of the phase. The deadlines of the contexts
+     * do not bound the call, since a batch may gather unrelated runs: callers fail the contexts whose deadline has passed
+     * with {@link #checkDeadline(RunContext, PhasePlan.Step)} before handing the others over. With a timeout,
+     * the handler is called on the executor of the phase.
+     *
+     * @param contexts run contexts
+     * @param step     step to run, its handler is a {@link BatchRunHandler}
+     * @return future completed with null on success or with the failure, a {@link PhaseTimeoutException}
+     * as soon as the timeout is exceeded
+     */
+    @SuppressWarnings("unchecked")
+    CompletableFuture<Exception> handleBatch(List<RunContext> contexts, PhasePlan.Step step) {
+        BatchRunHandler<RunContext> handler = (BatchRunHandler<RunContext>) (RunHandler<?>) step.handler;
         try {
-            phaseStopStatusChecker.check(context);
-
-            // Phase start, record some data that needs to be stored
-            logReadyFor(context, recorder);
-
-            handler.handle(context);
-            logEnd(currentPhaseSnapshot, recorder, null);
-
-            // Execution successful, send event
-            Object extraInfo = null;
-            if (handler instanceof ExtraInfoProvider provider) {
-                extraInfo = provider.apply(context);
+            if (step.timeout == null) {
+                handler.handle(contexts);
+                return CompletableFuture.completedFuture(null);
             }
-            asyncPhaseCallback.callback(context, extraInfo);
+            return Watchdog.call(concurrentExecutorOf(step.phase), step.phase, budgetOf(null, step), null, () -> handler.handle(contexts));
         } catch (Exception e) {
-            failed(context, currentPhaseSnapshot, e);
-            if (e instanceof RemoteLaunchFailedException) {
-                // If it's a remote launch failure, this type of failure means the request wasn't even sent out, need to set failure flag on original context as well
-                failed(context, currentPhaseSnapshot, (Exception) e.getCause());
-            }
-            if (e instanceof PhaseStoppedException) {
-                context.setStopped(true);
-                currentPhaseSnapshot.setStopped(true);
-            }
+            return CompletableFuture.completedFuture(e);
+        }
+    }
 
-            logEnd(currentPhaseSnapshot, recorder, e);
-        } finally {
-            handler.postHandle(currentPhaseSnapshot);
+    /**
+     * Fails a context of a batch on its own once the deadline of its run has passed
+     *
+     * @param context run context
+     * @param step    step the context is about to run
+     * @throws PhaseTimeoutException if the deadline of the run has passed
+     */
+    static void checkDeadline(RunContext context, PhasePlan.Step step) throws PhaseTimeoutException {
+        Instant deadline = context.getDeadline();
+        if (deadline != null && !Instant.now().isBefore(deadline)) {
+            throw new PhaseTimeoutException(step.phase, Duration.ZERO, null);
         }
     }
 
-    private void failed(RunContext context, RunContext currentPhaseSnapshot, Exception e) {
+    /**
+     * @return time budget of the step in nanoseconds, given a timeout of the phase or a deadline
+     * @throws PhaseTimeoutException if the budget is already exhausted
+     */
+    private static long budgetOf(@Nullable Instant deadline, PhasePlan.Step step) {
+        long budget = step.timeout == null ? Long.MAX_VALUE : step.timeout.toNanos();
+        if (deadline != null) {
+            budget = Math.min(budget, Duration.between(Instant.now(), deadline).toNanos());
+        }
+        if (budget <= 0) {
+            throw new PhaseTimeoutException(step.phase, Duration.ZERO, null);
+        }
+        return budget;
+    }
+
+    /**
+     * @param handler handler that has just run successfully
+     * @param context run context
+     * @return additional information sent with the phase callback, null if the handler does not provide any
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    static Object extraInfoOf(RunHandler<RunContext> handler, RunContext context) {
+        return handler instanceof ExtraInfoProvider<?> provider ? ((ExtraInfoProvider<RunContext>) provider).apply(context) : null;
+    }
+
+    void failed(RunContext context, RunContext currentPhaseSnapshot, Exception e) {
         context.setSuccess(false);
         context.setException(e);
         currentPhaseSnapshot.setSuccess(false);
@@ -261,21 +479,69 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
 
 
     protected void logReadyFor(RunContext context, PhaseRecorder<RunContext> recorder) {
+        logReadyFor(context, recorder, 1);
+    }
+
+    protected void logReadyFor(RunContext context, PhaseRecorder<RunContext> recorder, int attempt) {
         try {
-            recorder.readyFor(context);
+            recorder.readyFor(context, attempt);
         } catch (Exception e) {
             log.error("Exception occurred while recording phase start", e);
         }
     }
 
     protected void logEnd(RunContext context, PhaseRecorder<RunContext> recorder, Exception e) {
+        logEnd(context, recorder, e, 1);
+    }
+
+    protected void logEnd(RunContext context, PhaseRecorder<RunContext> recorder, Exception e, int attempt) {
         try {
-            recorder.end(context, e);
+            recorder.end(context, e, attempt);
         } catch (Exception end) {
             log.error("Exception occurred while recording phase end", end);
         }
     }
 
+    protected void logReadyForAll(List<RunContext> contexts, PhaseRecorder<RunContext> recorder) {
+        try {
+            recorder.readyForAll(contexts);
+        } catch (Exception e) {
+            log.error("Exception occurred while recording phase start of a batch", e);
+        }
+    }
+
+    protected void logEndAll(List<RunContext> contexts, PhaseRecorder<RunContext> recorder) {
+        try {
+            recorder.endAll(contexts);
+        } catch (Exception e) {
+            log.error("Exception occurred while recording phase end of a batch", e);
+        }
+    }
+
+    protected void logFieldsWritten(RunContext context, PhaseRecorder<RunContext> recorder) {
+        if (context instanceof CopyOnWriteRunContext cow && cow.hasDirtyFields()) {
+            try {
+                recorder.fieldsWritten(context, cow.dirtyFields());
+            } catch (Exception e) {
+                log.error("Exception occurred while recording written fields", e);
+            }
+        }
+    }
+
+    protected void circuitStateChanged(RunContext context, PhaseRecorder<RunContext> recorder, CircuitBreaker breaker, CircuitBreakerState from, CircuitBreakerState to) {
+        log.warn("Circuit breaker of phase {} changed from {} to {}", breaker.getPhase(), from, to);
+        try {
+            recorder.circuitStateChanged(context, breaker, from, to);
+        } catch (Exception e) {
+            log.error("Exception occurred while recording circuit breaker state change", e);
+        }
+        try {
+            asyncPhaseCallback.circuitStateChanged(context, breaker, from, to);
+        } catch (Exception e) {
+            log.error("Exception occurred while calling back circuit breaker state change", e);
+        }
+    }
+
     private void precessFinallyConsumer(List<? extends RunHandler<RunContext>> handlers) {
         for (RunHandler<RunContext> handler : handlers) {
             finallyConsumer.add(handler::finallyHandle);
@@ -292,7 +558,7 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
      *
      * @param context  context
      * @param phase    phase
-     * @return true: The result of the idempotent judgment is to skip execution, false: Do not skip execution, continue to execute the next phase
+     * @return true: The result of the idempotent judgment is to skip execution of this phase and continue with the next one, false: Do not skip execution
      * @throws IdempotentJudgeException If idempotent judgment fails, it means that all phases below the current phase will not be executed
      * @see HandlerRunPredicate
      */
@@ -321,6 +587,57 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
         return false;
     }
 
+    /**
+     * Execute idempotent judgment for a batch of contexts in the same phase, see {@link #executeIdempotentJudge(RunContext, Phase)}.
+     * The judge of the phase checks all the keys of the batch and records the keys not executed yet at once.
+     * <p/>Contexts whose judgment skips all the phases below the current phase are marked skipped instead of throwing
+     * {@link IdempotentJudgeException}, so that the other contexts of the batch carry on.
+     *
+     * @param contexts contexts
+     * @param phase    phase
+     * @return for each context in order, true: skip execution of this phase, false: do not skip execution
+     */
+    protected boolean[] executeIdempotentJudge(List<RunContext> contexts, Phase phase) {
+        boolean[] skip = new boolean[contexts.size()];
+        IdempotentJudge idempotentJudge = idempotentJudgeMap.get(phase);
+        if (idempotentJudge == null) {
+            idempotentJudge = phase.idempotentJudge();
+        }
+        if (idempotentJudge == null) {
+            idempotentJudge = globalIdempotentJudge;
+        }
+        if (idempotentJudge == null) {
+            return skip;
+        }
+        List<IdempotentKey> keys = new ArrayList<>(contexts.size());
+        List<Integer> indexes = new ArrayList<>(contexts.size());
+        for (int i = 0; i < skip.length; i++) {
+            if (contexts.get(i) instanceof IdempotentKey key) {
+                keys.add(key);
+                indexes.add(i);
+            }
+        }
+        if (keys.isEmpty()) {
+            return skip;
+        }
+        // A key repeated within the batch is executed at its first occurrence only, as if the contexts had been started one by one
+        boolean[] executed = idempotentJudge.judgeAndPutAll(keys);
+        int skipped = 0;
+        for (int i = 0; i < executed.length; i++) {
+            if (!executed[i]) {
+                continue;
+            }
+            skipped++;
+            skip[indexes.get(i)] = true;
+            if (keys.get(i) instanceof SkippedIdempotentJudge) {
+                logSkipped(phase, keys.get(i));
+                contexts.get(indexes.get(i)).setSkipped(true);
+            }
+        }
+        log.info("Idempotent judge [{}] judged {} keys of phase {}, {} already executed", idempotentJudge.getClass().getName(), keys.size(), phase, skipped);
+        return skip;
+    }
+
     /**
      * Execute idempotent judgment
      *
@@ -337,24 +654,44 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
             return null;
         }
         String idempotentJudgeClass = idempotentJudge.getClass().getName();
-        log.info("Idempotent judge [{}] exists, key: {}", idempotentJudgeClass, key.idempotentKey());
-        if (idempotentJudge.judge(key)) {
-            log.info("Idempotent judge [{}] returned true, indicating that the task has been executed, skipping phase {} execution, key: {}", idempotentJudgeClass, phase, key.idempotentKey());
+        // The identifier of a key is only built when debugging, binary keys are judged without it
+        boolean logged = log.isDebugEnabled();
+        if (logged) {
+            log.debug("Idempotent judge [{}] exists, key: {}", idempotentJudgeClass, key.idempotentKey());
+        }
+        // Judged and put at once, so that concurrent runs with the same key do not both execute the phase
+        if (idempotentJudge.judgeAndPut(key)) {
+            if (logged) {
+                log.debug("Idempotent judge [{}] returned true, indicating that the task has been executed, skipping phase {} execution, key: {}", idempotentJudgeClass, phase, key.idempotentKey());
+            }
             if (key instanceof SkippedIdempotentJudge) {
                 throw new IdempotentJudgeException(key);
             }
-
-            next(context, context.getCurrentPhase().next());
             return true;
         } else {
-            log.info("Idempotent judge [{}] returned false, indicating that the task has not been executed, preparing to execute phase {}, key: {}", idempotentJudgeClass, phase, key.idempotentKey());
-            idempotentJudge.put(key);
+            if (logged) {
+                log.debug("Idempotent judge [{}] returned false, indicating that the task has not been executed, preparing to execute phase {}, key: {}", idempotentJudgeClass, phase, key.idempotentKey());
+            }
             return false;
         }
     }
 
+    /**
+     * Logs a run skipping all its subsequent phases after an idempotent judgment, the identifier of the key is only
+     * built when debugging, binary keys are judged without it
+     *
+     * @param phase phase judged
+     * @param key   idempotent key of the run
+     */
+    static void logSkipped(Phase phase, IdempotentKey key) {
+        log.warn("Idempotent judgment result is true, skipping execution of phase {} and all subsequent phases", phase);
+        if (log.isDebugEnabled()) {
+            log.debug("Idempotent key of the run skipping phase {}: {}", phase, key.idempotentKey());
+        }
+    }
+
     @SuppressWarnings("unchecked")
-    private void safeDoAdditionalAction(RunContext context) {
+    void safeDoAdditionalAction(RunContext context) {
         try {
             for (AdditionalContextAction<RunContext> additionalContextAction : additionalContextActions) {
                 if (context instanceof AwareCacheRunContext awareCacheRunContext) {
@@ -417,4 +754,3 @@ public abstract class AbstractRunHandlerManager implements RunHandlerManager {
         throw new IllegalArgumentException("Cannot resolve RunContext type from handler: " + handler.getClass().getName());
     }
 }
-
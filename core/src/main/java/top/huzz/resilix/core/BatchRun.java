@@ -0,0 +1,309 @@
+package top.huzz.resilix.core;
+
+import lombok.extern.slf4j.Slf4j;
+import top.huzz.resilix.exception.IdempotentJudgeException;
+import top.huzz.resilix.exception.PhaseStoppedException;
+import top.huzz.resilix.recorder.PhaseRecorder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs of the phase chain on a batch of contexts, driven together phase by phase.
+ * <p/>At each round, the contexts at the earliest phase go through it together: their predicates are evaluated,
+ * their idempotent judgment is done in one call to the judge, then a batched step handles them in one call to its
+ * handler while other steps run them one by one, exactly as {@link ChainRun} would. Every context of a step starts before
+ * the run waits for any of them, so that contexts waiting for a micro-batch, a backoff or a parallel stage wait together.
+ * Contexts whose chain has ended,
+ * failed, stopped or been skipped leave the batch. The run blocks its thread, like {@link ChainRun} without executor.
+ *
+ * @author chenji
+ * @see RunHandlerManager#startBatch(List)
+ * @since 1.0.2
+ */
+@Slf4j
+final class BatchRun {
+    private final AbstractRunHandlerManager manager;
+    private final List<? extends RunContext> contexts;
+    /**
+     * Next step of each context, null means its chain has ended
+     */
+    private final PhasePlan.Step[] steps;
+
+    BatchRun(AbstractRunHandlerManager manager, List<? extends RunContext> contexts) {
+        this.manager = manager;
+        this.contexts = contexts;
+        this.steps = new PhasePlan.Step[contexts.size()];
+    }
+
+    @SuppressWarnings("try")
+    void run() {
+        try {
+            for (int i = 0; i < steps.length; i++) {
+                RunContext context = contexts.get(i);
+                try (ContextScope ignored = ContextScope.bind(context)) {
+                    // Support starting execution from any phase
+                    Phase start = context.getCurrentPhase() != null ? context.getCurrentPhase() : manager.firstPlanPhase;
+                    manager.safeDoAdditionalAction(context);
+                    steps[i] = manager.plan.resolve(start);
+                }
+            }
+            PhasePlan.Step step;
+            while ((step = earliest()) != null) {
+                List<RunContext> group = new ArrayList<>();
+                List<Integer> indexes = new ArrayList<>();
+                for (int i = 0; i < steps.length; i++) {
+                    if (steps[i] == step) {
+                        group.add(contexts.get(i));
+                        indexes.add(i);
+                    }
+                }
+                if (step.stage != null) {
+                    runStage(step, group, indexes);
+                } else {
+                    runStep(step, group, indexes);
+                }
+            }
+        } finally {
+            for (RunContext context : contexts) {
+                try (ContextScope ignored = ContextScope.bind(context)) {
+                    manager.finish(context);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return step of the earliest phase any context has reached, null if every chain has ended
+     */
+    private PhasePlan.Step earliest() {
+        PhasePlan.Step earliest = null;
+        for (int i = 0; i < steps.length; i++) {
+            PhasePlan.Step step = steps[i];
+            if (step != null && step.handler == null) {
+                // No handler is found locally, possibly a remote call triggering the next phase, so the chain ends here
+                steps[i] = null;
+            } else if (step != null && (earliest == null || step.phase.ordinal() < earliest.phase.ordinal())) {
+                earliest = step;
+            }
+        }
+        return earliest;
+    }
+
+    @SuppressWarnings("try")
+    private void runStage(PhasePlan.Step step, List<RunContext> group, List<Integer> indexes) {
+        // Start the stages of all the contexts before joining any of them, no phase runs on the current thread
+        ParallelStage[] stages = new ParallelStage[group.size()];
+        for (int i = 0; i < stages.length; i++) {
+            try (ContextScope ignored = ContextScope.bind(group.get(i))) {
+                stages[i] = new ParallelStage(manager, group.get(i), step.stage, false);
+            } catch (IdempotentJudgeException e) {
+                AbstractRunHandlerManager.logSkipped(group.get(i).getCurrentPhase(), e.getKey());
+                group.get(i).setSkipped(true);
+                steps[indexes.get(i)] = null;
+            } catch (RuntimeException e) {
+                fail(indexes.get(i), e);
+            }
+        }
+        for (int i = 0; i < stages.length; i++) {
+            if (stages[i] == null) {
+                continue;
+            }
+            try (ContextScope ignored = ContextScope.bind(group.get(i))) {
+                advance(indexes.get(i), stages[i].join());
+            } catch (RuntimeException e) {
+                fail(indexes.get(i), e);
+            }
+        }
+    }
+
+    @SuppressWarnings("try")
+    private void runStep(PhasePlan.Step step, List<RunContext> group, List<Integer> indexes) {
+        List<RunContext> ready = new ArrayList<>(group.size());
+        List<Integer> readyIndexes = new ArrayList<>(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            RunContext context = group.get(i);
+            context.setCurrentPhase(step.phase);
+            context.setSuccess(true);
+            context.setException(null);
+            try (ContextScope ignored = ContextScope.bind(context)) {
+                if (manager.shouldRun(context, step.handler)) {
+                    ready.add(context);
+                    readyIndexes.add(indexes.get(i));
+                } else {
+                    steps[indexes.get(i)] = manager.plan.next(context, step);
+                }
+            } catch (RuntimeException e) {
+                fail(indexes.get(i), e);
+            }
+        }
+        if (ready.isEmpty()) {
+            return;
+        }
+
+        List<RunContext> running = new ArrayList<>(ready.size());
+        List<Integer> runningIndexes = new ArrayList<>(ready.size());
+        try {
+            boolean[] skip = manager.executeIdempotentJudge(ready, step.phase);
+            for (int i = 0; i < skip.length; i++) {
+                RunContext context = ready.get(i);
+                if (context.isSkipped()) {
+                    steps[readyIndexes.get(i)] = null;
+                } else if (skip[i]) {
+                    steps[readyIndexes.get(i)] = manager.plan.next(context, step);
+                } else {
+                    running.add(context);
+                    runningIndexes.add(readyIndexes.get(i));
+                }
+            }
+        } catch (RuntimeException e) {
+            for (int index : readyIndexes) {
+                fail(index, e);
+            }
+            return;
+        }
+
+        if (step.phase.isAsync()) {
+            for (int i = 0; i < running.size(); i++) {
+                try {
+                    manager.executeAsync(running.get(i).duplicate(), step, null);
+                    steps[runningIndexes.get(i)] = manager.plan.next(running.get(i), step);
+                } catch (RuntimeException e) {
+                    fail(runningIndexes.get(i), e);
+                }
+            }
+            return;
+        }
+        if (step.batched) {
+            handleBatch(step, running);
+        } else {
+            execute(step, running, runningIndexes);
+        }
+        for (int i = 0; i < running.size(); i++) {
+            int index = runningIndexes.get(i);
+            if (steps[index] == step) {
+                advance(index, step);
+            }
+        }
+    }
+
+    /**
+     * Runs the step on each context. Every context runs its first attempt before the run waits for any of them,
+     * then each wait is followed by the next attempt of its context, so that waits overlap instead of adding up.
+     */
+    private void execute(PhasePlan.Step step, List<RunContext> running, List<Integer> runningIndexes) {
+        PhaseExecution[] executions = new PhaseExecution[running.size()];
+        CompletableFuture<?>[] waits = new CompletableFuture<?>[running.size()];
+        for (int i = 0; i < executions.length; i++) {
+            try {
+                executions[i] = new PhaseExecution(manager, running.get(i), step);
+                waits[i] = executions[i].proceed();
+            } catch (RuntimeException e) {
+                fail(runningIndexes.get(i), e);
+            }
+        }
+        boolean waiting = true;
+        while (waiting) {
+            waiting = false;
+            for (int i = 0; i < executions.length; i++) {
+                if (waits[i] == null) {
+                    continue;
+                }
+                try {
+                    waits[i].join();
+                    waits[i] = executions[i].proceed();
+                    waiting |= waits[i] != null;
+                } catch (RuntimeException e) {
+                    waits[i] = null;
+                    fail(runningIndexes.get(i), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles the contexts in one call to the batch handler, with the recorder calls and callbacks of {@link PhaseExecution}
+     */
+    @SuppressWarnings({"unchecked", "try"})
+    private void handleBatch(PhasePlan.Step step, List<RunContext> running) {
+        PhaseRecorder<RunContext> handlerRecorder = step.handler.getRecorder();
+        PhaseRecorder<RunContext> recorder = handlerRecorder == null ? (PhaseRecorder<RunContext>) manager.phaseRecorder : handlerRecorder;
+        List<RunContext> batch = new ArrayList<>(running.size());
+        for (RunContext context : running) {
+            try (ContextScope ignored = ContextScope.bind(context)) {
+                manager.phaseStopStatusChecker.check(context);
+                AbstractRunHandlerManager.checkDeadline(context, step);
+                batch.add(context);
+            } catch (Exception e) {
+                failed(context, e);
+                manager.logEnd(context, recorder, e, 1);
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            manager.logReadyForAll(batch, recorder);
+            for (RunContext context : batch) {
+                if (context instanceof CopyOnWriteRunContext cow) {
+                    cow.clearDirty();
+                }
+            }
+            Exception failure = manager.handleBatch(batch, step).join();
+            if (failure != null) {
+                batch.forEach(context -> failed(context, failure));
+            }
+            for (RunContext context : batch) {
+                manager.logFieldsWritten(context, recorder);
+            }
+            manager.logEndAll(batch, recorder);
+
+            for (RunContext context : batch) {
+                if (!context.isSuccess()) {
+                    continue;
+                }
+                try (ContextScope ignored = ContextScope.bind(context)) {
+                    // Execution successful, send event
+                    manager.asyncPhaseCallback.callback(context, AbstractRunHandlerManager.extraInfoOf(step.handler, context));
+                } catch (Exception e) {
+                    failed(context, e);
+                }
+            }
+        }
+
+        for (RunContext context : running) {
+            try (ContextScope ignored = ContextScope.bind(context)) {
+                step.handler.postHandle(context);
+            } catch (RuntimeException e) {
+                failed(context, e);
+            }
+        }
+    }
+
+    private void failed(RunContext context, Exception e) {
+        manager.failed(context, context, e);
+        if (e instanceof PhaseStoppedException) {
+            context.setStopped(true);
+        }
+    }
+
+    private void advance(int index, PhasePlan.Step done) {
+        RunContext context = contexts.get(index);
+        if (!context.isSuccess()) {
+            steps[index] = null;
+            return;
+        }
+        steps[index] = manager.plan.next(context, done);
+        manager.checkpoint(context, steps[index]);
+    }
+
+    /**
+     * Ends the chain of a context on an engine failure, which only fails that context
+     */
+    private void fail(int index, RuntimeException e) {
+        log.error("Exception occurred while running phase {} of a batch", contexts.get(index).getCurrentPhase(), e);
+        RunContext context = contexts.get(index);
+        context.setSuccess(false);
+        context.setException(e);
+        steps[index] = null;
+    }
+}
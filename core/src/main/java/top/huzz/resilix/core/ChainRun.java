@@ -0,0 +1,200 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import top.huzz.resilix.exception.IdempotentJudgeException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A run of the phase chain on a context, driven as a loop over the compiled plan.
+ * <p/>Whenever a phase has to wait (e.g. the backoff before a retry, or the join of a parallel stage),
+ * a blocking run parks its thread, while a non-blocking run suspends and resumes on its executor once
+ * the wait is over, so that no thread is held in between.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Slf4j
+final class ChainRun implements Runnable {
+    private final AbstractRunHandlerManager manager;
+    private final RunContext context;
+    /**
+     * Tracker of the run when started asynchronously, asynchronous phases are registered on it
+     */
+    @Nullable
+    private final RunTracker<?> tracker;
+    /**
+     * Executor to resume on after a wait, null means the run blocks its thread while waiting
+     */
+    @Nullable
+    private final Executor executor;
+    private boolean started;
+    /**
+     * Next step to run, null means the chain has ended
+     */
+    private PhasePlan.Step step;
+    /**
+     * Phase waiting for its next attempt
+     */
+    private PhaseExecution execution;
+    /**
+     * Parallel stage waiting for its join
+     */
+    private ParallelStage stage;
+
+    ChainRun(AbstractRunHandlerManager manager, RunContext context, @Nullable RunTracker<?> tracker, @Nullable Executor executor) {
+        this.manager = manager;
+        this.context = context;
+        this.tracker = tracker;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts or resumes the run. Engine errors are rethrown by blocking runs and recorded on the tracker otherwise.
+     */
+    @Override
+    @SuppressWarnings("try")
+    public void run() {
+        boolean suspended = false;
+        try (ContextScope ignored = ContextScope.bind(context)) {
+            if (!started) {
+                started = true;
+                // Support starting execution from any phase
+                Phase start = context.getCurrentPhase() != null ? context.getCurrentPhase() : manager.firstPlanPhase;
+
+                manager.safeDoAdditionalAction(context);
+
+                step = manager.plan.resolve(start);
+            }
+            suspended = drive();
+        } catch (IdempotentJudgeException e) {
+            AbstractRunHandlerManager.logSkipped(context.getCurrentPhase(), e.getKey());
+            context.setSkipped(true);
+        } catch (RuntimeException | Error e) {
+            if (tracker == null) {
+                throw e;
+            }
+            tracker.fail(e);
+        } finally {
+            if (!suspended) {
+                complete();
+            }
+        }
+    }
+
+    /**
+     * Runs steps until the chain ends, a phase fails, a phase without a local handler is reached, or the run suspends.
+     *
+     * @return true if the run has suspended and will be resumed on the executor
+     */
+    private boolean drive() {
+        while (true) {
+            if (execution != null) {
+                CompletableFuture<?> wait = execution.proceed();
+                if (wait != null) {
+                    if (await(wait)) {
+                        return true;
+                    }
+                    continue;
+                }
+                PhasePlan.Step done = execution.step;
+                execution = null;
+                if (!context.isSuccess()) {
+                    return false;
+                }
+                step = manager.plan.next(context, done);
+                manager.checkpoint(context, step);
+                continue;
+            }
+            if (stage != null) {
+                if (await(stage.future())) {
+                    return true;
+                }
+                PhasePlan.Step done = stage.join();
+                stage = null;
+                if (!context.isSuccess()) {
+                    return false;
+                }
+                step = manager.plan.next(context, done);
+                manager.checkpoint(context, step);
+                continue;
+            }
+
+            if (step == null) {
+                return false;
+            }
+            if (step.handler == null) {
+                // If no corresponding handler is found, it means no handler is found locally,
+                // possibly a remote call triggering the next phase, so end here directly
+                return false;
+            }
+            if (step.stage != null) {
+                // Independent phases run in parallel and join here
+                stage = new ParallelStage(manager, context, step.stage, true);
+                continue;
+            }
+            Phase phase = step.phase;
+
+            // Set current phase
+            context.setCurrentPhase(phase);
+            // Default to success
+            context.setSuccess(true);
+            context.setException(null);
+
+            // Skip judgment and idempotent judgment
+            if (!manager.shouldRun(context, step.handler) || manager.executeIdempotentJudge(context, phase)) {
+                step = manager.plan.next(context, step);
+                continue;
+            }
+
+            // Scenarios for using context copies
+            // 1. Asynchronous execution phase: To prevent the original context from being modified by other threads during asynchronous phase, causing unpredictable issues, so use a copy
+            // 2. Remote call triggering next phase: In this phase, it will remotely trigger the execution of the next phase, and the triggered phase may modify the context, so a copy is needed
+            if (phase.isAsync()) {
+                manager.executeAsync(context.duplicate(), step, tracker);
+                // Because handler may be provided by remote service, we need to use Phase from Context instead of Phase from handler
+                step = manager.plan.next(context, step);
+                continue;
+            }
+
+            // Synchronous execution phase
+            execution = new PhaseExecution(manager, context, step);
+        }
+    }
+
+    /**
+     * @param wait future to wait for
+     * @return true if the run has suspended until the future completes, false if the future has completed
+     */
+    private boolean await(CompletableFuture<?> wait) {
+        if (wait.isDone()) {
+            return false;
+        }
+        if (executor == null) {
+            wait.join();
+            return false;
+        }
+        wait.whenComplete((r, e) -> {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException rejected) {
+                log.error("Failed to resume run of phase {}", context.getCurrentPhase(), rejected);
+                if (tracker != null) {
+                    tracker.fail(rejected);
+                }
+                complete();
+            }
+        });
+        return true;
+    }
+
+    private void complete() {
+        manager.finish(context);
+        if (tracker != null) {
+            tracker.arrive();
+        }
+    }
+}
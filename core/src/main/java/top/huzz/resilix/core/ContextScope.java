@@ -0,0 +1,198 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Binding of a run context to the current thread, for the code a phase calls without passing the context along.
+ * <p/>The engine binds the context of a run while the run drives its chain, predicates, idempotent judgments and
+ * finally consumers included, and binds the context of a phase for each attempt running on another thread, e.g. a parallel
+ * branch. Contexts are unbound however the run or the attempt ends. Bindings nest: closing a scope restores the context bound before it, and the
+ * thread holds nothing once the outermost scope is closed, so pooled threads never keep a context alive.
+ * <pre>{@code
+ * try (ContextScope scope = ContextScope.bind(context)) {
+ *     ...
+ * }
+ * }</pre>
+ * Tasks a handler hands to another thread see the context through {@link #propagating(Executor)} or {@link #wrap(Runnable)},
+ * which bind the context of the submitter while the task runs.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Slf4j
+public final class ContextScope implements AutoCloseable {
+    private static final ThreadLocal<ContextScope> CURRENT = new ThreadLocal<>();
+
+    private final RunContext context;
+    @Nullable
+    private ContextScope previous;
+    /**
+     * Whether the scope was opened by {@link RunContext#setCurrentCtx(RunContext)}, to be closed by {@link RunContext#removeCurrentCtx()}
+     */
+    private final boolean detached;
+    private boolean closed;
+
+    private ContextScope(RunContext context, @Nullable ContextScope previous, boolean detached) {
+        this.context = context;
+        this.previous = previous;
+        this.detached = detached;
+    }
+
+    /**
+     * Binds a context to the current thread until the returned scope is closed
+     *
+     * @param context context
+     * @return scope to close on the same thread
+     */
+    public static ContextScope bind(@Nonnull RunContext context) {
+        return bind(context, false);
+    }
+
+    private static ContextScope bind(RunContext context, boolean detached) {
+        ContextScope scope = new ContextScope(context, CURRENT.get(), detached);
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * @return context bound last to the current thread, null if none
+     */
+    @Nullable
+    public static RunContext current() {
+        ContextScope scope = CURRENT.get();
+        return scope == null ? null : scope.context;
+    }
+
+    /**
+     * @param ctxClass context class
+     * @param <C>      context type
+     * @return context of the class bound last to the current thread, null if none
+     */
+    @Nullable
+    public static <C extends RunContext> C current(@Nonnull Class<C> ctxClass) {
+        for (ContextScope scope = CURRENT.get(); scope != null; scope = scope.previous) {
+            if (ctxClass.isInstance(scope.context)) {
+                return ctxClass.cast(scope.context);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param ctxClass context class
+     * @return context of exactly the class bound last to the current thread, null if none
+     */
+    @Nullable
+    static RunContext currentOfClass(@Nonnull Class<? extends RunContext> ctxClass) {
+        for (ContextScope scope = CURRENT.get(); scope != null; scope = scope.previous) {
+            if (scope.context.getClass() == ctxClass) {
+                return scope.context;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param executor executor
+     * @return executor running each task with the context bound to the submitting thread at the time of submission
+     */
+    public static Executor propagating(@Nonnull Executor executor) {
+        return command -> executor.execute(wrap(command));
+    }
+
+    /**
+     * @param task task
+     * @return task running with the context bound to the current thread, the task itself if none is bound
+     */
+    @SuppressWarnings("try")
+    public static Runnable wrap(@Nonnull Runnable task) {
+        RunContext context = current();
+        if (context == null) {
+            return task;
+        }
+        return () -> {
+            try (ContextScope ignored = bind(context)) {
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * @param task task
+     * @param <V>  result type
+     * @return task running with the context bound to the current thread, the task itself if none is bound
+     */
+    @SuppressWarnings("try")
+    public static <V> Callable<V> wrap(@Nonnull Callable<V> task) {
+        RunContext context = current();
+        if (context == null) {
+            return task;
+        }
+        return () -> {
+            try (ContextScope ignored = bind(context)) {
+                return task.call();
+            }
+        };
+    }
+
+    /**
+     * Binds a context to the current thread until {@link #unbindDetached()} is called
+     */
+    static void bindDetached(@Nonnull RunContext context) {
+        bind(context, true);
+    }
+
+    /**
+     * Unbinds the contexts bound by {@link #bindDetached(RunContext)} on the current thread, the other scopes stay open
+     */
+    static void unbindDetached() {
+        ContextScope after = null;
+        for (ContextScope scope = CURRENT.get(); scope != null; scope = scope.previous) {
+            if (!scope.detached) {
+                after = scope;
+                continue;
+            }
+            scope.closed = true;
+            if (after != null) {
+                after.previous = scope.previous;
+            } else if (scope.previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(scope.previous);
+            }
+        }
+    }
+
+    /**
+     * Unbinds the context, restoring the context bound before it. Scopes closed out of order unbind the scopes
+     * opened after them as well.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        ContextScope current = CURRENT.get();
+        if (current != this) {
+            boolean detachedOnly = true;
+            for (ContextScope scope = current; scope != null && scope != this; scope = scope.previous) {
+                scope.closed = true;
+                detachedOnly &= scope.detached;
+            }
+            if (!detachedOnly) {
+                log.warn("Scope of {} is not the innermost one of the thread, closing the scopes opened after it", context.getClass().getName());
+            }
+        }
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
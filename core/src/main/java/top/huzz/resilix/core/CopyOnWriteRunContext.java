@@ -0,0 +1,312 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.Getter;
+import top.huzz.resilix.copy.ContextCopier;
+import top.huzz.resilix.copy.Copy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Copy-on-write run context, {@link #duplicate()} takes a snapshot in constant time, whatever the size of the context.
+ * <p/>The properties of the context live in slots declared as {@link Field}s, which the getters and setters go through:
+ * <pre>{@code
+ * public class OrderContext extends CopyOnWriteRunContext {
+ *     private static final Field<String> ORDER_ID = field(OrderContext.class, "orderId");
+ *     private static final Field<List<Item>> ITEMS = field(OrderContext.class, "items");
+ *
+ *     public String getOrderId() { return get(ORDER_ID); }
+ *     public void setOrderId(String orderId) { set(ORDER_ID, orderId); }
+ *     public List<Item> getItems() { return get(ITEMS); }
+ *     public void addItem(Item item) { mutable(ITEMS).add(item); }
+ * }
+ * }</pre>
+ * A duplicate shares the slots with its original until either side writes one, the writer then copies the slots,
+ * and a value that is modified in place through {@link #mutable(Field)} is deep copied on its first such access.
+ * Values returned by {@link #get(Field)} are shared and must not be modified in place.
+ * <p/>Every write marks its field dirty: the engine clears the marks before a phase, reports the written fields to the
+ * recorder of the phase, and merges a parallel branch by copying only the fields the branch wrote.
+ * Other fields declared by subclasses are copied eagerly by {@link #duplicate()} and are not merged from parallel branches.
+ *
+ * @author chenji
+ * @see top.huzz.resilix.recorder.PhaseRecorder#fieldsWritten(RunContext, Set)
+ * @since 1.0.2
+ */
+public abstract class CopyOnWriteRunContext extends AbstractRunContext {
+    /**
+     * Fields declared by each context class, in declaration order
+     */
+    private static final Map<Class<?>, List<Field<?>>> DECLARED = new ConcurrentHashMap<>();
+    /**
+     * Fields of each context class including inherited ones, indexed by slot
+     */
+    private static final ClassValue<Field<?>[]> LAYOUTS = new ClassValue<>() {
+        @Override
+        protected Field<?>[] computeValue(Class<?> type) {
+            List<Field<?>> fields = new ArrayList<>();
+            collect(type, fields);
+            return fields.toArray(new Field<?>[0]);
+        }
+
+        private void collect(Class<?> type, List<Field<?>> fields) {
+            if (type != CopyOnWriteRunContext.class) {
+                collect(type.getSuperclass(), fields);
+                fields.addAll(DECLARED.getOrDefault(type, List.of()));
+            }
+        }
+    };
+
+    /**
+     * Slot values, never written while shared with a duplicate
+     */
+    @Copy(Copy.Strategy.SHARE)
+    private Object[] slots;
+    @Copy(Copy.Strategy.SKIP)
+    private boolean shared;
+    /**
+     * Bits of the slots whose values are not shared with any duplicate, null if none
+     */
+    @Copy(Copy.Strategy.SKIP)
+    private long[] owned;
+    /**
+     * Bits of the slots written since the last {@link #clearDirty()}, null if none
+     */
+    @Copy(Copy.Strategy.SKIP)
+    private long[] dirty;
+
+    /**
+     * Declares a field of a context class, must be assigned to a static final field of that class
+     *
+     * @param owner context class declaring the field
+     * @param name  name of the property, as reported in the written fields
+     * @param <T>   type of the field
+     * @return field
+     */
+    protected static <T> Field<T> field(@Nonnull Class<? extends CopyOnWriteRunContext> owner, @Nonnull String name) {
+        return field(owner, name, null);
+    }
+
+    /**
+     * Declares a field of a context class, must be assigned to a static final field of that class
+     *
+     * @param owner        context class declaring the field
+     * @param name         name of the property, as reported in the written fields
+     * @param defaultValue value read while the field holds null, e.g. 0 for numbers
+     * @param <T>          type of the field
+     * @return field
+     */
+    protected static synchronized <T> Field<T> field(@Nonnull Class<? extends CopyOnWriteRunContext> owner, @Nonnull String name,
+                                                     @Nullable T defaultValue) {
+        List<Field<?>> declared = DECLARED.computeIfAbsent(owner, k -> new ArrayList<>());
+        int index = declared.size();
+        for (Class<?> type = owner.getSuperclass(); type != CopyOnWriteRunContext.class; type = type.getSuperclass()) {
+            index += DECLARED.getOrDefault(type, List.of()).size();
+        }
+        for (Class<?> type = owner; type != CopyOnWriteRunContext.class; type = type.getSuperclass()) {
+            for (Field<?> field : DECLARED.getOrDefault(type, List.of())) {
+                if (field.name.equals(name)) {
+                    throw new IllegalArgumentException("Field " + name + " is already declared by " + type.getName());
+                }
+            }
+        }
+        Field<T> field = new Field<>(owner, name, index, defaultValue);
+        declared.add(field);
+        return field;
+    }
+
+    /**
+     * Reads a field, the value may be shared with duplicates and must not be modified in place
+     *
+     * @param field field
+     * @param <T>   type of the field
+     * @return value of the field
+     */
+    @SuppressWarnings("unchecked")
+    protected final <T> T get(@Nonnull Field<T> field) {
+        int index = indexOf(field);
+        Object value = slots == null ? null : slots[index];
+        return value == null ? field.defaultValue : (T) value;
+    }
+
+    /**
+     * Writes a field
+     *
+     * @param field field
+     * @param value new value
+     * @param <T>   type of the field
+     */
+    protected final <T> void set(@Nonnull Field<T> field, @Nullable T value) {
+        int index = indexOf(field);
+        writableSlots()[index] = value;
+        owned = mark(owned, index);
+        dirty = mark(dirty, index);
+    }
+
+    /**
+     * Reads a field to modify its value in place, the value is deep copied first if it is shared with a duplicate
+     *
+     * @param field field
+     * @param <T>   type of the field
+     * @return value of the field, owned by this context
+     */
+    @SuppressWarnings("unchecked")
+    protected final <T> T mutable(@Nonnull Field<T> field) {
+        int index = indexOf(field);
+        Object value = slots == null ? null : slots[index];
+        if (value != null && !isMarked(owned, index)) {
+            value = ContextCopier.deepCopy(value);
+            writableSlots()[index] = value;
+            owned = mark(owned, index);
+        }
+        dirty = mark(dirty, index);
+        return value == null ? field.defaultValue : (T) value;
+    }
+
+    /**
+     * Takes a snapshot sharing the fields with this context, in constant time
+     */
+    @Override
+    public RunContext duplicate() {
+        CopyOnWriteRunContext copy = (CopyOnWriteRunContext) super.duplicate();
+        if (slots != null) {
+            shared = true;
+            owned = null;
+            copy.shared = true;
+        }
+        return copy;
+    }
+
+    /**
+     * Writes are tracked by the dirty marks, no snapshot is needed
+     */
+    @Override
+    public Object snapshot() {
+        return null;
+    }
+
+    /**
+     * Copies the fields the branch wrote, properties managed by the engine are left alone as in
+     * {@link AbstractRunContext#merge(Object, RunContext)}
+     */
+    @Override
+    public void merge(Object snapshot, RunContext branch) {
+        if (branch.getClass() != getClass()) {
+            super.merge(snapshot, branch);
+            return;
+        }
+        CopyOnWriteRunContext other = (CopyOnWriteRunContext) branch;
+        if (other.dirty == null) {
+            return;
+        }
+        for (int word = 0; word < other.dirty.length; word++) {
+            for (long bits = other.dirty[word]; bits != 0; bits &= bits - 1) {
+                int index = (word << 6) + Long.numberOfTrailingZeros(bits);
+                writableSlots()[index] = other.slots == null ? null : other.slots[index];
+                // The branch is discarded after the merge, its values are handed over
+                owned = isMarked(other.owned, index) ? mark(owned, index) : unmark(owned, index);
+                dirty = mark(dirty, index);
+            }
+        }
+    }
+
+    /**
+     * @return names of the fields written since the last {@link #clearDirty()}
+     */
+    @Nonnull
+    public Set<String> dirtyFields() {
+        if (dirty == null) {
+            return Collections.emptySet();
+        }
+        Field<?>[] layout = LAYOUTS.get(getClass());
+        Set<String> names = new LinkedHashSet<>();
+        for (int word = 0; word < dirty.length; word++) {
+            for (long bits = dirty[word]; bits != 0; bits &= bits - 1) {
+                names.add(layout[(word << 6) + Long.numberOfTrailingZeros(bits)].name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @return whether any field was written since the last {@link #clearDirty()}
+     */
+    public boolean hasDirtyFields() {
+        return dirty != null;
+    }
+
+    /**
+     * Forgets the fields written so far
+     */
+    public void clearDirty() {
+        dirty = null;
+    }
+
+    private int indexOf(Field<?> field) {
+        if (!field.owner.isInstance(this)) {
+            throw new IllegalArgumentException("Field " + field.name + " of " + field.owner.getName() + " does not belong to " + getClass().getName());
+        }
+        return field.index;
+    }
+
+    private Object[] writableSlots() {
+        if (slots == null) {
+            slots = new Object[LAYOUTS.get(getClass()).length];
+        } else if (shared) {
+            slots = slots.clone();
+        }
+        shared = false;
+        return slots;
+    }
+
+    private long[] mark(long[] bits, int index) {
+        if (bits == null) {
+            bits = new long[(LAYOUTS.get(getClass()).length + 63) >>> 6];
+        }
+        bits[index >>> 6] |= 1L << index;
+        return bits;
+    }
+
+    private static long[] unmark(long[] bits, int index) {
+        if (bits != null) {
+            bits[index >>> 6] &= ~(1L << index);
+        }
+        return bits;
+    }
+
+    private static boolean isMarked(long[] bits, int index) {
+        return bits != null && (bits[index >>> 6] & 1L << index) != 0;
+    }
+
+    /**
+     * Field of a copy-on-write context, declared with {@link #field(Class, String)}
+     *
+     * @param <T> type of the field
+     */
+    @Getter
+    public static final class Field<T> {
+        private final Class<? extends CopyOnWriteRunContext> owner;
+        private final String name;
+        private final int index;
+        @Nullable
+        private final T defaultValue;
+
+        private Field(Class<? extends CopyOnWriteRunContext> owner, String name, int index, @Nullable T defaultValue) {
+            this.owner = owner;
+            this.name = name;
+            this.index = index;
+            this.defaultValue = defaultValue;
+        }
+
+        @Override
+        public String toString() {
+            return owner.getSimpleName() + "." + name;
+        }
+    }
+}
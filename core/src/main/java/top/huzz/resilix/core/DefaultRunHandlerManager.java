@@ -1,6 +1,7 @@
 package top.huzz.resilix.core;
 
 import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
 import top.huzz.resilix.handler.RunHandler;
 
 import java.util.List;
@@ -13,6 +14,10 @@ import java.util.List;
  */
 public class DefaultRunHandlerManager extends AbstractRunHandlerManager {
     public DefaultRunHandlerManager(@Nonnull List<RunHandler<RunContext>> handlers) {
-        super(handlers, null, null, null, null, null, null, null);
+        this(handlers, null);
+    }
+
+    public DefaultRunHandlerManager(@Nonnull List<RunHandler<RunContext>> handlers, @Nullable ExecutionMode executionMode) {
+        super(handlers, null, null, null, null, null, null, null, executionMode);
     }
 }
@@ -1,10 +1,14 @@
 package top.huzz.resilix.core;
 
+import jakarta.annotation.Nullable;
+import top.huzz.resilix.checkpoint.CheckpointStore;
 import top.huzz.resilix.handler.RunHandler;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -17,15 +21,36 @@ public final class DefaultRunHandlerManagerFactory implements RunHandlerManagerF
 
     final RunHandlerCache runHandlerCache;
 
+    /**
+     * Default execution mode of asynchronous phases for the managers built by this factory
+     */
+    final ExecutionMode executionMode;
+
+    /**
+     * Checkpoint store of the managers built by this factory, null means runs are not checkpointed
+     */
+    final CheckpointStore checkpointStore;
+
     /**
      * Cache to hold RunHandlerManager instances for each phase class.
      * This is a thread-safe cache that ensures only one instance of RunHandlerManager is created for each phase class.
+     * It belongs to the factory, since its managers are built with the execution mode and checkpoint store of the factory.
      */
-    static final Map<Class<? extends Phase>, RunHandlerManager> managerCache = new ConcurrentHashMap<>();
+    final Map<Class<? extends Phase>, RunHandlerManager> managerCache = new ConcurrentHashMap<>();
 
     public DefaultRunHandlerManagerFactory(RunHandlerCache runHandlerCache) {
+        this(runHandlerCache, ExecutionMode.POOLED);
+    }
+
+    public DefaultRunHandlerManagerFactory(RunHandlerCache runHandlerCache, ExecutionMode executionMode) {
+        this(runHandlerCache, executionMode, null);
+    }
+
+    public DefaultRunHandlerManagerFactory(RunHandlerCache runHandlerCache, ExecutionMode executionMode, @Nullable CheckpointStore checkpointStore) {
         Objects.requireNonNull(runHandlerCache, "RunHandlerCache must not be null");
         this.runHandlerCache = runHandlerCache;
+        this.executionMode = Objects.requireNonNullElse(executionMode, ExecutionMode.POOLED);
+        this.checkpointStore = checkpointStore;
     }
 
     /**
@@ -38,15 +63,31 @@ public final class DefaultRunHandlerManagerFactory implements RunHandlerManagerF
     public RunHandlerManager build(Class<? extends Phase> phaseClass) {
         RunHandlerManager manager = managerCache.get(phaseClass);
         if (manager == null) {
-            synchronized (DefaultRunHandlerManager.class) {
+            synchronized (managerCache) {
                 manager = managerCache.get(phaseClass);
                 if (manager == null) {
                     List<RunHandler<RunContext>> runHandlers = runHandlerCache.getRunHandlers(phaseClass);
-                    manager = new DefaultRunHandlerManager(runHandlers);
+                    manager = new DefaultRunHandlerManager(runHandlers, executionMode).setCheckpointStore(checkpointStore);
                     managerCache.put(phaseClass, manager);
                 }
             }
         }
         return manager;
     }
+
+    /**
+     * Resumes the runs of every phase class left unfinished in the checkpoint store, usually on startup.
+     *
+     * @return futures of the resumed runs
+     * @see RunHandlerManager#resumeUnfinished()
+     */
+    public List<CompletableFuture<RunContext>> resumeUnfinished() {
+        List<CompletableFuture<RunContext>> runs = new ArrayList<>();
+        if (checkpointStore != null) {
+            for (Class<? extends Phase> phaseClass : runHandlerCache.getPhaseClasses()) {
+                runs.addAll(build(phaseClass).resumeUnfinished());
+            }
+        }
+        return runs;
+    }
 }
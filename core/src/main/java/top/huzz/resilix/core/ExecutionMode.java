@@ -0,0 +1,22 @@
+package top.huzz.resilix.core;
+
+/**
+ * Where asynchronous phases ({@link Phase#isAsync()}) are executed when the phase does not provide
+ * its own {@link Phase#customExecutor()}.
+ *
+ * @author chenji
+ * @see PhaseExecutors
+ * @since 1.0.2
+ */
+public enum ExecutionMode {
+    /**
+     * Run on the manager's thread pool, the default
+     */
+    POOLED,
+    /**
+     * Run each asynchronous phase on its own virtual thread, suitable for I/O-bound handlers doing blocking calls.
+     * Requires Java 21 or later at runtime, otherwise an error is logged and phases run on the bounded pool of
+     * {@link PhaseExecutors#pooled()}, which caps their concurrency instead of starting a thread per task.
+     */
+    VIRTUAL_THREAD
+}
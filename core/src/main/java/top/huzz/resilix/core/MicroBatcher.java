@@ -0,0 +1,145 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import top.huzz.resilix.exception.PhaseTimeoutException;
+import top.huzz.resilix.handler.MicroBatchRunHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers the contexts of concurrent runs reaching a phase with a {@link MicroBatchRunHandler} into batches,
+ * created when the execution plan is compiled.
+ * <p/>Batches are handled on the executor of the phase, never on the thread of a submitter, which has the context of its own
+ * run bound, nor on the timer flushing the batches that linger. Batches of the phase may be handled concurrently.
+ * <p/>The result of each context is the future returned on submission, completed with null once the batch has been
+ * handled successfully for the context, or with the failure of the context otherwise. The future never completes
+ * exceptionally, so that blocking runs can join it. A context whose run is past its deadline when the batch is handled
+ * fails on its own, the batch is only bounded by the timeout of the phase.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Slf4j
+final class MicroBatcher {
+    private final PhasePlan.Step step;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    /**
+     * Batch being gathered, null if none
+     */
+    private List<Entry> pending;
+
+    MicroBatcher(PhasePlan.Step step, MicroBatchRunHandler<?> handler) {
+        this.step = step;
+        this.maxBatchSize = handler.maxBatchSize();
+        this.lingerNanos = handler.linger().toNanos();
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize of phase " + step.phase + " must be at least 1, found: " + maxBatchSize);
+        }
+        if (lingerNanos < 0) {
+            throw new IllegalArgumentException("linger of phase " + step.phase + " must not be negative, found: " + handler.linger());
+        }
+    }
+
+    /**
+     * Adds the context to the current batch, the batch is dispatched at once if the context fills it up
+     *
+     * @param manager manager running the context
+     * @param context run context, must not be used until the returned future has completed
+     * @return result of the context
+     */
+    CompletableFuture<Exception> submit(AbstractRunHandlerManager manager, RunContext context) {
+        CompletableFuture<Exception> result = new CompletableFuture<>();
+        List<Entry> batch;
+        boolean first = false;
+        boolean full = false;
+        synchronized (this) {
+            if (pending == null) {
+                pending = new ArrayList<>(Math.min(maxBatchSize, 1024));
+                first = true;
+            }
+            batch = pending;
+            batch.add(new Entry(context, result));
+            if (batch.size() >= maxBatchSize) {
+                pending = null;
+                full = true;
+            }
+        }
+        if (full) {
+            dispatch(manager, batch);
+        } else if (first) {
+            PhaseExecutors.timer().schedule(() -> linger(manager, batch), lingerNanos, TimeUnit.NANOSECONDS);
+        }
+        return result;
+    }
+
+    private void linger(AbstractRunHandlerManager manager, List<Entry> batch) {
+        synchronized (this) {
+            if (pending != batch) {
+                // Already filled up and handled
+                return;
+            }
+            pending = null;
+        }
+        dispatch(manager, batch);
+    }
+
+    /**
+     * Hands the batch to the executor of the phase, the results of its contexts are completed with the rejection
+     * if the executor refuses it
+     */
+    private void dispatch(AbstractRunHandlerManager manager, List<Entry> batch) {
+        try {
+            manager.concurrentExecutorOf(step.phase).execute(() -> handle(manager, batch));
+        } catch (RejectedExecutionException e) {
+            batch.forEach(entry -> entry.result.complete(e));
+        }
+    }
+
+    private void handle(AbstractRunHandlerManager manager, List<Entry> entries) {
+        List<Entry> batch = new ArrayList<>(entries.size());
+        List<RunContext> contexts = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            try {
+                // The runs of a batch are unrelated, a run past its deadline fails on its own
+                AbstractRunHandlerManager.checkDeadline(entry.context, step);
+                batch.add(entry);
+                contexts.add(entry.context);
+            } catch (PhaseTimeoutException e) {
+                entry.result.complete(e);
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        CompletableFuture<Exception> call;
+        try {
+            call = manager.handleBatch(contexts, step);
+        } catch (Error e) {
+            complete(batch, new IllegalStateException("Error occurred while handling a batch of phase " + step.phase, e));
+            throw e;
+        }
+        call.thenAccept(failure -> complete(batch, failure));
+    }
+
+    private void complete(List<Entry> batch, @Nullable Exception failure) {
+        for (Entry entry : batch) {
+            RunContext context = entry.context;
+            Exception result = failure;
+            if (result == null && !context.isSuccess()) {
+                // Marked failed by the handler
+                result = context.getException() != null ? context.getException()
+                        : new IllegalStateException("Context marked failed by the batch handler of phase " + step.phase);
+            }
+            entry.result.complete(result);
+        }
+    }
+
+    private record Entry(RunContext context, CompletableFuture<Exception> result) {
+    }
+}
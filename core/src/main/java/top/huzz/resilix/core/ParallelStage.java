@@ -0,0 +1,154 @@
+package top.huzz.resilix.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A parallel stage in flight: its phases run at the same time and join back into the context.
+ * <p/>Predicates and idempotent judgments are evaluated on the context in chain order, then the first remaining
+ * phase runs on the context and the others on duplicates, each on its own executor; the first attempt of the phase
+ * running on the context may run on the current thread. At the join point,
+ * the changes of every successful duplicate are merged into the context, as told by the {@link RunContext#snapshot()}
+ * of the duplicate taken when it was forked; if any phase failed, the context takes the failure of the first failed
+ * phase in chain order. If a phase cannot be started, e.g. its executor rejects it, the phases after it are not
+ * started and the stage fails with the rejection once the phases already started have finished. A phase whose
+ * execution ends exceptionally, e.g. its executor rejects a retry or its handler throws an error, fails its branch.
+ *
+ * @author chenji
+ * @see Phase#dependsOn()
+ * @since 1.0.2
+ */
+final class ParallelStage {
+    private static final CompletableFuture<Void> NOT_STARTED = CompletableFuture.completedFuture(null);
+
+    private final RunContext context;
+    private final PhasePlan.Step[] stage;
+    private final List<PhasePlan.Step> ready;
+    /**
+     * Context of each ready phase, null for the phases that were not started
+     */
+    private final RunContext[] branches;
+    /**
+     * Snapshot of each duplicate taken when it was forked
+     */
+    private final Object[] snapshots;
+    private final CompletableFuture<Void> future;
+
+    /**
+     * Starts the stage
+     *
+     * @param manager manager of the run
+     * @param context run context
+     * @param stage   steps of the stage
+     * @param inline  whether the first attempt of the phase running on the context runs on the current thread
+     */
+    ParallelStage(AbstractRunHandlerManager manager, RunContext context, PhasePlan.Step[] stage, boolean inline) {
+        this.context = context;
+        this.stage = stage;
+        this.ready = new ArrayList<>(stage.length);
+        for (PhasePlan.Step member : stage) {
+            context.setCurrentPhase(member.phase);
+            context.setSuccess(true);
+            context.setException(null);
+            if (manager.shouldRun(context, member.handler) && !manager.executeIdempotentJudge(context, member.phase)) {
+                ready.add(member);
+            }
+        }
+
+        this.branches = new RunContext[ready.size()];
+        this.snapshots = new Object[ready.size()];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[ready.size()];
+        Arrays.fill(futures, NOT_STARTED);
+        boolean rejected = false;
+        for (int i = 1; i < ready.size() && !rejected; i++) {
+            PhasePlan.Step member = ready.get(i);
+            RunContext branch = context.duplicate();
+            branch.setCurrentPhase(member.phase);
+            branch.setSuccess(true);
+            branch.setException(null);
+            branches[i] = branch;
+            snapshots[i] = branch.snapshot();
+            try {
+                futures[i] = settle(branch, member, new PhaseExecution(manager, branch, member).runAsync(manager.concurrentExecutorOf(member.phase), false));
+            } catch (RuntimeException e) {
+                // The branch fails with the rejection, the branches already started are joined before the stage fails
+                branch.setSuccess(false);
+                branch.setException(e);
+                rejected = true;
+            }
+        }
+        if (!ready.isEmpty() && !rejected) {
+            PhasePlan.Step first = ready.get(0);
+            context.setCurrentPhase(first.phase);
+            branches[0] = context;
+            try {
+                futures[0] = settle(context, first, new PhaseExecution(manager, context, first).runAsync(manager.concurrentExecutorOf(first.phase), inline));
+            } catch (RuntimeException e) {
+                context.setSuccess(false);
+                context.setException(e);
+            }
+        }
+        this.future = CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Fails the branch if the execution of its phase ends exceptionally, so that the stage never completes exceptionally
+     *
+     * @return future completed normally when the phase has finished
+     */
+    private static CompletableFuture<Void> settle(RunContext branch, PhasePlan.Step member, CompletableFuture<Void> execution) {
+        return execution.handle((result, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                branch.setSuccess(false);
+                branch.setException(cause instanceof Exception exception ? exception
+                        : new IllegalStateException("Error occurred while handling phase " + member.phase, cause));
+            }
+            return null;
+        });
+    }
+
+    /**
+     * @return future completed when every phase of the stage has finished
+     */
+    CompletableFuture<Void> future() {
+        return future;
+    }
+
+    /**
+     * Joins the finished phases into the context, must be called once {@link #future()} has completed
+     *
+     * @return the failed step if any phase failed, otherwise the last step of the stage
+     */
+    PhasePlan.Step join() {
+        future.join();
+        int failed = branches.length > 0 && branches[0] != null && !context.isSuccess() ? 0 : -1;
+        for (int i = 1; i < branches.length; i++) {
+            RunContext branch = branches[i];
+            if (branch == null) {
+                continue;
+            }
+            if (branch.isSuccess()) {
+                context.merge(snapshots[i], branch);
+            } else if (failed < 0) {
+                failed = i;
+            }
+        }
+        if (failed >= 0) {
+            RunContext branch = branches[failed];
+            context.setCurrentPhase(ready.get(failed).phase);
+            context.setSuccess(false);
+            context.setException(branch.getException());
+            context.setStopped(context.isStopped() || branch.isStopped());
+            return ready.get(failed);
+        }
+        PhasePlan.Step last = stage[stage.length - 1];
+        context.setCurrentPhase(last.phase);
+        context.setSuccess(true);
+        context.setException(null);
+        return last;
+    }
+}
@@ -1,9 +1,19 @@
 package top.huzz.resilix.core;
 
 import jakarta.annotation.Nullable;
+import top.huzz.resilix.bulkhead.BulkheadConfig;
+import top.huzz.resilix.circuitbreaker.CircuitBreakerConfig;
+import top.huzz.resilix.exception.BulkheadFullException;
+import top.huzz.resilix.exception.CircuitBreakerOpenException;
+import top.huzz.resilix.exception.PhaseTimeoutException;
+import top.huzz.resilix.exception.RateLimitExceededException;
+import top.huzz.resilix.handler.RunHandler;
 import top.huzz.resilix.idempotent.IdempotentJudge;
 import top.huzz.resilix.idempotent.IdempotentKey;
+import top.huzz.resilix.ratelimit.RateLimiter;
+import top.huzz.resilix.retry.RetryPolicy;
 
+import java.time.Duration;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -15,6 +25,8 @@ import java.util.concurrent.ExecutorService;
 public interface Phase {
     /**
      * Sequence number, smaller values come first, cannot be duplicated.
+     * <p/>Enum-like numbering from 0 to the number of phases minus 1 is compiled into a plan indexed by ordinal,
+     * other numberings are supported as long as {@link #next()} is overridden accordingly.
      *
      * @return phase number
      */
@@ -55,6 +67,99 @@ public interface Phase {
         return null;
     }
 
+    /**
+     * Maximum execution time of the phase, the handler's {@link RunHandler#timeout()} takes precedence.
+     * A phase with a timeout has its handler called on the executor of the phase. When exceeded, the phase fails with
+     * {@link PhaseTimeoutException} at once and the thread running the handler is interrupted, whatever the handler
+     * does afterwards is ignored, see also {@link RunContext#getDeadline()}.
+     *
+     * @return timeout, null means no timeout
+     */
+    @Nullable
+    default Duration timeout() {
+        return null;
+    }
+
+    /**
+     * Retry policy of the phase, called once when the execution plan is compiled.
+     * Failed attempts are retried without blocking a thread while waiting for the backoff.
+     *
+     * @return retry policy, null means the phase is not retried
+     */
+    @Nullable
+    default RetryPolicy retryPolicy() {
+        return null;
+    }
+
+    /**
+     * Circuit breaker of the phase, called once when the execution plan is compiled, each manager keeps its own
+     * breaker per phase. While the circuit is open the phase fails fast with {@link CircuitBreakerOpenException}
+     * instead of calling the handler.
+     *
+     * @return circuit breaker configuration, null means the phase has no circuit breaker
+     */
+    @Nullable
+    default CircuitBreakerConfig circuitBreaker() {
+        return null;
+    }
+
+    /**
+     * Bulkhead of the phase, called once when the execution plan is compiled, each manager keeps its own
+     * bulkhead per phase. It caps the concurrent executions of the phase: synchronous executions wait on a
+     * semaphore, asynchronous and parallel ones wait in a bounded queue before reaching their executor.
+     * Rejected executions fail with {@link BulkheadFullException}.
+     *
+     * @return bulkhead configuration, null means the concurrency of the phase is not limited
+     */
+    @Nullable
+    default BulkheadConfig bulkhead() {
+        return null;
+    }
+
+    /**
+     * Rate limiter of the phase, called once when the execution plan is compiled. Unlike other policies the limiter
+     * is an instance, return the same one to share a quota, e.g. across the managers of a phase class.
+     * Attempts wait for their permit without blocking a thread, and fail with {@link RateLimitExceededException}
+     * if it cannot be obtained within {@link RateLimiter#getMaxWait()} or before the deadline of the run.
+     *
+     * @return rate limiter, null means the phase is not rate limited
+     */
+    @Nullable
+    default RateLimiter rateLimiter() {
+        return null;
+    }
+
+    /**
+     * If it's an asynchronous task without a {@link #customExecutor()}, you can use this method to choose
+     * where it runs instead of the mode of the manager
+     *
+     * @return execution mode, null means using the mode of the manager
+     */
+    @Nullable
+    default ExecutionMode executionMode() {
+        return null;
+    }
+
+    /**
+     * Phases this phase depends on. By default a phase depends on the previous phase of the chain.
+     * <p/>Consecutive phases whose dependencies were all completed before them form a parallel stage:
+     * the manager runs them at the same time on copies of the context, waits for all of them,
+     * then merges their changes into the context (see {@link RunContext#merge(Object, RunContext)})
+     * before the next phase runs. For example, with {@code LOAD, A, B, C, AGGREGATE} where {@code A},
+     * {@code B} and {@code C} depend on {@code LOAD} and {@code AGGREGATE} depends on {@code A}, {@code B}
+     * and {@code C}, the three enrichment phases run in parallel and {@code AGGREGATE} is the join point.
+     * <p/>Dependencies must come earlier in the chain (have a smaller ordinal). Asynchronous phases and phases
+     * without a local handler are never part of a parallel stage. Parallel phases run on their
+     * {@link #customExecutor()}, or on virtual threads in {@link ExecutionMode#VIRTUAL_THREAD} mode, or on the shared
+     * bounded pool of {@link PhaseExecutors#pooled()}.
+     *
+     * @return phases this phase depends on, null means depending on the previous phase
+     */
+    @Nullable
+    default Phase[] dependsOn() {
+        return null;
+    }
+
     /**
      * @return whether deprecated
      */
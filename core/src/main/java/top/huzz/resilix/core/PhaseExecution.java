@@ -0,0 +1,383 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import top.huzz.resilix.bulkhead.Bulkhead;
+import top.huzz.resilix.circuitbreaker.CircuitBreaker;
+import top.huzz.resilix.exception.BulkheadFullException;
+import top.huzz.resilix.exception.CircuitBreakerOpenException;
+import top.huzz.resilix.exception.PhaseStoppedException;
+import top.huzz.resilix.exception.RemoteLaunchFailedException;
+import top.huzz.resilix.exception.RateLimitExceededException;
+import top.huzz.resilix.handler.RestApiTriggerRunHandler;
+import top.huzz.resilix.ratelimit.RateLimiter;
+import top.huzz.resilix.recorder.PhaseRecorder;
+import top.huzz.resilix.retry.RetryPolicy;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Execution of a single phase on a context, driven one attempt at a time.
+ * <p/>{@link #proceed()} runs an attempt and either finishes the phase, or returns a future to wait for
+ * before the next attempt. Whoever drives the execution decides how to wait: blocking callers park,
+ * asynchronous ones resume on an executor once the future completes, so no thread sleeps during a backoff.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Slf4j
+final class PhaseExecution {
+    final RunContext context;
+    final PhasePlan.Step step;
+    private final AbstractRunHandlerManager manager;
+    private final PhaseRecorder<RunContext> recorder;
+    /**
+     * Current phase snapshot, if it's "remote call triggering next phase" type execution, it may modify the context, so snapshot is needed for Recorder
+     */
+    private final RunContext snapshot;
+    private final CircuitBreaker.StateListener stateListener;
+    private int attempt;
+    /**
+     * Whether the next attempt already holds a permit of the rate limiter, reserved before waiting for it
+     */
+    private boolean permitted;
+    /**
+     * Permit of the circuit breaker held by the current attempt
+     */
+    private CircuitBreaker.Permit permit;
+    /**
+     * Start of the current attempt in nanoseconds, measured when the phase has a circuit breaker
+     */
+    private long start;
+    /**
+     * Result of the handler call the current attempt waits for, a micro-batch or a call within a time budget,
+     * completed with null on success or with the failure
+     */
+    private CompletableFuture<Exception> pending;
+
+    @SuppressWarnings("unchecked")
+    PhaseExecution(AbstractRunHandlerManager manager, RunContext context, PhasePlan.Step step) {
+        this.manager = manager;
+        this.context = context;
+        this.step = step;
+        PhaseRecorder<RunContext> recorder = step.handler.getRecorder();
+        this.recorder = recorder == null ? (PhaseRecorder<RunContext>) manager.phaseRecorder : recorder;
+        this.snapshot = step.handler instanceof RestApiTriggerRunHandler ? context.duplicate() : context;
+        this.stateListener = (breaker, from, to) -> manager.circuitStateChanged(snapshot, this.recorder, breaker, from, to);
+    }
+
+    /**
+     * Runs the next attempt of the phase
+     *
+     * @return null if the phase has finished, successfully or not, otherwise a future to wait for before calling again
+     */
+    @Nullable
+    CompletableFuture<?> proceed() {
+        return proceed(false, null);
+    }
+
+    /**
+     * Runs the next attempt with the context bound to the thread. Runs bind their context for their whole duration,
+     * so the context is only bound here when the attempt runs on another thread, e.g. a parallel branch.
+     *
+     * @param slotHeld  whether the attempt already holds a permit of the bulkhead
+     * @param rejection reason the attempt was rejected before it could run, null if it runs
+     */
+    @Nullable
+    @SuppressWarnings("try")
+    private CompletableFuture<?> proceed(boolean slotHeld, @Nullable RuntimeException rejection) {
+        if (ContextScope.current() == context) {
+            return runAttempt(slotHeld, rejection);
+        }
+        try (ContextScope ignored = ContextScope.bind(context)) {
+            return runAttempt(slotHeld, rejection);
+        }
+    }
+
+    /**
+     * Runs an attempt with the context bound to the thread
+     */
+    @Nullable
+    private CompletableFuture<?> runAttempt(boolean slotHeld, @Nullable RuntimeException rejection) {
+        CompletableFuture<Exception> pending = this.pending;
+        if (pending != null) {
+            // The attempt has waited for its handler call, which has now ended or timed out
+            this.pending = null;
+            Exception failure = pending.join();
+            return finish(failure == null ? succeed() : fail(failure));
+        }
+        attempt++;
+        Bulkhead bulkhead = step.bulkhead;
+        boolean acquired = false;
+        CircuitBreaker breaker = step.circuitBreaker;
+        CompletableFuture<?> next;
+        try {
+            if (rejection != null) {
+                throw rejection;
+            }
+            manager.phaseStopStatusChecker.check(context);
+            if (step.rateLimiter != null && !permitted) {
+                long wait = reserve(step.rateLimiter);
+                if (wait > 0) {
+                    // Wait for the permit like for a backoff, this is not an attempt yet
+                    permitted = true;
+                    attempt--;
+                    return PhaseExecutors.delay(wait);
+                }
+            }
+            permitted = false;
+            if (bulkhead != null && !slotHeld) {
+                // Synchronous execution, wait on the semaphore of the bulkhead
+                if (!bulkhead.tryAcquire()) {
+                    throw new BulkheadFullException(step.phase);
+                }
+                acquired = true;
+            }
+            if (breaker != null) {
+                // Fail fast while the circuit is open
+                permit = breaker.tryAcquire(stateListener);
+                if (permit == null) {
+                    throw new CircuitBreakerOpenException(step.phase, breaker.getState());
+                }
+                start = System.nanoTime();
+            }
+
+            // Phase start, record some data that needs to be stored
+            manager.logReadyFor(context, recorder, attempt);
+            if (attempt == 1 && context instanceof CopyOnWriteRunContext cow) {
+                cow.clearDirty();
+            }
+
+            if (step.microBatcher != null) {
+                // Handled along with the contexts of other runs, the attempt resumes once the batch has been handled
+                this.pending = step.microBatcher.submit(manager, context);
+                return this.pending;
+            }
+            CompletableFuture<Exception> call = manager.handle(context, step);
+            if (call != null) {
+                // Called on another thread within the time budget, the attempt resumes once the call has ended or timed out
+                if (acquired) {
+                    // The permit of the bulkhead is held until the call ends or times out
+                    acquired = false;
+                    call.whenComplete((r, e) -> bulkhead.release());
+                }
+                this.pending = call;
+                return call;
+            }
+            next = succeed();
+        } catch (Exception e) {
+            next = fail(e);
+        } catch (Error e) {
+            try {
+                abort();
+            } catch (RuntimeException | Error suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        } finally {
+            if (acquired) {
+                bulkhead.release();
+            }
+        }
+        return finish(next);
+    }
+
+    /**
+     * Ends the phase on an error thrown by its attempt, which is not retried: the permit of the circuit breaker is
+     * settled as a failure, so that a half-open circuit gets its probe back, and the handler is post-handled
+     * as after any last attempt
+     */
+    private void abort() {
+        try {
+            CircuitBreaker.Permit permit = this.permit;
+            if (permit != null) {
+                this.permit = null;
+                step.circuitBreaker.onError(permit, System.nanoTime() - start, stateListener);
+            }
+        } finally {
+            step.handler.postHandle(snapshot);
+        }
+    }
+
+    /**
+     * @param next future to wait for before the next attempt, null if the phase has finished
+     */
+    @Nullable
+    private CompletableFuture<?> finish(@Nullable CompletableFuture<?> next) {
+        if (next == null) {
+            step.handler.postHandle(snapshot);
+        }
+        return next;
+    }
+
+    @Nullable
+    private CompletableFuture<?> succeed() {
+        try {
+            CircuitBreaker.Permit permit = this.permit;
+            if (permit != null) {
+                this.permit = null;
+                step.circuitBreaker.onSuccess(permit, System.nanoTime() - start, stateListener);
+            }
+            manager.logFieldsWritten(context, recorder);
+            manager.logEnd(snapshot, recorder, null, attempt);
+
+            // Execution successful, send event
+            manager.asyncPhaseCallback.callback(context, AbstractRunHandlerManager.extraInfoOf(step.handler, context));
+        } catch (Exception e) {
+            return fail(e);
+        }
+        return null;
+    }
+
+    @Nullable
+    private CompletableFuture<?> fail(Exception e) {
+        CircuitBreaker.Permit permit = this.permit;
+        if (permit != null) {
+            this.permit = null;
+            if (e instanceof PhaseStoppedException) {
+                step.circuitBreaker.release(permit);
+            } else {
+                step.circuitBreaker.onError(permit, System.nanoTime() - start, stateListener);
+            }
+        }
+        manager.failed(context, snapshot, e);
+        if (e instanceof RemoteLaunchFailedException) {
+            // If it's a remote launch failure, this type of failure means the request wasn't even sent out, need to set failure flag on original context as well
+            manager.failed(context, snapshot, (Exception) e.getCause());
+        }
+        if (e instanceof PhaseStoppedException) {
+            context.setStopped(true);
+            snapshot.setStopped(true);
+        }
+
+        manager.logFieldsWritten(context, recorder);
+        manager.logEnd(snapshot, recorder, e, attempt);
+
+        long backoff = backoffNanos(e);
+        if (backoff < 0) {
+            return null;
+        }
+        log.warn("Phase {} failed on attempt {}, retrying in {}ms", step.phase, attempt, TimeUnit.NANOSECONDS.toMillis(backoff), e);
+        reset(context);
+        reset(snapshot);
+        return PhaseExecutors.delay(backoff);
+    }
+
+    /**
+     * Runs the phase to its end without blocking any thread between attempts, every attempt after the first
+     * one runs on the given executor. With a bulkhead, attempts handed to the executor first wait in its queue for a permit.
+     *
+     * @param executor executor to run the attempts on
+     * @param inline   whether the first attempt runs on the current thread
+     * @return future completed when the phase has finished, successfully or not
+     * @throws RejectedExecutionException if the executor rejects the first attempt
+     */
+    CompletableFuture<Void> runAsync(Executor executor, boolean inline) throws RejectedExecutionException {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (inline) {
+            attempt(executor, done, false, null);
+        } else {
+            dispatch(executor, done);
+        }
+        return done;
+    }
+
+    private void dispatch(Executor executor, CompletableFuture<Void> done) {
+        Bulkhead bulkhead = step.bulkhead;
+        if (bulkhead == null) {
+            executor.execute(() -> attempt(executor, done, false, null));
+            return;
+        }
+        bulkhead.submit(executor, new Bulkhead.Task() {
+            @Override
+            public void run() {
+                attempt(executor, done, true, null);
+            }
+
+            @Override
+            public void reject(RuntimeException e) {
+                if (e instanceof RejectedExecutionException) {
+                    done.completeExceptionally(e);
+                    return;
+                }
+                // The attempt fails like any other, on the executor because the rejecting thread may be anyone's
+                try {
+                    executor.execute(() -> attempt(executor, done, false, e));
+                } catch (RejectedExecutionException rejected) {
+                    done.completeExceptionally(rejected);
+                }
+            }
+        });
+    }
+
+    private void resume(Executor executor, CompletableFuture<Void> done) {
+        try {
+            if (step.bulkhead == null) {
+                executor.execute(() -> attempt(executor, done, false, null));
+            } else {
+                // Dispatch from the executor, so that an attempt running on the caller runs on a worker, never on the timer
+                executor.execute(() -> dispatch(executor, done));
+            }
+        } catch (RejectedExecutionException rejected) {
+            done.completeExceptionally(rejected);
+        }
+    }
+
+    private void attempt(Executor executor, CompletableFuture<Void> done, boolean slotHeld, @Nullable RuntimeException rejection) {
+        try {
+            CompletableFuture<?> wait = proceed(slotHeld, rejection);
+            if (wait == null) {
+                done.complete(null);
+            } else {
+                wait.whenComplete((r, e) -> resume(executor, done));
+            }
+        } catch (RuntimeException | Error e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @param e exception of the attempt that has just failed
+     * @return backoff before the next attempt, negative if the phase should not be retried
+     */
+    private long backoffNanos(Exception e) {
+        RetryPolicy retryPolicy = step.retryPolicy;
+        if (retryPolicy == null || !retryPolicy.canRetry(attempt, e)) {
+            return -1;
+        }
+        long backoff = retryPolicy.backoffNanos(attempt);
+        Instant deadline = context.getDeadline();
+        if (deadline != null && Instant.now().plusNanos(backoff).isAfter(deadline)) {
+            // The next attempt could not start before the deadline of the run
+            return -1;
+        }
+        return backoff;
+    }
+
+    /**
+     * @return wait before the reserved permit may be used
+     * @throws RateLimitExceededException if no permit can be obtained within the maximum wait or before the deadline
+     */
+    private long reserve(RateLimiter rateLimiter) throws RateLimitExceededException {
+        long maxWait = rateLimiter.getMaxWait().toNanos();
+        Instant deadline = context.getDeadline();
+        if (deadline != null) {
+            maxWait = Math.max(0, Math.min(maxWait, Duration.between(Instant.now(), deadline).toNanos()));
+        }
+        long wait = rateLimiter.reserve(maxWait);
+        if (wait < 0) {
+            throw new RateLimitExceededException(step.phase, rateLimiter.getMaxWait());
+        }
+        return wait;
+    }
+
+    private static void reset(RunContext context) {
+        context.setSuccess(true);
+        context.setException(null);
+    }
+}
@@ -0,0 +1,147 @@
+package top.huzz.resilix.core;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors shared by phases, can also be returned from {@link Phase#customExecutor()}.
+ *
+ * @author chenji
+ * @see ExecutionMode
+ * @since 1.0.2
+ */
+@Slf4j
+public final class PhaseExecutors {
+    private static final int POOL_SIZE_PER_PROCESSOR = 4;
+    private static final int MIN_POOL_SIZE = 16;
+
+    private PhaseExecutors() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Shared executor starting a new virtual thread for each task. Virtual threads are only available
+     * since Java 21, on older runtimes this is the bounded pool of {@link #pooled()} instead, see
+     * {@link #isVirtualThreadSupported()}.
+     *
+     * @return shared thread-per-task executor, or the shared bounded pool, must not be shut down
+     */
+    public static ExecutorService virtualThreadPerTask() {
+        return VirtualThreadHolder.EXECUTOR;
+    }
+
+    /**
+     * Shared pool of daemon platform threads running the chains started asynchronously, see
+     * {@link RunHandlerManager#startAsync(RunContext)}. It has {@value #POOL_SIZE_PER_PROCESSOR} threads per processor,
+     * and {@value #MIN_POOL_SIZE} at least, so that handlers doing blocking calls do not stall the other runs; tasks
+     * beyond that wait in its queue. Idle threads are released after a minute.
+     *
+     * @return shared bounded pool, must not be shut down
+     */
+    public static ExecutorService pooled() {
+        return PooledHolder.EXECUTOR;
+    }
+
+    /**
+     * Shared timer used by the engine for timeouts and delayed tasks. Tasks scheduled on it must be short,
+     * handlers must never run on it.
+     *
+     * @return shared single-thread scheduler, must not be shut down
+     */
+    public static ScheduledExecutorService timer() {
+        return TimerHolder.TIMER;
+    }
+
+    /**
+     * @param nanos delay in nanoseconds
+     * @return future completed on the shared timer once the delay has elapsed
+     */
+    static CompletableFuture<Void> delay(long nanos) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (nanos <= 0) {
+            future.complete(null);
+        } else {
+            timer().schedule(() -> future.complete(null), nanos, TimeUnit.NANOSECONDS);
+        }
+        return future;
+    }
+
+    /**
+     * @return whether {@link #virtualThreadPerTask()} really runs tasks on virtual threads
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreadHolder.SUPPORTED;
+    }
+
+    private static final class VirtualThreadHolder {
+        static final boolean SUPPORTED;
+        static final ExecutorService EXECUTOR;
+
+        static {
+            ExecutorService executor;
+            try {
+                // Looked up reflectively because the library is compiled for Java 17
+                executor = (ExecutorService) MethodHandles.publicLookup()
+                        .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                        .invoke();
+            } catch (Throwable e) {
+                log.error("Virtual threads require Java 21 but the current runtime is Java {}, VIRTUAL_THREAD phases run on the"
+                        + " bounded pool of platform threads instead", Runtime.version().feature());
+                executor = null;
+            }
+            SUPPORTED = executor != null;
+            EXECUTOR = executor != null ? executor : pooled();
+        }
+    }
+
+    private static final class PooledHolder {
+        static final ExecutorService EXECUTOR;
+
+        static {
+            int size = Math.max(MIN_POOL_SIZE, Runtime.getRuntime().availableProcessors() * POOL_SIZE_PER_PROCESSOR);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(size, size, 1, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<>(), new DaemonThreadFactory("resilix-run-"));
+            executor.allowCoreThreadTimeOut(true);
+            EXECUTOR = executor;
+        }
+    }
+
+    private static final class TimerHolder {
+        static final ScheduledExecutorService TIMER;
+
+        static {
+            ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("resilix-timer-"));
+            // Most timeouts are cancelled before firing, do not keep them in the queue
+            timer.setRemoveOnCancelPolicy(true);
+            TIMER = timer;
+        }
+    }
+
+    static final class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.ObjectUtils;
+import top.huzz.resilix.bulkhead.Bulkhead;
+import top.huzz.resilix.bulkhead.BulkheadConfig;
+import top.huzz.resilix.circuitbreaker.CircuitBreaker;
+import top.huzz.resilix.circuitbreaker.CircuitBreakerConfig;
+import top.huzz.resilix.handler.BatchRunHandler;
+import top.huzz.resilix.handler.MicroBatchRunHandler;
+import top.huzz.resilix.handler.RestApiTriggerRunHandler;
+import top.huzz.resilix.handler.RunHandler;
+import top.huzz.resilix.ratelimit.RateLimiter;
+import top.huzz.resilix.retry.RetryPolicy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled execution plan of a phase class.
+ * <p/>The plan is built once per {@link RunHandlerManager}: every phase of the class gets a {@link Step}
+ * indexed by its {@link Phase#ordinal()}, deprecated phases are resolved to their first live successor,
+ * the next pointers are resolved and the handlers are bound, so running a chain is a plain loop over
+ * the steps without map lookups, {@link Phase#getValues()} copies or deprecation checks.
+ * Consecutive phases declaring independent {@link Phase#dependsOn()} are grouped into parallel stages.
+ * <p/>Phase classes whose ordinals are not exactly {@code 0..n-1}, e.g. sparse or custom numbering, are indexed
+ * by their position in {@link Phase#getValues()} instead, looked up in a map.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+final class PhasePlan {
+    /**
+     * Phases indexed by slot, used to verify that a phase really belongs to this plan
+     */
+    private final Phase[] phases;
+    /**
+     * Live step for each slot, deprecated phases point to their first live successor,
+     * null means the chain ends there
+     */
+    private final Step[] entries;
+    /**
+     * Slot of each phase when the ordinals are not exactly 0..n-1, null when the slot of a phase is its ordinal
+     */
+    @Nullable
+    private final Map<Phase, Integer> slots;
+    /**
+     * Handlers used to build steps for phases that do not belong to this plan
+     */
+    private final Map<Phase, RunHandler<RunContext>> handlerMap;
+
+    PhasePlan(@Nonnull Phase[] values, @Nonnull Map<Phase, RunHandler<RunContext>> handlerMap) {
+        this.handlerMap = handlerMap;
+        this.phases = new Phase[values.length];
+        this.entries = new Step[values.length];
+        this.slots = isDense(values) ? null : new HashMap<>();
+        Step[] steps = new Step[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Phase phase = values[i];
+            int slot = slots == null ? phase.ordinal() : i;
+            if (slots != null) {
+                slots.put(phase, slot);
+            }
+            phases[slot] = phase;
+            if (!phase.isDeprecated()) {
+                steps[slot] = new Step(phase, handlerMap.get(phase));
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            checkDependencies(phases[i]);
+            entries[i] = follow(phases[i], steps);
+        }
+        for (Step step : steps) {
+            if (step != null) {
+                step.next = follow(step.phase.next(), steps);
+            }
+        }
+        for (Step step : steps) {
+            if (step != null) {
+                step.stage = stageOf(step);
+            }
+        }
+    }
+
+    /**
+     * Resolves the step a chain should run when it reaches the given phase.
+     *
+     * @param phase phase the chain reached, may be null
+     * @return the first live step at or after the phase, null if the chain ends
+     */
+    @Nullable
+    Step resolve(@Nullable Phase phase) {
+        if (phase == null) {
+            return null;
+        }
+        int slot = slotOf(phase);
+        if (slot >= 0) {
+            return entries[slot];
+        }
+        // Phase from outside of this plan, resolve it the slow way
+        if (phase.isDeprecated()) {
+            return resolve(phase.next());
+        }
+        Step step = new Step(phase, handlerMap.get(phase));
+        step.next = resolve(phase.next());
+        return step;
+    }
+
+    /**
+     * @param ordinal phase ordinal
+     * @return phase of this plan with the given ordinal, null if there is none
+     */
+    @Nullable
+    Phase phaseAt(int ordinal) {
+        if (slots == null) {
+            return ordinal >= 0 && ordinal < phases.length ? phases[ordinal] : null;
+        }
+        for (Phase phase : phases) {
+            if (phase.ordinal() == ordinal) {
+                return phase;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the step following the given one. Because handlers may be provided by remote services,
+     * the phase of the context takes precedence over the phase of the step.
+     *
+     * @param context run context
+     * @param step    step that has just been run
+     * @return the next live step, null if the chain ends
+     */
+    @Nullable
+    Step next(@Nonnull RunContext context, @Nonnull Step step) {
+        Phase current = context.getCurrentPhase();
+        if (current == step.phase) {
+            return step.next;
+        }
+        return current == null ? null : resolve(current.next());
+    }
+
+    /**
+     * Collects the parallel stage headed by the given step: the following steps join the stage as long as
+     * they declare dependencies that are all outside of the stage.
+     *
+     * @param head first step of the stage
+     * @return steps of the stage in chain order, null if the step runs alone
+     */
+    @Nullable
+    private static Step[] stageOf(Step head) {
+        if (!isParallelizable(head)) {
+            return null;
+        }
+        List<Step> stage = new ArrayList<>();
+        stage.add(head);
+        for (Step step = head.next; step != null && isParallelizable(step); step = step.next) {
+            Phase[] dependencies = step.phase.dependsOn();
+            if (dependencies == null || stage.stream().anyMatch(s -> ArrayUtils.contains(dependencies, s.phase))) {
+                break;
+            }
+            stage.add(step);
+        }
+        return stage.size() > 1 ? stage.toArray(new Step[0]) : null;
+    }
+
+    private static boolean isParallelizable(Step step) {
+        return step.handler != null && !step.phase.isAsync();
+    }
+
+    private void checkDependencies(Phase phase) {
+        Phase[] dependencies = phase.dependsOn();
+        if (dependencies == null) {
+            return;
+        }
+        for (Phase dependency : dependencies) {
+            if (dependency == null || dependency.ordinal() >= phase.ordinal() || slotOf(dependency) < 0) {
+                throw new IllegalArgumentException("Phase " + phase + " can only depend on earlier phases of the same type, found: " + dependency);
+            }
+        }
+    }
+
+    private Step follow(@Nullable Phase phase, Step[] steps) {
+        // Bounded by the number of phases, guards against next() cycles among deprecated phases
+        for (int i = 0; phase != null && i <= phases.length; i++) {
+            int slot = slotOf(phase);
+            if (slot < 0) {
+                return resolve(phase);
+            }
+            if (steps[slot] != null) {
+                return steps[slot];
+            }
+            phase = phase.next();
+        }
+        return null;
+    }
+
+    /**
+     * @return slot of the phase, -1 if it does not belong to this plan
+     */
+    private int slotOf(Phase phase) {
+        if (slots != null) {
+            Integer slot = slots.get(phase);
+            return slot != null && phases[slot] == phase ? slot : -1;
+        }
+        int ordinal = phase.ordinal();
+        return ordinal >= 0 && ordinal < phases.length && phases[ordinal] == phase ? ordinal : -1;
+    }
+
+    /**
+     * @return whether the ordinals of the phases are exactly 0..n-1
+     */
+    private static boolean isDense(Phase[] values) {
+        boolean[] seen = new boolean[values.length];
+        for (Phase phase : values) {
+            int ordinal = phase.ordinal();
+            if (ordinal < 0 || ordinal >= values.length || seen[ordinal]) {
+                return false;
+            }
+            seen[ordinal] = true;
+        }
+        return true;
+    }
+
+    /**
+     * A compiled phase with its handler and next pointer bound
+     */
+    static final class Step {
+        final Phase phase;
+        /**
+         * Local handler, null means the phase is handled elsewhere (e.g. triggered remotely)
+         */
+        final RunHandler<RunContext> handler;
+        /**
+         * Next live step, null means the chain ends
+         */
+        Step next;
+        /**
+         * Steps running in parallel when the chain reaches this step, including this step,
+         * null means this step runs alone
+         */
+        Step[] stage;
+
+        /**
+         * Timeout of the handler or else of the phase, null means no timeout
+         */
+        final Duration timeout;
+        /**
+         * Retry policy of the phase, null means no retry
+         */
+        final RetryPolicy retryPolicy;
+        /**
+         * Circuit breaker of the phase, null means no circuit breaker
+         */
+        final CircuitBreaker circuitBreaker;
+        /**
+         * Bulkhead of the phase, null means no concurrency limit
+         */
+        final Bulkhead bulkhead;
+        /**
+         * Rate limiter of the phase, null means no rate limit
+         */
+        final RateLimiter rateLimiter;
+        /**
+         * Whether the contexts of a batch reaching this step are handled in one call, which requires a batch handler
+         * and no policy accounting each context on its own
+         */
+        final boolean batched;
+        /**
+         * Gatherer of the contexts of concurrent runs into batches, null unless the handler is a {@link MicroBatchRunHandler}
+         */
+        final MicroBatcher microBatcher;
+
+        Step(Phase phase, RunHandler<RunContext> handler) {
+            this.phase = phase;
+            this.handler = handler;
+            this.timeout = handler == null ? null : ObjectUtils.firstNonNull(handler.timeout(), phase.timeout());
+            this.retryPolicy = handler == null ? null : phase.retryPolicy();
+            CircuitBreakerConfig circuitBreaker = handler == null ? null : phase.circuitBreaker();
+            this.circuitBreaker = circuitBreaker == null ? null : new CircuitBreaker(phase, circuitBreaker);
+            BulkheadConfig bulkhead = handler == null ? null : phase.bulkhead();
+            this.bulkhead = bulkhead == null ? null : new Bulkhead(phase, bulkhead);
+            this.rateLimiter = handler == null ? null : phase.rateLimiter();
+            this.batched = handler instanceof BatchRunHandler && !(handler instanceof RestApiTriggerRunHandler)
+                    && retryPolicy == null && circuitBreaker == null && bulkhead == null && rateLimiter == null;
+            this.microBatcher = handler instanceof MicroBatchRunHandler<?> microBatchHandler ? new MicroBatcher(this, microBatchHandler) : null;
+        }
+    }
+}
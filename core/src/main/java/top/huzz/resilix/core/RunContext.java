@@ -1,7 +1,11 @@
 package top.huzz.resilix.core;
 
+import jakarta.annotation.Nullable;
 import top.huzz.resilix.constants.EnvType;
+import top.huzz.resilix.copy.MergePolicy;
+import top.huzz.resilix.exception.PhaseTimeoutException;
 
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -13,8 +17,11 @@ import java.util.Map;
  */
 public interface RunContext {
     /**
-     * Enum representing the different phases of a run context.
+     * Contexts of the current thread by class, no longer populated by the engine.
+     *
+     * @deprecated contexts are bound to the thread by {@link ContextScope}, use {@link #getCurrentCtx(Class)}.
      */
+    @Deprecated
     ThreadLocal<Map<Class<? extends RunContext>, RunContext>> CONTEXT = ThreadLocal.withInitial(HashMap::new);
 
     /**
@@ -36,6 +43,13 @@ public interface RunContext {
      */
     void setException(Exception e);
 
+    /**
+     * @return the exception that occurred during the current phase, or null if no exception occurred.
+     */
+    default Exception getException() {
+        return null;
+    }
+
     /**
      * set the current phase of the run context.
      *
@@ -60,6 +74,13 @@ public interface RunContext {
      */
     void setStopped(boolean stopped);
 
+    /**
+     * @return true if the run has skipped all its remaining phases due to idempotent judgment, false otherwise.
+     */
+    default boolean isSkipped() {
+        return false;
+    }
+
     /**
      * Sets the skipped status of the run context.
      *
@@ -67,6 +88,43 @@ public interface RunContext {
      */
     void setSkipped(boolean skip);
 
+    /**
+     * Deadline of the whole run. Once it has passed, the running phase is interrupted and fails with
+     * {@link PhaseTimeoutException}, and no further phase starts.
+     *
+     * @return deadline of the run, or null if the run has no deadline.
+     */
+    default Instant getDeadline() {
+        return null;
+    }
+
+    /**
+     * Sets the deadline of the whole run. The default implementation ignores it, contexts that do not keep a deadline
+     * run without one.
+     *
+     * @param deadline deadline of the run, null means no deadline.
+     */
+    default void setDeadline(Instant deadline) {
+    }
+
+    /**
+     * Id of the run, assigned when the run is first checkpointed and kept when it is resumed.
+     *
+     * @return run id, or null if the run has not been checkpointed.
+     * @see top.huzz.resilix.checkpoint.CheckpointStore
+     */
+    default String getRunId() {
+        return null;
+    }
+
+    /**
+     * Sets the id of the run. Ignored by default, the runs of contexts that do not keep their id are not checkpointed.
+     *
+     * @param runId run id.
+     */
+    default void setRunId(String runId) {
+    }
+
     /**
      * @return env type of the run context, which indicates the environment in which the run is executed.
      */
@@ -84,6 +142,45 @@ public interface RunContext {
      */
     void cover(RunContext anotherContext);
 
+    /**
+     * Covers the current run context with another run context, merging each property according to a policy.
+     * The default implementation only supports {@link MergePolicy#OVERWRITE}, with which it simply covers the current run context.
+     *
+     * @param anotherContext the run context to cover the current one with.
+     * @param policy         how the properties are merged.
+     * @throws UnsupportedOperationException if the policy is not supported by the run context.
+     */
+    default void cover(RunContext anotherContext, MergePolicy policy) {
+        if (policy != MergePolicy.OVERWRITE) {
+            throw new UnsupportedOperationException(getClass().getName() + " does not support the merge policy " + policy);
+        }
+        cover(anotherContext);
+    }
+
+    /**
+     * Records the properties of a parallel branch right after it has been forked from the current run context,
+     * the snapshot is passed back to {@link #merge(Object, RunContext)} to tell which properties the branch wrote.
+     * The default implementation records nothing.
+     *
+     * @return snapshot of the run context, null if none is needed to merge it.
+     */
+    @Nullable
+    default Object snapshot() {
+        return null;
+    }
+
+    /**
+     * Merges the changes a parallel branch made into the current run context. The branch has been forked
+     * from the current run context and {@code snapshot} is what {@link #snapshot()} returned on the branch
+     * right after the fork. The default implementation simply covers the current run context with the branch.
+     *
+     * @param snapshot snapshot of the branch taken when it was forked, may be null.
+     * @param branch   the run context of the branch.
+     */
+    default void merge(@Nullable Object snapshot, RunContext branch) {
+        cover(branch);
+    }
+
     /**
      * @return the extra information associated with the run context.
      */
@@ -98,26 +195,35 @@ public interface RunContext {
     /**
      * Get the current run context of the specified class type.
      *
-     * @param ctxClass the class type of the run context to retrieve.
+     * @param ctxClass the class type of the run context to retrieve, matched exactly.
      * @return the current run context of the specified class type, or null if not found.
+     * @see ContextScope#current(Class)
      */
     static RunContext getCurrentCtx(Class<? extends RunContext> ctxClass) {
-        return CONTEXT.get().get(ctxClass);
+        return ContextScope.currentOfClass(ctxClass);
     }
 
     /**
-     * Sets the current run context.
+     * Sets the current run context, it stays bound until {@link #removeCurrentCtx()} is called
+     * or the scope of the engine it was set in is closed.
      *
      * @param context the run context to set as the current context.
+     * @deprecated use {@link ContextScope#bind(RunContext)} and close the scope when done.
      */
+    @Deprecated
     static void setCurrentCtx(RunContext context) {
-        CONTEXT.get().put(context.getClass(), context);
+        ContextScope.bindDetached(context);
     }
 
     /**
-     * Removes the current run context from the thread-local storage.
+     * Removes the run contexts set by {@link #setCurrentCtx(RunContext)} on the current thread,
+     * the contexts bound by the engine stay bound.
+     *
+     * @deprecated close the scope returned by {@link ContextScope#bind(RunContext)} instead.
      */
+    @Deprecated
     static void removeCurrentCtx() {
+        ContextScope.unbindDetached();
         CONTEXT.remove();
     }
 }
@@ -30,6 +30,14 @@ public class RunHandlerCache {
         }
     }
 
+    /**
+     * @return phase classes that have run handlers
+     */
+    @Nonnull
+    public Set<Class<? extends Phase>> getPhaseClasses() {
+        return Collections.unmodifiableSet(runHandlersMap.keySet());
+    }
+
     @Nonnull
     public List<RunHandler<RunContext>> getRunHandlers(@Nonnull Class<? extends Phase> phaseClass) {
         Objects.requireNonNull(phaseClass, "Phase class must not be null");
@@ -1,9 +1,15 @@
 package top.huzz.resilix.core;
 
 import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import top.huzz.resilix.checkpoint.CheckpointStore;
 import top.huzz.resilix.exception.NewInstanceException;
 import top.huzz.resilix.idempotent.IdempotentJudge;
 
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * RunHandlerManager is responsible for managing the run process of a specific phase.
  *
@@ -20,6 +26,52 @@ public interface RunHandlerManager {
      */
     void start(RunContext context) throws NullPointerException, IllegalArgumentException;
 
+    /**
+     * Start run process with the given context without blocking the caller.
+     * <p/>The synchronous chain runs on virtual threads in {@link ExecutionMode#VIRTUAL_THREAD} mode and on the shared
+     * pool of {@link PhaseExecutors#pooled()} otherwise, asynchronous phases keep running on the executor of the manager
+     * or of their phase. The returned future completes once the
+     * synchronous chain and every asynchronous phase ({@link Phase#isAsync()}) of the run have finished.
+     * Phase failures do not complete the future exceptionally, they are reported on the context
+     * (and on the duplicates handed to asynchronous phases) exactly as with {@link #start(RunContext)};
+     * the future only completes exceptionally when the engine itself fails, e.g. a predicate throws
+     * or the executor rejects the run.
+     * <p/>The default implementation calls {@link #start(RunContext)} on the shared pool of {@link PhaseExecutors#pooled()}.
+     *
+     * @param context the run context, which contains the data needed for the run process.
+     * @param <C>     context type
+     * @return future completed with the given context once the whole run has finished.
+     * @throws NullPointerException     if the context is null.
+     * @throws IllegalArgumentException if the context is not valid or does not match the expected type for the run process.
+     */
+    default <C extends RunContext> CompletableFuture<C> startAsync(C context) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(context, "Context must not be null");
+        return CompletableFuture.supplyAsync(() -> {
+            start(context);
+            return context;
+        }, PhaseExecutors.pooled());
+    }
+
+    /**
+     * Start run processes with the given contexts, which go through each phase together, e.g. the records of a
+     * consumed batch of messages. The caller is blocked until every run has finished its synchronous chain.
+     * <p/>At each phase, the idempotent judgment of all the contexts is done in one call to the judge, and a
+     * {@link top.huzz.resilix.handler.BatchRunHandler} handles all of them in one call; other handlers handle them one by one.
+     * Each context keeps its own result: a context that fails, is stopped or is skipped leaves the batch,
+     * the others carry on. Asynchronous phases run on duplicates as with {@link #start(RunContext)}.
+     * <p/>The default implementation calls {@link #start(RunContext)} for each context in turn.
+     *
+     * @param contexts the run contexts.
+     * @throws NullPointerException     if the list or any context is null.
+     * @throws IllegalArgumentException if any context does not match the expected type for the run process.
+     */
+    default void startBatch(List<? extends RunContext> contexts) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(contexts, "Contexts must not be null");
+        for (RunContext context : contexts) {
+            start(Objects.requireNonNull(context, "Context must not be null"));
+        }
+    }
+
     /**
      * Starts the run process using a default context instance created from {@link #getCxtClass()}.
      *
@@ -52,4 +104,30 @@ public interface RunHandlerManager {
      * @return the current instance of RunHandlerManager, allowing for method chaining.
      */
     RunHandlerManager addIdempotentJudge(Phase phase, IdempotentJudge idempotentJudge);
+
+    /**
+     * Set the checkpoint store, the context of every run is then checkpointed after each successful phase.
+     * Managers that do not checkpoint their runs keep the default, which rejects any store but null.
+     *
+     * @param checkpointStore the checkpoint store, null to stop checkpointing.
+     * @return the current instance of RunHandlerManager, allowing for method chaining.
+     * @throws UnsupportedOperationException if a store is given to a manager that does not checkpoint its runs.
+     */
+    default RunHandlerManager setCheckpointStore(@Nullable CheckpointStore checkpointStore) {
+        if (checkpointStore != null) {
+            throw new UnsupportedOperationException(getClass().getName() + " does not checkpoint its runs");
+        }
+        return this;
+    }
+
+    /**
+     * Resume the runs of this manager left unfinished in the checkpoint store, e.g. by a crash, from the phase
+     * following their last completed phase. Usually called once on startup, each run is only resumed once.
+     * Resumes nothing by default, by managers that do not checkpoint their runs.
+     *
+     * @return futures of the resumed runs, see {@link #startAsync(RunContext)}.
+     */
+    default List<CompletableFuture<RunContext>> resumeUnfinished() {
+        return List.of();
+    }
 }
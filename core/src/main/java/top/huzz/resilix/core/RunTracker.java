@@ -0,0 +1,67 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nonnull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks everything a single run has in flight, i.e. its synchronous chain and every asynchronous phase
+ * it has handed to an executor, and completes a future once all of them have finished.
+ *
+ * @param <C> context type
+ * @author chenji
+ * @since 1.0.2
+ */
+final class RunTracker<C extends RunContext> {
+    private final C context;
+    private final CompletableFuture<C> future = new CompletableFuture<>();
+    /**
+     * Number of unfinished parts, starts at one for the synchronous chain
+     */
+    private final AtomicInteger pending = new AtomicInteger(1);
+    /**
+     * First unexpected error raised by the engine while running any part
+     */
+    private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    RunTracker(@Nonnull C context) {
+        this.context = context;
+    }
+
+    /**
+     * Registers a new part, must be called before the part is handed to an executor
+     */
+    void fork() {
+        pending.incrementAndGet();
+    }
+
+    /**
+     * Marks a part as finished, the last one completes the future
+     */
+    void arrive() {
+        if (pending.decrementAndGet() == 0) {
+            Throwable t = error.get();
+            if (t == null) {
+                future.complete(context);
+            } else {
+                future.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Records an unexpected engine error, the future completes exceptionally with the first one
+     *
+     * @param t error
+     */
+    void fail(@Nonnull Throwable t) {
+        error.compareAndSet(null, t);
+    }
+
+    @Nonnull
+    CompletableFuture<C> future() {
+        return future;
+    }
+}
@@ -0,0 +1,133 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import top.huzz.resilix.exception.PhaseTimeoutException;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Calls a handler on an executor within the time budget of its phase.
+ * <p/>The future of the call is completed with a {@link PhaseTimeoutException} as soon as the budget is exceeded,
+ * whether or not the handler returns: the handler is interrupted, so that blocking calls honoring interruption return
+ * early, and its later result is stale and ignored. A handler stuck in uninterruptible I/O keeps its worker until it
+ * returns but no longer holds up the run, and the watchdog makes sure the interrupt never leaks to the next task of the worker.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Slf4j
+final class Watchdog implements Runnable {
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int FINISHED = 2;
+    private static final int EXPIRED = 3;
+    private static final int INTERRUPTING = 4;
+    private static final int INTERRUPTED = 5;
+
+    private final Phase phase;
+    private final Duration timeout;
+    @Nullable
+    private final RunContext context;
+    private final Call call;
+    private final CompletableFuture<Exception> result = new CompletableFuture<>();
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    private volatile Thread thread;
+    private ScheduledFuture<?> timer;
+
+    private Watchdog(Phase phase, long budgetNanos, @Nullable RunContext context, Call call) {
+        this.phase = phase;
+        this.timeout = Duration.ofNanos(budgetNanos);
+        this.context = context;
+        this.call = call;
+    }
+
+    /**
+     * Calls the handler on the executor
+     *
+     * @param executor    executor to call the handler on
+     * @param phase       phase of the handler
+     * @param budgetNanos time budget in nanoseconds
+     * @param context     context to bind to the worker while the handler runs, null if none
+     * @param call        call of the handler
+     * @return future completed with null on success, or with the failure: the exception thrown by the handler,
+     * or a {@link PhaseTimeoutException} once the budget is exceeded
+     * @throws RejectedExecutionException if the executor rejects the call
+     */
+    static CompletableFuture<Exception> call(Executor executor, Phase phase, long budgetNanos, @Nullable RunContext context, Call call) {
+        Watchdog watchdog = new Watchdog(phase, budgetNanos, context, call);
+        watchdog.timer = PhaseExecutors.timer().schedule(watchdog::expire, budgetNanos, TimeUnit.NANOSECONDS);
+        try {
+            executor.execute(watchdog);
+        } catch (RejectedExecutionException e) {
+            watchdog.timer.cancel(false);
+            throw e;
+        }
+        return watchdog.result;
+    }
+
+    @Override
+    @SuppressWarnings("try")
+    public void run() {
+        thread = Thread.currentThread();
+        if (!state.compareAndSet(PENDING, RUNNING)) {
+            // Expired while waiting for a worker
+            return;
+        }
+        Exception failure = null;
+        try {
+            if (context == null || ContextScope.current() == context) {
+                call.call();
+            } else {
+                try (ContextScope ignored = ContextScope.bind(context)) {
+                    call.call();
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+        } catch (Error e) {
+            failure = new IllegalStateException("Error occurred while handling phase " + phase, e);
+            throw e;
+        } finally {
+            finish(failure);
+        }
+    }
+
+    private void finish(@Nullable Exception failure) {
+        if (state.compareAndSet(RUNNING, FINISHED)) {
+            timer.cancel(false);
+            result.complete(failure);
+            return;
+        }
+        while (state.get() != INTERRUPTED) {
+            Thread.onSpinWait();
+        }
+        // Clear the interrupt raised by the watchdog so that it does not leak to the next task of the worker
+        Thread.interrupted();
+        log.debug("Phase {} returned after its timeout of {}ms, its result is ignored", phase, timeout.toMillis(), failure);
+    }
+
+    private void expire() {
+        if (state.compareAndSet(PENDING, EXPIRED)) {
+            result.complete(new PhaseTimeoutException(phase, timeout, null));
+        } else if (state.compareAndSet(RUNNING, INTERRUPTING)) {
+            thread.interrupt();
+            state.set(INTERRUPTED);
+            result.complete(new PhaseTimeoutException(phase, timeout, null));
+        }
+    }
+
+    /**
+     * Call of a handler within the time budget of its phase
+     */
+    @FunctionalInterface
+    interface Call {
+        void call() throws Exception;
+    }
+}
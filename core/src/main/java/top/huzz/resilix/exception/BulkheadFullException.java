@@ -0,0 +1,20 @@
+package top.huzz.resilix.exception;
+
+import lombok.Getter;
+import top.huzz.resilix.core.Phase;
+
+/**
+ * Bulkhead full exception, the execution of the phase was rejected because all its permits were taken
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Getter
+public class BulkheadFullException extends RuntimeException {
+    private final Phase phase;
+
+    public BulkheadFullException(Phase phase) {
+        super("Bulkhead of phase " + phase + " is full, execution rejected");
+        this.phase = phase;
+    }
+}
@@ -0,0 +1,24 @@
+package top.huzz.resilix.exception;
+
+import lombok.Getter;
+import top.huzz.resilix.circuitbreaker.CircuitBreakerState;
+import top.huzz.resilix.core.Phase;
+
+/**
+ * Circuit breaker open exception, the call of the phase was not permitted because its circuit is open,
+ * or half-open with all probe calls already in flight
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Getter
+public class CircuitBreakerOpenException extends RuntimeException {
+    private final Phase phase;
+    private final CircuitBreakerState state;
+
+    public CircuitBreakerOpenException(Phase phase, CircuitBreakerState state) {
+        super("Circuit breaker of phase " + phase + " is " + state + ", call not permitted");
+        this.phase = phase;
+        this.state = state;
+    }
+}
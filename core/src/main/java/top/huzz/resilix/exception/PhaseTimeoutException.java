@@ -0,0 +1,24 @@
+package top.huzz.resilix.exception;
+
+import lombok.Getter;
+import top.huzz.resilix.core.Phase;
+
+import java.time.Duration;
+
+/**
+ * Phase timeout exception, the phase exceeded its timeout or the deadline of the run
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Getter
+public class PhaseTimeoutException extends RuntimeException {
+    private final Phase phase;
+    private final Duration timeout;
+
+    public PhaseTimeoutException(Phase phase, Duration timeout, Throwable cause) {
+        super("Phase " + phase + " timed out after " + timeout.toMillis() + "ms", cause);
+        this.phase = phase;
+        this.timeout = timeout;
+    }
+}
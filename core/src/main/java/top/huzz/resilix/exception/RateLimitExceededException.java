@@ -0,0 +1,24 @@
+package top.huzz.resilix.exception;
+
+import lombok.Getter;
+import top.huzz.resilix.core.Phase;
+
+import java.time.Duration;
+
+/**
+ * Rate limit exceeded exception, no permit of the rate limiter of the phase could be obtained within the maximum wait
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Getter
+public class RateLimitExceededException extends RuntimeException {
+    private final Phase phase;
+    private final Duration maxWait;
+
+    public RateLimitExceededException(Phase phase, Duration maxWait) {
+        super("Rate limit of phase " + phase + " exceeded, no permit within " + maxWait.toMillis() + "ms");
+        this.phase = phase;
+        this.maxWait = maxWait;
+    }
+}
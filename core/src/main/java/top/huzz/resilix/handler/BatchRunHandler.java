@@ -0,0 +1,46 @@
+package top.huzz.resilix.handler;
+
+import jakarta.annotation.Nonnull;
+import top.huzz.resilix.core.RunContext;
+
+import java.util.List;
+
+/**
+ * Run handler that handles many contexts in one call, e.g. to write them to a database in bulk.
+ * <p/>Contexts started together with {@link top.huzz.resilix.core.RunHandlerManager#startBatch(List)} that reach the phase
+ * together are handled by a single call to {@link #handle(List)}, a context started on its own is handled as a batch of one.
+ * Phases with a retry policy, circuit breaker, bulkhead or rate limiter handle the contexts of a batch one by one,
+ * so that each of them is retried and accounted on its own.
+ * <p/>Throwing fails every context of the batch. To fail some contexts only, mark them failed and return normally:
+ * <pre>{@code
+ * context.setSuccess(false);
+ * context.setException(e);
+ * }</pre>
+ *
+ * @param <C> context type
+ * @author chenji
+ * @since 1.0.2
+ */
+public interface BatchRunHandler<C extends RunContext> extends RunHandler<C> {
+    /**
+     * Core logic of the handler for a batch of contexts
+     *
+     * @param contexts contexts of the batch, all in this phase
+     * @throws Exception if the whole batch failed
+     */
+    void handle(@Nonnull List<C> contexts) throws Exception;
+
+    /**
+     * Handles the context as a batch of one, the failure it was marked with is thrown
+     *
+     * @param context execution context
+     * @throws Exception if the batch failed or the context was marked failed
+     */
+    @Override
+    default void handle(C context) throws Exception {
+        handle(List.of(context));
+        if (!context.isSuccess() && context.getException() != null) {
+            throw context.getException();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package top.huzz.resilix.handler;
+
+import jakarta.annotation.Nonnull;
+import top.huzz.resilix.core.RunContext;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Batch run handler whose phase gathers the contexts of independent concurrent runs into micro-batches,
+ * e.g. to turn many single-row inserts or single message sends into one bulk call.
+ * <p/>A context reaching the phase joins the current batch of the phase, the batch is handled by a single call to
+ * {@link #handle(List)} once it holds {@link #maxBatchSize()} contexts or once {@link #linger()} has elapsed since its
+ * first context joined, whichever comes first. Each run then resumes with its own result: blocking runs wait for the batch
+ * on their thread, non-blocking runs suspend and resume on their executor. Batches are handled on the
+ * {@link top.huzz.resilix.core.Phase#customExecutor() custom executor} of the phase, or else on virtual threads or the
+ * shared bounded pool like parallel phases, never on the thread of one of the runs.
+ * <p/>Retries, circuit breaker and rate limiter of the phase apply to each context on its own, a failed context joins
+ * another batch when retried. A bulkhead of the phase only bounds the contexts joining batches, not those waiting for one.
+ * The call to {@link #handle(List)} is bounded by the timeout of the phase only: a context whose run is past its deadline
+ * when its batch is handled fails on its own and is left out of the batch.
+ *
+ * @param <C> context type
+ * @author chenji
+ * @see BatchRunHandler
+ * @since 1.0.2
+ */
+public interface MicroBatchRunHandler<C extends RunContext> extends BatchRunHandler<C> {
+    /**
+     * @return number of contexts that triggers handling a batch at once, at least 1
+     */
+    default int maxBatchSize() {
+        return 100;
+    }
+
+    /**
+     * @return longest time a batch waits for more contexts after its first one
+     */
+    @Nonnull
+    default Duration linger() {
+        return Duration.ofMillis(5);
+    }
+}
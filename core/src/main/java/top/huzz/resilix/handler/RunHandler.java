@@ -2,6 +2,7 @@ package top.huzz.resilix.handler;
 
 
 import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
 import top.huzz.resilix.predicate.AlwaysRunPredicate;
 import top.huzz.resilix.predicate.HandlerRunPredicate;
 import top.huzz.resilix.recorder.NopePhaseRecorder;
@@ -10,6 +11,7 @@ import top.huzz.resilix.core.FinallyHandler;
 import top.huzz.resilix.core.Phase;
 import top.huzz.resilix.core.RunContext;
 
+import java.time.Duration;
 import java.util.List;
 
 /**
@@ -45,6 +47,16 @@ public interface RunHandler<C extends RunContext> extends FinallyHandler<C> {
         // do nothing
     }
 
+    /**
+     * Maximum execution time of this handler, takes precedence over {@link Phase#timeout()}
+     *
+     * @return timeout, null means using the timeout of the phase
+     */
+    @Nullable
+    default Duration timeout() {
+        return null;
+    }
+
     /**
      * @return Phase recorder
      */
@@ -0,0 +1,60 @@
+package top.huzz.resilix.idempotent;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.PrimitiveSink;
+import jakarta.annotation.Nonnull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Idempotent key made of primitive components, judged by hashing its components directly instead of building
+ * an identifier string, e.g. the topic, partition and offset of a message.
+ * <pre>{@code
+ * public void writeTo(PrimitiveSink sink) {
+ *     sink.putInt(topicId).putInt(partition).putLong(offset);
+ * }
+ * }</pre>
+ * Keys whose hash is computed upstream override {@link #hash128(long[], int)} to copy it, and write it in
+ * {@link #writeTo(PrimitiveSink)} for the judges hashing the components themselves.
+ * <p/>The judges of this package never call {@link #idempotentKey()} on such keys, a string built from the hash that
+ * is left for logging and for judges of other packages. Two keys are the same key when they write the same components;
+ * a key is judged by its components or by its string, so the same key must always be given the same way.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public interface BinaryIdempotentKey extends IdempotentKey {
+    /**
+     * Writes the components identifying the key, always in the same order
+     *
+     * @param sink sink of a hash function
+     */
+    void writeTo(@Nonnull PrimitiveSink sink);
+
+    /**
+     * Hashes the key with 128 bits of murmur3 of its components
+     *
+     * @param hash   array the hash is written to, its lower 64 bits at offset and its upper 64 bits after them
+     * @param offset index of the lower 64 bits
+     */
+    default void hash128(@Nonnull long[] hash, int offset) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        writeTo(hasher);
+        ByteBuffer bytes = ByteBuffer.wrap(hasher.hash().asBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        hash[offset] = bytes.getLong(0);
+        hash[offset + 1] = bytes.getLong(8);
+    }
+
+    /**
+     * @return hexadecimal 128-bit hash of the key
+     */
+    @Override
+    default String idempotentKey() {
+        long[] hash = new long[2];
+        hash128(hash, 0);
+        return HashCode.fromBytes(ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putLong(hash[0]).putLong(hash[1]).array()).toString();
+    }
+}
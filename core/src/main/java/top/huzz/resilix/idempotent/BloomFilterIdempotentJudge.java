@@ -1,7 +1,7 @@
 package top.huzz.resilix.idempotent;
 
 import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
+import com.google.common.hash.Hashing;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
@@ -9,10 +9,22 @@ import org.apache.commons.lang3.StringUtils;
 import org.redisson.ExtBloomFilter;
 import org.redisson.Redisson;
 import org.redisson.api.RBloomFilter;
+import org.redisson.api.RFuture;
 import org.redisson.api.RedissonClient;
+import org.redisson.command.CommandAsyncExecutor;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.Stream;
 
 /**
  * Bloom filter-based idempotent judgment, suitable for distributed environments.
@@ -24,6 +36,8 @@ import java.time.Duration;
  * <p/>If the business scenario does not allow false positives and allows sacrificing some performance, 
  * you can consider overriding the {@link #preciseJudge(IdempotentKey)} method to implement precise verification 
  * (the specific performance sacrifice depends on the execution time of this method).
+ * <p/>Keys implementing {@link BinaryIdempotentKey} are hashed by their components, locally and in Redis alike,
+ * without building their identifier strings.
  *
  * @author chenji
  * @since 1.0.0
@@ -35,10 +49,16 @@ public class BloomFilterIdempotentJudge implements PrecedingIdempotentJudge {
     protected final double fpp;
     protected final Duration duration;
     protected IdempotentJudge proxy;
+    /**
+     * Locks making {@link #judgeAndPut(IdempotentKey)} atomic for local bloom filters, by hash of the key
+     */
+    private final Object[] stripes = Stream.generate(Object::new).limit(STRIPES).toArray();
 
     static final int DEFAULT_EXPECTED_INSERTIONS = 50000;
     static final double DEFAULT_FPP = 0.00001;
     static final Duration MAX_DURATION = Duration.ofDays(2);
+    static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofSeconds(1);
+    private static final int STRIPES = 64;
 
     /**
      * Create a default bloom filter
@@ -51,6 +71,33 @@ public class BloomFilterIdempotentJudge implements PrecedingIdempotentJudge {
         return new BloomFilterIdempotentJudge(expectedInsertions, fpp, null, null, false, MAX_DURATION);
     }
 
+    /**
+     * Create a local bloom filter persisted in a memory-mapped file, forced to disk every second,
+     * see {@link #BloomFilterIdempotentJudge(int, double, Path, Duration)}
+     *
+     * @param file               file of the bloom filter, reopened if it exists
+     * @param expectedInsertions expected number of elements to be inserted
+     * @param fpp                false positive probability
+     * @return mapped bloom filter
+     * @throws IOException if the file cannot be read or created
+     */
+    public static BloomFilterIdempotentJudge newMapped(@Nonnull Path file, int expectedInsertions, double fpp) throws IOException {
+        return new BloomFilterIdempotentJudge(expectedInsertions, fpp, file, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Create a local bloom filter that forgets keys over time, see {@link #BloomFilterIdempotentJudge(int, double, RedissonClient, String, boolean, Duration, int, int)}
+     *
+     * @param expectedInsertions expected number of elements to be inserted within the duration
+     * @param fpp                false positive probability
+     * @param duration           time a key is remembered for at least
+     * @param generations        number of generations the duration is split into
+     * @return local rotating bloom filter
+     */
+    public static BloomFilterIdempotentJudge newLocal(int expectedInsertions, double fpp, Duration duration, int generations) {
+        return new BloomFilterIdempotentJudge(expectedInsertions, fpp, null, null, false, duration, 1, generations);
+    }
+
     /**
      * Create a default bloom filter with expected insertions of 10000, false positive probability of 0.0001, and 13 hash functions
      *
@@ -74,31 +121,134 @@ public class BloomFilterIdempotentJudge implements PrecedingIdempotentJudge {
      */
     protected BloomFilterIdempotentJudge(int expectedInsertions, double fpp,
                                          @Nullable RedissonClient redissonClient, @Nullable String bloomFilterRedisKey, boolean cleanIfExists, @Nullable Duration duration) {
+        this(expectedInsertions, fpp, redissonClient, bloomFilterRedisKey, cleanIfExists, duration, 1);
+    }
+
+    /**
+     * Create a bloom filter, a distributed one split into shards.
+     * <p/>Each key is checked against a single shard chosen by its hash, every shard being a filter of its own under
+     * {@code {bloomFilterRedisKey:i}}, so that its config and bitmap share a slot while the shards spread over the
+     * nodes of a cluster. Each shard is sized for its share of the expected insertions with the false positive
+     * probability of the whole filter, plus room for the uneven spread of the keys.
+     *
+     * @param expectedInsertions  expected number of elements to be inserted
+     * @param fpp                 false positive probability
+     * @param redissonClient      Redisson client, if not null, will use Redisson to implement bloom filter for distributed idempotent judgment
+     * @param bloomFilterRedisKey name of the distributed bloom filter, must be specified if redissonClient is not null
+     * @param cleanIfExists       whether to clear if the bloom filter already exists
+     * @param duration            expiration time, currently only distributed bloom filters support expiration time
+     * @param shards              number of shards of a distributed bloom filter, 1 keeps the filter under bloomFilterRedisKey itself
+     */
+    protected BloomFilterIdempotentJudge(int expectedInsertions, double fpp,
+                                         @Nullable RedissonClient redissonClient, @Nullable String bloomFilterRedisKey, boolean cleanIfExists, @Nullable Duration duration,
+                                         int shards) {
+        this(expectedInsertions, fpp, redissonClient, bloomFilterRedisKey, cleanIfExists, duration, shards, 1);
+    }
+
+    /**
+     * Create a bloom filter split into generations over time, so that memory and false positive rate stay flat under
+     * continuous traffic instead of the whole filter filling up, or expiring at once.
+     * <p/>The duration is split into windows of duration / generations, aligned on the epoch so that all the instances
+     * of a distributed filter agree on the current one. Keys are inserted into the generation of the current window
+     * and checked against it and the previous generations within the duration, the oldest generation being dropped
+     * once its window is more than the duration ago: a key is remembered for the duration at least, one window more
+     * at most. Each generation is sized for its share of the expected insertions, with the false positive probability
+     * split among the generations a key is checked against.
+     * <p/>The generations of a distributed filter are filters of their own under {@code {bloomFilterRedisKey}:n},
+     * n being the number of the window, sharing a hash slot so that one script checks them all, each expiring on its own.
+     *
+     * @param expectedInsertions  expected number of elements to be inserted within the duration
+     * @param fpp                 false positive probability
+     * @param redissonClient      Redisson client, if not null, will use Redisson to implement bloom filter for distributed idempotent judgment
+     * @param bloomFilterRedisKey name of the distributed bloom filter, must be specified if redissonClient is not null
+     * @param cleanIfExists       whether to clear if the bloom filter already exists
+     * @param duration            expiration time, the time a key is remembered for at least if split into generations
+     * @param shards              number of shards of a distributed bloom filter, 1 keeps the filter under bloomFilterRedisKey itself
+     * @param generations         number of generations the duration is split into, 1 keeps a single filter
+     */
+    protected BloomFilterIdempotentJudge(int expectedInsertions, double fpp,
+                                         @Nullable RedissonClient redissonClient, @Nullable String bloomFilterRedisKey, boolean cleanIfExists, @Nullable Duration duration,
+                                         int shards, int generations) {
         this.expectedInsertions = expectedInsertions;
         this.fpp = fpp;
         duration = this.duration = (duration == null || duration.compareTo(MAX_DURATION) > 0) ? MAX_DURATION : duration;
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        if (generations < 1 || duration.toMillis() < generations) {
+            throw new IllegalArgumentException("generations must be at least 1, and at most the milliseconds of the duration");
+        }
         if (redissonClient != null) {
             if (StringUtils.isBlank(bloomFilterRedisKey)) {
                 throw new IllegalArgumentException("bloomFilterRedisKey must not be null");
             }
-            RBloomFilter<String> bf = new ExtBloomFilter<>(((Redisson) redissonClient).getCommandExecutor(), bloomFilterRedisKey);
-            boolean hasInit = bf.tryInit(expectedInsertions, fpp);
-            if (hasInit && cleanIfExists) {
-                bf.delete();
-                bf.tryInit(expectedInsertions, fpp);
+            CommandAsyncExecutor executor = ((Redisson) redissonClient).getCommandExecutor();
+            if (shards == 1) {
+                proxy = distributed(executor, bloomFilterRedisKey, expectedInsertions, fpp, cleanIfExists, duration, generations);
+            } else {
+                // Keys spread binomially over the shards, 3 standard deviations above the mean cover nearly every shard
+                double mean = (double) expectedInsertions / shards;
+                long shardInsertions = (long) Math.ceil(mean + 3 * Math.sqrt(mean));
+                Distributed[] distributed = new Distributed[shards];
+                for (int i = 0; i < shards; i++) {
+                    String name = "{" + bloomFilterRedisKey + ":" + i + "}";
+                    distributed[i] = distributed(executor, name, shardInsertions, fpp, cleanIfExists, duration, generations);
+                }
+                proxy = new Sharded(distributed);
             }
-            // Set expiration time
-            bf.expire(duration);
-            proxy = new Distributed(bf);
+        } else if (generations == 1) {
+            proxy = new Local(BloomFilter.create(IdempotentKeys.KeyFunnel.INSTANCE, expectedInsertions, fpp));
         } else {
-            proxy = new Local(BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, fpp));
+            proxy = new RotatingLocal(new Window(duration, generations), expectedInsertions, fpp);
+        }
+    }
+
+    /**
+     * Create a local bloom filter whose bits live off-heap in a memory-mapped file instead of on the heap, so that keys
+     * put before a restart are still judged executed after it. The same file can be opened by several JVMs of a host
+     * to share the filter, bits being set with atomic operations on the shared mapping, while a JVM opens it once. The file is created on first use
+     * and must be deleted to change the expected insertions or false positive probability, {@link #destroy()} keeps it.
+     * {@link #judgeAndPut(IdempotentKey)} is atomic among the threads of a JVM, not among the JVMs sharing the file.
+     *
+     * @param expectedInsertions expected number of elements to be inserted
+     * @param fpp                false positive probability
+     * @param file               file of the bloom filter, reopened if it exists
+     * @param flushInterval      how often the bits set are forced to disk, those set within the interval before a crash of the host may be lost
+     * @throws IOException           if the file cannot be read or created
+     * @throws IllegalStateException if the file is already open in this JVM
+     */
+    protected BloomFilterIdempotentJudge(int expectedInsertions, double fpp, @Nonnull Path file, @Nonnull Duration flushInterval) throws IOException {
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.duration = MAX_DURATION;
+        this.proxy = new Mapped(new MappedBloomFilter(file, expectedInsertions, fpp, flushInterval));
+    }
+
+    private static Distributed distributed(CommandAsyncExecutor executor, String name,
+                                           long expectedInsertions, double fpp, boolean cleanIfExists, Duration duration, int generations) {
+        if (generations == 1) {
+            return new Distributed(initDistributed(executor, name, expectedInsertions, fpp, cleanIfExists, duration));
+        }
+        return new RotatingDistributed(executor, name, new Window(duration, generations), expectedInsertions, fpp, cleanIfExists);
+    }
+
+    private static RBloomFilter<String> initDistributed(CommandAsyncExecutor executor, String name,
+                                                        long expectedInsertions, double fpp, boolean cleanIfExists, Duration duration) {
+        RBloomFilter<String> bf = new ExtBloomFilter<>(executor, name);
+        boolean hasInit = bf.tryInit(expectedInsertions, fpp);
+        if (hasInit && cleanIfExists) {
+            bf.delete();
+            bf.tryInit(expectedInsertions, fpp);
         }
+        // Set expiration time
+        bf.expire(duration);
+        return bf;
     }
 
 
     @Override
     public boolean doJudge(IdempotentKey key) {
-        if (key == null || key.idempotentKey() == null) {
+        if (!IdempotentKeys.isPresent(key)) {
             return false;
         }
         if (!proxy.judge(key)) {
@@ -109,19 +259,128 @@ public class BloomFilterIdempotentJudge implements PrecedingIdempotentJudge {
         return preciseJudge(key);
     }
 
+    @Override
+    public boolean[] doJudgeAll(@Nonnull List<? extends IdempotentKey> keys) {
+        boolean[] results = new boolean[keys.size()];
+        List<IdempotentKey> present = new ArrayList<>(keys.size());
+        int[] indexes = new int[keys.size()];
+        for (int i = 0; i < results.length; i++) {
+            IdempotentKey key = keys.get(i);
+            if (IdempotentKeys.isPresent(key)) {
+                indexes[present.size()] = i;
+                present.add(key);
+            }
+        }
+        if (present.isEmpty()) {
+            return results;
+        }
+        boolean[] contained = proxy.judgeAll(present);
+        for (int i = 0; i < contained.length; i++) {
+            // Only the keys the bloom filter may contain need precise verification
+            results[indexes[i]] = contained[i] && preciseJudge(present.get(i));
+        }
+        return results;
+    }
+
     @Override
     public void put(@Nonnull IdempotentKey key) {
-        if (key.idempotentKey() == null) {
+        if (!IdempotentKeys.isPresent(key)) {
             return;
         }
         proxy.put(key);
     }
 
+    @Override
+    public boolean judgeAndPut(@Nullable IdempotentKey key) {
+        if (!IdempotentKeys.isPresent(key)) {
+            return false;
+        }
+        if (proxy instanceof Distributed || proxy instanceof Sharded) {
+            // Checked and inserted by a single script
+            return PrecedingIdempotentJudge.super.judgeAndPut(key);
+        }
+        // The bits of a key are set one by one, two threads putting the same key could both see some of them unset
+        synchronized (stripeOf(key)) {
+            return PrecedingIdempotentJudge.super.judgeAndPut(key);
+        }
+    }
+
+    @Override
+    public boolean[] judgeAndPutAll(@Nonnull List<? extends IdempotentKey> keys) {
+        if (!(proxy instanceof Distributed || proxy instanceof Sharded)) {
+            return PrecedingIdempotentJudge.super.judgeAndPutAll(keys);
+        }
+        boolean[] results = new boolean[keys.size()];
+        List<Integer> remaining = new ArrayList<>(keys.size());
+        for (int i = 0; i < results.length; i++) {
+            remaining.add(i);
+        }
+        while (!remaining.isEmpty()) {
+            // A key repeated in the list is judged in a later round, after its first occurrence has been put,
+            // so that the precise verification sees it as well
+            List<IdempotentKey> round = new ArrayList<>(remaining.size());
+            List<Integer> indexes = new ArrayList<>(remaining.size());
+            List<Integer> repeated = new ArrayList<>();
+            Set<Object> distinct = new HashSet<>();
+            for (int index : remaining) {
+                IdempotentKey key = keys.get(index);
+                if (!IdempotentKeys.isPresent(key) || distinct.add(identityOf(key))) {
+                    round.add(key);
+                    indexes.add(index);
+                } else {
+                    repeated.add(index);
+                }
+            }
+            boolean[] executed = judgeAll(round);
+            List<IdempotentKey> pending = new ArrayList<>(round.size());
+            for (int i = 0; i < executed.length; i++) {
+                results[indexes.get(i)] = executed[i];
+                if (!executed[i] && round.get(i) != null) {
+                    pending.add(round.get(i));
+                }
+            }
+            if (!pending.isEmpty()) {
+                putAll(pending);
+            }
+            remaining = repeated;
+        }
+        return results;
+    }
+
+    @Override
+    public void putAll(@Nonnull List<? extends IdempotentKey> keys) {
+        List<IdempotentKey> present = new ArrayList<>(keys.size());
+        for (IdempotentKey key : keys) {
+            if (IdempotentKeys.isPresent(key)) {
+                present.add(key);
+            }
+        }
+        if (!present.isEmpty()) {
+            proxy.putAll(present);
+        }
+    }
+
     @Override
     public void destroy() {
         proxy.destroy();
     }
 
+    private Object stripeOf(IdempotentKey key) {
+        int hash = key instanceof BinaryIdempotentKey ? Long.hashCode(IdempotentKeys.hash128(key)[0]) : key.idempotentKey().hashCode();
+        return stripes[(hash & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    /**
+     * @return what tells a key from the others within a batch, its identifier or the hash of its components
+     */
+    private static Object identityOf(IdempotentKey key) {
+        if (key instanceof BinaryIdempotentKey) {
+            long[] hash = IdempotentKeys.hash128(key);
+            return new Hash128(hash[0], hash[1]);
+        }
+        return key.idempotentKey();
+    }
+
     /**
      * Perform precise verification to solve bloom filter false positive problem, usually by querying database data for verification
      *
@@ -131,10 +390,24 @@ public class BloomFilterIdempotentJudge implements PrecedingIdempotentJudge {
         return false;
     }
 
+    /**
+     * Waits for a result of a distributed filter, rethrowing its failure as is
+     */
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
     static class Local implements IdempotentJudge {
-        protected BloomFilter<String> bf;
+        protected BloomFilter<IdempotentKey> bf;
 
-        public Local(BloomFilter<String> bf) {
+        public Local(BloomFilter<IdempotentKey> bf) {
             this.bf = bf;
         }
 
@@ -143,18 +416,43 @@ public class BloomFilterIdempotentJudge implements PrecedingIdempotentJudge {
             if (key == null) {
                 return false;
             }
-            return bf.mightContain(key.idempotentKey());
+            return bf.mightContain(key);
         }
 
         @Override
         public void put(@Nonnull IdempotentKey key) {
-            bf.put(key.idempotentKey());
+            bf.put(key);
         }
 
         @Override
         public void destroy() {
             bf = null;
-            System.gc();
+        }
+    }
+
+    static class Mapped implements IdempotentJudge {
+        protected final MappedBloomFilter bf;
+
+        public Mapped(MappedBloomFilter bf) {
+            this.bf = bf;
+        }
+
+        @Override
+        public boolean judge(IdempotentKey key) {
+            if (key == null) {
+                return false;
+            }
+            return bf.mightContain(IdempotentKeys.hash128(key));
+        }
+
+        @Override
+        public void put(@Nonnull IdempotentKey key) {
+            bf.put(IdempotentKeys.hash128(key));
+        }
+
+        @Override
+        public void destroy() {
+            bf.close();
         }
     }
 
@@ -170,9 +468,51 @@ public class BloomFilterIdempotentJudge implements PrecedingIdempotentJudge {
             if (key == null) {
                 return false;
             }
+            if (bf instanceof ExtBloomFilter) {
+                return join(judgeAllAsync(List.of(key)))[0];
+            }
             return bf.contains(key.idempotentKey());
         }
 
+        @Override
+        public boolean[] judgeAll(@Nonnull List<? extends IdempotentKey> keys) {
+            return join(judgeAllAsync(keys));
+        }
+
+        CompletableFuture<boolean[]> judgeAllAsync(List<? extends IdempotentKey> keys) {
+            if (!(bf instanceof ExtBloomFilter<String> ext)) {
+                return CompletableFuture.completedFuture(IdempotentJudge.super.judgeAll(keys));
+            }
+            // One script call for all the keys instead of one round trip per key
+            return toArray(ext.containsEachHashedAsync(hashesOf(ext, keys), List.of(), 0));
+        }
+
+        /**
+         * @return hashes of the keys for the filter, those of binary keys taken from their components
+         */
+        static long[] hashesOf(ExtBloomFilter<String> bf, List<? extends IdempotentKey> keys) {
+            long[] hashes = new long[keys.size() * 2];
+            for (int i = 0; i < keys.size(); i++) {
+                IdempotentKey key = keys.get(i);
+                if (key instanceof BinaryIdempotentKey binary) {
+                    binary.hash128(hashes, i * 2);
+                } else {
+                    bf.hash(key.idempotentKey(), hashes, i * 2);
+                }
+            }
+            return hashes;
+        }
+
+        static CompletableFuture<boolean[]> toArray(RFuture<List<Boolean>> contained) {
+            return contained.toCompletableFuture().thenApply(list -> {
+                boolean[] results = new boolean[list.size()];
+                for (int i = 0; i < results.length; i++) {
+                    results[i] = list.get(i);
+                }
+                return results;
+            });
+        }
+
         @Override
         public void put(@Nonnull IdempotentKey key) {
             if (bf instanceof ExtBloomFilter) {
@@ -182,6 +522,19 @@ public class BloomFilterIdempotentJudge implements PrecedingIdempotentJudge {
             bf.add(key.idempotentKey());
         }
 
+        @Override
+        public void putAll(@Nonnull List<? extends IdempotentKey> keys) {
+            if (bf instanceof ExtBloomFilter) {
+                // Inserted while judged, see put
+                return;
+            }
+            List<String> values = new ArrayList<>(keys.size());
+            for (IdempotentKey key : keys) {
+                values.add(key.idempotentKey());
+            }
+            bf.add(values);
+        }
+
         @Override
         public void destroy() {
             try {
@@ -191,4 +544,294 @@ public class BloomFilterIdempotentJudge implements PrecedingIdempotentJudge {
             }
         }
     }
+
+    static class Sharded implements IdempotentJudge {
+        protected final Distributed[] shards;
+
+        public Sharded(Distributed[] shards) {
+            this.shards = shards;
+        }
+
+        @Override
+        public boolean judge(IdempotentKey key) {
+            if (key == null) {
+                return false;
+            }
+            return shardOf(key).judge(key);
+        }
+
+        @Override
+        public boolean[] judgeAll(@Nonnull List<? extends IdempotentKey> keys) {
+            int[] indexes = indexesOf(keys);
+            List<List<IdempotentKey>> groups = groupByShard(keys, indexes);
+            // The shards live on different nodes, judge them all at once
+            List<CompletableFuture<boolean[]>> judged = new ArrayList<>(shards.length);
+            for (int i = 0; i < shards.length; i++) {
+                List<IdempotentKey> group = groups.get(i);
+                judged.add(group.isEmpty() ? null : shards[i].judgeAllAsync(group));
+            }
+            boolean[] results = new boolean[keys.size()];
+            int[] positions = new int[shards.length];
+            for (int i = 0; i < results.length; i++) {
+                int shard = indexes[i];
+                results[i] = join(judged.get(shard))[positions[shard]++];
+            }
+            return results;
+        }
+
+        @Override
+        public void put(@Nonnull IdempotentKey key) {
+            shardOf(key).put(key);
+        }
+
+        @Override
+        public void putAll(@Nonnull List<? extends IdempotentKey> keys) {
+            List<List<IdempotentKey>> groups = groupByShard(keys, indexesOf(keys));
+            for (int i = 0; i < shards.length; i++) {
+                if (!groups.get(i).isEmpty()) {
+                    shards[i].putAll(groups.get(i));
+                }
+            }
+        }
+
+        @Override
+        public void destroy() {
+            for (Distributed shard : shards) {
+                shard.destroy();
+            }
+        }
+
+        private Distributed shardOf(IdempotentKey key) {
+            return shards[indexOf(key)];
+        }
+
+        private int indexOf(IdempotentKey key) {
+            // Independent of the hashes of the filter, so that each shard still sees evenly spread bits
+            if (key instanceof BinaryIdempotentKey) {
+                long[] hash = IdempotentKeys.hash128(key);
+                return Math.floorMod((int) (((hash[0] ^ hash[1]) * 0x9E3779B97F4A7C15L) >>> 32), shards.length);
+            }
+            return Math.floorMod(Hashing.murmur3_32_fixed().hashString(key.idempotentKey(), StandardCharsets.UTF_8).asInt(), shards.length);
+        }
+
+        private int[] indexesOf(List<? extends IdempotentKey> keys) {
+            int[] indexes = new int[keys.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = indexOf(keys.get(i));
+            }
+            return indexes;
+        }
+
+        private List<List<IdempotentKey>> groupByShard(List<? extends IdempotentKey> keys, int[] indexes) {
+            List<List<IdempotentKey>> groups = new ArrayList<>(shards.length);
+            for (int i = 0; i < shards.length; i++) {
+                groups.add(new ArrayList<>());
+            }
+            for (int i = 0; i < indexes.length; i++) {
+                groups.get(indexes[i]).add(keys.get(i));
+            }
+            return groups;
+        }
+    }
+
+    /**
+     * Hash of a binary key, telling it from the others within a batch
+     */
+    private record Hash128(long low, long high) {
+    }
+
+    /**
+     * Windows of a rotating filter, numbered from the epoch
+     */
+    static final class Window {
+        final long millis;
+        /**
+         * Number of generations a key is checked against: the current one and those within the duration before it
+         */
+        final int live;
+
+        Window(Duration duration, int generations) {
+            this.millis = duration.toMillis() / generations;
+            this.live = generations + 1;
+        }
+
+        long current() {
+            return System.currentTimeMillis() / millis;
+        }
+
+        /**
+         * @param generation generation, i.e. number of its window
+         * @return time in epoch milliseconds after which the generation is never checked again
+         */
+        long endOf(long generation) {
+            return (generation + live) * millis;
+        }
+
+        long insertionsOf(long expectedInsertions) {
+            return Math.max(1, (expectedInsertions + live - 2) / (live - 1));
+        }
+
+        double fppOf(double fpp) {
+            // A key is a false positive if any of the generations it is checked against says so
+            return fpp / live;
+        }
+    }
+
+    static class RotatingLocal implements IdempotentJudge {
+        protected final Window window;
+        protected final long insertions;
+        protected final double fpp;
+        /**
+         * Generations by number modulo the number of live generations
+         */
+        protected final AtomicReferenceArray<Generation> generations;
+
+        public RotatingLocal(Window window, long expectedInsertions, double fpp) {
+            this.window = window;
+            this.insertions = window.insertionsOf(expectedInsertions);
+            this.fpp = window.fppOf(fpp);
+            this.generations = new AtomicReferenceArray<>(window.live);
+        }
+
+        @Override
+        public boolean judge(IdempotentKey key) {
+            if (key == null) {
+                return false;
+            }
+            long current = window.current();
+            for (int i = 0; i < generations.length(); i++) {
+                Generation generation = generations.get(i);
+                if (generation != null && generation.number > current - window.live && generation.number <= current
+                        && generation.bf.mightContain(key)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void put(@Nonnull IdempotentKey key) {
+            generation(window.current()).bf.put(key);
+        }
+
+        private Generation generation(long number) {
+            int slot = (int) Math.floorMod(number, (long) window.live);
+            while (true) {
+                Generation generation = generations.get(slot);
+                if (generation != null && generation.number >= number) {
+                    // A late put may land in a newer generation, which only makes it remembered longer
+                    return generation;
+                }
+                // Rotate: the generation in the slot is the oldest one, which has fallen out of the duration
+                Generation next = new Generation(number, BloomFilter.create(IdempotentKeys.KeyFunnel.INSTANCE, insertions, fpp));
+                if (generations.compareAndSet(slot, generation, next)) {
+                    return next;
+                }
+            }
+        }
+
+        @Override
+        public void destroy() {
+            for (int i = 0; i < generations.length(); i++) {
+                generations.set(i, null);
+            }
+        }
+
+        protected record Generation(long number, BloomFilter<IdempotentKey> bf) {
+        }
+    }
+
+    static class RotatingDistributed extends Distributed {
+        protected final CommandAsyncExecutor executor;
+        protected final String name;
+        protected final Window window;
+        protected final long insertions;
+        protected final double fpp;
+        protected volatile Generations generations = new Generations(Long.MIN_VALUE, null, List.of());
+
+        public RotatingDistributed(CommandAsyncExecutor executor, String name, Window window, long expectedInsertions, double fpp, boolean cleanIfExists) {
+            super(null);
+            this.executor = executor;
+            this.name = name;
+            this.window = window;
+            this.insertions = window.insertionsOf(expectedInsertions);
+            this.fpp = window.fppOf(fpp);
+            if (cleanIfExists) {
+                long number = window.current();
+                for (long n = number - window.live + 1; n <= number; n++) {
+                    new ExtBloomFilter<String>(executor, nameOf(n)).delete();
+                }
+            }
+            rotate(window.current());
+        }
+
+        @Override
+        public boolean judge(IdempotentKey key) {
+            if (key == null) {
+                return false;
+            }
+            return join(judgeAllAsync(List.of(key)))[0];
+        }
+
+        @Override
+        CompletableFuture<boolean[]> judgeAllAsync(List<? extends IdempotentKey> keys) {
+            long number = window.current();
+            Generations generations = this.generations;
+            if (generations.current != number) {
+                generations = rotate(number);
+            }
+            // Checked against all the live generations and inserted into the current one by a single script call
+            return toArray(generations.bf.containsEachHashedAsync(hashesOf(generations.bf, keys), generations.older, window.endOf(generations.current)));
+        }
+
+        @Override
+        public void put(@Nonnull IdempotentKey key) {
+            // Inserted while judged
+        }
+
+        @Override
+        public void putAll(@Nonnull List<? extends IdempotentKey> keys) {
+            // Inserted while judged
+        }
+
+        @Override
+        public void destroy() {
+            long number = window.current();
+            for (long n = number - window.live + 1; n <= number; n++) {
+                try {
+                    new ExtBloomFilter<String>(executor, nameOf(n)).delete();
+                } catch (Exception e) {
+                    log.error("Error deleting bloom filter: ", e);
+                }
+            }
+        }
+
+        private synchronized Generations rotate(long number) {
+            if (number <= generations.current) {
+                return generations;
+            }
+            ExtBloomFilter<String> next = new ExtBloomFilter<>(executor, nameOf(number));
+            next.tryInit(insertions, fpp);
+            // The bitmap gets the same expiration when first written
+            next.expireAt(window.endOf(number));
+            List<String> older = new ArrayList<>(window.live - 1);
+            for (long n = number - 1; n > number - window.live; n--) {
+                older.add(nameOf(n));
+            }
+            return generations = new Generations(number, next, older);
+        }
+
+        private String nameOf(long number) {
+            // All the generations share the hash slot of the filter
+            return name.contains("{") ? name + ":" + number : "{" + name + "}:" + number;
+        }
+
+        /**
+         * @param current number of the current generation
+         * @param bf      filter of the current generation
+         * @param older   names of the generations before the current one within the duration
+         */
+        protected record Generations(long current, ExtBloomFilter<String> bf, List<String> older) {
+        }
+    }
 }
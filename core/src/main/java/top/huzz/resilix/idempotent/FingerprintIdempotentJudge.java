@@ -0,0 +1,336 @@
+package top.huzz.resilix.idempotent;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.Duration;
+
+/**
+ * Exact idempotent judgment, remembering each key for a time to live, for when the false positives of a bloom filter
+ * are not acceptable and {@link BloomFilterIdempotentJudge#preciseJudge(IdempotentKey)} would query a database instead.
+ * <p/>Keys are kept as 128-bit murmur3 fingerprints in an open-addressing hash set off the heap: each entry is 20 bytes
+ * of direct memory, the fingerprint and its expiration in seconds, with no object allocated per entry. The fingerprint of
+ * a {@link BinaryIdempotentKey} is the hash of its components, taken without building its identifier. Two keys are
+ * taken for one only if their fingerprints collide, about 10<sup>-25</sup> for ten million keys. Ten million expected keys
+ * take about 340MB, the table of each segment being a power of two at most 75% full.
+ * <p/>The set is split into segments locked on their own. Expired entries are removed as they are found, and a few
+ * more on each put, so memory stays bounded by the keys put within the time to live. A segment holding more keys than
+ * it was sized for grows by doubling, or drops keys if the judge is bounded. A full segment of a bounded judge is swept
+ * for expired entries at most once per pass of its eviction cursor, and drops a key next to the home slot of the one
+ * put, so a put stays O(1) however full it is.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public class FingerprintIdempotentJudge implements IdempotentJudge {
+    private static final int SEGMENTS = 64;
+    private static final float LOAD_FACTOR = 0.75f;
+    /**
+     * Largest segment, keeps its buffer under 2GB
+     */
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 26;
+    /**
+     * Slots inspected for expired entries on each put
+     */
+    private static final int EVICTIONS_PER_PUT = 2;
+
+    protected final long expectedKeys;
+    protected final Duration ttl;
+    protected final boolean bounded;
+    private final long epochMillis = System.currentTimeMillis();
+    private final int ttlSeconds;
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    /**
+     * @param expectedKeys expected number of keys put within the time to live
+     * @param ttl          time a key is remembered for after it is put, at least one second
+     */
+    public FingerprintIdempotentJudge(long expectedKeys, @Nonnull Duration ttl) {
+        this(expectedKeys, ttl, false);
+    }
+
+    /**
+     * @param expectedKeys expected number of keys put within the time to live
+     * @param ttl          time a key is remembered for after it is put, at least one second
+     * @param bounded      whether a segment holding as many keys as it was sized for drops some of them before they expire,
+     *                     instead of growing, e.g. for a cache whose misses are answered elsewhere
+     */
+    public FingerprintIdempotentJudge(long expectedKeys, @Nonnull Duration ttl, boolean bounded) {
+        if (expectedKeys <= 0 || ttl.getSeconds() < 1) {
+            throw new IllegalArgumentException("Invalid fingerprint judge, expectedKeys: " + expectedKeys + ", ttl: " + ttl);
+        }
+        this.expectedKeys = expectedKeys;
+        this.ttl = ttl;
+        this.bounded = bounded;
+        this.ttlSeconds = (int) Math.min(Integer.MAX_VALUE / 2, ttl.getSeconds() + (ttl.getNano() > 0 ? 1 : 0));
+        long slots = (long) Math.ceil((double) expectedKeys / SEGMENTS / LOAD_FACTOR);
+        int capacity = (int) Math.min(MAX_SEGMENT_CAPACITY, Math.max(16, Long.highestOneBit(Math.max(1, slots - 1)) << 1));
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity, bounded);
+        }
+    }
+
+    @Override
+    public boolean judge(@Nullable IdempotentKey key) {
+        if (!IdempotentKeys.isPresent(key)) {
+            return false;
+        }
+        long[] fingerprint = IdempotentKeys.hash128(key);
+        return segmentOf(fingerprint[0]).contains(fingerprint[0], fingerprint[1], now());
+    }
+
+    @Override
+    public void put(@Nonnull IdempotentKey key) {
+        if (!IdempotentKeys.isPresent(key)) {
+            return;
+        }
+        long[] fingerprint = IdempotentKeys.hash128(key);
+        int now = now();
+        // One more second, so that a key is remembered for the whole time to live whatever the second it was put in
+        segmentOf(fingerprint[0]).put(fingerprint[0], fingerprint[1], now, now + ttlSeconds + 1);
+    }
+
+    @Override
+    public boolean judgeAndPut(@Nullable IdempotentKey key) {
+        if (!IdempotentKeys.isPresent(key)) {
+            return false;
+        }
+        long[] fingerprint = IdempotentKeys.hash128(key);
+        int now = now();
+        return segmentOf(fingerprint[0]).judgeAndPut(fingerprint[0], fingerprint[1], now, now + ttlSeconds + 1);
+    }
+
+    /**
+     * @return number of keys held, including the expired ones not removed yet
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void destroy() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    private Segment segmentOf(long fp1) {
+        // Slots take the low bits of the fingerprint, segments the high ones
+        return segments[(int) (fp1 >>> 58)];
+    }
+
+    /**
+     * @return seconds since the judge was created, plus one so that 0 marks empty slots
+     */
+    private int now() {
+        return (int) ((System.currentTimeMillis() - epochMillis) / 1000) + 1;
+    }
+
+    /**
+     * Linear probing table of entries {@code fp1 (long), fp2 (long), expiresAt (int)}, an expiration of 0 marking an
+     * empty slot. Entries are removed by shifting back the entries after them, so lookups never go through tombstones.
+     */
+    private static final class Segment {
+        private static final int ENTRY = 20;
+        private static final int FP2 = 8;
+        private static final int EXPIRES_AT = 16;
+
+        private ByteBuffer table;
+        private int mask;
+        private int size;
+        private int threshold;
+        /**
+         * Next slot inspected for expired entries
+         */
+        private int cursor;
+        /**
+         * Passes of the cursor over the table, and the pass in which it was last purged
+         */
+        private int passes;
+        private int purgedPass;
+
+        private final boolean bounded;
+
+        Segment(int capacity, boolean bounded) {
+            this.bounded = bounded;
+            allocate(capacity);
+        }
+
+        synchronized boolean contains(long fp1, long fp2, int now) {
+            int slot = find(fp1, fp2);
+            if (slot < 0) {
+                return false;
+            }
+            if (expiresAt(slot) <= now) {
+                remove(slot);
+                return false;
+            }
+            return true;
+        }
+
+        synchronized void put(long fp1, long fp2, int now, int expiresAt) {
+            evict(now);
+            int slot = find(fp1, fp2);
+            if (slot >= 0) {
+                table.putInt(slot * ENTRY + EXPIRES_AT, expiresAt);
+                return;
+            }
+            add(fp1, fp2, now, expiresAt);
+        }
+
+        /**
+         * @return whether the fingerprint was held and not expired, it is put with the expiration given otherwise
+         */
+        synchronized boolean judgeAndPut(long fp1, long fp2, int now, int expiresAt) {
+            evict(now);
+            int slot = find(fp1, fp2);
+            if (slot >= 0) {
+                if (expiresAt(slot) > now) {
+                    return true;
+                }
+                table.putInt(slot * ENTRY + EXPIRES_AT, expiresAt);
+                return false;
+            }
+            add(fp1, fp2, now, expiresAt);
+            return false;
+        }
+
+        private void add(long fp1, long fp2, int now, int expiresAt) {
+            if (size >= threshold) {
+                if (!bounded || purgedPass != passes) {
+                    purge(now);
+                    purgedPass = passes;
+                }
+                if (size >= threshold && bounded) {
+                    // Drops the live entry at or next to the home slot of the key, a key close to a random one that
+                    // keeps the table evenly filled, where dropping at the cursor would pack the slots ahead of it
+                    int slot = (int) fp1 & mask;
+                    while (expiresAt(slot) == 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    remove(slot);
+                } else if (size >= threshold) {
+                    grow(now);
+                }
+            }
+            insert(fp1, fp2, expiresAt);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized void clear() {
+            allocate(16);
+        }
+
+        private void allocate(int capacity) {
+            table = ByteBuffer.allocateDirect(capacity * ENTRY).order(ByteOrder.nativeOrder());
+            mask = capacity - 1;
+            size = 0;
+            threshold = (int) (capacity * LOAD_FACTOR);
+            cursor = 0;
+            passes = 0;
+            purgedPass = -1;
+        }
+
+        private int find(long fp1, long fp2) {
+            for (int slot = (int) fp1 & mask; ; slot = (slot + 1) & mask) {
+                if (expiresAt(slot) == 0) {
+                    return -1;
+                }
+                if (fp1(slot) == fp1 && table.getLong(slot * ENTRY + FP2) == fp2) {
+                    return slot;
+                }
+            }
+        }
+
+        private void insert(long fp1, long fp2, int expiresAt) {
+            int slot = (int) fp1 & mask;
+            while (expiresAt(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            int offset = slot * ENTRY;
+            table.putLong(offset, fp1);
+            table.putLong(offset + FP2, fp2);
+            table.putInt(offset + EXPIRES_AT, expiresAt);
+            size++;
+        }
+
+        private void remove(int slot) {
+            int hole = slot;
+            for (int next = (hole + 1) & mask; expiresAt(next) != 0; next = (next + 1) & mask) {
+                int home = (int) fp1(next) & mask;
+                // The entry moves back into the hole unless its home slot lies cyclically within (hole, next]
+                boolean movable = hole <= next ? (home <= hole || home > next) : (home <= hole && home > next);
+                if (movable) {
+                    table.put(hole * ENTRY, table, next * ENTRY, ENTRY);
+                    hole = next;
+                }
+            }
+            table.putInt(hole * ENTRY + EXPIRES_AT, 0);
+            size--;
+        }
+
+        /**
+         * Removes the expired entries among the next few slots
+         */
+        private void evict(int now) {
+            for (int i = 0; i < EVICTIONS_PER_PUT; i++) {
+                int expiresAt = expiresAt(cursor);
+                if (expiresAt != 0 && expiresAt <= now) {
+                    // The slot may be refilled by a shifted entry, inspected next time
+                    remove(cursor);
+                } else {
+                    advance();
+                }
+            }
+        }
+
+        private void advance() {
+            cursor = (cursor + 1) & mask;
+            if (cursor == 0) {
+                passes++;
+            }
+        }
+
+        private void purge(int now) {
+            for (int slot = 0; slot <= mask; slot++) {
+                int expiresAt = expiresAt(slot);
+                while (expiresAt != 0 && expiresAt <= now) {
+                    remove(slot);
+                    expiresAt = expiresAt(slot);
+                }
+            }
+        }
+
+        private void grow(int now) {
+            int capacity = mask + 1;
+            if (capacity >= MAX_SEGMENT_CAPACITY) {
+                throw new IllegalStateException("Fingerprint judge is full with " + size + " keys in a segment, expect more keys");
+            }
+            ByteBuffer old = table;
+            allocate(capacity << 1);
+            for (int offset = 0; offset < capacity * ENTRY; offset += ENTRY) {
+                int expiresAt = old.getInt(offset + EXPIRES_AT);
+                if (expiresAt > now) {
+                    insert(old.getLong(offset), old.getLong(offset + FP2), expiresAt);
+                }
+            }
+        }
+
+        private long fp1(int slot) {
+            return table.getLong(slot * ENTRY);
+        }
+
+        private int expiresAt(int slot) {
+            return table.getInt(slot * ENTRY + EXPIRES_AT);
+        }
+    }
+}
@@ -4,6 +4,8 @@ package top.huzz.resilix.idempotent;
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 
+import java.util.List;
+
 /**
  * Idempotent judgment interface
  *
@@ -26,6 +28,65 @@ public interface IdempotentJudge {
      */
     void put(@Nonnull IdempotentKey key);
 
+    /**
+     * Determines whether it has been executed and puts the key if not, as one atomic operation: of concurrent calls
+     * with the same key, only one returns false. If key is null, returns false.
+     * <p/>The default judges then puts, which is not atomic, implementations override it with a single operation.
+     *
+     * @param key idempotent identifier
+     * @return true: already executed; false: not executed, and now put
+     */
+    default boolean judgeAndPut(@Nullable IdempotentKey key) {
+        if (!IdempotentKeys.isPresent(key)) {
+            return false;
+        }
+        if (judge(key)) {
+            return true;
+        }
+        put(key);
+        return false;
+    }
+
+    /**
+     * Determines for each key whether it has been executed and puts the keys not executed, as if {@link #judgeAndPut(IdempotentKey)}
+     * were called for each key in turn: a key repeated in the list is executed at its first occurrence only
+     *
+     * @param keys idempotent identifiers
+     * @return for each key in order, true: already executed; false: not executed, and now put
+     */
+    default boolean[] judgeAndPutAll(@Nonnull List<? extends IdempotentKey> keys) {
+        boolean[] results = new boolean[keys.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = judgeAndPut(keys.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Determines for each key whether it has been executed, judges backed by a remote store check all the keys in one round trip
+     *
+     * @param keys idempotent identifiers
+     * @return for each key in order, true: already executed; false: not executed
+     */
+    default boolean[] judgeAll(@Nonnull List<? extends IdempotentKey> keys) {
+        boolean[] results = new boolean[keys.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = judge(keys.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Put the keys into the idempotent judge
+     *
+     * @param keys idempotent identifiers
+     */
+    default void putAll(@Nonnull List<? extends IdempotentKey> keys) {
+        for (IdempotentKey key : keys) {
+            put(key);
+        }
+    }
+
     /**
      * Destroy
      */
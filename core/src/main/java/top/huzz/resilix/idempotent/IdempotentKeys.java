@@ -0,0 +1,71 @@
+package top.huzz.resilix.idempotent;
+
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.PrimitiveSink;
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Hashing of idempotent keys, by their components for {@link BinaryIdempotentKey} and by their identifier otherwise
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+final class IdempotentKeys {
+    private static final ThreadLocal<long[]> HASH = ThreadLocal.withInitial(() -> new long[2]);
+
+    private IdempotentKeys() {
+    }
+
+    /**
+     * @return whether the key can be judged, without building the identifier of a binary key
+     */
+    static boolean isPresent(@Nullable IdempotentKey key) {
+        return key instanceof BinaryIdempotentKey || (key != null && key.idempotentKey() != null);
+    }
+
+    /**
+     * @return 128-bit murmur3 hash of the key, its lower 64 bits first, in an array of the current thread overwritten
+     * by the next call
+     */
+    static long[] hash128(@Nonnull IdempotentKey key) {
+        long[] hash = HASH.get();
+        hash128(key, hash, 0);
+        return hash;
+    }
+
+    /**
+     * Writes the 128-bit murmur3 hash of the key, its lower 64 bits at offset and its upper 64 bits after them
+     */
+    static void hash128(@Nonnull IdempotentKey key, long[] hash, int offset) {
+        if (key instanceof BinaryIdempotentKey binary) {
+            binary.hash128(hash, offset);
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Hashing.murmur3_128().hashString(key.idempotentKey(), StandardCharsets.UTF_8).asBytes())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        hash[offset] = bytes.getLong(0);
+        hash[offset + 1] = bytes.getLong(8);
+    }
+
+    /**
+     * Funnel of keys for Guava bloom filters, a key with an identifier is funneled like the identifier itself
+     */
+    enum KeyFunnel implements Funnel<IdempotentKey> {
+        INSTANCE;
+
+        @Override
+        public void funnel(IdempotentKey key, PrimitiveSink into) {
+            if (key instanceof BinaryIdempotentKey binary) {
+                binary.writeTo(into);
+            } else {
+                into.putString(key.idempotentKey(), StandardCharsets.UTF_8);
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package top.huzz.resilix.idempotent;
+
+import lombok.extern.slf4j.Slf4j;
+import top.huzz.resilix.core.PhaseExecutors;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bloom filter whose bits live in a memory-mapped file, so that it survives restarts and can be shared by the JVMs
+ * of a host opening the same file.
+ * <p/>Bits are set with atomic ORs on the mapping, without locks, which other processes mapping the file see as well.
+ * The mapping is forced to disk periodically when bits were set since the last time, and on close; bits set less than
+ * a flush interval before a crash of the host may be lost, those set before a crash of the JVM are not.
+ * The flushes are scheduled on the shared timer of {@link PhaseExecutors#timer()} and run on {@link PhaseExecutors#pooled()}.
+ * A file is opened by one filter at a time in a JVM.
+ * <p/>File layout: a 64 bytes header {@code magic (long), version (int), hashFunctions (int), bits (long)},
+ * followed by the bits as little-endian longs. Keys are given by their 128-bit murmur3 hash, see {@link IdempotentKeys#hash128(IdempotentKey)},
+ * and mapped to bits like Guava bloom filters do.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Slf4j
+final class MappedBloomFilter implements AutoCloseable {
+    private static final long MAGIC = 0x5253_5842_4C4F_4F4DL;
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    /**
+     * Files opened by the filters of this JVM
+     */
+    private static final Set<Path> OPEN = ConcurrentHashMap.newKeySet();
+
+    private final Path file;
+    private final Path key;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long bits;
+    private final int hashFunctions;
+    private final ScheduledFuture<?> flushing;
+    private volatile boolean dirty;
+    private volatile boolean closed;
+
+    /**
+     * Open the filter of a file, creating it if missing
+     *
+     * @param file               file of the filter
+     * @param expectedInsertions expected number of elements to be inserted
+     * @param fpp                false positive probability
+     * @param flushInterval      how often set bits are forced to disk
+     * @throws IOException              if the file cannot be read or created
+     * @throws IllegalArgumentException if the file exists with another size or number of hash functions
+     * @throws IllegalStateException    if the file is already open in this JVM
+     */
+    MappedBloomFilter(Path file, long expectedInsertions, double fpp, Duration flushInterval) throws IOException {
+        if (expectedInsertions <= 0 || fpp <= 0 || fpp >= 1 || flushInterval.isNegative() || flushInterval.isZero()) {
+            throw new IllegalArgumentException("Invalid mapped bloom filter, expectedInsertions: " + expectedInsertions
+                    + ", fpp: " + fpp + ", flushInterval: " + flushInterval);
+        }
+        // Sizing of Guava bloom filters, rounded up to whole longs
+        long optimalBits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        long bits = (Math.max(optimalBits, 64) + 63) & ~63L;
+        int hashFunctions = Math.max(1, (int) Math.round((double) bits / expectedInsertions * Math.log(2)));
+        if (HEADER + bits / 8 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Mapped bloom filter of " + bits + " bits exceeds the 2GB a file can map");
+        }
+        this.file = file;
+        this.key = file.toAbsolutePath().normalize();
+        if (!OPEN.add(key)) {
+            throw new IllegalStateException("Mapped bloom filter " + file + " is already open in this JVM, share the open filter instead");
+        }
+        FileChannel channel = null;
+        try {
+            Path parent = key.getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int size = (int) (HEADER + bits / 8);
+            // Other JVMs may be creating the same file
+            FileLock lock;
+            try {
+                lock = channel.lock();
+            } catch (OverlappingFileLockException e) {
+                throw new IllegalStateException(file + " is already locked in this JVM, it cannot be opened as a mapped bloom filter", e);
+            }
+            try {
+                if (channel.size() == 0) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                    header.putLong(MAGIC).putInt(VERSION).putInt(hashFunctions).putLong(bits).rewind();
+                    channel.write(header, 0);
+                    // Extends the file with zeroed bits
+                    channel.write(ByteBuffer.allocate(1), size - 1);
+                    channel.force(true);
+                    log.info("Mapped bloom filter created in {}, {} bits, {} hash functions", file, bits, hashFunctions);
+                } else {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+                    channel.read(header, 0);
+                    header.flip();
+                    if (header.remaining() < HEADER || header.getLong() != MAGIC || header.getInt() != VERSION) {
+                        throw new IllegalArgumentException(file + " is not a mapped bloom filter");
+                    }
+                    int storedHashFunctions = header.getInt();
+                    long storedBits = header.getLong();
+                    if (storedHashFunctions != hashFunctions || storedBits != bits || channel.size() < size) {
+                        throw new IllegalArgumentException(file + " holds a bloom filter of " + storedBits + " bits and " + storedHashFunctions
+                                + " hash functions, expected " + bits + " bits and " + hashFunctions + " hash functions, delete it to start over");
+                    }
+                    log.info("Mapped bloom filter reopened from {}", file);
+                }
+            } finally {
+                lock.release();
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            OPEN.remove(key);
+            throw e;
+        }
+        this.channel = channel;
+        this.bits = bits;
+        this.hashFunctions = hashFunctions;
+        long interval = flushInterval.toNanos();
+        this.flushing = PhaseExecutors.timer().scheduleWithFixedDelay(this::scheduleFlush, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param hash 128-bit hash of the key, its lower 64 bits first
+     */
+    boolean mightContain(long[] hash) {
+        return !visit(hash, false);
+    }
+
+    /**
+     * @param hash 128-bit hash of the key, its lower 64 bits first
+     * @return whether any bit of the key changed, i.e. the key was definitely not contained before
+     */
+    boolean put(long[] hash) {
+        boolean changed = visit(hash, true);
+        if (changed) {
+            dirty = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Visits the bits of a key, stopping at the first one not set unless setting them
+     *
+     * @return whether a bit of the key was not set
+     */
+    private boolean visit(long[] hash, boolean set) {
+        long hash2 = hash[1];
+        long combined = hash[0];
+        boolean unset = false;
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = (combined & Long.MAX_VALUE) % bits;
+            long mask = 1L << bit;
+            int offset = offsetOf(bit);
+            if (((long) LONGS.getVolatile(buffer, offset) & mask) == 0) {
+                if (!set) {
+                    return true;
+                }
+                // Only bits not set yet take an atomic write, most of them once the filter has filled up
+                if (((long) LONGS.getAndBitwiseOr(buffer, offset, mask) & mask) == 0) {
+                    unset = true;
+                }
+            }
+            combined += hash2;
+        }
+        return unset;
+    }
+
+    private static int offsetOf(long bit) {
+        return HEADER + (int) (bit >>> 6) * Long.BYTES;
+    }
+
+    /**
+     * Hands the flush over to the shared pool, tasks of the timer must not wait for the disk
+     */
+    private void scheduleFlush() {
+        if (!dirty || closed) {
+            return;
+        }
+        try {
+            PhaseExecutors.pooled().execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            log.warn("Flush of mapped bloom filter {} rejected, retrying at the next interval", file, e);
+        }
+    }
+
+    private void flush() {
+        if (!dirty || closed) {
+            return;
+        }
+        dirty = false;
+        try {
+            buffer.force();
+        } catch (Exception e) {
+            dirty = true;
+            log.error("Failed to flush mapped bloom filter {}", file, e);
+        }
+    }
+
+    /**
+     * Stops the periodic flush and forces the bits to disk, the file is kept for the next start
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flushing.cancel(false);
+        buffer.force();
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Failed to close mapped bloom filter {}", file, e);
+        } finally {
+            OPEN.remove(key);
+        }
+    }
+}
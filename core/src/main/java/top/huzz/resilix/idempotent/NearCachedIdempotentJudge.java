@@ -0,0 +1,159 @@
+package top.huzz.resilix.idempotent;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Two-tier idempotent judgment: a small local set of the keys this node recently put or saw executed, in front of
+ * a remote judge such as a distributed {@link BloomFilterIdempotentJudge}.
+ * <p/>A key found in the local set is answered as executed without calling the remote judge, which mostly spares the
+ * round trip of redeliveries arriving shortly after the first delivery on the same node. Keys not found locally are
+ * judged remotely, then kept locally once known executed. Only executed keys are cached, a key is never answered
+ * as not executed locally, so the cache does not weaken the remote judgment as long as its time to live is shorter
+ * than the remote one.
+ * <p/>The local set is a bounded {@link FingerprintIdempotentJudge}: it holds maxKeys keys at most, rounded up to the
+ * power of two sizing of its segments, dropping some before they expire when full.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public class NearCachedIdempotentJudge implements IdempotentJudge {
+    protected final IdempotentJudge remote;
+    protected final FingerprintIdempotentJudge near;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param remote  judge answering the keys not found locally
+     * @param maxKeys number of keys the local set is sized for
+     * @param ttl     time a key is kept locally, at least one second and shorter than the remote judge remembers keys
+     */
+    public NearCachedIdempotentJudge(@Nonnull IdempotentJudge remote, long maxKeys, @Nonnull Duration ttl) {
+        this.remote = remote;
+        this.near = new FingerprintIdempotentJudge(maxKeys, ttl, true);
+    }
+
+    @Override
+    public boolean judge(@Nullable IdempotentKey key) {
+        if (!IdempotentKeys.isPresent(key)) {
+            return false;
+        }
+        if (near.judge(key)) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        if (remote.judge(key)) {
+            near.put(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void put(@Nonnull IdempotentKey key) {
+        remote.put(key);
+        near.put(key);
+    }
+
+    @Override
+    public boolean judgeAndPut(@Nullable IdempotentKey key) {
+        if (!IdempotentKeys.isPresent(key)) {
+            return false;
+        }
+        if (near.judge(key)) {
+            hits.increment();
+            return true;
+        }
+        misses.increment();
+        boolean executed = remote.judgeAndPut(key);
+        // Executed either way now
+        near.put(key);
+        return executed;
+    }
+
+    @Override
+    public boolean[] judgeAll(@Nonnull List<? extends IdempotentKey> keys) {
+        return judgeAll(keys, false);
+    }
+
+    @Override
+    public void putAll(@Nonnull List<? extends IdempotentKey> keys) {
+        remote.putAll(keys);
+        for (IdempotentKey key : keys) {
+            near.put(key);
+        }
+    }
+
+    @Override
+    public boolean[] judgeAndPutAll(@Nonnull List<? extends IdempotentKey> keys) {
+        return judgeAll(keys, true);
+    }
+
+    /**
+     * @return number of judgments answered locally
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of judgments answered by the remote judge
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return ratio of judgments answered locally, 0 if none was made
+     */
+    public double getHitRatio() {
+        long hits = this.hits.sum();
+        long total = hits + misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public void destroy() {
+        near.destroy();
+        remote.destroy();
+    }
+
+    private boolean[] judgeAll(List<? extends IdempotentKey> keys, boolean put) {
+        boolean[] results = new boolean[keys.size()];
+        List<IdempotentKey> remaining = new ArrayList<>(keys.size());
+        int[] indexes = new int[keys.size()];
+        for (int i = 0; i < results.length; i++) {
+            IdempotentKey key = keys.get(i);
+            if (!IdempotentKeys.isPresent(key)) {
+                continue;
+            }
+            if (near.judge(key)) {
+                results[i] = true;
+                hits.increment();
+            } else {
+                indexes[remaining.size()] = i;
+                remaining.add(key);
+            }
+        }
+        misses.add(remaining.size());
+        if (remaining.isEmpty()) {
+            return results;
+        }
+        // The keys missed locally are judged remotely at once
+        boolean[] judged = put ? remote.judgeAndPutAll(remaining) : remote.judgeAll(remaining);
+        for (int i = 0; i < judged.length; i++) {
+            results[indexes[i]] = judged[i];
+            if (put || judged[i]) {
+                near.put(remaining.get(i));
+            }
+        }
+        return results;
+    }
+}
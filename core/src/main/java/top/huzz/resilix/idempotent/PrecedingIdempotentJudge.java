@@ -1,8 +1,12 @@
 package top.huzz.resilix.idempotent;
 
 
+import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Preceding idempotent judgment interface
  *
@@ -45,4 +49,50 @@ public interface PrecedingIdempotentJudge extends IdempotentJudge {
      * @return true: already executed; false: not executed
      */
     boolean doJudge(@Nullable IdempotentKey key);
+
+    /**
+     * Determines for each key whether it has been executed, the keys that pass the pre-judgment are judged together
+     *
+     * @param keys idempotent identifiers
+     * @return for each key in order, true: already executed; false: not executed
+     */
+    @Override
+    default boolean[] judgeAll(@Nonnull List<? extends IdempotentKey> keys) {
+        boolean[] results = new boolean[keys.size()];
+        List<IdempotentKey> remaining = new ArrayList<>(keys.size());
+        int[] indexes = new int[keys.size()];
+        for (int i = 0; i < results.length; i++) {
+            IdempotentKey key = keys.get(i);
+            if (key == null) {
+                continue;
+            }
+            if (preJudge(key)) {
+                results[i] = true;
+            } else {
+                indexes[remaining.size()] = i;
+                remaining.add(key);
+            }
+        }
+        if (!remaining.isEmpty()) {
+            boolean[] judged = doJudgeAll(remaining);
+            for (int i = 0; i < judged.length; i++) {
+                results[indexes[i]] = judged[i];
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Determines for each key whether it has been executed, called with the keys that passed the pre-judgment
+     *
+     * @param keys idempotent identifiers
+     * @return for each key in order, true: already executed; false: not executed
+     */
+    default boolean[] doJudgeAll(@Nonnull List<? extends IdempotentKey> keys) {
+        boolean[] results = new boolean[keys.size()];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = doJudge(keys.get(i));
+        }
+        return results;
+    }
 }
@@ -0,0 +1,33 @@
+package top.huzz.resilix.ratelimit;
+
+import jakarta.annotation.Nonnull;
+import top.huzz.resilix.core.Phase;
+
+import java.time.Duration;
+
+/**
+ * Rate limiter of a phase, declared by {@link Phase#rateLimiter()}.
+ * <p/>Permits are reserved rather than waited for: the limiter tells how long the caller has to wait,
+ * and the engine waits without holding a thread (see {@link top.huzz.resilix.retry.RetryPolicy} for the
+ * same mechanism), only callers of the blocking {@code start} park in the meantime.
+ *
+ * @author chenji
+ * @see TokenBucketRateLimiter
+ * @since 1.0.2
+ */
+public interface RateLimiter {
+    /**
+     * Reserves a permit, the reservation cannot be cancelled
+     *
+     * @param maxWaitNanos longest acceptable wait in nanoseconds
+     * @return wait in nanoseconds before the permit may be used, 0 if it may be used right away,
+     * negative if no permit can be obtained within the maximum wait, in which case nothing is reserved
+     */
+    long reserve(long maxWaitNanos);
+
+    /**
+     * @return longest time a phase waits for a permit before failing
+     */
+    @Nonnull
+    Duration getMaxWait();
+}
@@ -0,0 +1,270 @@
+package top.huzz.resilix.ratelimit;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import org.apache.commons.lang3.StringUtils;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.LongCodec;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket rate limiter allowing {@code permits} calls per {@code period}, with bursts of up to {@code permits} calls
+ * after an idle period.
+ * <p/>The bucket is implemented as a GCRA (generic cell rate algorithm): its whole state is the theoretical arrival
+ * time of the next permit, so a reservation is a single CAS and the wait falls out of it.
+ * <p/>For a quota shared by several nodes, pass in {@link RedissonClient} and a key: the arrival time then lives in Redis
+ * and each node leases permits in batches of {@code leaseSize} with one script call. Leased permits keep the slot the
+ * shared bucket assigned them, so the quota holds across nodes, while most reservations stay local.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+public class TokenBucketRateLimiter implements RateLimiter {
+    protected final long permits;
+    protected final Duration period;
+    protected final Duration maxWait;
+    protected RateLimiter proxy;
+
+    static final int DEFAULT_LEASE_SIZE = 10;
+
+    /**
+     * Create a local rate limiter
+     *
+     * @param permits permits per period, also the size of a burst
+     * @param period  period
+     * @param maxWait longest time a phase waits for a permit
+     * @return local rate limiter
+     */
+    public static TokenBucketRateLimiter newLocal(long permits, @Nonnull Duration period, @Nonnull Duration maxWait) {
+        return new TokenBucketRateLimiter(permits, period, maxWait, null, null, 0);
+    }
+
+    /**
+     * Create a rate limiter shared through Redis, leasing 10 permits at a time
+     *
+     * @param redissonClient Redisson client
+     * @param redisKey       key holding the state of the shared bucket
+     * @param permits        permits per period across all nodes, also the size of a burst
+     * @param period         period
+     * @param maxWait        longest time a phase waits for a permit
+     * @return distributed rate limiter
+     */
+    public static TokenBucketRateLimiter newDistributed(@Nonnull RedissonClient redissonClient, @Nonnull String redisKey,
+                                                        long permits, @Nonnull Duration period, @Nonnull Duration maxWait) {
+        return new TokenBucketRateLimiter(permits, period, maxWait, redissonClient, redisKey, DEFAULT_LEASE_SIZE);
+    }
+
+    /**
+     * Create a rate limiter
+     *
+     * @param permits        permits per period, also the size of a burst
+     * @param period         period
+     * @param maxWait        longest time a phase waits for a permit
+     * @param redissonClient Redisson client, if not null, the bucket is shared through Redis
+     * @param redisKey       key holding the state of the shared bucket, must be specified if redissonClient is not null
+     * @param leaseSize      number of permits leased from Redis at a time, larger leases save round trips
+     *                       but may leave permits unused on a node
+     */
+    protected TokenBucketRateLimiter(long permits, @Nonnull Duration period, @Nonnull Duration maxWait,
+                                     @Nullable RedissonClient redissonClient, @Nullable String redisKey, int leaseSize) {
+        if (permits < 1 || period.isNegative() || period.isZero() || maxWait.isNegative()) {
+            throw new IllegalArgumentException("Invalid rate limit, permits: " + permits + ", period: " + period + ", maxWait: " + maxWait);
+        }
+        this.permits = permits;
+        this.period = period;
+        this.maxWait = maxWait;
+        long intervalNanos = Math.max(1, period.toNanos() / permits);
+        if (redissonClient != null) {
+            if (StringUtils.isBlank(redisKey)) {
+                throw new IllegalArgumentException("redisKey must not be null");
+            }
+            if (leaseSize < 1 || leaseSize > permits) {
+                throw new IllegalArgumentException("leaseSize must be within [1, " + permits + "], found: " + leaseSize);
+            }
+            proxy = new Distributed(redissonClient, redisKey, intervalNanos, permits, leaseSize, period.toNanos(), maxWait);
+        } else {
+            proxy = new Local(intervalNanos, permits, maxWait);
+        }
+    }
+
+    @Override
+    public long reserve(long maxWaitNanos) {
+        return proxy.reserve(maxWaitNanos);
+    }
+
+    @Nonnull
+    @Override
+    public Duration getMaxWait() {
+        return maxWait;
+    }
+
+    static class Local implements RateLimiter {
+        protected final long intervalNanos;
+        protected final long burstNanos;
+        protected final Duration maxWait;
+        /**
+         * Theoretical arrival time of the next permit, in {@link System#nanoTime()}
+         */
+        protected final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+        Local(long intervalNanos, long burst, Duration maxWait) {
+            this.intervalNanos = intervalNanos;
+            this.burstNanos = intervalNanos * burst;
+            this.maxWait = maxWait;
+        }
+
+        @Override
+        public long reserve(long maxWaitNanos) {
+            while (true) {
+                long current = tat.get();
+                long now = System.nanoTime();
+                long next = (current - now < 0 ? now : current) + intervalNanos;
+                long wait = Math.max(0, next - burstNanos - now);
+                if (wait > maxWaitNanos) {
+                    return -1;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return wait;
+                }
+            }
+        }
+
+        @Nonnull
+        @Override
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+    }
+
+    static class Distributed implements RateLimiter {
+        /**
+         * Leases permits from the shared bucket using the clock of Redis. The first permit of the lease may be used
+         * once the bucket has drained enough, the next ones one interval apart.
+         * Returns how long after now (in microseconds, negative if already usable) the first permit may be used,
+         * or nil if that is beyond the maximum wait.
+         */
+        static final String LEASE_SCRIPT = """
+                local time = redis.call('time')
+                local now = tonumber(time[1]) * 1000000 + tonumber(time[2])
+                local interval = tonumber(ARGV[1])
+                local tat = tonumber(redis.call('get', KEYS[1]) or 0)
+                if tat < now then
+                  tat = now
+                end
+                local first = tat + interval - interval * tonumber(ARGV[2])
+                local wait = first - now
+                if wait < 0 then
+                  wait = 0
+                end
+                if wait > tonumber(ARGV[4]) then
+                  return false
+                end
+                local next = tat + interval * tonumber(ARGV[3])
+                redis.call('set', KEYS[1], string.format('%.0f', next), 'px', math.ceil((next - now) / 1000) + 1)
+                return first - now""";
+
+        protected final RScript script;
+        protected final String redisKey;
+        protected final long intervalNanos;
+        protected final long burst;
+        protected final int leaseSize;
+        /**
+         * Leased permits older than this are dropped, so that permits unused for a while do not add up to a burst
+         */
+        protected final long staleNanos;
+        protected final Duration maxWait;
+        protected volatile Lease lease = new Lease(0, 0, 0);
+
+        Distributed(RedissonClient redissonClient, String redisKey, long intervalNanos, long burst, int leaseSize, long staleNanos, Duration maxWait) {
+            this.script = redissonClient.getScript(LongCodec.INSTANCE);
+            this.redisKey = redisKey;
+            this.intervalNanos = intervalNanos;
+            this.burst = burst;
+            this.leaseSize = leaseSize;
+            this.staleNanos = staleNanos;
+            this.maxWait = maxWait;
+        }
+
+        @Override
+        public long reserve(long maxWaitNanos) {
+            long wait = lease.reserve(maxWaitNanos, staleNanos);
+            if (wait != Lease.EXHAUSTED) {
+                return wait;
+            }
+            synchronized (this) {
+                // Another thread may have leased meanwhile
+                wait = lease.reserve(maxWaitNanos, staleNanos);
+                if (wait != Lease.EXHAUSTED) {
+                    return wait;
+                }
+                Long first = script.eval(redisKey, RScript.Mode.READ_WRITE, LEASE_SCRIPT, RScript.ReturnType.INTEGER,
+                        Collections.singletonList(redisKey),
+                        Math.max(1, TimeUnit.NANOSECONDS.toMicros(intervalNanos)), burst, leaseSize, TimeUnit.NANOSECONDS.toMicros(maxWaitNanos));
+                if (first == null) {
+                    return -1;
+                }
+                lease = new Lease(System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(first), intervalNanos, leaseSize);
+                return lease.reserve(maxWaitNanos, staleNanos);
+            }
+        }
+
+        @Nonnull
+        @Override
+        public Duration getMaxWait() {
+            return maxWait;
+        }
+    }
+
+    /**
+     * Permits leased from the shared bucket, handed out in order without locks
+     */
+    static final class Lease {
+        static final long EXHAUSTED = Long.MIN_VALUE;
+
+        /**
+         * When the first permit may be used, in {@link System#nanoTime()}
+         */
+        private final long start;
+        private final long intervalNanos;
+        private final int size;
+        private final AtomicInteger next = new AtomicInteger();
+
+        Lease(long start, long intervalNanos, int size) {
+            this.start = start;
+            this.intervalNanos = intervalNanos;
+            this.size = size;
+        }
+
+        /**
+         * @return wait before the reserved permit may be used, negative if it is too far away, {@link #EXHAUSTED} if no permit is left
+         */
+        long reserve(long maxWaitNanos, long staleNanos) {
+            while (true) {
+                int observed = next.get();
+                int index = observed;
+                long now = System.nanoTime();
+                // Skip permits that have gone stale
+                long stale = now - staleNanos - start;
+                if (stale > 0) {
+                    index = (int) Math.max(index, Math.min(size, stale / intervalNanos + 1));
+                }
+                if (index >= size) {
+                    return EXHAUSTED;
+                }
+                long wait = Math.max(0, start + index * intervalNanos - now);
+                if (wait > maxWaitNanos) {
+                    return -1;
+                }
+                if (next.compareAndSet(observed, index + 1)) {
+                    return wait;
+                }
+            }
+        }
+    }
+}
@@ -3,8 +3,13 @@ package top.huzz.resilix.recorder;
 
 import jakarta.annotation.Nonnull;
 import jakarta.annotation.Nullable;
+import top.huzz.resilix.circuitbreaker.CircuitBreaker;
+import top.huzz.resilix.circuitbreaker.CircuitBreakerState;
 import top.huzz.resilix.core.RunContext;
 
+import java.util.List;
+import java.util.Set;
+
 /**
  * Phase recorder. Each phase can have a recorder to record the execution results,
  * such as storing data to Redis or database.
@@ -29,6 +34,74 @@ public interface PhaseRecorder<C extends RunContext> {
      */
     void end(C context, @Nullable Exception e);
 
+    /**
+     * Attempt start - about to begin an attempt of the phase, phases without retry only have attempt 1
+     *
+     * @param context context object
+     * @param attempt attempt number, starting from 1
+     * @see top.huzz.resilix.retry.RetryPolicy
+     */
+    default void readyFor(C context, int attempt) {
+        readyFor(context);
+    }
+
+    /**
+     * Attempt end, failed attempts that will be retried end here too
+     *
+     * @param context context object
+     * @param e       exception of the attempt
+     * @param attempt attempt number, starting from 1
+     */
+    default void end(C context, @Nullable Exception e, int attempt) {
+        end(context, e);
+    }
+
+    /**
+     * Phase start of a batch of contexts handled together by a {@link top.huzz.resilix.handler.BatchRunHandler},
+     * recorders writing to a store may override it to write the whole batch at once
+     *
+     * @param contexts context objects
+     */
+    default void readyForAll(List<C> contexts) {
+        for (C context : contexts) {
+            readyFor(context, 1);
+        }
+    }
+
+    /**
+     * Phase end of a batch of contexts handled together, the exception of each context is its own
+     *
+     * @param contexts context objects
+     * @see #readyForAll(List)
+     */
+    default void endAll(List<C> contexts) {
+        for (C context : contexts) {
+            end(context, context.getException(), 1);
+        }
+    }
+
+    /**
+     * Fields written by the phase, reported before its end for {@link top.huzz.resilix.core.CopyOnWriteRunContext}s
+     * that wrote any field. Fields written by failed attempts that were retried are included
+     *
+     * @param context context object
+     * @param fields  names of the written fields
+     */
+    default void fieldsWritten(C context, Set<String> fields) {
+    }
+
+    /**
+     * Circuit breaker state change, caused by the attempt of the phase on this context
+     *
+     * @param context context object
+     * @param breaker circuit breaker of the phase
+     * @param from    previous state
+     * @param to      new state
+     * @see top.huzz.resilix.core.Phase#circuitBreaker()
+     */
+    default void circuitStateChanged(C context, CircuitBreaker breaker, CircuitBreakerState from, CircuitBreakerState to) {
+    }
+
     /**
      * @return recorder type
      */
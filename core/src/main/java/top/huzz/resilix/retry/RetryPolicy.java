@@ -0,0 +1,144 @@
+package top.huzz.resilix.retry;
+
+import jakarta.annotation.Nonnull;
+import lombok.Getter;
+import top.huzz.resilix.core.Phase;
+import top.huzz.resilix.exception.CircuitBreakerOpenException;
+import top.huzz.resilix.exception.PhaseStoppedException;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Retry policy of a phase, declared by {@link Phase#retryPolicy()}.
+ * <p/>A failed attempt is retried after an exponential backoff with jitter, as long as attempts remain and
+ * the exception is retryable. Waiting between attempts never occupies a thread: the next attempt is
+ * rescheduled on the shared timer, only callers of the blocking {@code start} wait for it.
+ * A stopped phase ({@link PhaseStoppedException}) or a call rejected by an open circuit
+ * ({@link CircuitBreakerOpenException}) is never retried.
+ * <pre>
+ * RetryPolicy.of(3, Duration.ofMillis(200))
+ *         .withMaxBackoff(Duration.ofSeconds(2))
+ *         .retryOn(IOException.class, TimeoutException.class);
+ * </pre>
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Getter
+public final class RetryPolicy {
+    static final double DEFAULT_MULTIPLIER = 2;
+    static final double DEFAULT_JITTER = 0.5;
+    static final Duration DEFAULT_MAX_BACKOFF = Duration.ofMinutes(1);
+
+    /**
+     * Maximum number of attempts, including the first one
+     */
+    private final int maxAttempts;
+    /**
+     * Backoff before the second attempt
+     */
+    private final Duration initialBackoff;
+    /**
+     * Factor applied to the backoff after each attempt
+     */
+    private final double multiplier;
+    /**
+     * Upper bound of the backoff
+     */
+    private final Duration maxBackoff;
+    /**
+     * Fraction of the backoff that is randomized, between 0 (no jitter) and 1 (full jitter)
+     */
+    private final double jitter;
+    /**
+     * Which exceptions are retryable
+     */
+    private final Predicate<Exception> retryable;
+
+    private RetryPolicy(int maxAttempts, Duration initialBackoff, double multiplier, Duration maxBackoff, double jitter, Predicate<Exception> retryable) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1, found: " + maxAttempts);
+        }
+        if (initialBackoff.isNegative() || maxBackoff.isNegative() || multiplier < 1 || jitter < 0 || jitter > 1) {
+            throw new IllegalArgumentException("Invalid retry backoff, initialBackoff: " + initialBackoff + ", maxBackoff: " + maxBackoff + ", multiplier: " + multiplier + ", jitter: " + jitter);
+        }
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.multiplier = multiplier;
+        this.maxBackoff = maxBackoff;
+        this.jitter = jitter;
+        this.retryable = retryable;
+    }
+
+    /**
+     * Create a retry policy retrying every exception with a doubling backoff, capped to one minute, and 50% jitter
+     *
+     * @param maxAttempts    maximum number of attempts, including the first one
+     * @param initialBackoff backoff before the second attempt
+     * @return retry policy
+     */
+    public static RetryPolicy of(int maxAttempts, @Nonnull Duration initialBackoff) {
+        return new RetryPolicy(maxAttempts, initialBackoff, DEFAULT_MULTIPLIER, DEFAULT_MAX_BACKOFF, DEFAULT_JITTER, e -> true);
+    }
+
+    public RetryPolicy withMultiplier(double multiplier) {
+        return new RetryPolicy(maxAttempts, initialBackoff, multiplier, maxBackoff, jitter, retryable);
+    }
+
+    public RetryPolicy withMaxBackoff(@Nonnull Duration maxBackoff) {
+        return new RetryPolicy(maxAttempts, initialBackoff, multiplier, maxBackoff, jitter, retryable);
+    }
+
+    public RetryPolicy withJitter(double jitter) {
+        return new RetryPolicy(maxAttempts, initialBackoff, multiplier, maxBackoff, jitter, retryable);
+    }
+
+    /**
+     * Only retry exceptions of the given types (or their subtypes)
+     *
+     * @param types retryable exception types
+     * @return new retry policy
+     */
+    @SafeVarargs
+    public final RetryPolicy retryOn(@Nonnull Class<? extends Exception>... types) {
+        return retryIf(e -> {
+            for (Class<? extends Exception> type : types) {
+                if (type.isInstance(e)) {
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Only retry exceptions matching the given predicate
+     *
+     * @param retryable retryable exception predicate
+     * @return new retry policy
+     */
+    public RetryPolicy retryIf(@Nonnull Predicate<Exception> retryable) {
+        return new RetryPolicy(maxAttempts, initialBackoff, multiplier, maxBackoff, jitter, Objects.requireNonNull(retryable));
+    }
+
+    /**
+     * @param attempt attempt that has just failed, starting from 1
+     * @param e       exception of the attempt
+     * @return whether another attempt should be made
+     */
+    public boolean canRetry(int attempt, @Nonnull Exception e) {
+        return attempt < maxAttempts && !(e instanceof PhaseStoppedException) && !(e instanceof CircuitBreakerOpenException) && retryable.test(e);
+    }
+
+    /**
+     * @param attempt attempt that has just failed, starting from 1
+     * @return backoff in nanoseconds before the next attempt
+     */
+    public long backoffNanos(int attempt) {
+        double backoff = Math.min(initialBackoff.toNanos() * Math.pow(multiplier, attempt - 1), maxBackoff.toNanos());
+        return (long) (backoff * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+}
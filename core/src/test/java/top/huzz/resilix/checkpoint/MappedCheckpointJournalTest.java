@@ -0,0 +1,162 @@
+package top.huzz.resilix.checkpoint;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class MappedCheckpointJournalTest {
+    private static final String PHASES = "P";
+    /**
+     * Holds four checkpoints of this test, or nine completions
+     */
+    private static final int SEGMENT_SIZE = 128;
+    private static final Duration NEVER = Duration.ofHours(1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void replaysTheLatestCheckpointOfUnfinishedRuns() throws IOException {
+        try (MappedCheckpointJournal journal = MappedCheckpointJournal.open(directory, SEGMENT_SIZE, NEVER)) {
+            journal.save(checkpoint("r1", 1)).join();
+            journal.save(checkpoint("r2", 1)).join();
+            journal.save(checkpoint("r1", 2)).join();
+            journal.complete("r2").join();
+        }
+
+        try (MappedCheckpointJournal journal = MappedCheckpointJournal.open(directory, SEGMENT_SIZE, NEVER)) {
+            assertEquals(List.of(), journal.recover("Q"));
+            List<Checkpoint> recovered = journal.recover(PHASES);
+            assertEquals(1, recovered.size());
+            Checkpoint checkpoint = recovered.get(0);
+            assertEquals("r1", checkpoint.getRunId());
+            assertEquals(2, checkpoint.getPhaseOrdinal());
+            assertEquals("C", checkpoint.getContextClass());
+            assertArrayEquals(data("r1", 2), checkpoint.getData());
+            // Claimed by the first recovery
+            assertEquals(List.of(), journal.recover(PHASES));
+        }
+    }
+
+    @Test
+    void stopsAtATornRecord() throws IOException {
+        try (MappedCheckpointJournal journal = MappedCheckpointJournal.open(directory, SEGMENT_SIZE, NEVER)) {
+            journal.save(checkpoint("r1", 1)).join();
+            journal.save(checkpoint("r2", 1)).join();
+        }
+        try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 0);
+            // Last byte of the data of the second record
+            long second = 8 + length.flip().getInt();
+            ByteBuffer secondLength = ByteBuffer.allocate(4);
+            channel.read(secondLength, second);
+            channel.write(ByteBuffer.wrap(new byte[]{-1}), second + 8 + secondLength.flip().getInt() - 1);
+        }
+
+        try (MappedCheckpointJournal journal = MappedCheckpointJournal.open(directory, SEGMENT_SIZE, NEVER)) {
+            List<Checkpoint> recovered = journal.recover(PHASES);
+            assertEquals(1, recovered.size());
+            assertEquals("r1", recovered.get(0).getRunId());
+        }
+    }
+
+    @Test
+    void compactsSealedSegmentsIntoTheUnfinishedRuns() throws Exception {
+        int before;
+        try (MappedCheckpointJournal journal = MappedCheckpointJournal.open(directory, SEGMENT_SIZE, Duration.ofSeconds(1))) {
+            writeRuns(journal);
+            before = segments().size();
+            awaitCompaction(before);
+        }
+
+        try (MappedCheckpointJournal journal = MappedCheckpointJournal.open(directory, SEGMENT_SIZE, NEVER)) {
+            List<Checkpoint> recovered = journal.recover(PHASES);
+            assertEquals(1, recovered.size());
+            assertEquals("r9", recovered.get(0).getRunId());
+            assertEquals(3, recovered.get(0).getPhaseOrdinal());
+        }
+    }
+
+    @Test
+    void keepsCompletionsUntilTheOlderSegmentsAreDeleted(@TempDir Path backup) throws Exception {
+        try (MappedCheckpointJournal journal = MappedCheckpointJournal.open(directory, SEGMENT_SIZE, Duration.ofSeconds(1))) {
+            writeRuns(journal);
+            List<Path> segments = segments();
+            for (Path segment : segments) {
+                Files.copy(segment, backup.resolve(segment.getFileName()));
+            }
+            awaitCompaction(segments.size());
+        }
+        // As if the journal had stopped before deleting the segments older than the compacted one
+        try (Stream<Path> files = Files.list(backup)) {
+            for (Path segment : files.toList()) {
+                if (!Files.exists(directory.resolve(segment.getFileName()))) {
+                    Files.copy(segment, directory.resolve(segment.getFileName()));
+                }
+            }
+        }
+
+        try (MappedCheckpointJournal journal = MappedCheckpointJournal.open(directory, SEGMENT_SIZE, NEVER)) {
+            List<Checkpoint> recovered = journal.recover(PHASES);
+            assertEquals(1, recovered.size());
+            assertEquals("r9", recovered.get(0).getRunId());
+        }
+    }
+
+    /**
+     * Checkpoints ten runs over several segments, completes all but the last one, then checkpoints the last one again
+     * so that the completions are sealed too
+     */
+    private static void writeRuns(MappedCheckpointJournal journal) {
+        for (int i = 0; i < 10; i++) {
+            journal.save(checkpoint("r" + i, 1)).join();
+        }
+        for (int i = 0; i < 9; i++) {
+            journal.complete("r" + i).join();
+        }
+        journal.save(checkpoint("r9", 2)).join();
+        journal.save(checkpoint("r9", 3)).join();
+        journal.save(checkpoint("r9", 3)).join();
+    }
+
+    private void awaitCompaction(int segments) throws Exception {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (segments().size() >= segments) {
+            assertTrue(System.nanoTime() < deadline, "Segments not compacted");
+            Thread.sleep(20);
+        }
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".journal")).sorted().toList();
+        }
+    }
+
+    private static Checkpoint checkpoint(String runId, int ordinal) {
+        return new Checkpoint(runId, PHASES, ordinal, "C", data(runId, ordinal));
+    }
+
+    private static byte[] data(String runId, int ordinal) {
+        return (runId + "@" + ordinal).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,144 @@
+package top.huzz.resilix.circuitbreaker;
+
+import org.junit.jupiter.api.Test;
+import top.huzz.resilix.core.Phase;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class CircuitBreakerTest {
+    private final List<String> transitions = new ArrayList<>();
+    private final CircuitBreaker.StateListener listener = (breaker, from, to) -> transitions.add(from + "->" + to);
+
+    @Test
+    void staysClosedBelowTheMinimumCalls() {
+        CircuitBreaker breaker = new CircuitBreaker(TestPhase.CALL, CircuitBreakerConfig.of(50).withMinimumCalls(4));
+        for (int i = 0; i < 3; i++) {
+            breaker.onError(breaker.tryAcquire(listener), 0, listener);
+        }
+
+        assertEquals(CircuitBreakerState.CLOSED, breaker.getState());
+        assertEquals(-1, breaker.getFailureRate());
+        assertEquals(List.of(), transitions);
+    }
+
+    @Test
+    void opensWhenTheFailureRateReachesTheThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(TestPhase.CALL, CircuitBreakerConfig.of(50).withMinimumCalls(4));
+        breaker.onSuccess(breaker.tryAcquire(listener), 0, listener);
+        breaker.onSuccess(breaker.tryAcquire(listener), 0, listener);
+        breaker.onError(breaker.tryAcquire(listener), 0, listener);
+        assertEquals(-1, breaker.getFailureRate());
+        breaker.onSuccess(breaker.tryAcquire(listener), 0, listener);
+        assertEquals(25, breaker.getFailureRate());
+        breaker.onError(breaker.tryAcquire(listener), 0, listener);
+        assertEquals(40, breaker.getFailureRate());
+        assertEquals(CircuitBreakerState.CLOSED, breaker.getState());
+
+        breaker.onError(breaker.tryAcquire(listener), 0, listener);
+
+        assertEquals(CircuitBreakerState.OPEN, breaker.getState());
+        assertEquals(List.of("CLOSED->OPEN"), transitions);
+        assertNull(breaker.tryAcquire(listener));
+    }
+
+    @Test
+    void opensWhenTheSlowCallRateReachesTheThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(TestPhase.CALL, CircuitBreakerConfig.of(100)
+                .withSlowCalls(Duration.ofMillis(10), 50)
+                .withMinimumCalls(2));
+        long slow = TimeUnit.MILLISECONDS.toNanos(10);
+        breaker.onSuccess(breaker.tryAcquire(listener), 0, listener);
+        breaker.onSuccess(breaker.tryAcquire(listener), slow, listener);
+
+        assertEquals(CircuitBreakerState.OPEN, breaker.getState());
+    }
+
+    @Test
+    void closesAfterSuccessfulProbes() {
+        CircuitBreaker breaker = tripped(2);
+
+        CircuitBreaker.Permit first = breaker.tryAcquire(listener);
+        CircuitBreaker.Permit second = breaker.tryAcquire(listener);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(CircuitBreakerState.HALF_OPEN, breaker.getState());
+        assertNull(breaker.tryAcquire(listener));
+
+        breaker.onSuccess(first, 0, listener);
+        assertEquals(CircuitBreakerState.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(second, 0, listener);
+
+        assertEquals(CircuitBreakerState.CLOSED, breaker.getState());
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    void opensAgainAfterFailedProbes() {
+        CircuitBreaker breaker = tripped(2);
+
+        CircuitBreaker.Permit first = breaker.tryAcquire(listener);
+        CircuitBreaker.Permit second = breaker.tryAcquire(listener);
+        breaker.onSuccess(first, 0, listener);
+        breaker.onError(second, 0, listener);
+
+        assertEquals(CircuitBreakerState.OPEN, breaker.getState());
+        assertEquals(List.of("CLOSED->OPEN", "OPEN->HALF_OPEN", "HALF_OPEN->OPEN"), transitions);
+    }
+
+    @Test
+    void givesReleasedProbesBack() {
+        CircuitBreaker breaker = tripped(1);
+
+        CircuitBreaker.Permit probe = breaker.tryAcquire(listener);
+        assertNull(breaker.tryAcquire(listener));
+        breaker.release(probe);
+
+        assertNotNull(breaker.tryAcquire(listener));
+    }
+
+    @Test
+    void ignoresOutcomesOfPermitsIssuedBeforeAStateChange() {
+        CircuitBreaker breaker = new CircuitBreaker(TestPhase.CALL, CircuitBreakerConfig.of(50).withMinimumCalls(1)
+                .withOpenDuration(Duration.ZERO).withHalfOpenCalls(1));
+        CircuitBreaker.Permit stale = breaker.tryAcquire(listener);
+        breaker.onError(breaker.tryAcquire(listener), 0, listener);
+        CircuitBreaker.Permit probe = breaker.tryAcquire(listener);
+
+        breaker.onError(stale, 0, listener);
+        assertEquals(CircuitBreakerState.HALF_OPEN, breaker.getState());
+        breaker.onSuccess(probe, 0, listener);
+
+        assertEquals(CircuitBreakerState.CLOSED, breaker.getState());
+    }
+
+    /**
+     * @return breaker just opened, probing with the given number of calls as soon as it is asked for a permit
+     */
+    private CircuitBreaker tripped(int halfOpenCalls) {
+        CircuitBreaker breaker = new CircuitBreaker(TestPhase.CALL, CircuitBreakerConfig.of(50).withMinimumCalls(1)
+                .withOpenDuration(Duration.ZERO).withHalfOpenCalls(halfOpenCalls));
+        breaker.onError(breaker.tryAcquire(listener), 0, listener);
+        assertEquals(CircuitBreakerState.OPEN, breaker.getState());
+        return breaker;
+    }
+
+    private enum TestPhase implements Phase {
+        CALL;
+
+        @Override
+        public Phase[] getValues() {
+            return values();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package top.huzz.resilix.circuitbreaker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class RollingWindowTest {
+    /**
+     * 10 buckets of 100ns starting at 0
+     */
+    private final RollingWindow window = new RollingWindow(1000, 10, 0);
+
+    @Test
+    void sumsTheCountersOfTheWindow() {
+        window.record(0, false, false);
+        window.record(50, true, false);
+        window.record(150, true, true);
+
+        assertEquals(3, window.sum(RollingWindow.CALLS, 150));
+        assertEquals(2, window.sum(RollingWindow.FAILURES, 150));
+        assertEquals(1, window.sum(RollingWindow.SLOW_CALLS, 150));
+        assertEquals(3, window.sum(RollingWindow.CALLS, 999));
+    }
+
+    @Test
+    void expiresOneBucketAtATime() {
+        window.record(0, true, false);
+        window.record(150, true, false);
+
+        assertEquals(1, window.sum(RollingWindow.CALLS, 1000));
+        assertEquals(1, window.sum(RollingWindow.FAILURES, 1000));
+        assertEquals(0, window.sum(RollingWindow.CALLS, 1100));
+    }
+
+    @Test
+    void startsAnExpiredBucketOver() {
+        window.record(0, true, false);
+        window.record(0, true, false);
+        window.record(1000, false, false);
+
+        assertEquals(1, window.sum(RollingWindow.CALLS, 1000));
+        assertEquals(0, window.sum(RollingWindow.FAILURES, 1000));
+    }
+
+    @Test
+    void ignoresOutcomesOlderThanTheirBucket() {
+        window.record(1000, false, false);
+        // Same bucket as the outcome above, but of an earlier epoch
+        window.record(5, true, false);
+
+        assertEquals(1, window.sum(RollingWindow.CALLS, 1000));
+        assertEquals(0, window.sum(RollingWindow.FAILURES, 1000));
+    }
+
+    @Test
+    void ignoresOutcomesBeforeTheOrigin() {
+        RollingWindow late = new RollingWindow(1000, 10, 500);
+        late.record(100, false, false);
+
+        assertEquals(1, late.sum(RollingWindow.CALLS, 500));
+        assertEquals(0, late.sum(RollingWindow.CALLS, 1500));
+    }
+}
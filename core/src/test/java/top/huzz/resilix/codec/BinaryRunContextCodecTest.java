@@ -0,0 +1,193 @@
+package top.huzz.resilix.codec;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.junit.jupiter.api.Test;
+import top.huzz.resilix.core.AbstractRunContext;
+import top.huzz.resilix.core.Phase;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class BinaryRunContextCodecTest {
+    private final BinaryRunContextCodec codec = BinaryRunContextCodec.INSTANCE;
+
+    @Test
+    void roundTripsTheProperties() {
+        OrderContext order = order();
+
+        OrderContext decoded = codec.decode(codec.encode(order), OrderContext.class);
+
+        assertEquals("o-1", decoded.getId());
+        assertEquals(-3, decoded.getQuantity());
+        assertEquals(Long.MIN_VALUE, decoded.getOffset());
+        assertEquals(order.getCreatedAt(), decoded.getCreatedAt());
+        assertEquals(new BigDecimal("12.50"), decoded.getAmount());
+        assertEquals(List.of("a", "b"), decoded.getTags());
+        assertEquals(order.getCounts(), decoded.getCounts());
+        assertEquals("sku", decoded.getItem().getSku());
+        assertEquals(Set.of(1, 2), decoded.getItem().getSlots());
+        assertSame(OrderPhase.PAY, decoded.getPhase());
+        assertSame(OrderPhase.SHIP, decoded.getCurrentPhase());
+        assertTrue(decoded.isSuccess());
+        assertTrue(decoded.isStopped());
+        assertEquals("run-1", decoded.getRunId());
+    }
+
+    @Test
+    void leavesOutIgnoredAndNullProperties() {
+        OrderContext order = new OrderContext();
+        order.setException(new IllegalStateException());
+        order.setId(null);
+
+        OrderContext decoded = codec.decode(codec.encode(order), OrderContext.class);
+
+        assertNull(decoded.getException());
+        assertEquals("new", decoded.getId());
+    }
+
+    @Test
+    void skipsThePropertiesAReaderDoesNotKnow() {
+        OrderContext order = order();
+
+        SlimOrderContext decoded = codec.decode(codec.encode(order), SlimOrderContext.class);
+
+        assertEquals("o-1", decoded.getId());
+        assertEquals(-3, decoded.getQuantity());
+        assertSame(OrderPhase.SHIP, decoded.getCurrentPhase());
+    }
+
+    @Test
+    void keepsTheDefaultsOfThePropertiesNotFound() {
+        SlimOrderContext slim = new SlimOrderContext();
+        slim.setId("o-2");
+
+        OrderContext decoded = codec.decode(codec.encode(slim), OrderContext.class);
+
+        assertEquals("o-2", decoded.getId());
+        assertEquals(0, decoded.getQuantity());
+        assertNull(decoded.getTags());
+    }
+
+    @Test
+    void rejectsAnUnknownVersion() {
+        byte[] data = codec.encode(order());
+        data[0] = 2;
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(data, OrderContext.class));
+    }
+
+    @Test
+    void roundTripsAPhaseOfAClassThatIsNotAnEnum() {
+        SlimOrderContext slim = new SlimOrderContext();
+        slim.setCurrentPhase(StepPhase.REVIEW);
+
+        SlimOrderContext decoded = codec.decode(codec.encode(slim), SlimOrderContext.class);
+
+        assertSame(StepPhase.REVIEW, decoded.getCurrentPhase());
+    }
+
+    @Test
+    void rejectsAPhaseOrdinalThatCannotBeEncoded() {
+        SlimOrderContext slim = new SlimOrderContext();
+        slim.setCurrentPhase(new StepPhase(1 << 16));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(slim));
+
+        slim.setCurrentPhase(new StepPhase(-1));
+        assertThrows(IllegalArgumentException.class, () -> codec.encode(slim));
+    }
+
+    private static OrderContext order() {
+        OrderContext order = new OrderContext();
+        order.setId("o-1");
+        order.setQuantity(-3);
+        order.setOffset(Long.MIN_VALUE);
+        order.setCreatedAt(Instant.parse("2024-05-01T10:15:30.123456789Z"));
+        order.setAmount(new BigDecimal("12.50"));
+        order.setTags(List.of("a", "b"));
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("x", 1);
+        counts.put("y", null);
+        order.setCounts(counts);
+        Item item = new Item();
+        item.setSku("sku");
+        item.setSlots(Set.of(1, 2));
+        order.setItem(item);
+        order.setPhase(OrderPhase.PAY);
+        order.setCurrentPhase(OrderPhase.SHIP);
+        order.setSuccess(true);
+        order.setStopped(true);
+        order.setRunId("run-1");
+        return order;
+    }
+
+    enum OrderPhase implements Phase {
+        PAY,
+        SHIP;
+
+        @Override
+        public Phase[] getValues() {
+            return values();
+        }
+    }
+
+    /**
+     * Phase class that is not an enum, numbered sparsely
+     */
+    record StepPhase(int ordinal) implements Phase {
+        static final StepPhase DRAFT = new StepPhase(10);
+        static final StepPhase REVIEW = new StepPhase(20);
+        private static final Phase[] VALUES = {DRAFT, REVIEW};
+
+        @Override
+        public Phase[] getValues() {
+            return VALUES;
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class OrderContext extends AbstractRunContext {
+        @Tag(16)
+        private String id = "new";
+        @Tag(17)
+        private int quantity;
+        private long offset;
+        private Instant createdAt;
+        private BigDecimal amount;
+        private List<String> tags;
+        private Map<String, Integer> counts;
+        private Item item;
+        private OrderPhase phase;
+    }
+
+    @Getter
+    @Setter
+    public static class SlimOrderContext extends AbstractRunContext {
+        @Tag(16)
+        private String id;
+        @Tag(17)
+        private int quantity;
+    }
+
+    @Getter
+    @Setter
+    public static class Item {
+        private String sku;
+        private Set<Integer> slots;
+    }
+}
@@ -0,0 +1,118 @@
+package top.huzz.resilix.copy;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class ContextCopierTest {
+    private final ContextCopier<Holder> copier = ContextCopier.of(Holder.class);
+
+    @Test
+    void copiesEveryObjectReferencedSeveralTimesOnce() {
+        Node a = new Node("a");
+        Node b = new Node("b");
+        a.next = b;
+        b.next = a;
+        Holder holder = new Holder();
+        holder.first = a;
+        holder.second = a;
+        holder.nodes = new ArrayList<>(List.of(a, b));
+        holder.byName = Map.of("b", b);
+
+        Holder copy = copier.copy(holder);
+
+        assertNotSame(a, copy.first);
+        assertEquals("a", copy.first.name);
+        assertSame(copy.first, copy.second);
+        assertSame(copy.first, copy.first.next.next);
+        assertSame(copy.first, copy.nodes.get(0));
+        assertSame(copy.first.next, copy.nodes.get(1));
+        assertSame(copy.first.next, copy.byName.get("b"));
+    }
+
+    @Test
+    void sharesOrSkipsTheAnnotatedFields() {
+        Holder holder = new Holder();
+        holder.shared = new ArrayList<>(List.of("a"));
+        holder.skipped = new ArrayList<>(List.of("b"));
+
+        Holder copy = copier.copy(holder);
+
+        assertSame(holder.shared, copy.shared);
+        assertEquals(List.of("default"), copy.skipped);
+    }
+
+    @Test
+    void copiesTheFieldsIgnoredBySerialization() {
+        Holder holder = new Holder();
+        holder.ignored = new ArrayList<>(List.of("a"));
+
+        Holder copy = copier.copy(holder);
+
+        assertNotSame(holder.ignored, copy.ignored);
+        assertEquals(List.of("a"), copy.ignored);
+    }
+
+    @Test
+    void sharesTheObjectsThatCannotBeCopied() {
+        Holder holder = new Holder();
+        holder.fixed = new Fixed("a");
+        holder.nodes = new ArrayList<>(List.of(new Node("b")));
+
+        Holder copy = copier.copy(holder);
+
+        assertSame(holder.fixed, copy.fixed);
+        assertNotSame(holder.nodes.get(0), copy.nodes.get(0));
+        assertSame(holder.fixed, ContextCopier.deepCopy(holder.fixed));
+        assertThrows(IllegalArgumentException.class, () -> ContextCopier.of(Fixed.class).copy(holder.fixed));
+    }
+
+    static class Holder {
+        Node first;
+        Node second;
+        List<Node> nodes;
+        Map<String, Node> byName;
+        @Copy(Copy.Strategy.SHARE)
+        List<String> shared;
+        @Copy(Copy.Strategy.SKIP)
+        List<String> skipped = new ArrayList<>(List.of("default"));
+        @JsonIgnore
+        List<String> ignored;
+        Fixed fixed;
+    }
+
+    static class Node {
+        String name;
+        Node next;
+
+        Node() {
+        }
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Bean without no-arg constructor
+     */
+    static class Fixed {
+        final String name;
+
+        Fixed(String name) {
+            this.name = name;
+        }
+    }
+}
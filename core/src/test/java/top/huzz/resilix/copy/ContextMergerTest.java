@@ -0,0 +1,147 @@
+package top.huzz.resilix.copy;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class ContextMergerTest {
+    private final ContextMerger<Order> merger = ContextMerger.of(Order.class);
+
+    @Test
+    void overwritesEveryPropertyNullsIncluded() {
+        Order target = target();
+        Order source = new Order();
+        source.setQuantity(2);
+        source.setItems(new ArrayList<>(List.of("b")));
+
+        merger.merge(target, source, MergePolicy.OVERWRITE);
+
+        assertNull(target.getId());
+        assertEquals(2, target.getQuantity());
+        assertSame(source.getItems(), target.getItems());
+        assertNull(target.getCounts());
+    }
+
+    @Test
+    void skipsTheNullPropertiesOfTheSource() {
+        Order target = target();
+        Order source = new Order();
+        source.setQuantity(2);
+        source.setItems(new ArrayList<>(List.of("b")));
+
+        merger.merge(target, source, MergePolicy.SKIP_NULLS);
+
+        assertEquals("o-1", target.getId());
+        assertEquals(2, target.getQuantity());
+        assertSame(source.getItems(), target.getItems());
+        assertEquals(Map.of("a", 1), target.getCounts());
+    }
+
+    @Test
+    void addsTheCollectionsAndMapsOfTheSource() {
+        Order target = target();
+        List<String> items = target.getItems();
+        Order source = new Order();
+        source.setItems(new ArrayList<>(List.of("b")));
+        source.setCounts(new HashMap<>(Map.of("b", 2)));
+
+        merger.merge(target, source, MergePolicy.MERGE_COLLECTIONS);
+
+        assertEquals("o-1", target.getId());
+        assertSame(items, target.getItems());
+        assertEquals(List.of("a", "b"), target.getItems());
+        assertEquals(Map.of("a", 1, "b", 2), target.getCounts());
+    }
+
+    @Test
+    void mergesTheAnnotatedPropertiesWithTheirOwnPolicy() {
+        Order target = target();
+        target.setNote("note");
+        target.setTags(new ArrayList<>(List.of("a")));
+        target.setLabel("label");
+        Order source = new Order();
+        source.setTags(new ArrayList<>(List.of("b")));
+
+        merger.merge(target, source, MergePolicy.SKIP_NULLS);
+        assertNull(target.getNote());
+        assertEquals(List.of("a", "b"), target.getTags());
+        assertEquals("label", target.getLabel());
+
+        merger.merge(target, source, MergePolicy.OVERWRITE);
+        assertEquals(List.of("a", "b", "b"), target.getTags());
+        assertEquals("label", target.getLabel());
+    }
+
+    @Test
+    void replacesTheCollectionsAndMapsThatCannotBeModified() {
+        Order target = target();
+        target.setItems(List.of("a"));
+        target.setCounts(Map.of("a", 1));
+        target.setTags(List.of("a"));
+        Order source = new Order();
+        source.setItems(List.of("b"));
+        source.setCounts(Map.of("b", 2));
+        source.setTags(List.of("b"));
+
+        merger.merge(target, source, MergePolicy.MERGE_COLLECTIONS);
+
+        assertEquals(List.of("a", "b"), target.getItems());
+        assertEquals(Map.of("a", 1, "b", 2), target.getCounts());
+        target.getItems().add("c");
+        target.getCounts().put("c", 3);
+        assertEquals(List.of("a", "b", "c"), target.getItems());
+        assertEquals(3, target.getCounts().get("c"));
+
+        Order sets = new Order();
+        sets.setCodes(Set.of("a"));
+        Order incoming = new Order();
+        incoming.setCodes(Set.of("b"));
+        merger.merge(sets, incoming, MergePolicy.MERGE_COLLECTIONS);
+        assertEquals(Set.of("a", "b"), sets.getCodes());
+        sets.getCodes().add("c");
+        assertEquals(Set.of("a", "b", "c"), sets.getCodes());
+    }
+
+    private static Order target() {
+        Order order = new Order();
+        order.setId("o-1");
+        order.setQuantity(1);
+        order.setItems(new ArrayList<>(List.of("a")));
+        order.setCounts(new HashMap<>(Map.of("a", 1)));
+        return order;
+    }
+
+    @Getter
+    @Setter
+    public static class Order {
+        private String id;
+        private int quantity;
+        private List<String> items;
+        private Map<String, Integer> counts;
+        private Set<String> codes;
+        @Merge(MergePolicy.OVERWRITE)
+        private String note;
+        @Merge(MergePolicy.MERGE_COLLECTIONS)
+        private List<String> tags;
+        private String label;
+
+        @Merge(MergePolicy.SKIP_NULLS)
+        public String getLabel() {
+            return label;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nonnull;
+import jakarta.annotation.Nullable;
+import lombok.Getter;
+import lombok.Setter;
+import org.junit.jupiter.api.Test;
+import top.huzz.resilix.handler.RunHandler;
+import top.huzz.resilix.idempotent.IdempotentJudge;
+import top.huzz.resilix.idempotent.IdempotentKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class BatchRunTest {
+    private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+    private final List<Integer> notified = new CopyOnWriteArrayList<>();
+    private final CountingJudge judge = new CountingJudge();
+
+    @Test
+    void keepsTheResultOfEachContext() {
+        judge.put(() -> "4");
+        RunHandlerManager manager = manager(contexts -> {
+            for (TestContext context : contexts) {
+                if (context.getId() == 3) {
+                    context.setSuccess(false);
+                    context.setException(new IllegalStateException("3 not stored"));
+                }
+            }
+        });
+        List<TestContext> contexts = contexts(5);
+
+        manager.startBatch(contexts);
+
+        assertEquals(List.of(List.of(1, 3, 5)), batches);
+        assertEquals(List.of(1, 4, 5), notified);
+        assertEquals(1, judge.batchCalls);
+        assertEquals(0, judge.singleCalls);
+        assertEquals(Set.of("1", "3", "4", "5"), judge.keys);
+        for (int id : new int[]{1, 4, 5}) {
+            assertTrue(contexts.get(id - 1).isSuccess());
+            assertEquals(TestPhase.NOTIFY, contexts.get(id - 1).getCurrentPhase());
+        }
+        assertFalse(contexts.get(1).isSuccess());
+        assertEquals(TestPhase.CHECK, contexts.get(1).getCurrentPhase());
+        assertInstanceOf(IllegalArgumentException.class, contexts.get(1).getException());
+        assertFalse(contexts.get(2).isSuccess());
+        assertEquals(TestPhase.STORE, contexts.get(2).getCurrentPhase());
+        assertEquals("3 not stored", contexts.get(2).getException().getMessage());
+    }
+
+    @Test
+    void failsEveryContextOfTheBatchWhenTheBatchHandlerThrows() {
+        RunHandlerManager manager = manager(contexts -> {
+            throw new IllegalStateException("store down");
+        });
+        List<TestContext> contexts = contexts(3);
+
+        manager.startBatch(contexts);
+
+        assertEquals(List.of(List.of(1, 3)), batches);
+        assertTrue(notified.isEmpty());
+        for (TestContext context : contexts) {
+            assertFalse(context.isSuccess());
+        }
+        assertEquals("store down", contexts.get(0).getException().getMessage());
+        assertEquals(TestPhase.STORE, contexts.get(2).getCurrentPhase());
+        assertEquals(TestPhase.CHECK, contexts.get(1).getCurrentPhase());
+    }
+
+    /**
+     * @return manager failing context 2 on check, handling the batches of store with the given body
+     */
+    private RunHandlerManager manager(TestBatchHandler.Body<TestContext> store) {
+        RunHandler<RunContext> check = new TestHandler<TestContext>(TestPhase.CHECK, context -> {
+            if (context.getId() == 2) {
+                throw new IllegalArgumentException("2 rejected");
+            }
+        }) {
+        }.erased();
+        RunHandler<RunContext> batch = new TestBatchHandler<TestContext>(TestPhase.STORE, contexts -> {
+            batches.add(contexts.stream().map(TestContext::getId).toList());
+            store.handle(contexts);
+        }) {
+        }.erased();
+        RunHandler<RunContext> notify = new TestHandler<TestContext>(TestPhase.NOTIFY, context -> notified.add(context.getId())) {
+        }.erased();
+        return new DefaultRunHandlerManager(List.of(check, batch, notify)).addIdempotentJudge(TestPhase.STORE, judge);
+    }
+
+    private static List<TestContext> contexts(int count) {
+        List<TestContext> contexts = new ArrayList<>(count);
+        for (int id = 1; id <= count; id++) {
+            TestContext context = new TestContext();
+            context.setId(id);
+            contexts.add(context);
+        }
+        return contexts;
+    }
+
+    @Getter
+    @Setter
+    public static class TestContext extends SimpleRunContext implements IdempotentKey {
+        private int id;
+
+        @Override
+        public String idempotentKey() {
+            return String.valueOf(id);
+        }
+    }
+
+    /**
+     * Judge counting its calls, batches are judged and put in one call
+     */
+    private static class CountingJudge implements IdempotentJudge {
+        private final Set<String> keys = ConcurrentHashMap.newKeySet();
+        private int batchCalls;
+        private int singleCalls;
+
+        @Override
+        public boolean judge(@Nullable IdempotentKey key) {
+            singleCalls++;
+            return key != null && keys.contains(key.idempotentKey());
+        }
+
+        @Override
+        public void put(@Nonnull IdempotentKey key) {
+            keys.add(key.idempotentKey());
+        }
+
+        @Override
+        public boolean[] judgeAndPutAll(@Nonnull List<? extends IdempotentKey> keys) {
+            batchCalls++;
+            boolean[] executed = new boolean[keys.size()];
+            for (int i = 0; i < executed.length; i++) {
+                executed[i] = !this.keys.add(keys.get(i).idempotentKey());
+            }
+            return executed;
+        }
+
+        @Override
+        public void destroy() {
+            keys.clear();
+        }
+    }
+
+    private enum TestPhase implements Phase {
+        CHECK, STORE, NOTIFY;
+
+        @Override
+        public Phase[] getValues() {
+            return values();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package top.huzz.resilix.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class CopyOnWriteRunContextTest {
+
+    @Test
+    void keepsTheWritesOfTheOriginalOutOfItsDuplicates() {
+        OrderContext context = order();
+        OrderContext duplicate = (OrderContext) context.duplicate();
+
+        context.setOrderId("o-2");
+        context.addItem("b");
+        context.setCount(2);
+
+        assertEquals("o-1", duplicate.getOrderId());
+        assertEquals(List.of("a"), duplicate.getItems());
+        assertEquals(1, duplicate.getCount());
+        assertEquals(List.of("a", "b"), context.getItems());
+    }
+
+    @Test
+    void keepsTheWritesOfADuplicateOutOfTheOriginal() {
+        OrderContext context = order();
+        OrderContext duplicate = (OrderContext) context.duplicate();
+        OrderContext second = (OrderContext) duplicate.duplicate();
+
+        duplicate.setOrderId("o-2");
+        duplicate.addItem("b");
+        second.addItem("c");
+
+        assertEquals("o-1", context.getOrderId());
+        assertEquals(List.of("a"), context.getItems());
+        assertEquals(List.of("a", "b"), duplicate.getItems());
+        assertEquals("o-1", second.getOrderId());
+        assertEquals(List.of("a", "c"), second.getItems());
+    }
+
+    @Test
+    void reportsOnlyTheWrittenFields() {
+        OrderContext context = new OrderContext();
+        assertFalse(context.hasDirtyFields());
+        assertEquals(0, context.getCount());
+
+        context.setOrderId("o-1");
+        context.addItem("a");
+        context.getCount();
+
+        assertTrue(context.hasDirtyFields());
+        assertEquals(Set.of("orderId", "items"), context.dirtyFields());
+
+        context.clearDirty();
+        assertEquals(Set.of(), context.dirtyFields());
+        assertFalse(((OrderContext) order().duplicate()).hasDirtyFields());
+    }
+
+    @Test
+    void mergesOnlyTheFieldsTheBranchWrote() {
+        OrderContext context = order();
+        context.clearDirty();
+        Object snapshot = context.snapshot();
+        OrderContext branch = (OrderContext) context.duplicate();
+
+        branch.setCount(2);
+        branch.addItem("b");
+        context.setOrderId("o-2");
+        context.merge(snapshot, branch);
+
+        assertEquals("o-2", context.getOrderId());
+        assertEquals(2, context.getCount());
+        assertEquals(List.of("a", "b"), context.getItems());
+        assertEquals(Set.of("orderId", "count", "items"), context.dirtyFields());
+    }
+
+    private static OrderContext order() {
+        OrderContext context = new OrderContext();
+        context.setOrderId("o-1");
+        context.setItems(new ArrayList<>(List.of("a")));
+        context.setCount(1);
+        return context;
+    }
+
+    public static class OrderContext extends CopyOnWriteRunContext {
+        private static final Field<String> ORDER_ID = field(OrderContext.class, "orderId");
+        private static final Field<List<String>> ITEMS = field(OrderContext.class, "items");
+        private static final Field<Integer> COUNT = field(OrderContext.class, "count", 0);
+
+        public String getOrderId() {
+            return get(ORDER_ID);
+        }
+
+        public void setOrderId(String orderId) {
+            set(ORDER_ID, orderId);
+        }
+
+        public List<String> getItems() {
+            return get(ITEMS);
+        }
+
+        public void setItems(List<String> items) {
+            set(ITEMS, items);
+        }
+
+        public void addItem(String item) {
+            List<String> items = mutable(ITEMS);
+            if (items == null) {
+                setItems(new ArrayList<>(List.of(item)));
+            } else {
+                items.add(item);
+            }
+        }
+
+        public int getCount() {
+            return get(COUNT);
+        }
+
+        public void setCount(int count) {
+            set(COUNT, count);
+        }
+    }
+}
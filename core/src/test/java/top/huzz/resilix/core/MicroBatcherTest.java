@@ -0,0 +1,149 @@
+package top.huzz.resilix.core;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.junit.jupiter.api.Test;
+import top.huzz.resilix.exception.PhaseTimeoutException;
+import top.huzz.resilix.handler.MicroBatchRunHandler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class MicroBatcherTest {
+    private static final Duration FOREVER = Duration.ofMinutes(1);
+
+    private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+
+    @Test
+    void handlesABatchAsSoonAsItIsFullAndResumesEveryRun() {
+        RunHandlerManager manager = manager(3, FOREVER, contexts -> {
+        });
+        TestContext first = context(1);
+        TestContext second = context(2);
+        TestContext third = context(3);
+
+        // Two runs block their thread, the third one is asynchronous
+        CompletableFuture<Void> blocked = CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> manager.start(first)),
+                CompletableFuture.runAsync(() -> manager.start(second)));
+        manager.startAsync(third).orTimeout(5, TimeUnit.SECONDS).join();
+        blocked.orTimeout(5, TimeUnit.SECONDS).join();
+
+        assertEquals(1, batches.size());
+        assertEquals(List.of(1, 2, 3), batches.get(0).stream().sorted().toList());
+        assertTrue(first.isSuccess() && second.isSuccess() && third.isSuccess());
+    }
+
+    @Test
+    void handlesABatchThatIsNotFullOnceItHasLingered() {
+        RunHandlerManager manager = manager(100, Duration.ofMillis(50), contexts -> {
+        });
+        TestContext context = context(1);
+
+        long start = System.nanoTime();
+        manager.start(context);
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(List.of(List.of(1)), batches);
+        assertTrue(context.isSuccess());
+    }
+
+    @Test
+    void failsOnlyTheContextsMarkedFailed() {
+        RunHandlerManager manager = manager(2, FOREVER, contexts -> {
+            for (TestContext context : contexts) {
+                if (context.getId() == 2) {
+                    context.setSuccess(false);
+                    context.setException(new IllegalStateException("2 not stored"));
+                }
+            }
+        });
+        TestContext first = context(1);
+        TestContext second = context(2);
+
+        CompletableFuture.allOf(manager.startAsync(first), manager.startAsync(second)).orTimeout(5, TimeUnit.SECONDS).join();
+
+        assertEquals(1, batches.size());
+        assertTrue(first.isSuccess());
+        assertFalse(second.isSuccess());
+        assertEquals("2 not stored", second.getException().getMessage());
+    }
+
+    @Test
+    void failsAContextPastItsDeadlineWithoutFailingTheOthers() {
+        RunHandlerManager manager = manager(100, Duration.ofMillis(100), contexts -> {
+        });
+        TestContext late = context(1);
+        late.setDeadline(Instant.now().plusMillis(10));
+        TestContext other = context(2);
+
+        CompletableFuture.allOf(manager.startAsync(late), manager.startAsync(other)).orTimeout(5, TimeUnit.SECONDS).join();
+
+        assertEquals(List.of(List.of(2)), batches);
+        assertFalse(late.isSuccess());
+        assertInstanceOf(PhaseTimeoutException.class, late.getException());
+        assertTrue(other.isSuccess());
+    }
+
+    private RunHandlerManager manager(int maxBatchSize, Duration linger, TestBatchHandler.Body<TestContext> body) {
+        return new DefaultRunHandlerManager(List.of(new MicroBatchHandler(maxBatchSize, linger, contexts -> {
+            batches.add(contexts.stream().map(TestContext::getId).toList());
+            body.handle(contexts);
+        }).erased()));
+    }
+
+    private static TestContext context(int id) {
+        TestContext context = new TestContext();
+        context.setId(id);
+        return context;
+    }
+
+    @Getter
+    @Setter
+    public static class TestContext extends SimpleRunContext {
+        private int id;
+    }
+
+    private static class MicroBatchHandler extends TestBatchHandler<TestContext> implements MicroBatchRunHandler<TestContext> {
+        private final int maxBatchSize;
+        private final Duration linger;
+
+        MicroBatchHandler(int maxBatchSize, Duration linger, Body<TestContext> body) {
+            super(TestPhase.STORE, body);
+            this.maxBatchSize = maxBatchSize;
+            this.linger = linger;
+        }
+
+        @Override
+        public int maxBatchSize() {
+            return maxBatchSize;
+        }
+
+        @Override
+        public Duration linger() {
+            return linger;
+        }
+    }
+
+    private enum TestPhase implements Phase {
+        STORE;
+
+        @Override
+        public Phase[] getValues() {
+            return values();
+        }
+    }
+}
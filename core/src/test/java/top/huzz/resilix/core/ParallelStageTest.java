@@ -0,0 +1,251 @@
+package top.huzz.resilix.core;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.junit.jupiter.api.Test;
+import top.huzz.resilix.handler.RunHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class ParallelStageTest {
+    private static final ExecutorService SHUT_DOWN = Executors.newSingleThreadExecutor();
+
+    static {
+        SHUT_DOWN.shutdown();
+    }
+
+    private final CountDownLatch branchesRunning = new CountDownLatch(2);
+
+    @Test
+    void runsIndependentPhasesAtTheSameTimeAndMergesTheirChanges() {
+        RunHandlerManager manager = new DefaultRunHandlerManager(List.of(
+                handler(TestPhase.LOAD, context -> context.setInput(2)),
+                handler(TestPhase.LEFT, context -> {
+                    awaitOtherBranch();
+                    context.setLeft(context.getInput() * 10);
+                }),
+                handler(TestPhase.RIGHT, context -> {
+                    awaitOtherBranch();
+                    context.setRight(context.getInput() + 1);
+                }),
+                handler(TestPhase.AGGREGATE, context -> context.setTotal(context.getLeft() + context.getRight()))));
+        TestContext context = new TestContext();
+
+        manager.start(context);
+
+        assertTrue(context.isSuccess());
+        assertEquals(20, context.getLeft());
+        assertEquals(3, context.getRight());
+        assertEquals(23, context.getTotal());
+        assertEquals(TestPhase.AGGREGATE, context.getCurrentPhase());
+    }
+
+    @Test
+    void keepsTheBeansWrittenByEveryBranch() {
+        RunHandlerManager manager = new DefaultRunHandlerManager(List.of(
+                handler(TestPhase.LOAD, context -> {
+                    context.setLeftDetail(new Detail());
+                    context.setRightDetail(new Detail());
+                }),
+                handler(TestPhase.LEFT, context -> context.setLeftDetail(new Detail("left"))),
+                handler(TestPhase.RIGHT, context -> context.setRightDetail(new Detail("right"))),
+                handler(TestPhase.AGGREGATE, context -> {
+                })));
+        TestContext context = new TestContext();
+
+        manager.start(context);
+
+        assertTrue(context.isSuccess());
+        assertEquals("left", context.getLeftDetail().getName());
+        assertEquals("right", context.getRightDetail().getName());
+    }
+
+    @Test
+    void keepsTheValuesEveryBranchModifiedInPlace() {
+        RunHandlerManager manager = new DefaultRunHandlerManager(List.of(
+                handler(TestPhase.LOAD, context -> {
+                    context.setItems(new ArrayList<>(List.of("load")));
+                    context.setLeftDetail(new Detail());
+                    context.setRightDetail(new Detail());
+                }),
+                handler(TestPhase.LEFT, context -> context.getLeftDetail().setName("left")),
+                handler(TestPhase.RIGHT, context -> {
+                    context.getItems().add("right");
+                    context.getRightDetail().setName("right");
+                }),
+                handler(TestPhase.AGGREGATE, context -> {
+                })));
+        TestContext context = new TestContext();
+
+        manager.start(context);
+
+        assertTrue(context.isSuccess());
+        assertEquals(List.of("load", "right"), context.getItems());
+        assertEquals("left", context.getLeftDetail().getName());
+        assertEquals("right", context.getRightDetail().getName());
+    }
+
+    @Test
+    void stopsAtTheJoinPointWhenABranchFailed() {
+        AtomicBoolean aggregated = new AtomicBoolean();
+        RunHandlerManager manager = new DefaultRunHandlerManager(List.of(
+                handler(TestPhase.LOAD, context -> context.setInput(2)),
+                handler(TestPhase.LEFT, context -> {
+                    awaitOtherBranch();
+                    context.setLeft(context.getInput() * 10);
+                }),
+                handler(TestPhase.RIGHT, context -> {
+                    awaitOtherBranch();
+                    throw new IllegalStateException("right failed");
+                }),
+                handler(TestPhase.AGGREGATE, context -> aggregated.set(true))));
+        TestContext context = new TestContext();
+
+        manager.start(context);
+
+        assertFalse(context.isSuccess());
+        assertEquals(TestPhase.RIGHT, context.getCurrentPhase());
+        assertInstanceOf(IllegalStateException.class, context.getException());
+        assertEquals(20, context.getLeft());
+        assertFalse(aggregated.get());
+    }
+
+    @Test
+    void failsWithTheRejectionAfterJoiningTheBranchesAlreadyStarted() {
+        AtomicBoolean leftRan = new AtomicBoolean();
+        RunHandlerManager manager = new DefaultRunHandlerManager(List.of(
+                handler(RejectedPhase.LOAD, context -> context.setInput(2)),
+                handler(RejectedPhase.LEFT, context -> leftRan.set(true)),
+                handler(RejectedPhase.MIDDLE, context -> {
+                    Thread.sleep(50);
+                    context.setRight(context.getInput() + 1);
+                }),
+                handler(RejectedPhase.REJECTED, context -> {
+                })));
+        TestContext context = new TestContext();
+
+        manager.start(context);
+
+        assertFalse(context.isSuccess());
+        assertEquals(RejectedPhase.REJECTED, context.getCurrentPhase());
+        assertInstanceOf(RejectedExecutionException.class, context.getException());
+        assertEquals(3, context.getRight());
+        assertFalse(leftRan.get());
+    }
+
+    @Test
+    void failsTheBranchWhoseHandlerThrowsAnError() {
+        RunHandlerManager manager = new DefaultRunHandlerManager(List.of(
+                handler(TestPhase.LOAD, context -> context.setInput(2)),
+                handler(TestPhase.LEFT, context -> {
+                    throw new AssertionError("left failed");
+                }),
+                handler(TestPhase.RIGHT, context -> context.setRight(context.getInput() + 1)),
+                handler(TestPhase.AGGREGATE, context -> {
+                })));
+        TestContext context = new TestContext();
+
+        manager.start(context);
+
+        assertFalse(context.isSuccess());
+        assertEquals(TestPhase.LEFT, context.getCurrentPhase());
+        assertInstanceOf(AssertionError.class, assertInstanceOf(IllegalStateException.class, context.getException()).getCause());
+        assertEquals(3, context.getRight());
+    }
+
+    /**
+     * Fails the branch unless the other branch of the stage runs at the same time
+     */
+    private void awaitOtherBranch() throws InterruptedException {
+        branchesRunning.countDown();
+        if (!branchesRunning.await(5, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Branches of the stage did not run in parallel");
+        }
+    }
+
+    private static RunHandler<RunContext> handler(Phase phase, TestHandler.Body<TestContext> body) {
+        return new TestHandler<TestContext>(phase, body) {
+        }.erased();
+    }
+
+    @Getter
+    @Setter
+    public static class TestContext extends SimpleRunContext {
+        private int input;
+        private int left;
+        private int right;
+        private int total;
+        private Detail leftDetail;
+        private Detail rightDetail;
+        private List<String> items;
+    }
+
+    /**
+     * Bean without equals, every copy of it differs from the others
+     */
+    @Getter
+    @Setter
+    public static class Detail {
+        private String name;
+
+        public Detail() {
+        }
+
+        Detail(String name) {
+            this.name = name;
+        }
+    }
+
+    private enum TestPhase implements Phase {
+        LOAD, LEFT, RIGHT, AGGREGATE;
+
+        @Override
+        public Phase[] dependsOn() {
+            return switch (this) {
+                case LEFT, RIGHT -> new Phase[]{LOAD};
+                case AGGREGATE -> new Phase[]{LEFT, RIGHT};
+                default -> null;
+            };
+        }
+
+        @Override
+        public Phase[] getValues() {
+            return values();
+        }
+    }
+
+    private enum RejectedPhase implements Phase {
+        LOAD, LEFT, MIDDLE, REJECTED;
+
+        @Override
+        public ExecutorService customExecutor() {
+            return this == REJECTED ? SHUT_DOWN : null;
+        }
+
+        @Override
+        public Phase[] dependsOn() {
+            return this == LOAD ? null : new Phase[]{LOAD};
+        }
+
+        @Override
+        public Phase[] getValues() {
+            return values();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package top.huzz.resilix.core;
+
+import org.junit.jupiter.api.Test;
+import top.huzz.resilix.circuitbreaker.CircuitBreakerConfig;
+import top.huzz.resilix.circuitbreaker.CircuitBreakerState;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class PhaseErrorTest {
+    private static final long OPEN_MILLIS = 50;
+
+    private final Queue<Throwable> outcomes = new ArrayDeque<>();
+    private final AtomicInteger postHandled = new AtomicInteger();
+
+    @Test
+    void postHandlesThePhaseWhenTheHandlerThrowsAnError() {
+        outcomes.add(new AssertionError("broken"));
+        RunHandlerManager manager = manager(TestPhase.PLAIN);
+
+        assertThrows(AssertionError.class, () -> manager.start(new SimpleRunContext()));
+
+        assertEquals(1, postHandled.get());
+    }
+
+    @Test
+    void settlesTheProbeOfAHalfOpenCircuitWhenTheHandlerThrowsAnError() throws InterruptedException {
+        outcomes.add(new IllegalStateException("down"));
+        outcomes.add(new AssertionError("broken"));
+        AbstractRunHandlerManager manager = manager(TestPhase.GUARDED);
+
+        manager.start(new SimpleRunContext());
+        assertEquals(CircuitBreakerState.OPEN, manager.circuitBreakerOf(TestPhase.GUARDED).getState());
+        Thread.sleep(OPEN_MILLIS * 2);
+        assertThrows(AssertionError.class, () -> manager.start(new SimpleRunContext()));
+        assertEquals(CircuitBreakerState.OPEN, manager.circuitBreakerOf(TestPhase.GUARDED).getState());
+        Thread.sleep(OPEN_MILLIS * 2);
+        SimpleRunContext context = new SimpleRunContext();
+        manager.start(context);
+
+        assertTrue(context.isSuccess());
+        assertEquals(CircuitBreakerState.CLOSED, manager.circuitBreakerOf(TestPhase.GUARDED).getState());
+        assertEquals(3, postHandled.get());
+    }
+
+    /**
+     * @return manager whose handler throws the queued outcomes one per call, then succeeds
+     */
+    private AbstractRunHandlerManager manager(TestPhase phase) {
+        return new DefaultRunHandlerManager(List.of(new TestHandler<SimpleRunContext>(phase, context -> {
+            Throwable outcome = outcomes.poll();
+            if (outcome instanceof Exception e) {
+                throw e;
+            }
+            if (outcome != null) {
+                throw (Error) outcome;
+            }
+        }, context -> postHandled.incrementAndGet()) {
+        }.erased()));
+    }
+
+    private enum TestPhase implements Phase {
+        PLAIN, GUARDED;
+
+        @Override
+        public CircuitBreakerConfig circuitBreaker() {
+            return this == GUARDED ? CircuitBreakerConfig.of(50).withMinimumCalls(1).withHalfOpenCalls(1)
+                    .withOpenDuration(Duration.ofMillis(OPEN_MILLIS)) : null;
+        }
+
+        @Override
+        public Phase[] getValues() {
+            return values();
+        }
+    }
+}
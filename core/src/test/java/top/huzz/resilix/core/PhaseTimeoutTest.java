@@ -0,0 +1,165 @@
+package top.huzz.resilix.core;
+
+import org.junit.jupiter.api.Test;
+import top.huzz.resilix.exception.PhaseTimeoutException;
+import top.huzz.resilix.handler.RunHandler;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class PhaseTimeoutTest {
+    private static final long HANG_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final CountDownLatch interrupted = new CountDownLatch(1);
+    private final CountDownLatch released = new CountDownLatch(1);
+    private final AtomicBoolean postHandled = new AtomicBoolean();
+    private final AtomicBoolean nextRan = new AtomicBoolean();
+
+    @Test
+    void interruptsAHandlerExceedingThePhaseTimeout() throws InterruptedException {
+        RunHandlerManager manager = manager(handler(TestPhase.FIRST, this::proceed), handler(TestPhase.SLOW, this::hang), handler(TestPhase.NEXT, this::next));
+        SimpleRunContext context = new SimpleRunContext();
+
+        long start = System.nanoTime();
+        manager.start(context);
+
+        assertFailedBy(context, TestPhase.SLOW);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue(postHandled.get());
+        assertFalse(nextRan.get());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(HANG_MILLIS / 2));
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    void failsOnTimeWhenTheHandlerIgnoresTheInterrupt() {
+        RunHandlerManager manager = manager(handler(TestPhase.FIRST, this::proceed), handler(TestPhase.SLOW, this::ignoreInterrupts), handler(TestPhase.NEXT, this::next));
+        SimpleRunContext context = new SimpleRunContext();
+
+        long start = System.nanoTime();
+        manager.start(context);
+        released.countDown();
+
+        assertFailedBy(context, TestPhase.SLOW);
+        assertFalse(nextRan.get());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(HANG_MILLIS / 2));
+    }
+
+    @Test
+    void failsAsynchronousRunsOnTimeWhenTheHandlerIgnoresTheInterrupt() {
+        RunHandlerManager manager = manager(handler(TestPhase.FIRST, this::proceed), handler(TestPhase.SLOW, this::ignoreInterrupts), handler(TestPhase.NEXT, this::next));
+
+        long start = System.nanoTime();
+        SimpleRunContext context = manager.startAsync(new SimpleRunContext()).join();
+        released.countDown();
+
+        assertFailedBy(context, TestPhase.SLOW);
+        assertFalse(nextRan.get());
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(HANG_MILLIS / 2));
+    }
+
+    @Test
+    void interruptsAHandlerExceedingTheDeadlineOfTheRun() throws InterruptedException {
+        RunHandlerManager manager = manager(handler(TestPhase.FIRST, this::hang), handler(TestPhase.SLOW, this::proceed), handler(TestPhase.NEXT, this::next));
+        SimpleRunContext context = new SimpleRunContext();
+        context.setDeadline(Instant.now().plusMillis(100));
+
+        manager.start(context);
+
+        assertFailedBy(context, TestPhase.FIRST);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        assertFalse(nextRan.get());
+    }
+
+    @Test
+    void startsNoPhaseOnceTheDeadlineHasPassed() {
+        AtomicBoolean firstRan = new AtomicBoolean();
+        RunHandlerManager manager = manager(handler(TestPhase.FIRST, context -> firstRan.set(true)), handler(TestPhase.SLOW, this::proceed), handler(TestPhase.NEXT, this::next));
+        SimpleRunContext context = new SimpleRunContext();
+        context.setDeadline(Instant.now().minusSeconds(1));
+
+        manager.start(context);
+
+        assertFailedBy(context, TestPhase.FIRST);
+        assertFalse(firstRan.get());
+        assertFalse(nextRan.get());
+    }
+
+    private static void assertFailedBy(RunContext context, TestPhase phase) {
+        assertFalse(context.isSuccess());
+        assertEquals(phase, context.getCurrentPhase());
+        PhaseTimeoutException e = assertInstanceOf(PhaseTimeoutException.class, context.getException());
+        assertEquals(phase, e.getPhase());
+    }
+
+    private void proceed(RunContext context) {
+    }
+
+    private void hang(RunContext context) throws InterruptedException {
+        try {
+            Thread.sleep(HANG_MILLIS);
+        } catch (InterruptedException e) {
+            interrupted.countDown();
+            throw e;
+        }
+    }
+
+    /**
+     * Blocks like uninterruptible I/O until the test releases it
+     */
+    private void ignoreInterrupts(RunContext context) {
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HANG_MILLIS);
+        while (released.getCount() > 0 && System.nanoTime() < end) {
+            try {
+                released.await(end - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                // Swallowed, as a socket read would
+            }
+        }
+    }
+
+    private void next(RunContext context) {
+        nextRan.set(true);
+    }
+
+    @SafeVarargs
+    private static RunHandlerManager manager(RunHandler<RunContext>... handlers) {
+        return new DefaultRunHandlerManager(List.of(handlers));
+    }
+
+    private RunHandler<RunContext> handler(TestPhase phase, TestHandler.Body<SimpleRunContext> body) {
+        return new TestHandler<SimpleRunContext>(phase, body, context -> {
+            if (phase == TestPhase.SLOW) {
+                postHandled.set(true);
+            }
+        }) {
+        }.erased();
+    }
+
+    private enum TestPhase implements Phase {
+        FIRST, SLOW, NEXT;
+
+        @Override
+        public Duration timeout() {
+            return this == SLOW ? Duration.ofMillis(100) : null;
+        }
+
+        @Override
+        public Phase[] getValues() {
+            return values();
+        }
+    }
+}
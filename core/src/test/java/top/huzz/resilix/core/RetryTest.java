@@ -0,0 +1,122 @@
+package top.huzz.resilix.core;
+
+import org.junit.jupiter.api.Test;
+import top.huzz.resilix.handler.RunHandler;
+import top.huzz.resilix.retry.RetryPolicy;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class RetryTest {
+    private static final long BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final List<Long> attempts = new CopyOnWriteArrayList<>();
+
+    @Test
+    void retriesWithAGrowingBackoffUntilTheHandlerSucceeds() {
+        RunHandlerManager manager = manager(TestPhase.RETRIED, failing(2, new IOException("transient")));
+        SimpleRunContext context = new SimpleRunContext();
+
+        manager.start(context);
+
+        assertTrue(context.isSuccess());
+        assertEquals(3, attempts.size());
+        assertTrue(attempts.get(1) - attempts.get(0) >= BACKOFF_NANOS);
+        assertTrue(attempts.get(2) - attempts.get(1) >= 2 * BACKOFF_NANOS);
+    }
+
+    @Test
+    void failsWithTheLastExceptionOnceTheAttemptsAreExhausted() {
+        RunHandlerManager manager = manager(TestPhase.RETRIED, failing(Integer.MAX_VALUE, new IOException("transient")));
+        SimpleRunContext context = new SimpleRunContext();
+
+        manager.start(context);
+
+        assertFalse(context.isSuccess());
+        assertEquals(TestPhase.RETRIED, context.getCurrentPhase());
+        assertInstanceOf(IOException.class, context.getException());
+        assertEquals(3, attempts.size());
+    }
+
+    @Test
+    void doesNotRetryExceptionsThatAreNotRetryable() {
+        RunHandlerManager manager = manager(TestPhase.RETRIED, failing(Integer.MAX_VALUE, new IllegalStateException("permanent")));
+        SimpleRunContext context = new SimpleRunContext();
+
+        manager.start(context);
+
+        assertFalse(context.isSuccess());
+        assertInstanceOf(IllegalStateException.class, context.getException());
+        assertEquals(1, attempts.size());
+    }
+
+    @Test
+    void retriesAsynchronousRunsWithoutWaitingOnTheirThread() {
+        RunHandlerManager manager = manager(TestPhase.RETRIED, failing(2, new IOException("transient")));
+        SimpleRunContext context = new SimpleRunContext();
+
+        SimpleRunContext result = manager.startAsync(context).join();
+
+        assertTrue(result.isSuccess());
+        assertEquals(3, attempts.size());
+    }
+
+    @Test
+    void doesNotWaitForABackoffBeyondTheDeadline() {
+        RunHandlerManager manager = manager(TestPhase.SLOWLY_RETRIED, failing(Integer.MAX_VALUE, new IOException("transient")));
+        SimpleRunContext context = new SimpleRunContext();
+        context.setDeadline(Instant.now().plusMillis(200));
+
+        long start = System.nanoTime();
+        manager.start(context);
+
+        assertFalse(context.isSuccess());
+        assertEquals(1, attempts.size());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+    /**
+     * @return handler failing its first attempts with the given exception
+     */
+    private TestHandler.Body<SimpleRunContext> failing(int failures, Exception exception) {
+        return context -> {
+            attempts.add(System.nanoTime());
+            if (attempts.size() <= failures) {
+                throw exception;
+            }
+        };
+    }
+
+    private static RunHandlerManager manager(TestPhase phase, TestHandler.Body<SimpleRunContext> body) {
+        return new DefaultRunHandlerManager(List.of(new TestHandler<SimpleRunContext>(phase, body) {
+        }.erased()));
+    }
+
+    private enum TestPhase implements Phase {
+        RETRIED, SLOWLY_RETRIED;
+
+        @Override
+        public RetryPolicy retryPolicy() {
+            Duration backoff = this == RETRIED ? Duration.ofNanos(BACKOFF_NANOS) : Duration.ofSeconds(30);
+            return RetryPolicy.of(3, backoff).withJitter(0).retryOn(IOException.class);
+        }
+
+        @Override
+        public Phase[] getValues() {
+            return values();
+        }
+    }
+}
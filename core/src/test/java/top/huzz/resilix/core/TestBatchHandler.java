@@ -0,0 +1,51 @@
+package top.huzz.resilix.core;
+
+import jakarta.annotation.Nonnull;
+import top.huzz.resilix.handler.BatchRunHandler;
+import top.huzz.resilix.handler.PredictableRunHandler;
+import top.huzz.resilix.handler.RunHandler;
+
+import java.util.List;
+
+/**
+ * Batch handler of the tests, runs a given body on the batches of a given phase.
+ * Subclass it anonymously, e.g. {@code new TestBatchHandler<SimpleRunContext>(phase, body) {}},
+ * so that the manager can resolve the context type from its type argument.
+ *
+ * @param <C> context type
+ * @author chenji
+ * @since 1.0.2
+ */
+abstract class TestBatchHandler<C extends RunContext> extends PredictableRunHandler<C> implements BatchRunHandler<C> {
+    private final Phase phase;
+    private final Body<C> body;
+
+    TestBatchHandler(Phase phase, Body<C> body) {
+        super(null);
+        this.phase = phase;
+        this.body = body;
+    }
+
+    /**
+     * @return this handler typed the way the managers take their handlers
+     */
+    @SuppressWarnings("unchecked")
+    RunHandler<RunContext> erased() {
+        return (RunHandler<RunContext>) (RunHandler<?>) this;
+    }
+
+    @Override
+    public void handle(@Nonnull List<C> contexts) throws Exception {
+        body.handle(contexts);
+    }
+
+    @Override
+    public Phase phase() {
+        return phase;
+    }
+
+    @FunctionalInterface
+    interface Body<C extends RunContext> {
+        void handle(List<C> contexts) throws Exception;
+    }
+}
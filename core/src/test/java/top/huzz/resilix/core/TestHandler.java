@@ -0,0 +1,61 @@
+package top.huzz.resilix.core;
+
+import top.huzz.resilix.handler.PredictableRunHandler;
+import top.huzz.resilix.handler.RunHandler;
+
+import java.util.function.Consumer;
+
+/**
+ * Handler of the tests, runs a given body in a given phase.
+ * Subclass it anonymously, e.g. {@code new TestHandler<SimpleRunContext>(phase, body) {}},
+ * so that the manager can resolve the context type from its type argument.
+ *
+ * @param <C> context type
+ * @author chenji
+ * @since 1.0.2
+ */
+abstract class TestHandler<C extends RunContext> extends PredictableRunHandler<C> {
+    private final Phase phase;
+    private final Body<C> body;
+    private final Consumer<C> post;
+
+    TestHandler(Phase phase, Body<C> body) {
+        this(phase, body, context -> {
+        });
+    }
+
+    TestHandler(Phase phase, Body<C> body, Consumer<C> post) {
+        super(null);
+        this.phase = phase;
+        this.body = body;
+        this.post = post;
+    }
+
+    /**
+     * @return this handler typed the way the managers take their handlers
+     */
+    @SuppressWarnings("unchecked")
+    RunHandler<RunContext> erased() {
+        return (RunHandler<RunContext>) (RunHandler<?>) this;
+    }
+
+    @Override
+    public void handle(C context) throws Exception {
+        body.handle(context);
+    }
+
+    @Override
+    public void postHandle(C context) {
+        post.accept(context);
+    }
+
+    @Override
+    public Phase phase() {
+        return phase;
+    }
+
+    @FunctionalInterface
+    interface Body<C extends RunContext> {
+        void handle(C context) throws Exception;
+    }
+}
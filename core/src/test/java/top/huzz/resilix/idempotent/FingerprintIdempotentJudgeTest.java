@@ -0,0 +1,276 @@
+package top.huzz.resilix.idempotent;
+
+import com.google.common.hash.Hashing;
+import com.google.common.hash.PrimitiveSink;
+import jakarta.annotation.Nonnull;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class FingerprintIdempotentJudgeTest {
+    /**
+     * Sizes each segment at its minimum, 16 slots holding 12 keys
+     */
+    private static final long EXPECTED_KEYS = 64;
+    private static final Duration TTL = Duration.ofSeconds(1);
+    /**
+     * Time after which keys put with {@link #TTL} are expired, whatever the second they were put in
+     */
+    private static final long EXPIRY_MILLIS = 2100;
+
+    @Test
+    void remembersThePutKeys() {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, Duration.ofMinutes(1));
+        IdempotentKey key = () -> "a";
+
+        assertFalse(judge.judge(key));
+        judge.put(key);
+        assertTrue(judge.judge(() -> "a"));
+        assertFalse(judge.judge(() -> "b"));
+        assertFalse(judge.judge(null));
+        assertEquals(1, judge.size());
+
+        judge.destroy();
+        assertFalse(judge.judge(key));
+        assertEquals(0, judge.size());
+    }
+
+    @Test
+    void judgesAndPutsTheKeysAtOnce() {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, Duration.ofMinutes(1));
+
+        assertFalse(judge.judgeAndPut(() -> "a"));
+        assertTrue(judge.judgeAndPut(() -> "a"));
+        assertTrue(judge.judge(() -> "a"));
+        assertFalse(judge.judgeAndPut(null));
+        assertEquals(1, judge.size());
+    }
+
+    @Test
+    void remembersTheBinaryKeys() {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, Duration.ofMinutes(1));
+        BinaryIdempotentKey key = sink -> sink.putInt(1).putLong(2);
+        BinaryIdempotentKey same = sink -> sink.putInt(1).putLong(2);
+        BinaryIdempotentKey other = sink -> sink.putInt(2).putLong(1);
+
+        assertFalse(judge.judgeAndPut(key));
+        assertTrue(judge.judge(same));
+        assertFalse(judge.judge(other));
+        judge.put(new Fingerprint(1, 2));
+        assertTrue(judge.judge(new Fingerprint(1, 2)));
+        assertEquals(2, judge.size());
+    }
+
+    @Test
+    void rejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new FingerprintIdempotentJudge(0, TTL));
+        assertThrows(IllegalArgumentException.class, () -> new FingerprintIdempotentJudge(1, Duration.ofMillis(999)));
+    }
+
+    @Test
+    void forgetsTheKeysOnceTheirTimeToLiveHasPassed() throws InterruptedException {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, TTL);
+        IdempotentKey key = () -> "a";
+        judge.put(key);
+        assertTrue(judge.judge(key));
+
+        Thread.sleep(EXPIRY_MILLIS);
+
+        assertFalse(judge.judge(key));
+        assertEquals(0, judge.size());
+    }
+
+    @Test
+    void shiftsBackTheEntriesAfterARemovedOne() throws InterruptedException {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, TTL);
+        // Homes 10, 10 and 11, so b is displaced to 11 and c to 12
+        List<String> keys = keysAt(0, 10, 2);
+        IdempotentKey a = () -> keys.get(0);
+        IdempotentKey b = () -> keys.get(1);
+        IdempotentKey c = keyAt(0, 11);
+        judge.put(a);
+        judge.put(b);
+        Thread.sleep(EXPIRY_MILLIS);
+        judge.put(c);
+
+        assertShifted(judge, a, b, c);
+    }
+
+    @Test
+    void shiftsBackTheEntriesAcrossTheEndOfTheTable() throws InterruptedException {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, TTL);
+        // Second segment, homes 15, 15 and 0, so b wraps around to 0 and c is displaced to 1
+        List<String> keys = keysAt(1, 15, 2);
+        IdempotentKey a = () -> keys.get(0);
+        IdempotentKey b = () -> keys.get(1);
+        IdempotentKey c = keyAt(1, 0);
+        judge.put(a);
+        judge.put(b);
+        Thread.sleep(EXPIRY_MILLIS);
+        judge.put(c);
+
+        assertShifted(judge, a, b, c);
+    }
+
+    @Test
+    void shiftsBackTheBinaryKeysAfterARemovedOne() throws InterruptedException {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, TTL);
+        // Homes 10, 10 and 11, so b is displaced to 11 and c to 12
+        Fingerprint a = new Fingerprint(10, 1);
+        Fingerprint b = new Fingerprint(10, 2);
+        Fingerprint c = new Fingerprint(11, 3);
+        judge.put(a);
+        judge.put(b);
+        Thread.sleep(EXPIRY_MILLIS);
+        judge.put(c);
+
+        assertShifted(judge, a, b, c);
+    }
+
+    @Test
+    void shiftsBackTheBinaryKeysAcrossTheEndOfTheTable() throws InterruptedException {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, TTL);
+        // Second segment, homes 15, 15 and 0, so b wraps around to 0 and c is displaced to 1
+        long segment = 1L << 58;
+        Fingerprint a = new Fingerprint(segment | 15, 1);
+        Fingerprint b = new Fingerprint(segment | 15, 2);
+        Fingerprint c = new Fingerprint(segment, 3);
+        judge.put(a);
+        judge.put(b);
+        Thread.sleep(EXPIRY_MILLIS);
+        judge.put(c);
+
+        assertShifted(judge, a, b, c);
+    }
+
+    @Test
+    void dropsKeysWhenBoundedAndFull() {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, Duration.ofMinutes(1), true);
+        Fingerprint[] keys = new Fingerprint[20];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new Fingerprint(i, i);
+            assertFalse(judge.judgeAndPut(keys[i]));
+        }
+
+        assertEquals(12, judge.size());
+        int judged = 0;
+        for (Fingerprint key : keys) {
+            if (judge.judge(key)) {
+                judged++;
+            }
+        }
+        assertEquals(12, judged);
+        // The last key put is always kept
+        assertTrue(judge.judge(keys[keys.length - 1]));
+    }
+
+    @Test
+    void keepsTheCostOfAPutBoundedWhenBoundedAndFull() {
+        // 16384 slots holding 12288 keys in each segment
+        int capacity = 64 * 12288;
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(capacity, Duration.ofMinutes(1), true);
+        long belowCapacity = timePuts(judge, 0, capacity / 2);
+        timePuts(judge, capacity / 2, capacity);
+        long pastCapacity = timePuts(judge, 2L * capacity, capacity / 2);
+
+        assertTrue(judge.size() <= capacity);
+        assertTrue(pastCapacity < belowCapacity * 10, "Puts past capacity took " + pastCapacity / 1_000_000
+                + "ms, against " + belowCapacity / 1_000_000 + "ms below it");
+    }
+
+    @Test
+    void growsASegmentHoldingMoreKeysThanItWasSizedFor() {
+        FingerprintIdempotentJudge judge = new FingerprintIdempotentJudge(EXPECTED_KEYS, Duration.ofMinutes(1));
+        List<String> keys = keysAt(0, -1, 20);
+        for (String key : keys) {
+            judge.put(() -> key);
+        }
+
+        assertEquals(20, judge.size());
+        for (String key : keys) {
+            assertTrue(judge.judge(() -> key));
+        }
+    }
+
+    /**
+     * Judges the expired a, whose removal shifts b and c back, then checks that c is still found at its new slot
+     */
+    private static void assertShifted(FingerprintIdempotentJudge judge, IdempotentKey a, IdempotentKey b, IdempotentKey c) {
+        assertEquals(3, judge.size());
+
+        assertFalse(judge.judge(a));
+        assertEquals(2, judge.size());
+        assertTrue(judge.judge(c));
+
+        assertFalse(judge.judge(b));
+        assertEquals(1, judge.size());
+        assertTrue(judge.judge(c));
+        judge.put(a);
+        assertTrue(judge.judge(c));
+        assertEquals(2, judge.size());
+    }
+
+    /**
+     * @return nanoseconds taken to put keys spread over every segment and slot
+     */
+    private static long timePuts(FingerprintIdempotentJudge judge, long from, int count) {
+        long start = System.nanoTime();
+        for (long i = from; i < from + count; i++) {
+            judge.put(new Fingerprint(i * 0x9E3779B97F4A7C15L, i));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static IdempotentKey keyAt(int segment, int home) {
+        String key = keysAt(segment, home, 1).get(0);
+        return () -> key;
+    }
+
+    /**
+     * Finds keys whose fingerprint falls in a segment and, while the segment has its 16 initial slots, a home slot
+     *
+     * @param home home slot, -1 for any
+     */
+    private static List<String> keysAt(int segment, int home, int count) {
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; keys.size() < count; i++) {
+            String key = "key-" + i;
+            long fp1 = ByteBuffer.wrap(Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8).asBytes())
+                    .order(ByteOrder.LITTLE_ENDIAN).getLong(0);
+            if (fp1 >>> 58 == segment && (home < 0 || (fp1 & 15) == home)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Key of a chosen fingerprint, placing it in the segment and home slot wanted
+     */
+    private record Fingerprint(long fp1, long fp2) implements BinaryIdempotentKey {
+        @Override
+        public void writeTo(@Nonnull PrimitiveSink sink) {
+            sink.putLong(fp1).putLong(fp2);
+        }
+
+        @Override
+        public void hash128(@Nonnull long[] hash, int offset) {
+            hash[offset] = fp1;
+            hash[offset + 1] = fp2;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package top.huzz.resilix.idempotent;
+
+import jakarta.annotation.Nonnull;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link IdempotentJudge#judgeAndPutAll(List)} executes a key repeated in the list at its first occurrence only
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+class JudgeAndPutAllTest {
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    @Test
+    void fingerprintJudge() {
+        assertExecutedOnce(new FingerprintIdempotentJudge(1000, TTL));
+    }
+
+    @Test
+    void localBloomFilterJudge() {
+        assertExecutedOnce(new VerifiedBloomFilterJudge());
+    }
+
+    @Test
+    void nearCachedJudge() {
+        NearCachedIdempotentJudge judge = new NearCachedIdempotentJudge(new FingerprintIdempotentJudge(1000, TTL), 100, Duration.ofSeconds(10));
+
+        assertExecutedOnce(judge);
+        // The repeated keys were answered by the remote judge, the near cache knows them from then on
+        long hits = judge.getHits();
+        assertTrue(judge.judge(key("a")));
+        assertEquals(hits + 1, judge.getHits());
+    }
+
+    @Test
+    void nearCachedJudgeOfACachedKey() {
+        FingerprintIdempotentJudge remote = new FingerprintIdempotentJudge(1000, TTL);
+        NearCachedIdempotentJudge judge = new NearCachedIdempotentJudge(remote, 100, Duration.ofSeconds(10));
+        judge.put(key("a"));
+
+        assertArrayEquals(new boolean[]{true, false, true}, judge.judgeAndPutAll(keys("a", "b", "b")));
+        assertTrue(remote.judge(key("b")));
+    }
+
+    private static void assertExecutedOnce(IdempotentJudge judge) {
+        judge.put(key("p"));
+
+        boolean[] executed = judge.judgeAndPutAll(keys("a", "b", "a", null, "c", "b", "p"));
+
+        assertArrayEquals(new boolean[]{false, false, true, false, false, true, true}, executed);
+        assertArrayEquals(new boolean[]{true, true, true}, judge.judgeAll(keys("a", "b", "c")));
+        assertArrayEquals(new boolean[]{true, false}, judge.judgeAndPutAll(keys("a", "d")));
+    }
+
+    /**
+     * Local bloom filter verifying its positives against the keys put, as a subclass would against a database
+     */
+    private static final class VerifiedBloomFilterJudge extends BloomFilterIdempotentJudge {
+        private final Set<String> executed = ConcurrentHashMap.newKeySet();
+
+        VerifiedBloomFilterJudge() {
+            super(1000, 0.001, null, null, false, MAX_DURATION);
+        }
+
+        @Override
+        public void put(@Nonnull IdempotentKey key) {
+            super.put(key);
+            executed.add(key.idempotentKey());
+        }
+
+        @Override
+        protected boolean preciseJudge(IdempotentKey key) {
+            return executed.contains(key.idempotentKey());
+        }
+    }
+
+    private static List<IdempotentKey> keys(String... keys) {
+        return Arrays.stream(keys).map(JudgeAndPutAllTest::key).toList();
+    }
+
+    private static IdempotentKey key(String key) {
+        return () -> key;
+    }
+}
@@ -0,0 +1,89 @@
+package top.huzz.resilix.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author chenji
+ * @since 1.0.2
+ */
+class TokenBucketRateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long STALE = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    void grantsABurstThenSpacesThePermits() {
+        TokenBucketRateLimiter limiter = TokenBucketRateLimiter.newLocal(10, Duration.ofSeconds(1), Duration.ZERO);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.reserve(0));
+        }
+
+        assertEquals(-1, limiter.reserve(0));
+        long wait = limiter.reserve(SECOND);
+        assertTrue(wait > 0 && wait <= INTERVAL, "wait " + wait);
+        long next = limiter.reserve(SECOND);
+        assertTrue(next > wait && next <= 2 * INTERVAL, "wait " + next);
+    }
+
+    @Test
+    void rejectsInvalidLimits() {
+        assertThrows(IllegalArgumentException.class, () -> TokenBucketRateLimiter.newLocal(0, Duration.ofSeconds(1), Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> TokenBucketRateLimiter.newLocal(1, Duration.ZERO, Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> TokenBucketRateLimiter.newLocal(1, Duration.ofSeconds(1), Duration.ofSeconds(-1)));
+    }
+
+    @Test
+    void spacesLeasedPermitsOneIntervalApart() {
+        TokenBucketRateLimiter.Lease lease = new TokenBucketRateLimiter.Lease(System.nanoTime() + SECOND, INTERVAL, 3);
+
+        long first = lease.reserve(Long.MAX_VALUE, STALE);
+        long second = lease.reserve(Long.MAX_VALUE, STALE);
+        long third = lease.reserve(Long.MAX_VALUE, STALE);
+
+        assertTrue(first > SECOND - INTERVAL && first <= SECOND, "wait " + first);
+        assertTrue(second > first && second <= SECOND + INTERVAL, "wait " + second);
+        assertTrue(third > second && third <= SECOND + 2 * INTERVAL, "wait " + third);
+        assertEquals(TokenBucketRateLimiter.Lease.EXHAUSTED, lease.reserve(Long.MAX_VALUE, STALE));
+    }
+
+    @Test
+    void keepsLeasedPermitsBeyondTheMaximumWait() {
+        TokenBucketRateLimiter.Lease lease = new TokenBucketRateLimiter.Lease(System.nanoTime() + SECOND, INTERVAL, 2);
+
+        assertEquals(-1, lease.reserve(0, STALE));
+        long first = lease.reserve(Long.MAX_VALUE, STALE);
+
+        assertTrue(first > SECOND - INTERVAL && first <= SECOND, "wait " + first);
+    }
+
+    @Test
+    void grantsPermitsAlreadyDueAtOnce() {
+        TokenBucketRateLimiter.Lease lease = new TokenBucketRateLimiter.Lease(System.nanoTime() - INTERVAL, TimeUnit.MILLISECONDS.toNanos(10), 2);
+
+        assertEquals(0, lease.reserve(0, STALE));
+        assertEquals(0, lease.reserve(0, STALE));
+    }
+
+    @Test
+    void skipsStalePermits() {
+        // Permits at -10s, -9s, ... -6s, those older than 7s are stale
+        TokenBucketRateLimiter.Lease lease = new TokenBucketRateLimiter.Lease(System.nanoTime() - 10 * SECOND, SECOND, 5);
+
+        assertEquals(0, lease.reserve(0, 7 * SECOND));
+        assertEquals(TokenBucketRateLimiter.Lease.EXHAUSTED, lease.reserve(0, 7 * SECOND));
+    }
+
+    @Test
+    void dropsALeaseWhosePermitsAreAllStale() {
+        TokenBucketRateLimiter.Lease lease = new TokenBucketRateLimiter.Lease(System.nanoTime() - 10 * SECOND, SECOND, 5);
+
+        assertEquals(TokenBucketRateLimiter.Lease.EXHAUSTED, lease.reserve(Long.MAX_VALUE, 2 * SECOND));
+    }
+}
@@ -1,11 +1,20 @@
 package top.huzz.resilix.spring.boot.autoconfigure;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import top.huzz.resilix.checkpoint.CheckpointStore;
+import top.huzz.resilix.checkpoint.MappedCheckpointJournal;
 import top.huzz.resilix.core.*;
 import top.huzz.resilix.handler.RunHandler;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -17,6 +26,7 @@ import java.util.List;
  * @since 1.0.0
  */
 @Configuration
+@EnableConfigurationProperties(ResilixProperties.class)
 public class ResilixAutoConfiguration {
 
     /**
@@ -31,18 +41,51 @@ public class ResilixAutoConfiguration {
         return new RunHandlerCache(runHandlers);
     }
 
+    /**
+     * Creates a CheckpointStore bean journaling into the configured checkpoint directory.
+     *
+     * @param properties the Resilix configuration properties
+     * @return a checkpoint journal, closed with the application context
+     * @throws IOException if the journal cannot be opened
+     */
+    @Bean(name = "resilixCheckpointStore", destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "resilix", name = "checkpoint-directory")
+    public CheckpointStore checkpointStore(ResilixProperties properties) throws IOException {
+        return MappedCheckpointJournal.open(Path.of(properties.getCheckpointDirectory()));
+    }
+
     /**
      * Creates a RunHandlerManagerFactory bean using the provided RunHandlerCache.
      *
      * @param runHandlerCache the RunHandlerCache to use for handler management
+     * @param properties      the Resilix configuration properties
+     * @param checkpointStore the checkpoint store, if any
      * @return a configured DefaultRunHandlerManagerFactory instance
      */
     @Bean(name = "resilixRunHandlerManagerFactory")
     @ConditionalOnMissingBean
-    public RunHandlerManagerFactory runHandlerManagerFactory(RunHandlerCache runHandlerCache) {
-        DefaultRunHandlerManagerFactory managerFactory = new DefaultRunHandlerManagerFactory(runHandlerCache);
+    public RunHandlerManagerFactory runHandlerManagerFactory(RunHandlerCache runHandlerCache, ResilixProperties properties,
+                                                             ObjectProvider<CheckpointStore> checkpointStore) {
+        DefaultRunHandlerManagerFactory managerFactory = new DefaultRunHandlerManagerFactory(runHandlerCache, properties.getExecutionMode(), checkpointStore.getIfAvailable());
         // Initialize the RunHandlerManagerHelper with the factory instance
         RunHandlerManagerHelper.setRunHandlerManagerFactory(managerFactory);
         return managerFactory;
     }
+
+    /**
+     * Resumes the runs left unfinished in the checkpoint store once the application has started.
+     *
+     * @param runHandlerManagerFactory the RunHandlerManagerFactory
+     * @return an application runner resuming the unfinished runs
+     */
+    @Bean(name = "resilixCheckpointRecovery")
+    @ConditionalOnBean(CheckpointStore.class)
+    public ApplicationRunner checkpointRecovery(RunHandlerManagerFactory runHandlerManagerFactory) {
+        return args -> {
+            if (runHandlerManagerFactory instanceof DefaultRunHandlerManagerFactory managerFactory) {
+                managerFactory.resumeUnfinished();
+            }
+        };
+    }
 }
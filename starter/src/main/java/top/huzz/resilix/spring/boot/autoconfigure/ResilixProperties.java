@@ -0,0 +1,28 @@
+package top.huzz.resilix.spring.boot.autoconfigure;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import top.huzz.resilix.core.ExecutionMode;
+
+/**
+ * Configuration properties of the Resilix framework, bound to the {@code resilix} prefix.
+ *
+ * @author chenji
+ * @since 1.0.2
+ */
+@Getter
+@Setter
+@ConfigurationProperties(prefix = "resilix")
+public class ResilixProperties {
+    /**
+     * Default execution mode of asynchronous phases without a custom executor,
+     * e.g. {@code resilix.execution-mode=virtual_thread}
+     */
+    private ExecutionMode executionMode = ExecutionMode.POOLED;
+    /**
+     * Directory of the checkpoint journal. When set, runs are checkpointed after each successful phase
+     * and the runs left unfinished are resumed on startup, e.g. {@code resilix.checkpoint-directory=/data/resilix}
+     */
+    private String checkpointDirectory;
+}